@@ -1,6 +1,7 @@
 import groovy.json.JsonOutput
 import io.github.fourlastor.construo.Target
 import com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar
+import java.nio.file.FileSystems
 import java.nio.file.Files
 import java.nio.file.StandardCopyOption
 
@@ -63,7 +64,65 @@ tasks.withType<Test> {
     useJUnitPlatform()
 }
 
+val scaleTest by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[scaleTest.implementationConfigurationName].extendsFrom(configurations.testImplementation.get())
+configurations[scaleTest.runtimeOnlyConfigurationName].extendsFrom(configurations.testRuntimeOnly.get())
+
+// Opt-in end-to-end scale tests; not part of `check`. Override sizes and ceilings with -Plistmerging.scale.*,
+// e.g. -Plistmerging.scale.files=8 -Plistmerging.scale.min-rows-per-second=300000, and the heap with -PscaleHeap.
+tasks.register<Test>("scaleTest") {
+    group = "verification"
+    description = "Runs the tagged scale tests and appends results to build/scale/reports/results.ndjson."
+    testClassesDirs = scaleTest.output.classesDirs
+    classpath = scaleTest.runtimeClasspath
+    useJUnitPlatform {
+        includeTags("scale")
+    }
+    maxHeapSize = (findProperty("scaleHeap") as String?) ?: "2g"
+    systemProperty("listmerging.scale.dir", layout.buildDirectory.dir("scale").get().asFile.absolutePath)
+    systemProperty("listmerging.version", project.version.toString())
+    project.properties.filterKeys { it.startsWith("listmerging.scale.") }
+        .forEach { (key, value) -> systemProperty(key, value.toString()) }
+    outputs.upToDateWhen { false }
+    shouldRunAfter(tasks.test)
+}
+
+val jmhVersion = "1.37"
+
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+// Runs the JMH benchmarks; pass JMH options with -PjmhArgs, e.g. -PjmhArgs="RowParsing -p cardinality=100".
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks and writes build/reports/jmh/results.json."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+    doFirst { resultFile.parentFile.mkdirs() }
+    args("-rf", "json", "-rff", resultFile.absolutePath)
+    (findProperty("jmhArgs") as String?)
+        ?.split(" ")
+        ?.filter { it.isNotBlank() }
+        ?.let { args(it) }
+}
+
 val appName = "List-Merging"
+val cdsArchiveName = "app.jsa"
 
 construo {
     name.set(appName)
@@ -80,7 +139,10 @@ construo {
             "java.sql",
             "java.management",
             "java.scripting",
-            "jdk.unsupported"
+            "jdk.unsupported",
+            "jdk.httpserver",
+            "jdk.jfr",
+            "jdk.management"
         ))
     }
 
@@ -114,6 +176,8 @@ construo {
 
     roast {
         runOnFirstThread.set(false)
+        // Dynamic CDS archive of the application, written next to the jar by trainCdsArchive.
+        vmArgs.add("-XX:SharedArchiveFile=$cdsArchiveName")
     }
 }
 
@@ -195,3 +259,143 @@ val fixRuntimeImageWinX64 by tasks.registering {
 tasks.named("packageWinX64") {
     dependsOn(fixRuntimeImageWinX64)
 }
+
+// AppCDS: the package of the build host's target ships a dynamic CDS archive (app.jsa) next to the jar, on top of the
+// runtime's stock base archive, and the launcher maps it with -XX:SharedArchiveFile. Java 17 maps such an archive only
+// if the class path is the same string and the jar has the same size and modification time as during the dump. The
+// training therefore runs in the unpacked package with the jar it contains, through the GUI: the window merges a
+// generated corpus (listmerging.cds.training-input) and the JVM dumps the loaded classes at exit. The archive is added
+// to the package, which is unpacked once more and started through its launcher to verify that the archive is mapped.
+// Only the runtime of the build host can be trained, and the training needs a display (xvfb-run on headless Linux).
+val cdsHostTarget = System.getProperty("os.name").lowercase().let { os ->
+    when {
+        os.contains("win") -> "WinX64"
+        os.contains("mac") -> if (System.getProperty("os.arch") == "aarch64") "MacM1" else "MacX64"
+        else -> "LinuxX64"
+    }
+}
+val cdsDir = layout.buildDirectory.dir("cds")
+
+val generateCdsCorpus by tasks.registering(JavaExec::class) {
+    group = "distribution"
+    description = "Generates the input files of the CDS training merge."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("github.tilcob.app.listmerging.Launcher")
+    val corpus = cdsDir.get().dir("corpus").asFile
+    args("--generate-corpus", corpus.absolutePath, "--files", "6", "--rows", "20000",
+        "--formats", "csv,xlsx,xls", "--seed", "1")
+    outputs.dir(corpus)
+}
+
+// The dynamic archive is dumped on top of the runtime's default archive; create it if jlink did not.
+tasks.named(if (cdsHostTarget == "WinX64") "fixRuntimeImageWinX64" else "createRuntimeImage$cdsHostTarget") {
+    doLast {
+        val image = layout.buildDirectory
+            .dir("construo/runtime-image/$appName-${cdsHostTarget.replaceFirstChar { it.lowercase() }}")
+            .get().asFile
+        if (!image.resolve("lib/server/classes.jsa").exists()) {
+            val java = image.resolve(if (cdsHostTarget == "WinX64") "bin/java.exe" else "bin/java")
+            val process = ProcessBuilder(java.absolutePath, "-Xshare:dump").inheritIO().start()
+            require(process.waitFor() == 0) { "Creating the default CDS archive of $image failed" }
+        }
+    }
+}
+
+val trainCdsArchive by tasks.registering {
+    group = "distribution"
+    description = "Adds a dynamic CDS archive of a training merge in the GUI to the $cdsHostTarget package."
+    dependsOn(generateCdsCorpus)
+    mustRunAfter("package$cdsHostTarget")
+
+    doLast {
+        val packageFile = tasks.named("package$cdsHostTarget").get().outputs.files.files
+            .singleOrNull { it.extension == "zip" }
+            ?: error("No zip output of package$cdsHostTarget")
+        val workDir = cdsDir.get().asFile
+        val corpus = workDir.resolve("corpus")
+        val jarName = tasks.named<ShadowJar>("shadowJar").get().archiveFile.get().asFile.name
+        if (cdsHostTarget == "LinuxX64" && System.getenv("DISPLAY").isNullOrEmpty()) {
+            error("trainCdsArchive starts the GUI and needs a display, e.g. run the build with xvfb-run")
+        }
+
+        // Unpacks like an installer does: the entry times are kept, so the jar has the modification time it is installed
+        // with, and the launcher and runtime binaries are made executable.
+        fun unpack(into: File): File {
+            delete(into)
+            FileSystems.newFileSystem(packageFile.toPath()).use { zip ->
+                val root = zip.rootDirectories.first()
+                Files.walk(root).use { entries ->
+                    entries.forEach { entry ->
+                        val target = into.toPath().resolve(root.relativize(entry).toString())
+                        if (Files.isDirectory(entry)) {
+                            Files.createDirectories(target)
+                        } else {
+                            Files.copy(entry, target, StandardCopyOption.REPLACE_EXISTING)
+                            Files.setLastModifiedTime(target, Files.getLastModifiedTime(entry))
+                        }
+                    }
+                }
+            }
+            into.walk().filter { it.isFile && (it.parentFile.name == "bin" || it.parentFile.name == "MacOS"
+                    || it.name == appName || it.name == "jspawnhelper") }
+                .forEach { it.setExecutable(true) }
+            return into
+        }
+
+        // Copies the corpus for every run, so the merge output of one run is not input of the next.
+        fun corpusCopy(name: String): File {
+            val copy = workDir.resolve(name)
+            delete(copy)
+            corpus.copyRecursively(copy)
+            return copy
+        }
+
+        fun run(dir: File, command: List<String>, toolOptions: String? = null) {
+            val builder = ProcessBuilder(command).directory(dir).inheritIO()
+            toolOptions?.let { builder.environment()["JAVA_TOOL_OPTIONS"] = it }
+            require(builder.start().waitFor() == 0) { "Command failed: ${command.joinToString(" ")}" }
+        }
+
+        val training = unpack(workDir.resolve("install"))
+        val jar = training.walk().single { it.isFile && it.name == jarName }
+        val java = training.walk().single { it.isFile && (it.name == "java" || it.name == "java.exe") }
+        run(jar.parentFile, listOf(java.absolutePath,
+            "-XX:ArchiveClassesAtExit=$cdsArchiveName",
+            "-Dlistmerging.cds.training-input=${corpusCopy("training-input").absolutePath}",
+            "-Dlistmerging.export.columnar=true",
+            "-cp", jarName, "github.tilcob.app.listmerging.Launcher"))
+        val archive = jar.resolveSibling(cdsArchiveName)
+        require(archive.exists()) { "The training merge did not write $archive" }
+
+        FileSystems.newFileSystem(packageFile.toPath()).use { zip ->
+            val jarEntry = Files.walk(zip.rootDirectories.first()).use { entries ->
+                entries.filter { it.fileName?.toString() == jarName }.findFirst().orElseThrow()
+            }
+            Files.copy(archive.toPath(), jarEntry.resolveSibling(cdsArchiveName), StandardCopyOption.REPLACE_EXISTING)
+        }
+
+        // -Xshare:on fails instead of running without the archive if the launcher cannot map it.
+        val verify = unpack(workDir.resolve("verify"))
+        val launcher = verify.walk().single { it.isFile && (it.name == appName || it.name == "$appName.exe") }
+        val classLoadLog = workDir.resolve("class-load.log")
+        run(launcher.parentFile, listOf(launcher.absolutePath),
+            "-Xshare:on -Xlog:class+load=info:file=${classLoadLog.absolutePath} " +
+                "-Dlistmerging.cds.training-input=${corpusCopy("verify-input").absolutePath} " +
+                "-Dlistmerging.export.columnar=true")
+        val loaded = classLoadLog.readLines()
+        fun archivedClasses(vararg packages: String) = loaded.count { line ->
+            packages.any { " $it." in line } && line.endsWith("source: shared objects file (top)")
+        }
+        val appClasses = archivedClasses("github.tilcob.app.listmerging")
+        val libraryClasses = archivedClasses("org.apache.poi", "com.fasterxml.jackson", "com.opencsv")
+        require(appClasses > 0 && libraryClasses > 0) {
+            "The launcher loaded no application or library classes from $cdsArchiveName, see $classLoadLog"
+        }
+        println("Added $cdsArchiveName to $packageFile; the launcher loaded $appClasses application and " +
+            "$libraryClasses library classes from it")
+    }
+}
+
+tasks.named("package$cdsHostTarget") {
+    finalizedBy(trainCdsArchive)
+}
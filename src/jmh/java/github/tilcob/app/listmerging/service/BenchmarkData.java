@@ -0,0 +1,123 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic input data for the benchmarks: BOM-like rows with a part number, description, supplier and a
+ * quantity that is summed. {@code cardinality} is the number of distinct grouping keys.
+ */
+final class BenchmarkData {
+    static final List<String> COLUMNS = List.of("Part", "Description", "Supplier", "Qty");
+    private static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    static HeaderDefinition header() {
+        return new HeaderDefinition("Bench", COLUMNS, null, HeaderDefinition.HeaderPosition.FIRST, "Qty", null);
+    }
+
+    /**
+     * The benchmark header preceded by {@code others} non-matching definitions, so header detection has to scan.
+     */
+    static List<HeaderDefinition> headers(int others) {
+        List<HeaderDefinition> headers = new ArrayList<>();
+        for (int i = 0; i < others; i++) {
+            headers.add(new HeaderDefinition("Other" + i, List.of("Id" + i, "Name", "Value" + i), null,
+                    HeaderDefinition.HeaderPosition.FIRST, "Value" + i, null));
+        }
+        headers.add(header());
+        return headers;
+    }
+
+    static List<List<String>> rows(int count, int cardinality) {
+        Random random = new Random(SEED);
+        List<List<String>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int key = random.nextInt(Math.max(1, cardinality));
+            String qty = String.format(Locale.ROOT, "%d,%d", 1 + random.nextInt(500), random.nextInt(10));
+            rows.add(List.of("P-" + key, "Part " + key, "S" + key % 17, qty));
+        }
+        return rows;
+    }
+
+    /**
+     * Writes {@code rows} rows split over {@code files} CSV or XLSX files into {@code dir}.
+     */
+    static List<File> writeFiles(Path dir, String format, int rows, int cardinality, int files) throws IOException {
+        List<List<String>> data = rows(rows, cardinality);
+        List<File> written = new ArrayList<>();
+        int perFile = (rows + files - 1) / files;
+        for (int f = 0; f < files; f++) {
+            List<List<String>> slice = data.subList(Math.min(rows, f * perFile), Math.min(rows, (f + 1) * perFile));
+            File file = dir.resolve("input-" + f + "." + format).toFile();
+            if (format.equals("xlsx")) {
+                writeXlsx(file, slice);
+            } else {
+                writeCsv(file, slice);
+            }
+            written.add(file);
+        }
+        return written;
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static void writeCsv(File file, List<List<String>> rows) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write(String.join(";", COLUMNS));
+            out.write('\n');
+            for (List<String> row : rows) {
+                out.write(String.join(";", row));
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void writeXlsx(File file, List<List<String>> rows) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            Sheet sheet = workbook.createSheet("Data");
+            writeRow(sheet.createRow(0), COLUMNS);
+            for (int i = 0; i < rows.size(); i++) {
+                writeRow(sheet.createRow(i + 1), rows.get(i));
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private static void writeRow(Row row, List<String> cells) {
+        for (int i = 0; i < cells.size(); i++) {
+            row.createCell(i).setCellValue(cells.get(i));
+        }
+    }
+}
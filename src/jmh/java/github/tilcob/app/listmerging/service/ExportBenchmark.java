@@ -0,0 +1,55 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ExportService#export} and {@link ExportService#exportColumnar} of a merge result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExportBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"100", "10000"})
+    public int cardinality;
+
+    @Param({"xlsx", "columnar"})
+    public String format;
+
+    private final ExportService exportService = new ExportService();
+    private Path dir;
+    private Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("export-bench");
+        List<File> inputs = BenchmarkData.writeFiles(dir, "csv", rows, cardinality, 1);
+        merged = new MergeService().merge(inputs, BenchmarkData.headers(0));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteTree(dir);
+    }
+
+    @Benchmark
+    public File export() throws Exception {
+        return format.equals("columnar")
+                ? exportService.exportColumnar(merged, dir.toString())
+                : exportService.export(merged, dir.toString());
+    }
+}
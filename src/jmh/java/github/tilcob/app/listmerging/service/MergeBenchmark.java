@@ -0,0 +1,57 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MergeService#merge(List, List)} over CSV and XLSX inputs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"100", "10000"})
+    public int cardinality;
+
+    @Param({"1", "8"})
+    public int files;
+
+    @Param({"csv", "xlsx"})
+    public String format;
+
+    private final MergeService mergeService = new MergeService();
+    private Path dir;
+    private List<File> inputs;
+    private List<HeaderDefinition> headers;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("merge-bench");
+        inputs = BenchmarkData.writeFiles(dir, format, rows, cardinality, files);
+        headers = BenchmarkData.headers(20);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteTree(dir);
+    }
+
+    @Benchmark
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> merge() throws Exception {
+        return mergeService.merge(inputs, headers);
+    }
+}
@@ -0,0 +1,60 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row hot paths of {@link MergeService}: sum parsing, grouping-key construction and header detection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RowParsingBenchmark {
+    private static final int ROWS = 4096;
+
+    @Param({"100", "10000"})
+    public int cardinality;
+
+    @Param({"1", "20"})
+    public int headerDefinitions;
+
+    private final MergeService mergeService = new MergeService();
+    private List<List<String>> rows;
+    private List<HeaderDefinition> headers;
+    private MergeService.SumConfig sumConfig;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        rows = BenchmarkData.rows(ROWS, cardinality);
+        headers = BenchmarkData.headers(headerDefinitions - 1);
+        sumConfig = mergeService.buildSumConfig(BenchmarkData.header());
+    }
+
+    @Benchmark
+    public BigDecimal parseSumValue() {
+        return mergeService.parseSumValue(nextRow(), sumConfig);
+    }
+
+    @Benchmark
+    public List<String> buildGroupingKey() {
+        return mergeService.buildGroupingKey(nextRow(), sumConfig.columnIndex());
+    }
+
+    @Benchmark
+    public HeaderDefinition chooseHeader() {
+        return mergeService.chooseHeader(BenchmarkData.COLUMNS, nextRow(), headers);
+    }
+
+    private List<String> nextRow() {
+        next = (next + 1) & (ROWS - 1);
+        return rows.get(next);
+    }
+}
@@ -0,0 +1,71 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.model.ValidationContext;
+import github.tilcob.app.listmerging.model.ValidationReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MergeValidationService#validate} without reference aggregation, with a detailed reference collected
+ * during the merge, and with reference fingerprints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ValidationBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"100", "10000"})
+    public int cardinality;
+
+    @Param({"1", "8"})
+    public int files;
+
+    @Param({"off", "detailed", "fingerprint"})
+    public String reference;
+
+    private final MergeValidationService validationService = new MergeValidationService();
+    private Path dir;
+    private List<File> inputs;
+    private List<HeaderDefinition> headers;
+    private Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged;
+    private ValidationContext context;
+    private ReferenceAggregator aggregator;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("validation-bench");
+        inputs = BenchmarkData.writeFiles(dir, "csv", rows, cardinality, files);
+        headers = BenchmarkData.headers(0);
+        boolean enabled = !reference.equals("off");
+        ValidationContext.ReferenceMode mode = reference.equals("fingerprint")
+                ? ValidationContext.ReferenceMode.FINGERPRINT
+                : ValidationContext.ReferenceMode.DETAILED;
+        context = new ValidationContext(Map.of(), null, 2, true, enabled, mode);
+        aggregator = enabled ? new ReferenceAggregator(headers, mode) : null;
+        merged = new MergeService().merge(inputs, headers,
+                aggregator == null ? MergeService.RowListener.NONE : aggregator);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteTree(dir);
+    }
+
+    @Benchmark
+    public ValidationReport validate() {
+        return validationService.validate(merged, context, aggregator, inputs, headers);
+    }
+}
@@ -1,13 +1,58 @@
 package github.tilcob.app.listmerging;
 
+import com.opencsv.CSVParserBuilder;
+import github.tilcob.app.listmerging.controller.MainController;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.tasks.MergeExportTask;
+import javafx.application.Platform;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class Application extends javafx.application.Application {
+    private static final Logger log = LoggerFactory.getLogger(Application.class);
+    private static final String[] PRELOADED_CLASSES = {
+            "github.tilcob.app.listmerging.service.MergeService",
+            "github.tilcob.app.listmerging.service.ExportService",
+            "org.apache.poi.ss.usermodel.WorkbookFactory",
+            "org.apache.poi.xssf.streaming.SXSSFWorkbook",
+            "org.apache.poi.xssf.usermodel.XSSFWorkbook",
+            "org.apache.poi.hssf.usermodel.HSSFWorkbook",
+            "com.opencsv.CSVReaderBuilder"
+    };
+    /**
+     * Folder whose CSV and Excel files are merged right after startup, after which the application exits. The
+     * packaging build uses it to record the classes of a merge started from the window into the CDS archive.
+     */
+    private static final String TRAINING_INPUT_PROPERTY = "listmerging.cds.training-input";
+
+    private CompletableFuture<HeaderLoader> headerLoader;
+
+    /**
+     * Loads the header definitions and the classes of the merge path on a background thread while JavaFX
+     * starts, so the first merge does not pay for them on the FX thread.
+     */
+    @Override
+    public void init() {
+        headerLoader = CompletableFuture.supplyAsync(Application::preload, runnable -> {
+            Thread thread = new Thread(runnable, "startup-preload");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
     @Override
     public void start(Stage stage) throws IOException {
         Thread.currentThread().setContextClassLoader(Application.class.getClassLoader());
@@ -18,9 +63,68 @@ public class Application extends javafx.application.Application {
         }
 
         FXMLLoader fxmlLoader = new FXMLLoader(fxml);
+        fxmlLoader.setControllerFactory(type -> type == MainController.class
+                ? new MainController(headerLoader)
+                : createController(type));
         Scene scene = new Scene(fxmlLoader.load(), 320, 240);
         stage.setTitle("Merging Files");
         stage.setScene(scene);
         stage.show();
+
+        String trainingInput = System.getProperty(TRAINING_INPUT_PROPERTY);
+        if (trainingInput != null) {
+            trainingMerge(fxmlLoader.getController(), Path.of(trainingInput));
+        }
+    }
+
+    /**
+     * Merges the files in {@code folder} through the window's merge path and exits when the merge is done, with
+     * status 1 if it did not succeed.
+     */
+    private static void trainingMerge(MainController controller, Path folder) throws IOException {
+        List<File> files;
+        try (Stream<Path> paths = Files.list(folder)) {
+            files = paths.filter(path -> path.getFileName().toString().matches("(?i).+\\.(csv|xlsx|xls)"))
+                    .sorted()
+                    .map(Path::toFile)
+                    .toList();
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No training input in " + folder);
+        }
+        MergeExportTask task = controller.merge(files);
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> Platform.exit());
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> System.exit(1));
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED, e -> System.exit(1));
+    }
+
+    private static HeaderLoader preload() {
+        long start = System.nanoTime();
+        HeaderLoader loader = new HeaderLoader();
+        int headers = loader.getHeaders().size();
+        try {
+            loader.watch();
+        } catch (IOException e) {
+            log.warn("Cannot watch header folder {}, changes need a restart", loader.externalFolder(), e);
+        }
+        ClassLoader classLoader = Application.class.getClassLoader();
+        for (String className : PRELOADED_CLASSES) {
+            try {
+                Class.forName(className, true, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.debug("Could not preload {}", className, e);
+            }
+        }
+        new CSVParserBuilder().withSeparator(';').build();
+        log.info("Preloaded {} header definitions in {} ms", headers, (System.nanoTime() - start) / 1_000_000);
+        return loader;
+    }
+
+    private static Object createController(Class<?> type) {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create controller " + type.getName(), e);
+        }
     }
 }
@@ -1,7 +1,35 @@
 package github.tilcob.app.listmerging;
 
+import github.tilcob.app.listmerging.cli.BatchCli;
+import github.tilcob.app.listmerging.cli.CorpusGenerator;
+import github.tilcob.app.listmerging.cli.MergeServer;
+import github.tilcob.app.listmerging.cli.ShardCli;
+import github.tilcob.app.listmerging.cli.WatchDaemon;
+
+import java.util.Arrays;
+
 public class Launcher {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchCli.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--watch")) {
+            WatchDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            MergeServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--shard")) {
+            ShardCli.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate-corpus")) {
+            CorpusGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         Thread.currentThread().setContextClassLoader(Launcher.class.getClassLoader());
         javafx.application.Application.launch(Application.class, args);
     }
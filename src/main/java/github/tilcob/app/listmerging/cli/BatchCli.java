@@ -0,0 +1,415 @@
+package github.tilcob.app.listmerging.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.ValidationContext;
+import github.tilcob.app.listmerging.model.ValidationReport;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.service.MergeValidationService;
+import github.tilcob.app.listmerging.service.ValidationReportWriter;
+import github.tilcob.app.listmerging.tasks.MergeJob;
+import github.tilcob.app.listmerging.tasks.MergeJobOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch entry point that runs {@link MergeJob}s without initializing JavaFX.
+ * <p>
+ * A single job is described by the command-line options. With {@code --jobs} a JSON array (or one JSON object
+ * per line) of further jobs is read; their fields use the option names without dashes and override the
+ * options given on the command line. All jobs share the services and header definitions of one JVM.
+ * For every job one JSON line with its status and stage timings is written to stdout or the
+ * {@code --timings} file.
+ * </p>
+ */
+public final class BatchCli {
+    private static final Logger log = LoggerFactory.getLogger(BatchCli.class);
+    static final int EXIT_OK = 0;
+    static final int EXIT_JOB_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: BatchCli [options] [input ...]",
+            "  -i, --input <file|glob>   input file or glob, e.g. 'data/**/*.csv' (repeatable)",
+            "      --headers <dir>       directory with external header definitions (default: headers)",
+            "  -o, --output <dir>        output directory (default: directory of the first input)",
+            "      --format <f>          xlsx | columnar | both (default: xlsx)",
+            "      --mode <m>            staged | pipelined | speculative (default: staged)",
+            "      --snapshot <s>        off | write | append (default: off)",
+            "      --report <r>          json | ndjson | none (default: json)",
+            "      --reference <r>       off | detailed | fingerprint (default: off)",
+            "      --warn-mode           export even if validation fails",
+            "      --require-known-headers",
+            "                            abort before parsing if a file matches no header definition",
+            "      --jobs <file>         JSON array or NDJSON file with one job object per entry",
+            "      --timings <file>      append the JSON timing lines to a file instead of stdout",
+            "  -h, --help                show this help");
+
+    private final PrintStream err;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MergeService mergeService = new MergeService();
+    private final ExportService exportService = new ExportService();
+    private final MergeValidationService mergeValidationService = new MergeValidationService();
+    private final Map<Path, HeaderLoader> headerLoaders = new HashMap<>();
+    private PrintStream out;
+
+    BatchCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new BatchCli(System.out, System.err).run(args));
+    }
+
+    int run(String[] args) {
+        List<JobArgs> jobs;
+        String timingsFile;
+        try {
+            JobArgs defaults = new JobArgs();
+            List<String> rest = defaults.apply(List.of(args));
+            if (defaults.help) {
+                out.println(USAGE);
+                return EXIT_OK;
+            }
+            timingsFile = defaults.timings;
+            jobs = defaults.jobsFile == null ? List.of(defaults) : readJobs(Path.of(defaults.jobsFile), defaults);
+            if (!rest.isEmpty()) {
+                throw new IllegalArgumentException("Unknown option: " + rest.get(0));
+            }
+            for (JobArgs job : jobs) {
+                job.validate();
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        PrintStream timingsOut = out;
+        try {
+            if (timingsFile != null) {
+                OutputStream stream = Files.newOutputStream(Path.of(timingsFile),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                timingsOut = new PrintStream(stream, true, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            err.println("Error: cannot open timings file: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        PrintStream previousOut = out;
+        out = timingsOut;
+        try {
+            int exitCode = EXIT_OK;
+            for (int i = 0; i < jobs.size(); i++) {
+                if (!runJob(i + 1, jobs.get(i))) {
+                    exitCode = EXIT_JOB_FAILED;
+                }
+            }
+            return exitCode;
+        } finally {
+            out = previousOut;
+            if (timingsOut != previousOut) {
+                timingsOut.close();
+            }
+        }
+    }
+
+    private boolean runJob(int number, JobArgs job) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("job", number);
+        long start = System.nanoTime();
+        try {
+            List<File> files = expandInputs(job.inputs);
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No input files match " + job.inputs);
+            }
+            File outputDir = job.output == null
+                    ? files.get(0).getAbsoluteFile().getParentFile()
+                    : new File(job.output);
+            Files.createDirectories(outputDir.toPath());
+            line.put("inputs", files.size());
+
+            MergeJob mergeJob = new MergeJob(
+                    files,
+                    outputDir,
+                    headerLoader(job.headers),
+                    mergeService,
+                    exportService,
+                    mergeValidationService,
+                    job.toOptions(),
+                    objectMapper);
+            MergeJob.Result result = mergeJob.run(MergeJob.Listener.NONE);
+
+            ValidationReport report = result.validationReport();
+            line.put("status", "ok");
+            line.put("exportFile", result.exportFile().getAbsolutePath());
+            line.put("valid", report != null && report.valid());
+            line.put("issues", report == null ? 0 : report.totalIssueCount());
+            if (result.validationReportFile() != null) {
+                line.put("reportFile", result.validationReportFile().getAbsolutePath());
+            }
+            line.put("stageMillis", result.stageMillis());
+            line.put("totalMillis", result.totalMillis());
+            return true;
+        } catch (Exception e) {
+            log.error("Batch job {} failed", number, e);
+            line.put("status", "failed");
+            line.put("error", String.valueOf(e.getMessage()));
+            line.put("totalMillis", (System.nanoTime() - start) / 1_000_000);
+            return false;
+        } finally {
+            writeLine(line);
+        }
+    }
+
+    private void writeLine(Map<String, Object> line) {
+        try {
+            out.println(objectMapper.writeValueAsString(line));
+        } catch (IOException e) {
+            err.println("Error: cannot write timing line: " + e.getMessage());
+        }
+    }
+
+    private HeaderLoader headerLoader(String headersDir) {
+        Path folder = Path.of(headersDir == null ? "headers" : headersDir).toAbsolutePath().normalize();
+        return headerLoaders.computeIfAbsent(folder, HeaderLoader::new);
+    }
+
+    private List<JobArgs> readJobs(Path jobsFile, JobArgs defaults) throws IOException {
+        List<JobArgs> jobs = new ArrayList<>();
+        JsonNode root;
+        try (MappingIterator<JsonNode> values = objectMapper.readerFor(JsonNode.class).readValues(jobsFile.toFile())) {
+            List<JsonNode> nodes = values.readAll();
+            root = nodes.size() == 1 && nodes.get(0).isArray() ? nodes.get(0) : objectMapper.valueToTree(nodes);
+        }
+        for (JsonNode node : root) {
+            if (!node.isObject()) {
+                throw new IllegalArgumentException("Job entries in " + jobsFile + " must be JSON objects.");
+            }
+            jobs.add(JobArgs.fromJson(node, defaults));
+        }
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("No jobs found in " + jobsFile);
+        }
+        return jobs;
+    }
+
+    private static List<String> toArgs(JsonNode job) {
+        List<String> args = new ArrayList<>();
+        job.fields().forEachRemaining(field -> {
+            String option = "--" + field.getKey().replaceAll("([a-z])([A-Z])", "$1-$2").toLowerCase(Locale.ROOT);
+            JsonNode value = field.getValue();
+            if (value.isBoolean()) {
+                if (value.booleanValue()) {
+                    args.add(option);
+                }
+            } else if (value.isArray()) {
+                value.forEach(element -> {
+                    args.add(option);
+                    args.add(element.asText());
+                });
+            } else {
+                args.add(option);
+                args.add(value.asText());
+            }
+        });
+        return args;
+    }
+
+    /**
+     * Expands file names and globs. Globs are matched relative to their longest directory prefix without
+     * wildcards; the result is sorted and free of duplicates.
+     */
+    static List<File> expandInputs(List<String> patterns) throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            if (!hasWildcard(pattern)) {
+                File file = new File(pattern);
+                if (!file.isFile()) {
+                    throw new IllegalArgumentException("Input file not found: " + pattern);
+                }
+                files.add(file);
+                continue;
+            }
+
+            String normalized = pattern.replace('\\', '/');
+            String[] segments = normalized.split("/");
+            int firstWildcard = 0;
+            while (firstWildcard < segments.length && !hasWildcard(segments[firstWildcard])) {
+                firstWildcard++;
+            }
+            String basePart = String.join("/", Arrays.copyOfRange(segments, 0, firstWildcard));
+            Path base = Path.of(basePart.isEmpty() ? (normalized.startsWith("/") ? "/" : ".") : basePart);
+            String glob = String.join("/", Arrays.copyOfRange(segments, firstWildcard, segments.length));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            if (!Files.isDirectory(base)) {
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(base)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(path -> matcher.matches(base.relativize(path)))
+                        .sorted()
+                        .forEach(path -> files.add(path.toFile()));
+            }
+        }
+        return List.copyOf(files);
+    }
+
+    private static boolean hasWildcard(String value) {
+        return value.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    /**
+     * Mutable option set of one job while the arguments are parsed.
+     */
+    static final class JobArgs {
+        private final List<String> inputs = new ArrayList<>();
+        private String headers;
+        private String output;
+        private MergeJobOptions.ExportFormat format = MergeJobOptions.ExportFormat.XLSX;
+        private MergeJobOptions.ExecutionMode mode = MergeJobOptions.ExecutionMode.STAGED;
+        private MergeJobOptions.SnapshotMode snapshot = MergeJobOptions.SnapshotMode.OFF;
+        private String report = "json";
+        private String reference = "off";
+        private boolean warnMode;
+        private boolean requireKnownHeaders;
+        private boolean help;
+        private String jobsFile;
+        private String timings;
+
+        /**
+         * Applies the options and returns the arguments that are not options of this parser.
+         */
+        private List<String> apply(List<String> args) {
+            List<String> rest = new ArrayList<>();
+            Iterator<String> it = args.iterator();
+            while (it.hasNext()) {
+                String arg = it.next();
+                switch (arg) {
+                    case "-i", "--input" -> inputs.add(value(arg, it));
+                    case "--headers" -> headers = value(arg, it);
+                    case "-o", "--output" -> output = value(arg, it);
+                    case "--format" -> format = MergeJobOptions.ExportFormat.fromProperty(value(arg, it));
+                    case "--mode" -> mode = MergeJobOptions.ExecutionMode.fromProperty(value(arg, it));
+                    case "--snapshot" -> snapshot = MergeJobOptions.SnapshotMode.fromProperty(value(arg, it));
+                    case "--report" -> report = value(arg, it).trim().toLowerCase(Locale.ROOT);
+                    case "--reference" -> reference = value(arg, it).trim().toLowerCase(Locale.ROOT);
+                    case "--warn-mode" -> warnMode = true;
+                    case "--require-known-headers" -> requireKnownHeaders = true;
+                    case "--jobs" -> jobsFile = value(arg, it);
+                    case "--timings" -> timings = value(arg, it);
+                    case "-h", "--help" -> help = true;
+                    default -> {
+                        if (arg.startsWith("-")) {
+                            rest.add(arg);
+                        } else {
+                            inputs.add(arg);
+                        }
+                    }
+                }
+            }
+            return rest;
+        }
+
+        /**
+         * Creates a job from a JSON object whose fields are option names without dashes, using {@code defaults}
+         * for the missing ones.
+         */
+        static JobArgs fromJson(JsonNode node, JobArgs defaults) {
+            if (!node.isObject()) {
+                throw new IllegalArgumentException("Job entries must be JSON objects.");
+            }
+            JobArgs job = defaults == null ? new JobArgs() : defaults.copyForJob();
+            List<String> rest = job.apply(toArgs(node));
+            if (!rest.isEmpty()) {
+                throw new IllegalArgumentException("Unknown job field: " + rest.get(0));
+            }
+            return job;
+        }
+
+        List<String> inputs() {
+            return inputs;
+        }
+
+        String headers() {
+            return headers;
+        }
+
+        String output() {
+            return output;
+        }
+
+        void output(String output) {
+            this.output = output;
+        }
+
+        private JobArgs copyForJob() {
+            JobArgs copy = new JobArgs();
+            copy.headers = headers;
+            copy.output = output;
+            copy.format = format;
+            copy.mode = mode;
+            copy.snapshot = snapshot;
+            copy.report = report;
+            copy.reference = reference;
+            copy.warnMode = warnMode;
+            copy.requireKnownHeaders = requireKnownHeaders;
+            return copy;
+        }
+
+        void validate() {
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("No input files given.");
+            }
+            if (!List.of("json", "ndjson", "none").contains(report)) {
+                throw new IllegalArgumentException("Unknown report format: " + report);
+            }
+            if (!List.of("off", "detailed", "fingerprint").contains(reference)) {
+                throw new IllegalArgumentException("Unknown reference mode: " + reference);
+            }
+        }
+
+        MergeJobOptions toOptions() {
+            boolean referenceEnabled = !reference.equals("off");
+            ValidationContext validationContext = new ValidationContext(
+                    Map.of(),
+                    null,
+                    2,
+                    true,
+                    referenceEnabled,
+                    referenceEnabled
+                            ? ValidationContext.ReferenceMode.valueOf(reference.toUpperCase(Locale.ROOT))
+                            : null);
+            return new MergeJobOptions(
+                    validationContext,
+                    warnMode,
+                    !report.equals("none"),
+                    report.equals("none") ? null : ValidationReportWriter.Format.fromProperty(report),
+                    format,
+                    mode,
+                    snapshot,
+                    requireKnownHeaders);
+        }
+
+        private static String value(String option, Iterator<String> it) {
+            if (!it.hasNext()) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            return it.next();
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package github.tilcob.app.listmerging.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.apache.commons.math3.distribution.ZipfDistribution;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Generates a seeded corpus of synthetic bills of materials for performance tests.
+ * <p>
+ * The files imitate the in-built Piping and SolidWorks Montage exports as CSV, {@code .xlsx} or {@code .xls},
+ * with the header in the first or last row, alias, case and typo variants of the header, and blank trailing rows.
+ * Grouping keys are drawn from {@code cardinality} distinct parts and, like the quantities, follow a Zipf
+ * distribution with the given exponent ({@code 0} draws them uniformly). Every file uses its own random generator
+ * derived from the seed, so the same {@link Spec} always produces the same bytes.
+ * </p>
+ * <p>
+ * Next to the files a {@code corpus.json} manifest lists every file with its rows and the sum of its quantities,
+ * and the expected totals per header definition. Files with a typo in their header do not match a definition
+ * and are left out of the totals.
+ * </p>
+ */
+public final class CorpusGenerator {
+    public static final String MANIFEST_FILE_NAME = "corpus.json";
+    static final int XLS_MAX_ROWS = 65_536;
+    private static final int MAX_QUANTITY = 500;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: CorpusGenerator [options] <output dir>",
+            "  -o, --output <dir>        output directory",
+            "      --files <n>           number of files (default: 10)",
+            "      --rows <n>            data rows per file (default: 10000)",
+            "      --cardinality <n>     distinct parts per style (default: 1000)",
+            "      --zipf <s>            Zipf exponent of keys and quantities, 0 = uniform (default: 1.0)",
+            "      --formats <list>      csv,xlsx,xls (default: csv)",
+            "      --styles <list>       piping,montage (default: piping,montage)",
+            "      --decimals <d>        integer | comma | dot | unit | mixed (default: mixed)",
+            "      --alias-share <p>     share of files with an alias header (default: 0.2)",
+            "      --typo-share <p>      share of files with a misspelled header (default: 0)",
+            "      --blank-rows <n>      maximum blank trailing rows per file (default: 3)",
+            "      --seed <n>            random seed (default: 42)",
+            "  -h, --help                show this help");
+
+    private final Spec spec;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public CorpusGenerator(Spec spec) {
+        this.spec = Objects.requireNonNull(spec, "spec");
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Path output = null;
+        Spec spec;
+        try {
+            Spec defaults = Spec.defaults();
+            long seed = defaults.seed();
+            int files = defaults.files();
+            int rows = defaults.rowsPerFile();
+            int cardinality = defaults.cardinality();
+            double zipf = defaults.zipfExponent();
+            List<FileFormat> formats = defaults.formats();
+            List<Style> styles = defaults.styles();
+            DecimalStyle decimals = defaults.decimals();
+            double aliasShare = defaults.aliasShare();
+            double typoShare = defaults.typoShare();
+            int blankRows = defaults.maxBlankRows();
+
+            Iterator<String> it = List.of(args).iterator();
+            while (it.hasNext()) {
+                String arg = it.next();
+                switch (arg) {
+                    case "-o", "--output" -> output = Path.of(value(arg, it));
+                    case "--files" -> files = Integer.parseInt(value(arg, it));
+                    case "--rows" -> rows = Integer.parseInt(value(arg, it));
+                    case "--cardinality" -> cardinality = Integer.parseInt(value(arg, it));
+                    case "--zipf" -> zipf = Double.parseDouble(value(arg, it));
+                    case "--formats" -> formats = list(value(arg, it), FileFormat::fromProperty);
+                    case "--styles" -> styles = list(value(arg, it), Style::fromProperty);
+                    case "--decimals" -> decimals = DecimalStyle.fromProperty(value(arg, it));
+                    case "--alias-share" -> aliasShare = Double.parseDouble(value(arg, it));
+                    case "--typo-share" -> typoShare = Double.parseDouble(value(arg, it));
+                    case "--blank-rows" -> blankRows = Integer.parseInt(value(arg, it));
+                    case "--seed" -> seed = Long.parseLong(value(arg, it));
+                    case "-h", "--help" -> {
+                        out.println(USAGE);
+                        return BatchCli.EXIT_OK;
+                    }
+                    default -> {
+                        if (arg.startsWith("-") || output != null) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        output = Path.of(arg);
+                    }
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("No output directory given.");
+            }
+            spec = new Spec(seed, files, rows, cardinality, zipf, formats, styles, decimals,
+                    aliasShare, typoShare, blankRows);
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE);
+            return BatchCli.EXIT_USAGE;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Manifest manifest = new CorpusGenerator(spec).generate(output);
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("output", output.toAbsolutePath().toString());
+            line.put("files", manifest.files().size());
+            line.put("rows", manifest.files().stream().mapToLong(GeneratedFile::rows).sum());
+            line.put("bytes", manifest.files().stream().mapToLong(GeneratedFile::bytes).sum());
+            line.put("totalMillis", (System.nanoTime() - start) / 1_000_000);
+            out.println(new ObjectMapper().writeValueAsString(line));
+            return BatchCli.EXIT_OK;
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+            return BatchCli.EXIT_JOB_FAILED;
+        }
+    }
+
+    /**
+     * Writes the corpus and its manifest into {@code dir}, replacing files of the same name.
+     */
+    public Manifest generate(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<GeneratedFile> files = new ArrayList<>(spec.files());
+        for (int i = 0; i < spec.files(); i++) {
+            files.add(generateFile(dir, i));
+        }
+        Manifest manifest = new Manifest(spec, files);
+        objectMapper.writerWithDefaultPrettyPrinter()
+                .writeValue(dir.resolve(MANIFEST_FILE_NAME).toFile(), manifest.toMap());
+        return manifest;
+    }
+
+    private GeneratedFile generateFile(Path dir, int index) throws IOException {
+        RandomGenerator random = new Well19937c(spec.seed() * 31 + index);
+        FileFormat format = spec.formats().get(index % spec.formats().size());
+        Style style = spec.styles().get(index / spec.formats().size() % spec.styles().size());
+        HeaderVariant variant = chooseVariant(random, style);
+        List<String> header = variant.apply(style, random);
+
+        int blankRows = spec.maxBlankRows() == 0 ? 0 : random.nextInt(spec.maxBlankRows() + 1);
+        int rows = spec.rowsPerFile();
+        if (format == FileFormat.XLS) {
+            rows = Math.min(rows, XLS_MAX_ROWS - 1 - blankRows);
+        }
+
+        String name = String.format(Locale.ROOT, "%s-%04d.%s", style.filePrefix, index + 1, format.extension);
+        Path file = dir.resolve(name);
+        IntSampler keys = sampler(random, spec.cardinality());
+        IntSampler quantities = sampler(random, MAX_QUANTITY);
+        BigDecimal sum = BigDecimal.ZERO;
+        try (RowSink sink = openSink(file, format)) {
+            if (style.position == HeaderDefinition.HeaderPosition.FIRST) {
+                sink.row(header);
+            }
+            for (int r = 0; r < rows; r++) {
+                DecimalStyle decimals = spec.decimals().resolve(random);
+                BigDecimal quantity = BigDecimal.valueOf(quantities.sample() + 1);
+                if (decimals != DecimalStyle.INTEGER) {
+                    quantity = quantity.add(BigDecimal.valueOf(random.nextInt(10), 1));
+                }
+                sum = sum.add(quantity);
+                sink.row(style.row(keys.sample(), decimals.cell(quantity, format)));
+            }
+            if (style.position == HeaderDefinition.HeaderPosition.LAST) {
+                sink.row(header);
+            }
+            for (int i = 0; i < blankRows; i++) {
+                sink.row(Collections.nCopies(header.size(), ""));
+            }
+        }
+        return new GeneratedFile(name, style, format, variant, rows, blankRows, Files.size(file), sum);
+    }
+
+    private HeaderVariant chooseVariant(RandomGenerator random, Style style) {
+        double draw = random.nextDouble();
+        if (draw < spec.typoShare()) {
+            return HeaderVariant.TYPO;
+        }
+        if (draw < spec.typoShare() + spec.aliasShare() && !style.aliases.isEmpty()) {
+            return HeaderVariant.ALIAS;
+        }
+        return random.nextBoolean() ? HeaderVariant.EXACT : HeaderVariant.CASE;
+    }
+
+    private IntSampler sampler(RandomGenerator random, int size) {
+        if (spec.zipfExponent() <= 0) {
+            return () -> random.nextInt(size);
+        }
+        ZipfDistribution zipf = new ZipfDistribution(random, size, spec.zipfExponent());
+        return () -> zipf.sample() - 1;
+    }
+
+    private static RowSink openSink(Path file, FileFormat format) throws IOException {
+        return switch (format) {
+            case CSV -> new CsvSink(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            case XLSX -> new WorkbookSink(file, new SXSSFWorkbook(SXSSFWorkbook.DEFAULT_WINDOW_SIZE));
+            case XLS -> new WorkbookSink(file, new HSSFWorkbook());
+        };
+    }
+
+    private static <T> List<T> list(String value, Function<String, T> parser) {
+        List<T> values = Arrays.stream(value.split(","))
+                .filter(part -> !part.isBlank())
+                .map(parser)
+                .distinct()
+                .toList();
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("Empty list: " + value);
+        }
+        return values;
+    }
+
+    private static String value(String option, Iterator<String> it) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return it.next();
+    }
+
+    @FunctionalInterface
+    private interface IntSampler {
+        int sample();
+    }
+
+    /**
+     * Receives the rows of one file in order; rows are written as they arrive.
+     */
+    private interface RowSink extends Closeable {
+        void row(List<?> cells) throws IOException;
+    }
+
+    private static final class CsvSink implements RowSink {
+        private final Writer out;
+
+        private CsvSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void row(List<?> cells) throws IOException {
+            for (int i = 0; i < cells.size(); i++) {
+                if (i > 0) {
+                    out.write(';');
+                }
+                out.write(String.valueOf(cells.get(i)));
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Collects the rows in a workbook (a streaming one for {@code .xlsx}) and writes it on close.
+     */
+    private static final class WorkbookSink implements RowSink {
+        private final Path file;
+        private final Workbook workbook;
+        private final Sheet sheet;
+        private int rowIndex;
+
+        private WorkbookSink(Path file, Workbook workbook) {
+            this.file = file;
+            this.workbook = workbook;
+            this.sheet = workbook.createSheet("Stückliste");
+        }
+
+        @Override
+        public void row(List<?> cells) {
+            Row row = sheet.createRow(rowIndex++);
+            for (int i = 0; i < cells.size(); i++) {
+                Object value = cells.get(i);
+                if (value instanceof BigDecimal number) {
+                    row.createCell(i).setCellValue(number.doubleValue());
+                } else {
+                    row.createCell(i).setCellValue(String.valueOf(value));
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            } finally {
+                if (workbook instanceof SXSSFWorkbook streaming) {
+                    streaming.dispose();
+                }
+                workbook.close();
+            }
+        }
+    }
+
+    /**
+     * Parameters of a corpus. {@code rowsPerFile} excludes the header and blank rows; {@code .xls} files are
+     * limited to the 65536 rows of the format.
+     */
+    public record Spec(long seed,
+                       int files,
+                       int rowsPerFile,
+                       int cardinality,
+                       double zipfExponent,
+                       List<FileFormat> formats,
+                       List<Style> styles,
+                       DecimalStyle decimals,
+                       double aliasShare,
+                       double typoShare,
+                       int maxBlankRows) {
+        public Spec {
+            if (files <= 0 || rowsPerFile < 0 || cardinality <= 0 || maxBlankRows < 0) {
+                throw new IllegalArgumentException("Files and cardinality must be positive, rows and blank rows "
+                        + "must not be negative.");
+            }
+            if (zipfExponent < 0) {
+                throw new IllegalArgumentException("Zipf exponent must not be negative.");
+            }
+            if (aliasShare < 0 || typoShare < 0 || aliasShare + typoShare > 1) {
+                throw new IllegalArgumentException("Alias and typo shares must be between 0 and 1 in total.");
+            }
+            formats = formats == null || formats.isEmpty() ? List.of(FileFormat.CSV) : List.copyOf(formats);
+            styles = styles == null || styles.isEmpty() ? List.of(Style.values()) : List.copyOf(styles);
+            if (decimals == null) {
+                decimals = DecimalStyle.MIXED;
+            }
+        }
+
+        public static Spec defaults() {
+            return new Spec(42, 10, 10_000, 1_000, 1.0, null, null, null, 0.2, 0, 3);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("seed", seed);
+            map.put("files", files);
+            map.put("rowsPerFile", rowsPerFile);
+            map.put("cardinality", cardinality);
+            map.put("zipfExponent", zipfExponent);
+            map.put("formats", formats.stream().map(Enum::name).toList());
+            map.put("styles", styles.stream().map(Enum::name).toList());
+            map.put("decimals", decimals.name());
+            map.put("aliasShare", aliasShare);
+            map.put("typoShare", typoShare);
+            map.put("maxBlankRows", maxBlankRows);
+            return map;
+        }
+    }
+
+    /**
+     * Generated files and the totals a correct merge of them has to produce.
+     */
+    public record Manifest(Spec spec, List<GeneratedFile> files) {
+        public Manifest {
+            files = List.copyOf(files);
+        }
+
+        /**
+         * Sum of the quantities per header definition name, over all files whose header matches a definition.
+         */
+        public Map<String, BigDecimal> expectedSums() {
+            Map<String, BigDecimal> sums = new TreeMap<>();
+            files.stream()
+                    .filter(file -> file.variant() != HeaderVariant.TYPO)
+                    .forEach(file -> sums.merge(file.style().definitionName, file.sum(), BigDecimal::add));
+            return sums;
+        }
+
+        /**
+         * Data rows per header definition name, over all files whose header matches a definition.
+         */
+        public Map<String, Long> expectedRows() {
+            Map<String, Long> rows = new TreeMap<>();
+            files.stream()
+                    .filter(file -> file.variant() != HeaderVariant.TYPO)
+                    .forEach(file -> rows.merge(file.style().definitionName, (long) file.rows(), Long::sum));
+            return rows;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> totals = new LinkedHashMap<>();
+            Map<String, Long> rows = expectedRows();
+            expectedSums().forEach((name, sum) -> {
+                Map<String, Object> total = new LinkedHashMap<>();
+                total.put("rows", rows.get(name));
+                total.put("sum", sum.toPlainString());
+                totals.put(name, total);
+            });
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("spec", spec.toMap());
+            map.put("files", files.stream().map(GeneratedFile::toMap).toList());
+            map.put("totals", totals);
+            return map;
+        }
+    }
+
+    public record GeneratedFile(String name,
+                                Style style,
+                                FileFormat format,
+                                HeaderVariant variant,
+                                int rows,
+                                int blankRows,
+                                long bytes,
+                                BigDecimal sum) {
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", name);
+            map.put("style", style.name());
+            map.put("format", format.name());
+            map.put("variant", variant.name());
+            map.put("rows", rows);
+            map.put("blankRows", blankRows);
+            map.put("bytes", bytes);
+            map.put("sum", sum.toPlainString());
+            return map;
+        }
+    }
+
+    public enum FileFormat {
+        CSV("csv"),
+        XLSX("xlsx"),
+        XLS("xls");
+
+        private final String extension;
+
+        FileFormat(String extension) {
+            this.extension = extension;
+        }
+
+        public static FileFormat fromProperty(String value) {
+            return FileFormat.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Layout of the in-built header definitions.
+     */
+    public enum Style {
+        PIPING("Piping", "piping", HeaderDefinition.HeaderPosition.FIRST,
+                List.of("Benennung", "Material", "DN", "Stk."),
+                List.of(List.of("Benennunng", "Material", "DN", "Stk."))) {
+            @Override
+            List<Object> row(int key, Object quantity) {
+                return List.of(
+                        PIPING_PARTS[key % PIPING_PARTS.length] + " " + key,
+                        MATERIALS[key / PIPING_PARTS.length % MATERIALS.length],
+                        "DN " + NOMINAL_SIZES[key % NOMINAL_SIZES.length],
+                        quantity);
+            }
+        },
+        MONTAGE("SolidWorks Montage", "montage", HeaderDefinition.HeaderPosition.LAST,
+                List.of("POS-NR.", "BENENNUNG", "Gewicht [g]", "Anzahl"),
+                List.of()) {
+            @Override
+            List<Object> row(int key, Object quantity) {
+                String weight = BigDecimal.valueOf(key % 997 * 125L + 250, 2).toPlainString().replace('.', ',');
+                return List.of(
+                        String.valueOf(key + 1),
+                        MONTAGE_PARTS[key % MONTAGE_PARTS.length] + "-" + key,
+                        weight,
+                        quantity);
+            }
+        };
+
+        private static final String[] PIPING_PARTS = {"Rohr", "Bogen 90°", "Bogen 45°", "T-Stück", "Flansch",
+                "Reduzierung", "Kappe", "Muffe"};
+        private static final String[] MATERIALS = {"1.4301", "1.4571", "P235GH", "S235JR", "PE-HD"};
+        private static final int[] NOMINAL_SIZES = {15, 20, 25, 32, 40, 50, 65, 80, 100, 150};
+        private static final String[] MONTAGE_PARTS = {"Schraube ISO 4762 M8x20", "Mutter ISO 4032 M8",
+                "Scheibe ISO 7089 8", "Winkel", "Blech", "Profil 40x40", "Lagerbock", "Welle"};
+
+        private final String definitionName;
+        private final String filePrefix;
+        private final HeaderDefinition.HeaderPosition position;
+        private final List<String> headers;
+        private final List<List<String>> aliases;
+
+        Style(String definitionName, String filePrefix, HeaderDefinition.HeaderPosition position,
+              List<String> headers, List<List<String>> aliases) {
+            this.definitionName = definitionName;
+            this.filePrefix = filePrefix;
+            this.position = position;
+            this.headers = headers;
+            this.aliases = aliases;
+        }
+
+        /**
+         * Name of the in-built header definition the files of this style match.
+         */
+        public String definitionName() {
+            return definitionName;
+        }
+
+        abstract List<Object> row(int key, Object quantity);
+
+        public static Style fromProperty(String value) {
+            return Style.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * How the header row of a file deviates from its definition.
+     */
+    public enum HeaderVariant {
+        /**
+         * The header as defined.
+         */
+        EXACT,
+        /**
+         * Different case and surrounding blanks, which header detection ignores.
+         */
+        CASE,
+        /**
+         * One of the header aliases of the definition.
+         */
+        ALIAS,
+        /**
+         * Two adjacent letters of one column swapped, so the header matches no definition.
+         */
+        TYPO;
+
+        List<String> apply(Style style, RandomGenerator random) {
+            return switch (this) {
+                case EXACT -> style.headers;
+                case CASE -> style.headers.stream()
+                        .map(column -> " " + column.toUpperCase(Locale.ROOT) + " ")
+                        .toList();
+                case ALIAS -> style.aliases.get(random.nextInt(style.aliases.size()));
+                case TYPO -> {
+                    List<String> header = new ArrayList<>(style.headers);
+                    int column = random.nextInt(header.size());
+                    char[] chars = header.get(column).toCharArray();
+                    int position = random.nextInt(chars.length - 1);
+                    char swapped = chars[position];
+                    chars[position] = chars[position + 1];
+                    chars[position + 1] = swapped;
+                    String typo = new String(chars);
+                    header.set(column, typo.equalsIgnoreCase(header.get(column)) ? typo + "x" : typo);
+                    yield header;
+                }
+            };
+        }
+    }
+
+    /**
+     * Format of the quantity column.
+     */
+    public enum DecimalStyle {
+        /**
+         * Whole numbers such as {@code 12}.
+         */
+        INTEGER,
+        /**
+         * Decimal comma such as {@code 12,5}.
+         */
+        COMMA,
+        /**
+         * Decimal point such as {@code 12.5}.
+         */
+        DOT,
+        /**
+         * Decimal comma followed by a unit such as {@code 12,5 Stk.}.
+         */
+        UNIT,
+        /**
+         * One of the other styles, chosen per row.
+         */
+        MIXED;
+
+        private static final DecimalStyle[] CONCRETE = {INTEGER, COMMA, DOT, UNIT};
+
+        DecimalStyle resolve(RandomGenerator random) {
+            return this == MIXED ? CONCRETE[random.nextInt(CONCRETE.length)] : this;
+        }
+
+        /**
+         * The cell value of {@code quantity}: a number for Excel files when the style is a plain number,
+         * otherwise text.
+         */
+        Object cell(BigDecimal quantity, FileFormat format) {
+            if (format != FileFormat.CSV && (this == INTEGER || this == DOT)) {
+                return quantity;
+            }
+            String text = quantity.toPlainString();
+            return switch (this) {
+                case INTEGER, DOT, MIXED -> text;
+                case COMMA -> text.replace('.', ',');
+                case UNIT -> text.replace('.', ',') + " Stk.";
+            };
+        }
+
+        public static DecimalStyle fromProperty(String value) {
+            if (value == null || value.isBlank()) {
+                return MIXED;
+            }
+            return DecimalStyle.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,800 @@
+package github.tilcob.app.listmerging.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import github.tilcob.app.listmerging.model.ValidationReport;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.service.MergeValidationService;
+import github.tilcob.app.listmerging.tasks.MergeJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Embedded HTTP server that runs {@link MergeJob}s from a bounded queue.
+ * <p>
+ * Input files are uploaded with {@code POST /uploads?name=<file>} or referenced by path. {@code POST /jobs} takes a
+ * JSON object with the fields of a {@link BatchCli} job file, e.g. {@code {"input": ["/data/a.csv"],
+ * "format": "xlsx"}}, and answers with the job id. Each job writes to its own directory. The status is available
+ * at {@code GET /jobs/<id>}, the export at {@code /jobs/<id>/result} and the validation report at
+ * {@code /jobs/<id>/report}. {@code DELETE /jobs/<id>} cancels a job and {@code GET /metrics} reports queue and
+ * throughput counters.
+ * </p>
+ * <p>
+ * Jobs run on a fixed number of workers. When the queue is full, new jobs are rejected with status 503.
+ * Finished jobs beyond the retention limit are removed together with their output directories.
+ * </p>
+ * <p>
+ * A job may choose its header definitions with {@code headers}, which must name the configured header directory or
+ * a directory below it. Uploads larger than the upload limit are rejected with status 413. An upload is deleted once the last retained
+ * job that reads it is removed, or when no job has used it within the upload TTL.
+ * </p>
+ */
+public final class MergeServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MergeServer.class);
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final long MB = 1024L * 1024L;
+    static final long DEFAULT_MAX_UPLOAD_BYTES = 1024 * MB;
+    static final long DEFAULT_UPLOAD_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final int MAX_HEADER_LOADERS = 16;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: MergeServer [options]",
+            "      --bind <address>      address to listen on (default: 127.0.0.1)",
+            "      --port <port>         port to listen on, 0 for any free port (default: 8080)",
+            "      --work-dir <dir>      directory for uploads and job output (default: temp directory)",
+            "      --headers <dir>       directory with external header definitions; jobs may only name it or a",
+            "                            directory below it (default: headers)",
+            "      --workers <n>         jobs that run at the same time (default: half of the CPU cores)",
+            "      --queue <n>           jobs that may wait for a worker (default: 64)",
+            "      --retain <n>          finished jobs kept for download (default: 256)",
+            "      --max-upload-mb <n>   largest accepted upload in MB (default: 1024)",
+            "      --upload-ttl <min>    minutes an upload is kept while no job uses it (default: 60)",
+            "  -h, --help                show this help");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MergeService mergeService = new MergeService();
+    private final ExportService exportService = new ExportService();
+    private final MergeValidationService mergeValidationService = new MergeValidationService();
+    private final Map<Path, HeaderLoader> headerLoaders = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, HeaderLoader> eldest) {
+            if (size() <= MAX_HEADER_LOADERS) {
+                return false;
+            }
+            closeLoader(eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<String, ServerJob> jobs = new LinkedHashMap<>();
+    private final Map<Path, Upload> uploads = new HashMap<>();
+    private final Deque<Long> completions = new ArrayDeque<>();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong totalJobMillis = new AtomicLong();
+    private final long startMillis = System.currentTimeMillis();
+
+    private final Path workDir;
+    private final Path defaultHeaders;
+    private final int retainedJobs;
+    private final long maxUploadBytes;
+    private final long uploadTtlMillis;
+    private final ThreadPoolExecutor workers;
+    private final ExecutorService handlers;
+    private final HttpServer server;
+
+    public MergeServer(InetSocketAddress address,
+                       Path workDir,
+                       String defaultHeaders,
+                       int workerCount,
+                       int queueCapacity,
+                       int retainedJobs) throws IOException {
+        this(address, workDir, defaultHeaders, workerCount, queueCapacity, retainedJobs, DEFAULT_MAX_UPLOAD_BYTES,
+                DEFAULT_UPLOAD_TTL_MILLIS);
+    }
+
+    public MergeServer(InetSocketAddress address,
+                       Path workDir,
+                       String defaultHeaders,
+                       int workerCount,
+                       int queueCapacity,
+                       int retainedJobs,
+                       long maxUploadBytes,
+                       long uploadTtlMillis) throws IOException {
+        this.workDir = workDir.toAbsolutePath().normalize();
+        this.defaultHeaders = Path.of(defaultHeaders).toAbsolutePath().normalize();
+        this.retainedJobs = Math.max(1, retainedJobs);
+        this.maxUploadBytes = Math.max(1, maxUploadBytes);
+        this.uploadTtlMillis = Math.max(0, uploadTtlMillis);
+        Files.createDirectories(this.workDir.resolve("uploads"));
+        Files.createDirectories(this.workDir.resolve("jobs"));
+
+        this.workers = new ThreadPoolExecutor(
+                Math.max(1, workerCount),
+                Math.max(1, workerCount),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                daemonThreads("merge-server-worker"));
+        this.handlers = Executors.newFixedThreadPool(4, daemonThreads("merge-server-http"));
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(handlers);
+        this.server.createContext("/uploads", exchange -> handle(exchange, this::handleUpload));
+        this.server.createContext("/jobs", exchange -> handle(exchange, this::handleJobs));
+        this.server.createContext("/metrics", exchange -> handle(exchange, this::handleMetrics));
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        String bind = "127.0.0.1";
+        int port = 8080;
+        Path workDir = null;
+        String headers = "headers";
+        int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int queueCapacity = 64;
+        int retain = 256;
+        long maxUploadBytes = DEFAULT_MAX_UPLOAD_BYTES;
+        long uploadTtlMillis = DEFAULT_UPLOAD_TTL_MILLIS;
+        try {
+            Iterator<String> it = List.of(args).iterator();
+            while (it.hasNext()) {
+                String arg = it.next();
+                switch (arg) {
+                    case "--bind" -> bind = value(arg, it);
+                    case "--port" -> port = Integer.parseInt(value(arg, it));
+                    case "--work-dir" -> workDir = Path.of(value(arg, it));
+                    case "--headers" -> headers = value(arg, it);
+                    case "--workers" -> workerCount = Integer.parseInt(value(arg, it));
+                    case "--queue" -> queueCapacity = Integer.parseInt(value(arg, it));
+                    case "--retain" -> retain = Integer.parseInt(value(arg, it));
+                    case "--max-upload-mb" -> maxUploadBytes = Long.parseLong(value(arg, it)) * MB;
+                    case "--upload-ttl" -> uploadTtlMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(value(arg, it)));
+                    case "-h", "--help" -> {
+                        out.println(USAGE);
+                        return BatchCli.EXIT_OK;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE);
+            return BatchCli.EXIT_USAGE;
+        }
+
+        try {
+            Path dir = workDir == null ? Files.createTempDirectory("listmerging-server") : workDir;
+            MergeServer mergeServer = new MergeServer(new InetSocketAddress(bind, port), dir, headers,
+                    workerCount, queueCapacity, retain, maxUploadBytes, uploadTtlMillis);
+            Runtime.getRuntime().addShutdownHook(new Thread(mergeServer::close, "merge-server-shutdown"));
+            mergeServer.start();
+            out.println("Merge server listening on http://" + bind + ":" + mergeServer.port());
+            Thread.currentThread().join();
+            return BatchCli.EXIT_OK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return BatchCli.EXIT_OK;
+        } catch (IOException e) {
+            log.error("Merge server could not be started", e);
+            err.println("Error: " + e.getMessage());
+            return BatchCli.EXIT_JOB_FAILED;
+        }
+    }
+
+    public void start() {
+        server.start();
+        log.info("Merge server started on port {} with {} workers, work directory {}",
+                port(), workers.getCorePoolSize(), workDir);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+        handlers.shutdownNow();
+        synchronized (headerLoaders) {
+            headerLoaders.values().forEach(MergeServer::closeLoader);
+            headerLoaders.clear();
+        }
+    }
+
+    private void handleUpload(HttpExchange exchange, List<String> path) throws IOException {
+        if (!path.isEmpty()) {
+            throw new NotFoundException();
+        }
+        requireMethod(exchange, "POST");
+        String name = queryParameters(exchange).get("name");
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Query parameter 'name' is required.");
+        }
+        String fileName = Path.of(name).getFileName().toString();
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        if (!lower.endsWith(".csv") && !lower.endsWith(".xlsx") && !lower.endsWith(".xls")) {
+            throw new IllegalArgumentException("Only .csv, .xlsx and .xls files can be uploaded.");
+        }
+
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length.trim()) > maxUploadBytes) {
+            throw new PayloadTooLargeException(maxUploadBytes);
+        }
+        deleteExpiredUploads();
+
+        Path uploadDir = Files.createDirectories(workDir.resolve("uploads").resolve(UUID.randomUUID().toString()));
+        Path target = uploadDir.resolve(fileName);
+        boolean stored = false;
+        try (InputStream in = exchange.getRequestBody();
+             OutputStream out = Files.newOutputStream(target)) {
+            byte[] buffer = new byte[1 << 16];
+            long total = 0;
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                total += read;
+                if (total > maxUploadBytes) {
+                    throw new PayloadTooLargeException(maxUploadBytes);
+                }
+                out.write(buffer, 0, read);
+            }
+            stored = true;
+        } finally {
+            if (!stored) {
+                deleteTree(uploadDir);
+            }
+        }
+        synchronized (uploads) {
+            uploads.put(uploadDir, new Upload());
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("path", target.toString());
+        body.put("bytes", Files.size(target));
+        sendJson(exchange, 201, body);
+    }
+
+    private void handleJobs(HttpExchange exchange, List<String> path) throws IOException {
+        if (path.isEmpty()) {
+            switch (exchange.getRequestMethod()) {
+                case "POST" -> submitJob(exchange);
+                case "GET" -> {
+                    List<Map<String, Object>> list = new ArrayList<>();
+                    for (ServerJob job : snapshotJobs()) {
+                        list.add(job.status());
+                    }
+                    sendJson(exchange, 200, list);
+                }
+                default -> throw new MethodNotAllowedException("GET, POST");
+            }
+            return;
+        }
+
+        ServerJob job;
+        synchronized (jobs) {
+            job = jobs.get(path.get(0));
+        }
+        if (job == null || path.size() > 2) {
+            throw new NotFoundException();
+        }
+        String resource = path.size() == 2 ? path.get(1) : "";
+        switch (resource) {
+            case "" -> {
+                if (exchange.getRequestMethod().equals("DELETE")) {
+                    job.cancel();
+                    sendJson(exchange, 200, job.status());
+                } else {
+                    requireMethod(exchange, "GET");
+                    sendJson(exchange, 200, job.status());
+                }
+            }
+            case "cancel" -> {
+                requireMethod(exchange, "POST");
+                job.cancel();
+                sendJson(exchange, 200, job.status());
+            }
+            case "result" -> {
+                requireMethod(exchange, "GET");
+                MergeJob.Result result = job.result;
+                sendFile(exchange, result == null ? null : result.exportFile());
+            }
+            case "report" -> {
+                requireMethod(exchange, "GET");
+                MergeJob.Result result = job.result;
+                sendFile(exchange, result == null ? null : result.validationReportFile());
+            }
+            default -> throw new NotFoundException();
+        }
+    }
+
+    private void submitJob(HttpExchange exchange) throws IOException {
+        JsonNode request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = objectMapper.readTree(in);
+        }
+        if (request == null || !request.isObject()) {
+            throw new IllegalArgumentException("Request body must be a JSON object.");
+        }
+        if (request.has("output")) {
+            throw new IllegalArgumentException("The output directory is assigned by the server.");
+        }
+        BatchCli.JobArgs args = BatchCli.JobArgs.fromJson(request, null);
+        args.validate();
+        List<File> files = BatchCli.expandInputs(args.inputs());
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No input files match " + args.inputs());
+        }
+        HeaderLoader headerLoader = headerLoader(args.headers());
+
+        String id = Long.toString(jobIds.incrementAndGet());
+        Path outputDir = Files.createDirectories(workDir.resolve("jobs").resolve(id));
+        ServerJob job = new ServerJob(id, outputDir, claimUploads(files));
+        MergeJob mergeJob = new MergeJob(
+                files,
+                outputDir.toFile(),
+                headerLoader,
+                mergeService,
+                exportService,
+                mergeValidationService,
+                args.toOptions(),
+                objectMapper);
+
+        synchronized (jobs) {
+            try {
+                job.future = workers.submit(() -> job.run(mergeJob));
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                deleteTree(outputDir);
+                releaseUploads(job.uploads);
+                sendJson(exchange, 503, Map.of("error", "Job queue is full, retry later."));
+                return;
+            }
+            jobs.put(id, job);
+            submitted.incrementAndGet();
+            evictFinishedJobs();
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", id);
+        body.put("status", "/jobs/" + id);
+        exchange.getResponseHeaders().set("Location", "/jobs/" + id);
+        sendJson(exchange, 202, body);
+    }
+
+    private void handleMetrics(HttpExchange exchange, List<String> path) throws IOException {
+        if (!path.isEmpty()) {
+            throw new NotFoundException();
+        }
+        requireMethod(exchange, "GET");
+        long now = System.currentTimeMillis();
+        long finished = succeeded.get() + failed.get();
+        int lastMinute;
+        synchronized (completions) {
+            while (!completions.isEmpty() && completions.peekFirst() < now - 60_000) {
+                completions.pollFirst();
+            }
+            lastMinute = completions.size();
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("uptimeMillis", now - startMillis);
+        body.put("workers", workers.getCorePoolSize());
+        body.put("queued", workers.getQueue().size());
+        body.put("queueCapacity", workers.getQueue().size() + workers.getQueue().remainingCapacity());
+        body.put("running", workers.getActiveCount());
+        body.put("submitted", submitted.get());
+        body.put("rejected", rejected.get());
+        body.put("succeeded", succeeded.get());
+        body.put("failed", failed.get());
+        body.put("cancelled", cancelled.get());
+        body.put("completedLastMinute", lastMinute);
+        body.put("averageJobMillis", finished == 0 ? 0 : totalJobMillis.get() / finished);
+        sendJson(exchange, 200, body);
+    }
+
+    /**
+     * The loader of the default header directory, or of the given directory below it. Relative directories are
+     * resolved against the default directory. At most {@link #MAX_HEADER_LOADERS} loaders are kept; the least
+     * recently used one is closed when another directory is requested.
+     */
+    private HeaderLoader headerLoader(String headersDir) throws IOException {
+        Path folder = headersDir == null ? defaultHeaders : defaultHeaders.resolve(headersDir).normalize();
+        if (!folder.startsWith(defaultHeaders) || Files.exists(folder) && Files.exists(defaultHeaders)
+                && !folder.toRealPath().startsWith(defaultHeaders.toRealPath())) {
+            throw new IllegalArgumentException("Header directory must be " + defaultHeaders + " or below it.");
+        }
+        synchronized (headerLoaders) {
+            HeaderLoader loader = headerLoaders.get(folder);
+            if (loader == null) {
+                loader = new HeaderLoader(folder);
+                try {
+                    loader.watch();
+                } catch (IOException e) {
+                    log.warn("Cannot watch header folder {}, changes need a restart", folder, e);
+                }
+                headerLoaders.put(folder, loader);
+            }
+            return loader;
+        }
+    }
+
+    private static void closeLoader(HeaderLoader loader) {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            log.debug("Closing header loader failed", e);
+        }
+    }
+
+    private List<ServerJob> snapshotJobs() {
+        synchronized (jobs) {
+            return List.copyOf(jobs.values());
+        }
+    }
+
+    /**
+     * Removes the oldest finished jobs beyond the retention limit. Called while holding the {@code jobs} lock.
+     */
+    private void evictFinishedJobs() {
+        long finishedJobs = jobs.values().stream().filter(ServerJob::isDone).count();
+        Iterator<ServerJob> it = jobs.values().iterator();
+        while (finishedJobs > retainedJobs && it.hasNext()) {
+            ServerJob job = it.next();
+            if (job.isDone()) {
+                it.remove();
+                finishedJobs--;
+                deleteTree(job.outputDir);
+                releaseUploads(job.uploads);
+            }
+        }
+    }
+
+    /**
+     * Marks the upload directories that {@code files} were uploaded to as used by one more job.
+     */
+    private List<Path> claimUploads(List<File> files) {
+        Set<Path> claimed = new LinkedHashSet<>();
+        synchronized (uploads) {
+            for (File file : files) {
+                Path uploadDir = file.toPath().toAbsolutePath().normalize().getParent();
+                Upload upload = uploads.get(uploadDir);
+                if (upload != null && claimed.add(uploadDir)) {
+                    upload.jobs++;
+                }
+            }
+        }
+        return List.copyOf(claimed);
+    }
+
+    /**
+     * Deletes the upload directories that no retained job uses anymore.
+     */
+    private void releaseUploads(List<Path> uploadDirs) {
+        synchronized (uploads) {
+            for (Path uploadDir : uploadDirs) {
+                Upload upload = uploads.get(uploadDir);
+                if (upload != null && --upload.jobs == 0) {
+                    uploads.remove(uploadDir);
+                    deleteTree(uploadDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the uploads that no job has used within the upload TTL.
+     */
+    private void deleteExpiredUploads() {
+        long expired = System.currentTimeMillis() - uploadTtlMillis;
+        synchronized (uploads) {
+            Iterator<Map.Entry<Path, Upload>> it = uploads.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Upload> entry = it.next();
+                if (entry.getValue().jobs == 0 && entry.getValue().storedAt <= expired) {
+                    it.remove();
+                    deleteTree(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange, Route route) throws IOException {
+        try {
+            String contextPath = exchange.getHttpContext().getPath();
+            String rest = exchange.getRequestURI().getPath().substring(contextPath.length());
+            List<String> path = Arrays.stream(rest.split("/")).filter(segment -> !segment.isEmpty()).toList();
+            route.handle(exchange, path);
+        } catch (NotFoundException e) {
+            sendError(exchange, 404, "Not found.");
+        } catch (MethodNotAllowedException e) {
+            exchange.getResponseHeaders().set("Allow", e.getMessage());
+            sendError(exchange, 405, "Method not allowed.");
+        } catch (PayloadTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            log.error("Request {} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            sendJson(exchange, status, Map.of("error", message));
+        } catch (IOException e) {
+            log.debug("Could not send error response", e);
+        }
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sendFile(HttpExchange exchange, File file) throws IOException {
+        if (file == null || !file.isFile()) {
+            throw new NotFoundException();
+        }
+        String name = file.getName();
+        String contentType = name.endsWith(".xlsx")
+                ? "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
+                : name.endsWith(".json") ? JSON
+                : name.endsWith(".ndjson") ? "application/x-ndjson" : "application/octet-stream";
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + name + "\"");
+        exchange.sendResponseHeaders(200, file.length());
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file.toPath(), out);
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new MethodNotAllowedException(method);
+        }
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static void deleteTree(Path root) {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete {}", root, e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static String value(String option, Iterator<String> it) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return it.next();
+    }
+
+    @FunctionalInterface
+    private interface Route {
+        void handle(HttpExchange exchange, List<String> path) throws IOException;
+    }
+
+    private static final class NotFoundException extends RuntimeException {
+    }
+
+    private static final class MethodNotAllowedException extends RuntimeException {
+        private MethodNotAllowedException(String allowed) {
+            super(allowed);
+        }
+    }
+
+    private static final class PayloadTooLargeException extends RuntimeException {
+        private PayloadTooLargeException(long maxBytes) {
+            super("Uploads are limited to " + maxBytes + " bytes.");
+        }
+    }
+
+    /**
+     * An upload directory and the number of retained jobs that read from it.
+     */
+    private static final class Upload {
+        private final long storedAt = System.currentTimeMillis();
+        private int jobs;
+    }
+
+    private enum JobState {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    /**
+     * Server-side state of one submitted job.
+     */
+    private final class ServerJob {
+        private final String id;
+        private final Path outputDir;
+        private final List<Path> uploads;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile JobState state = JobState.QUEUED;
+        private volatile double progress;
+        private volatile String message = "";
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile MergeJob.Result result;
+        private volatile String error;
+        private volatile Future<?> future;
+
+        private ServerJob(String id, Path outputDir, List<Path> uploads) {
+            this.id = id;
+            this.outputDir = outputDir;
+            this.uploads = uploads;
+        }
+
+        private void run(MergeJob mergeJob) {
+            synchronized (this) {
+                if (state != JobState.QUEUED) {
+                    return;
+                }
+                state = JobState.RUNNING;
+                startedAt = System.currentTimeMillis();
+            }
+            try {
+                result = mergeJob.run(new MergeJob.Listener() {
+                    @Override
+                    public void progress(double workDone) {
+                        progress = workDone / MAX_PROGRESS;
+                    }
+
+                    @Override
+                    public void message(String text) {
+                        message = text;
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return state == JobState.CANCELLED || Thread.currentThread().isInterrupted();
+                    }
+                });
+                finish(JobState.SUCCEEDED, null);
+            } catch (CancellationException e) {
+                finish(JobState.CANCELLED, null);
+            } catch (Exception e) {
+                if (state == JobState.CANCELLED || Thread.currentThread().isInterrupted()) {
+                    finish(JobState.CANCELLED, null);
+                } else {
+                    log.error("Merge job {} failed", id, e);
+                    finish(JobState.FAILED, String.valueOf(e.getMessage()));
+                }
+            }
+        }
+
+        private void finish(JobState outcome, String errorMessage) {
+            JobState finalState;
+            synchronized (this) {
+                if (finishedAt != 0) {
+                    return;
+                }
+                finalState = state == JobState.CANCELLED ? JobState.CANCELLED : outcome;
+                finishedAt = System.currentTimeMillis();
+                state = finalState;
+                error = finalState == JobState.FAILED ? errorMessage : null;
+            }
+            switch (finalState) {
+                case SUCCEEDED -> succeeded.incrementAndGet();
+                case FAILED -> failed.incrementAndGet();
+                case CANCELLED -> cancelled.incrementAndGet();
+                default -> {
+                }
+            }
+            if (finalState != JobState.CANCELLED && startedAt > 0) {
+                totalJobMillis.addAndGet(finishedAt - startedAt);
+                synchronized (completions) {
+                    completions.addLast(finishedAt);
+                }
+            }
+        }
+
+        private void cancel() {
+            boolean wasQueued;
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                wasQueued = state == JobState.QUEUED;
+                state = JobState.CANCELLED;
+            }
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+            if (wasQueued) {
+                finish(JobState.CANCELLED, null);
+            }
+        }
+
+        private boolean isDone() {
+            return finishedAt != 0;
+        }
+
+        private Map<String, Object> status() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", id);
+            status.put("state", state.name().toLowerCase(Locale.ROOT));
+            status.put("progress", progress);
+            status.put("message", message);
+            status.put("submittedAt", submittedAt);
+            if (startedAt > 0) {
+                status.put("startedAt", startedAt);
+            }
+            if (finishedAt > 0) {
+                status.put("finishedAt", finishedAt);
+            }
+            MergeJob.Result finished = result;
+            if (finished != null) {
+                ValidationReport report = finished.validationReport();
+                status.put("valid", report != null && report.valid());
+                status.put("issues", report == null ? 0 : report.totalIssueCount());
+                status.put("validationSummary", finished.validationSummary());
+                status.put("stageMillis", finished.stageMillis());
+                status.put("totalMillis", finished.totalMillis());
+                status.put("metrics", finished.metrics().summary());
+                status.put("result", "/jobs/" + id + "/result");
+                if (finished.validationReportFile() != null) {
+                    status.put("report", "/jobs/" + id + "/report");
+                }
+            }
+            if (error != null) {
+                status.put("error", error);
+            }
+            return status;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package github.tilcob.app.listmerging.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.IngestionPlanner;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.service.PartialAggregates;
+import github.tilcob.app.listmerging.tasks.MergeJobOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Headless entry point that spreads a merge over several processes or hosts that share a filesystem.
+ * <p>
+ * {@code partial} merges any subset of the input files into a {@link PartialAggregates} file. {@code reduce}
+ * merges any number of partial files into the final result and exports it like {@link BatchCli}. One JSON line
+ * with the outcome is written to stdout per command.
+ * </p>
+ * <p>
+ * {@code reduce} holds the whole result in memory until it is exported and does not validate it, because the input
+ * files are only read by the {@code partial} commands.
+ * </p>
+ */
+public final class ShardCli {
+    private static final Logger log = LoggerFactory.getLogger(ShardCli.class);
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: ShardCli partial [options] [input ...]",
+            "       ShardCli reduce [options] [partial ...]",
+            "partial:",
+            "  -i, --input <file|glob>   input file or glob (repeatable)",
+            "      --headers <dir>       directory with external header definitions (default: headers)",
+            "  -o, --output <file>       partial file to write, e.g. shard-1" + PartialAggregates.FILE_SUFFIX,
+            "      --partitions <n>      hash partitions per header group (default: "
+                    + PartialAggregates.DEFAULT_PARTITIONS + ")",
+            "reduce:",
+            "  -i, --input <file|glob>   partial file or glob (repeatable)",
+            "  -o, --output <dir>        output directory (default: directory of the first partial)",
+            "      --format <f>          xlsx | columnar | both (default: xlsx)",
+            "  The reduced result is held in memory until it is exported and is not validated.",
+            "  -h, --help                show this help");
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    ShardCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new ShardCli(System.out, System.err).run(args));
+    }
+
+    int run(String[] args) {
+        Args parsed;
+        try {
+            parsed = Args.parse(args);
+            if (parsed.help) {
+                out.println(USAGE);
+                return BatchCli.EXIT_OK;
+            }
+            parsed.validate();
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE);
+            return BatchCli.EXIT_USAGE;
+        }
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("command", parsed.command);
+        long start = System.nanoTime();
+        try {
+            List<File> files = BatchCli.expandInputs(parsed.inputs);
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No input files match " + parsed.inputs);
+            }
+            line.put("inputs", files.size());
+            if (parsed.command.equals("partial")) {
+                partial(files, parsed, line);
+            } else {
+                reduce(files, parsed, line);
+            }
+            line.put("status", "ok");
+            return BatchCli.EXIT_OK;
+        } catch (Exception e) {
+            log.error("Shard command {} failed", parsed.command, e);
+            line.put("status", "failed");
+            line.put("error", String.valueOf(e.getMessage()));
+            return BatchCli.EXIT_JOB_FAILED;
+        } finally {
+            line.put("totalMillis", (System.nanoTime() - start) / 1_000_000);
+            try {
+                out.println(objectMapper.writeValueAsString(line));
+            } catch (IOException e) {
+                err.println("Error: cannot write result line: " + e.getMessage());
+            }
+        }
+    }
+
+    private void partial(List<File> files, Args args, Map<String, Object> line) throws Exception {
+        Path headersDir = Path.of(args.headers == null ? "headers" : args.headers).toAbsolutePath().normalize();
+        List<HeaderDefinition> headers;
+        try (HeaderLoader headerLoader = new HeaderLoader(headersDir)) {
+            headers = headerLoader.getHeaders();
+        }
+        MergeService mergeService = new MergeService();
+        IngestionPlanner.Plan plan = new IngestionPlanner(mergeService).plan(files, headers, false);
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = mergeService.merge(
+                files, headers, MergeService.RowListener.NONE, MergeService.ProgressListener.NONE, plan);
+
+        File partial = new PartialAggregates(objectMapper).write(merged, args.partitions, new File(args.output));
+        line.put("groups", merged.size());
+        line.put("partialFile", partial.getAbsolutePath());
+    }
+
+    private void reduce(List<File> partials, Args args, Map<String, Object> line) throws IOException {
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                new PartialAggregates(objectMapper).reduce(partials);
+        File outputDir = args.output == null
+                ? partials.get(0).getAbsoluteFile().getParentFile()
+                : new File(args.output);
+        Files.createDirectories(outputDir.toPath());
+
+        ExportService exportService = new ExportService();
+        line.put("groups", merged.size());
+        if (args.format.writesWorkbook()) {
+            line.put("exportFile", exportService.export(merged, outputDir.getPath()).getAbsolutePath());
+        }
+        if (args.format.writesColumnar()) {
+            line.put("columnarFile", exportService.exportColumnar(merged, outputDir.getPath()).getAbsolutePath());
+        }
+    }
+
+    private static final class Args {
+        private final List<String> inputs = new ArrayList<>();
+        private String command;
+        private String headers;
+        private String output;
+        private int partitions = PartialAggregates.DEFAULT_PARTITIONS;
+        private MergeJobOptions.ExportFormat format = MergeJobOptions.ExportFormat.XLSX;
+        private boolean help;
+
+        private static Args parse(String[] args) {
+            Args parsed = new Args();
+            Iterator<String> it = Arrays.asList(args).iterator();
+            while (it.hasNext()) {
+                String arg = it.next();
+                switch (arg) {
+                    case "-i", "--input" -> parsed.inputs.add(value(arg, it));
+                    case "--headers" -> parsed.headers = value(arg, it);
+                    case "-o", "--output" -> parsed.output = value(arg, it);
+                    case "--partitions" -> parsed.partitions = partitions(value(arg, it));
+                    case "--format" -> parsed.format = MergeJobOptions.ExportFormat.fromProperty(value(arg, it));
+                    case "-h", "--help" -> parsed.help = true;
+                    default -> {
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        if (parsed.command == null) {
+                            parsed.command = arg.trim().toLowerCase(Locale.ROOT);
+                        } else {
+                            parsed.inputs.add(arg);
+                        }
+                    }
+                }
+            }
+            return parsed;
+        }
+
+        private void validate() {
+            if (!"partial".equals(command) && !"reduce".equals(command)) {
+                throw new IllegalArgumentException("Expected command 'partial' or 'reduce', got: " + command);
+            }
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("No input files given.");
+            }
+            if (command.equals("partial") && output == null) {
+                throw new IllegalArgumentException("partial needs --output <file>.");
+            }
+        }
+
+        private static int partitions(String value) {
+            try {
+                int partitions = Integer.parseInt(value.trim());
+                if (partitions < 1) {
+                    throw new IllegalArgumentException("Partition count must be positive: " + value);
+                }
+                return partitions;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid partition count: " + value);
+            }
+        }
+
+        private static String value(String option, Iterator<String> it) {
+            if (!it.hasNext()) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            return it.next();
+        }
+    }
+}
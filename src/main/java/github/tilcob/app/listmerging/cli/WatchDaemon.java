@@ -0,0 +1,339 @@
+package github.tilcob.app.listmerging.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.IncrementalMergeCache;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.tasks.MergeJobOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Daemon that watches input directories and keeps the merge export up to date.
+ * <p>
+ * File events are collected until the directories have been quiet for the debounce interval. The inputs are then
+ * passed to an {@link IncrementalMergeCache}, so only new or changed files are read and only the affected header
+ * groups are rebuilt. When a group changed, the export is written to {@code merged.xlsx.part} and moved over
+ * {@code merged.xlsx}. Every refresh prints one JSON line with the number of read files, the changed groups and
+ * the duration.
+ * </p>
+ * <p>
+ * The external header folder is watched as well; a change of a header definition reloads the definitions and
+ * rebuilds all groups.
+ * </p>
+ * <p>
+ * A refresh that fails, for example with an I/O error or an unreadable input, is logged and reported, and the
+ * daemon keeps watching. A failed export is retried on the next refresh even if no input changed in between.
+ * </p>
+ */
+public final class WatchDaemon implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WatchDaemon.class);
+    static final Duration DEFAULT_DEBOUNCE = Duration.ofSeconds(1);
+    private static final Set<String> OUTPUT_FILE_NAMES = Set.of(
+            ExportService.EXPORT_FILE_NAME,
+            ExportService.EXPORT_FILE_NAME + ".part",
+            ExportService.COLUMNAR_FILE_NAME);
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: WatchDaemon [options] <dir> [dir ...]",
+            "  -d, --dir <dir>           directory to watch, including subdirectories (repeatable)",
+            "      --headers <dir>       directory with external header definitions (default: headers)",
+            "  -o, --output <dir>        output directory (default: first watched directory)",
+            "      --format <f>          xlsx | columnar | both (default: xlsx)",
+            "      --debounce <ms>       quiet period before a refresh (default: 1000)",
+            "  -h, --help                show this help");
+
+    private final List<Path> directories;
+    private final File outputDir;
+    private final HeaderLoader headerLoader;
+    private final ExportService exportService;
+    private final MergeJobOptions.ExportFormat exportFormat;
+    private final Duration debounce;
+    private final PrintStream out;
+    private final IncrementalMergeCache cache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private boolean exportPending;
+
+    public WatchDaemon(List<Path> directories,
+                       File outputDir,
+                       HeaderLoader headerLoader,
+                       MergeService mergeService,
+                       ExportService exportService,
+                       MergeJobOptions.ExportFormat exportFormat,
+                       Duration debounce,
+                       PrintStream out) throws IOException {
+        if (directories == null || directories.isEmpty()) {
+            throw new IllegalArgumentException("At least one directory must be watched.");
+        }
+        this.directories = directories.stream().map(path -> path.toAbsolutePath().normalize()).toList();
+        this.outputDir = outputDir.getAbsoluteFile().toPath().normalize().toFile();
+        this.headerLoader = headerLoader;
+        this.exportService = exportService;
+        this.exportFormat = exportFormat == null ? MergeJobOptions.ExportFormat.XLSX : exportFormat;
+        this.debounce = debounce == null ? DEFAULT_DEBOUNCE : debounce;
+        this.out = out;
+        this.cache = new IncrementalMergeCache(mergeService);
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        List<Path> directories = new ArrayList<>();
+        Path headers = Path.of("headers");
+        File output = null;
+        MergeJobOptions.ExportFormat format = MergeJobOptions.ExportFormat.XLSX;
+        Duration debounce = DEFAULT_DEBOUNCE;
+        try {
+            Iterator<String> it = List.of(args).iterator();
+            while (it.hasNext()) {
+                String arg = it.next();
+                switch (arg) {
+                    case "-d", "--dir" -> directories.add(Path.of(value(arg, it)));
+                    case "--headers" -> headers = Path.of(value(arg, it));
+                    case "-o", "--output" -> output = new File(value(arg, it));
+                    case "--format" -> format = MergeJobOptions.ExportFormat.fromProperty(value(arg, it));
+                    case "--debounce" -> debounce = Duration.ofMillis(Long.parseLong(value(arg, it)));
+                    case "-h", "--help" -> {
+                        out.println(USAGE);
+                        return BatchCli.EXIT_OK;
+                    }
+                    default -> {
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        directories.add(Path.of(arg));
+                    }
+                }
+            }
+            if (directories.isEmpty()) {
+                throw new IllegalArgumentException("No directory to watch given.");
+            }
+            for (Path directory : directories) {
+                if (!Files.isDirectory(directory)) {
+                    throw new IllegalArgumentException("Not a directory: " + directory);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            err.println(USAGE);
+            return BatchCli.EXIT_USAGE;
+        }
+
+        File outputDir = output == null ? directories.get(0).toFile() : output;
+        try (WatchDaemon daemon = new WatchDaemon(directories, outputDir, new HeaderLoader(headers),
+                new MergeService(), new ExportService(), format, debounce, out)) {
+            daemon.run();
+            return BatchCli.EXIT_OK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return BatchCli.EXIT_OK;
+        } catch (IOException | ClosedWatchServiceException e) {
+            log.error("Watch daemon stopped", e);
+            err.println("Error: " + e.getMessage());
+            return BatchCli.EXIT_JOB_FAILED;
+        }
+    }
+
+    /**
+     * Merges the current inputs once and then refreshes the export after every burst of file events until the
+     * thread is interrupted or the daemon is closed.
+     */
+    public void run() throws IOException, InterruptedException {
+        Files.createDirectories(outputDir.toPath());
+        for (Path directory : directories) {
+            registerTree(directory);
+        }
+        Path headerFolder = headerFolder();
+        if (headerFolder != null && Files.isDirectory(headerFolder) && !watchedDirectories.containsValue(headerFolder)) {
+            WatchKey key = headerFolder.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(key, headerFolder);
+        }
+        log.info("Watching {} for input changes, exporting to {}", directories, outputDir);
+        refreshOrReport();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key = watchService.take();
+            boolean relevant = drain(key);
+            WatchKey next;
+            while ((next = watchService.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                relevant |= drain(next);
+            }
+            if (relevant) {
+                refreshOrReport();
+            }
+        }
+    }
+
+    /**
+     * Refreshes like {@link #refresh()}, but reports a failure instead of ending the watch loop.
+     */
+    void refreshOrReport() throws IOException {
+        try {
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            log.error("Refresh failed, retrying on the next file event", e);
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("status", "failed");
+            line.put("error", String.valueOf(e.getMessage()));
+            out.println(objectMapper.writeValueAsString(line));
+        }
+    }
+
+    /**
+     * Updates the cache from the current directory contents and rewrites the export when a header group changed.
+     */
+    IncrementalMergeCache.Update refresh() throws IOException {
+        long start = System.nanoTime();
+        List<File> inputs = listInputs();
+        headerLoader.reload();
+        IncrementalMergeCache.Update update = cache.update(inputs, headerLoader.getHeaders());
+        File exportFile = null;
+        if (update.changed() || exportPending) {
+            exportPending = true;
+            exportFile = export();
+            exportPending = false;
+        }
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("inputs", inputs.size());
+        line.put("readFiles", update.readFiles().size());
+        line.put("failedFiles", update.failedFiles().size());
+        line.put("changedGroups", update.changedGroups().stream().map(header -> header.name()).sorted().toList());
+        if (exportFile != null) {
+            line.put("exportFile", exportFile.getAbsolutePath());
+        }
+        line.put("totalMillis", (System.nanoTime() - start) / 1_000_000);
+        out.println(objectMapper.writeValueAsString(line));
+        return update;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private File export() throws IOException {
+        File target = new File(outputDir, ExportService.EXPORT_FILE_NAME);
+        if (exportFormat.writesWorkbook()) {
+            File partial = new File(outputDir, ExportService.EXPORT_FILE_NAME + ".part");
+            try {
+                exportService.export(cache.result(), partial);
+                try {
+                    Files.move(partial.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(partial.toPath());
+            }
+        }
+        if (exportFormat.writesColumnar()) {
+            File columnar = exportService.exportColumnar(cache.result(), outputDir.getPath());
+            if (!exportFormat.writesWorkbook()) {
+                return columnar;
+            }
+        }
+        return target;
+    }
+
+    private List<File> listInputs() throws IOException {
+        Set<File> inputs = new TreeSet<>();
+        for (Path directory : directories) {
+            try (Stream<Path> walk = Files.walk(directory)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(this::isInput)
+                        .forEach(path -> inputs.add(path.toFile()));
+            }
+        }
+        return List.copyOf(inputs);
+    }
+
+    private boolean isInput(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.startsWith("~$") || name.startsWith(".")) {
+            return false;
+        }
+        if (OUTPUT_FILE_NAMES.contains(name) && path.toAbsolutePath().getParent().equals(outputDir.toPath())) {
+            return false;
+        }
+        return name.endsWith(".csv") || name.endsWith(".xlsx") || name.endsWith(".xls");
+    }
+
+    private boolean isHeaderFile(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")
+                && path.getParent().equals(headerFolder());
+    }
+
+    private Path headerFolder() {
+        Path folder = headerLoader.externalFolder();
+        return folder == null ? null : folder.toAbsolutePath().normalize();
+    }
+
+    private boolean drain(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                relevant = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(path);
+                } catch (IOException e) {
+                    log.warn("Cannot watch new directory {}", path, e);
+                }
+                relevant = true;
+            } else if (isInput(path) || isHeaderFile(path) || watchedDirectories.containsValue(path)) {
+                relevant = true;
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return relevant;
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String value(String option, Iterator<String> it) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return it.next();
+    }
+}
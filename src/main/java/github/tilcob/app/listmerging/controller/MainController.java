@@ -4,7 +4,11 @@ import github.tilcob.app.listmerging.service.ExportService;
 import github.tilcob.app.listmerging.service.HeaderLoader;
 import github.tilcob.app.listmerging.service.MergeService;
 import github.tilcob.app.listmerging.service.MergeValidationService;
+import github.tilcob.app.listmerging.service.ValidationReportWriter;
 import github.tilcob.app.listmerging.tasks.MergeExportTask;
+import github.tilcob.app.listmerging.tasks.MergeJobOptions;
+import github.tilcob.app.listmerging.tasks.MergeJobScheduler;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -15,27 +19,72 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class MainController {
     private static final Logger log = LoggerFactory.getLogger(MainController.class);
 
+    private final CompletableFuture<HeaderLoader> preloadedHeaders;
     private HeaderLoader loader;
     private final MergeService mergeService = new MergeService();
     private final ExportService exportService = new ExportService();
     private final MergeValidationService mergeValidationService = new MergeValidationService();
+    private final MergeJobScheduler scheduler = MergeJobScheduler.fromSystemProperties();
+    private final Map<MergeExportTask, MergeJobScheduler.Ticket> pendingTasks = new LinkedHashMap<>();
+    private MergeExportTask displayedTask;
 
     @FXML
     private Label outputLabel;
     @FXML
+    private Label queueLabel;
+    @FXML
     private Button mergeButton;
     @FXML
+    private Button cancelButton;
+    @FXML
     private ProgressBar progressBar;
 
+    public MainController() {
+        this(null);
+    }
+
+    /**
+     * @param preloadedHeaders header definitions that are being loaded in the background, or {@code null} to
+     *                         load them on the first merge
+     */
+    public MainController(CompletableFuture<HeaderLoader> preloadedHeaders) {
+        this.preloadedHeaders = preloadedHeaders;
+    }
+
     @FXML
     private void initialize() {
         progressBar.setProgress(0);
         progressBar.setVisible(false);
+        if (cancelButton != null) {
+            cancelButton.setVisible(false);
+            cancelButton.setOnAction(e -> cancelDisplayedTask());
+        }
+        if (queueLabel != null) {
+            scheduler.addListener(state -> Platform.runLater(() -> showQueueState(state)));
+        }
+    }
+
+    /**
+     * The preloaded header definitions, or freshly loaded ones if the preload failed.
+     */
+    private HeaderLoader headerLoader() {
+        if (preloadedHeaders == null) return new HeaderLoader();
+        try {
+            return preloadedHeaders.join();
+        } catch (CompletionException | CancellationException e) {
+            log.warn("Header preload failed, loading the header definitions again", e);
+            return new HeaderLoader();
+        }
     }
 
     @FXML
@@ -47,9 +96,18 @@ public class MainController {
             outputLabel.setText("No files selected");
             return;
         }
+        merge(files);
+    }
 
+    /**
+     * Queues a merge of {@code files} into the folder of the first one, as if they were selected with the Merge
+     * button.
+     *
+     * @return the queued task
+     */
+    public MergeExportTask merge(List<File> files) {
         File outDir = files.get(0).getParentFile();
-        if (loader == null) loader = new HeaderLoader();
+        if (loader == null) loader = headerLoader();
         MergeExportTask task = new MergeExportTask(
                 files,
                 outDir,
@@ -57,52 +115,137 @@ public class MainController {
                 mergeService,
                 exportService,
                 mergeValidationService,
-                null,
-                isValidationWarningModeEnabled(),
-                shouldWriteValidationReport(),
+                jobOptions(),
                 new com.fasterxml.jackson.databind.ObjectMapper()
         );
 
-        outputLabel.textProperty().bind(task.messageProperty());
+        long estimatedBytes = MergeJobScheduler.estimateBytes(files, loader.getHeaders());
+        MergeJobScheduler.Ticket ticket = scheduler.submit(
+                outDir.getName(), estimatedBytes, MergeJobScheduler.Priority.NORMAL, task);
 
-        if (mergeButton != null) {
-            mergeButton.disableProperty().bind(task.runningProperty());
-        }
+        pendingTasks.put(task, ticket);
+        display(task);
+        outputLabel.setText("Waiting for memory (" + estimatedBytes / (1024 * 1024) + " MB estimated)...");
 
         task.setOnRunning(e -> {
+            display(task);
+            outputLabel.textProperty().bind(task.messageProperty());
             progressBar.setVisible(true);
             progressBar.progressProperty().bind(task.progressProperty());
         });
 
         task.setOnSucceeded(e -> {
-            outputLabel.textProperty().unbind();
-            progressBar.progressProperty().unbind();
-            progressBar.setProgress(0);
-            progressBar.setVisible(false);
-
+            if (!finishDisplay(task)) {
+                return;
+            }
             File exported = task.getValue();
             String reportInfo = task.getValidationReportFile() == null
                     ? ""
                     : " | Report: " + task.getValidationReportFile().getAbsolutePath();
             outputLabel.setText("Export created: " + exported.getAbsolutePath() + " | " + task.getValidationSummary() + reportInfo);
+            showPendingTask();
         });
 
         task.setOnFailed(e -> {
-            outputLabel.textProperty().unbind();
-            progressBar.progressProperty().unbind();
-            progressBar.setProgress(0);
-            progressBar.setVisible(false);
-
             Throwable ex = task.getException();
+            log.error("Merge/export failed", ex);
+            if (!finishDisplay(task)) {
+                return;
+            }
             outputLabel.setText(ex == null
                     ? "Error during merge/export."
                     : ex.getMessage());
-            log.error("Merge/export failed", ex);
+            showPendingTask();
+        });
+
+        task.setOnCancelled(e -> {
+            log.info("Merge/export cancelled by user.");
+            if (!finishDisplay(task)) {
+                return;
+            }
+            outputLabel.setText("Merge cancelled.");
+            showPendingTask();
         });
+        return task;
+    }
+
+    /**
+     * Cancels the displayed task, whether it is still waiting in the scheduler or already running.
+     */
+    private void cancelDisplayedTask() {
+        MergeExportTask task = displayedTask;
+        if (task == null) {
+            return;
+        }
+        MergeJobScheduler.Ticket ticket = pendingTasks.get(task);
+        if (ticket != null) {
+            ticket.cancel();
+        }
+        task.cancel();
+    }
+
+    /**
+     * Makes the oldest unfinished task the displayed one after the displayed task finished, so it can still be
+     * cancelled. The outcome of the finished task stays visible until that task starts running.
+     */
+    private void showPendingTask() {
+        if (pendingTasks.isEmpty()) {
+            return;
+        }
+        MergeExportTask next = pendingTasks.keySet().iterator().next();
+        displayedTask = next;
+        if (cancelButton != null) {
+            cancelButton.setVisible(true);
+        }
+        if (next.isRunning()) {
+            progressBar.setVisible(true);
+            progressBar.progressProperty().bind(next.progressProperty());
+        }
+    }
+
+    /**
+     * Shows the progress of {@code task} instead of the previously displayed one.
+     */
+    private void display(MergeExportTask task) {
+        displayedTask = task;
+        outputLabel.textProperty().unbind();
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        if (cancelButton != null) {
+            cancelButton.setVisible(true);
+        }
+    }
+
+    /**
+     * Forgets the finished {@code task} and resets the progress display if it is the displayed one.
+     *
+     * @return whether {@code task} was displayed and its outcome should be shown
+     */
+    private boolean finishDisplay(MergeExportTask task) {
+        pendingTasks.remove(task);
+        if (displayedTask != task) {
+            return false;
+        }
+        displayedTask = null;
+        outputLabel.textProperty().unbind();
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        progressBar.setVisible(false);
+        if (cancelButton != null) {
+            cancelButton.setVisible(false);
+        }
+        return true;
+    }
 
-        Thread t = new Thread(task, "merge-export-task");
-        t.setDaemon(true);
-        t.start();
+    private void showQueueState(MergeJobScheduler.QueueState state) {
+        boolean idle = state.running() == 0 && state.queued().isEmpty();
+        queueLabel.setVisible(!idle);
+        queueLabel.setText(idle
+                ? ""
+                : "Running: " + state.running()
+                + " | Queued: " + state.queued().size()
+                + " | Memory reserved: " + state.reservedBytes() / (1024 * 1024)
+                + " of " + state.budgetBytes() / (1024 * 1024) + " MB");
     }
 
     private FileChooser createFileChooser(String title) {
@@ -119,6 +262,20 @@ public class MainController {
         return outputLabel.getScene().getWindow();
     }
 
+    private MergeJobOptions jobOptions() {
+        return new MergeJobOptions(
+                null,
+                isValidationWarningModeEnabled(),
+                shouldWriteValidationReport(),
+                validationReportFormat(),
+                shouldWriteColumnarExport()
+                        ? MergeJobOptions.ExportFormat.BOTH
+                        : MergeJobOptions.ExportFormat.XLSX,
+                executionMode(),
+                snapshotMode(),
+                requireKnownHeaders());
+    }
+
     private boolean isValidationWarningModeEnabled() {
         return Boolean.parseBoolean(System.getProperty("listmerging.validation.warn-mode", "false"));
     }
@@ -126,4 +283,24 @@ public class MainController {
     private boolean shouldWriteValidationReport() {
         return Boolean.parseBoolean(System.getProperty("listmerging.validation.write-report", "true"));
     }
+
+    private ValidationReportWriter.Format validationReportFormat() {
+        return ValidationReportWriter.Format.fromProperty(System.getProperty("listmerging.validation.report-format"));
+    }
+
+    private MergeJobOptions.ExecutionMode executionMode() {
+        return MergeJobOptions.ExecutionMode.fromProperty(System.getProperty("listmerging.execution.mode"));
+    }
+
+    private MergeJobOptions.SnapshotMode snapshotMode() {
+        return MergeJobOptions.SnapshotMode.fromProperty(System.getProperty("listmerging.snapshot"));
+    }
+
+    private boolean requireKnownHeaders() {
+        return Boolean.parseBoolean(System.getProperty("listmerging.ingestion.require-known-headers", "false"));
+    }
+
+    private boolean shouldWriteColumnarExport() {
+        return Boolean.parseBoolean(System.getProperty("listmerging.export.columnar", "false"));
+    }
 }
@@ -0,0 +1,41 @@
+package github.tilcob.app.listmerging.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the parse and aggregation of one input file.
+ */
+@Name("github.tilcob.listmerging.File")
+@Label("Merge Input File")
+@Category({"List Merging"})
+@Description("Parse and aggregation of one input file")
+@StackTrace(false)
+public class MergeFileEvent extends jdk.jfr.Event {
+    @Label("File")
+    public String file;
+
+    @Label("Header")
+    public String header;
+
+    @Label("Rows")
+    public long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Distinct Keys")
+    public long distinctKeys;
+
+    @Label("Rows per Second")
+    public double rowsPerSecond;
+
+    @Label("Allocated")
+    @DataAmount
+    public long allocatedBytes;
+}
@@ -0,0 +1,274 @@
+package github.tilcob.app.listmerging.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and volumes of one merge job.
+ * <p>
+ * Stages and input files are recorded as {@link StageMetrics} and {@link FileMetrics} and emitted as
+ * {@link MergeStageEvent} and {@link MergeFileEvent} to JDK Flight Recorder, so a recording of a slow job shows
+ * where the time went. {@link #summary()} condenses the metrics for the validation report.
+ * </p>
+ * <p>
+ * Allocation figures are estimates: they count the bytes allocated by the thread that runs a stage plus the
+ * bytes allocated by the parser threads for each file. Other worker threads are not included. They are
+ * {@code 0} when the JVM does not support thread allocation accounting. Instances are thread-safe.
+ * </p>
+ */
+public final class MergeMetrics {
+    /**
+     * Metrics that record nothing. Stages still emit their Flight Recorder events.
+     */
+    public static final MergeMetrics NONE = new MergeMetrics(false);
+    private static final int SLOWEST_FILES = 10;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final boolean enabled;
+    private final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+    private final List<FileMetrics> files = new ArrayList<>();
+    private final Map<String, Long> distinctKeys = new TreeMap<>();
+
+    public MergeMetrics() {
+        this(true);
+    }
+
+    private MergeMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a stage; the stage is recorded when {@link Stage#end(long, long)} is called.
+     */
+    public Stage startStage(String name) {
+        return new Stage(name);
+    }
+
+    /**
+     * Starts timing the parse of an input file. The returned probe must be ended on the same thread.
+     */
+    public static FileProbe beginFile(File file) {
+        return new FileProbe(file);
+    }
+
+    public void fileCompleted(FileMetrics metrics) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            files.add(metrics);
+        }
+    }
+
+    /**
+     * Records the number of distinct grouping keys of a header group.
+     */
+    public void distinctKeys(String headerName, long count) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            distinctKeys.merge(headerName == null ? "Unknown" : headerName, count, Long::sum);
+        }
+    }
+
+    public synchronized List<StageMetrics> stages() {
+        return List.copyOf(stages.values());
+    }
+
+    public synchronized List<FileMetrics> files() {
+        return List.copyOf(files);
+    }
+
+    /**
+     * Rows read from all input files so far.
+     */
+    public synchronized long fileRows() {
+        return files.stream().mapToLong(FileMetrics::rows).sum();
+    }
+
+    /**
+     * Bytes read from all input files so far.
+     */
+    public synchronized long fileBytes() {
+        return files.stream().mapToLong(FileMetrics::bytes).sum();
+    }
+
+    /**
+     * Bytes allocated while parsing all input files so far.
+     */
+    public synchronized long fileAllocatedBytes() {
+        return files.stream().mapToLong(FileMetrics::allocatedBytes).sum();
+    }
+
+    /**
+     * Stages, file totals with the slowest files, and distinct keys per header as plain maps for JSON output.
+     */
+    public synchronized Map<String, Object> summary() {
+        Map<String, Object> stageSummary = new LinkedHashMap<>();
+        stages.values().forEach(stage -> stageSummary.put(stage.name(), stage.toMap()));
+
+        Map<String, Object> fileSummary = new LinkedHashMap<>();
+        fileSummary.put("count", files.size());
+        fileSummary.put("rows", fileRows());
+        fileSummary.put("bytes", fileBytes());
+        fileSummary.put("allocatedBytes", fileAllocatedBytes());
+        fileSummary.put("slowest", files.stream()
+                .sorted(Comparator.comparingLong(FileMetrics::nanos).reversed())
+                .limit(SLOWEST_FILES)
+                .map(FileMetrics::toMap)
+                .toList());
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("stages", stageSummary);
+        summary.put("files", fileSummary);
+        summary.put("distinctKeys", new LinkedHashMap<>(distinctKeys));
+        return summary;
+    }
+
+    private synchronized void record(StageMetrics metrics) {
+        stages.put(metrics.name(), metrics);
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, or {@code 0} if not supported.
+     */
+    static long currentThreadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : count * 1_000_000_000.0 / nanos;
+    }
+
+    /**
+     * Running stage.
+     */
+    public final class Stage {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private final long startAllocated = currentThreadAllocatedBytes();
+        private final MergeStageEvent event = new MergeStageEvent();
+        private long extraAllocated;
+
+        private Stage(String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        /**
+         * Adds bytes allocated on other threads on behalf of this stage.
+         */
+        public void addAllocatedBytes(long bytes) {
+            extraAllocated += bytes;
+        }
+
+        public StageMetrics end(long rows, long bytes) {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = Math.max(0, currentThreadAllocatedBytes() - startAllocated) + extraAllocated;
+            StageMetrics metrics = new StageMetrics(name, nanos, rows, bytes, allocated);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.rows = rows;
+                event.bytes = bytes;
+                event.rowsPerSecond = metrics.rowsPerSecond();
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+            if (enabled) {
+                record(metrics);
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * Running parse of one input file.
+     */
+    public static final class FileProbe {
+        private final File file;
+        private final long startNanos = System.nanoTime();
+        private final long startAllocated = currentThreadAllocatedBytes();
+        private final MergeFileEvent event = new MergeFileEvent();
+
+        private FileProbe(File file) {
+            this.file = file;
+            event.begin();
+        }
+
+        public FileMetrics end(String headerName, long rows, long bytes, long distinctKeys) {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = Math.max(0, currentThreadAllocatedBytes() - startAllocated);
+            FileMetrics metrics = new FileMetrics(file.getPath(), headerName, nanos, rows, bytes, distinctKeys, allocated);
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = metrics.file();
+                event.header = headerName;
+                event.rows = rows;
+                event.bytes = bytes;
+                event.distinctKeys = distinctKeys;
+                event.rowsPerSecond = metrics.rowsPerSecond();
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+            return metrics;
+        }
+    }
+
+    public record StageMetrics(String name, long nanos, long rows, long bytes, long allocatedBytes) {
+        public long millis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        public double rowsPerSecond() {
+            return perSecond(rows, nanos);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("millis", millis());
+            map.put("rows", rows);
+            map.put("bytes", bytes);
+            map.put("rowsPerSecond", Math.round(rowsPerSecond()));
+            map.put("allocatedBytes", allocatedBytes);
+            return map;
+        }
+    }
+
+    public record FileMetrics(String file,
+                              String header,
+                              long nanos,
+                              long rows,
+                              long bytes,
+                              long distinctKeys,
+                              long allocatedBytes) {
+        public long millis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        public double rowsPerSecond() {
+            return perSecond(rows, nanos);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("file", file);
+            map.put("header", header);
+            map.put("millis", millis());
+            map.put("rows", rows);
+            map.put("bytes", bytes);
+            map.put("distinctKeys", distinctKeys);
+            map.put("rowsPerSecond", Math.round(rowsPerSecond()));
+            map.put("allocatedBytes", allocatedBytes);
+            return map;
+        }
+    }
+}
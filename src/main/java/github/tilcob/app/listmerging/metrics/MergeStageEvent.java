@@ -0,0 +1,37 @@
+package github.tilcob.app.listmerging.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning one stage of a merge job, e.g. {@code merge}, {@code validation} or
+ * {@code export}.
+ */
+@Name("github.tilcob.listmerging.Stage")
+@Label("Merge Stage")
+@Category({"List Merging"})
+@Description("One stage of a merge job")
+@StackTrace(false)
+public class MergeStageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    public String stage;
+
+    @Label("Rows")
+    public long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Rows per Second")
+    public double rowsPerSecond;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the stage thread and the parser threads")
+    @DataAmount
+    public long allocatedBytes;
+}
@@ -0,0 +1,79 @@
+package github.tilcob.app.listmerging.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Additional aggregate of a named column, exported next to the count and the sum column. The first number in a
+ * cell is aggregated; cells without a number are left out. {@code label} names the export column and defaults to
+ * the column name followed by the function.
+ */
+public record AggregateSpec(String column, Function function, String label) {
+    @JsonCreator
+    public AggregateSpec(@JsonProperty("column") String column,
+                         @JsonProperty("function") Function function,
+                         @JsonProperty("label") String label) {
+        this.column = column;
+        this.function = function == null ? Function.SUM : function;
+        this.label = label;
+    }
+
+    public AggregateSpec(String column, Function function) {
+        this(column, function, null);
+    }
+
+    /**
+     * Name of the export column.
+     */
+    public String exportLabel() {
+        if (label != null && !label.isBlank()) {
+            return label;
+        }
+        return column + " (" + function.name().toLowerCase(Locale.ROOT) + ")";
+    }
+
+    /**
+     * Distinct aggregated columns in order of first use, trimmed and lower-cased. Each one occupies one block of
+     * {@link AggregationResult#SLOTS_PER_COLUMN} accumulators, shared by all functions on that column.
+     */
+    public static List<String> columns(List<AggregateSpec> specs) {
+        List<String> columns = new ArrayList<>();
+        for (AggregateSpec spec : specs) {
+            String column = normalize(spec.column());
+            if (!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Index of the accumulator block of this spec in {@link #columns(List)}.
+     */
+    public int columnSlot(List<String> columns) {
+        return columns.indexOf(normalize(column));
+    }
+
+    private static String normalize(String column) {
+        return column == null ? "" : column.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public enum Function {
+        SUM,
+        MIN,
+        MAX,
+        AVG;
+
+        @JsonCreator
+        public static Function fromJson(String value) {
+            if (value == null || value.isBlank()) {
+                return SUM;
+            }
+            return Function.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -1,15 +1,127 @@
 package github.tilcob.app.listmerging.model;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Count and sum of the rows of one grouping key.
+ * <p>
+ * {@code accumulators} holds the {@link HeaderDefinition#aggregates()} in one flat array with
+ * {@link #SLOTS_PER_COLUMN} slots per aggregated column: sum, number of values, minimum and maximum. It is empty for
+ * headers without aggregates. The array is copied on construction and by {@link #accumulators()}, so a result never
+ * changes; use {@link #accumulator(int)} to read single slots without a copy.
+ * </p>
+ */
+public record AggregationResult(int rowCount, BigDecimal sumValue, double[] accumulators) {
+    public static final int SLOTS_PER_COLUMN = 4;
+    public static final int SUM = 0;
+    public static final int VALUES = 1;
+    public static final int MIN = 2;
+    public static final int MAX = 3;
+    private static final double[] NO_ACCUMULATORS = new double[0];
 
-public record AggregationResult(int rowCount, BigDecimal sumValue) {
     public AggregationResult {
         if (sumValue == null) {
             sumValue = BigDecimal.ZERO;
         }
+        accumulators = accumulators == null || accumulators.length == 0 ? NO_ACCUMULATORS : accumulators.clone();
+    }
+
+    public AggregationResult(int rowCount, BigDecimal sumValue) {
+        this(rowCount, sumValue, null);
+    }
+
+    /**
+     * A copy of the accumulator slots.
+     */
+    @Override
+    public double[] accumulators() {
+        return accumulators.length == 0 ? NO_ACCUMULATORS : accumulators.clone();
+    }
+
+    /**
+     * Number of accumulator slots, {@link #SLOTS_PER_COLUMN} per aggregated column.
+     */
+    public int accumulatorCount() {
+        return accumulators.length;
+    }
+
+    /**
+     * Value of one accumulator slot.
+     */
+    public double accumulator(int slot) {
+        return accumulators[slot];
+    }
+
+    /**
+     * Empty accumulators for {@code columns} aggregated columns.
+     */
+    public static double[] emptyAccumulators(int columns) {
+        double[] accumulators = new double[columns * SLOTS_PER_COLUMN];
+        for (int slot = 0; slot < accumulators.length; slot += SLOTS_PER_COLUMN) {
+            accumulators[slot + MIN] = Double.POSITIVE_INFINITY;
+            accumulators[slot + MAX] = Double.NEGATIVE_INFINITY;
+        }
+        return accumulators;
     }
 
     public AggregationResult add(AggregationResult other) {
-        return new AggregationResult(rowCount + other.rowCount, sumValue.add(other.sumValue));
+        return new AggregationResult(rowCount + other.rowCount, sumValue.add(other.sumValue),
+                combine(accumulators, other.accumulators));
+    }
+
+    /**
+     * Value of {@code function} for the aggregated column with the given index, or {@code NaN} if none of its cells
+     * held a number.
+     */
+    public double aggregate(int column, AggregateSpec.Function function) {
+        int slot = column * SLOTS_PER_COLUMN;
+        if (slot + SLOTS_PER_COLUMN > accumulators.length || accumulators[slot + VALUES] == 0) {
+            return Double.NaN;
+        }
+        return switch (function) {
+            case SUM -> accumulators[slot + SUM];
+            case MIN -> accumulators[slot + MIN];
+            case MAX -> accumulators[slot + MAX];
+            case AVG -> accumulators[slot + SUM] / accumulators[slot + VALUES];
+        };
+    }
+
+    private static double[] combine(double[] left, double[] right) {
+        if (right.length == 0) return left;
+        if (left.length == 0) return right;
+        double[] combined = new double[Math.max(left.length, right.length)];
+        for (int slot = 0; slot < combined.length; slot += SLOTS_PER_COLUMN) {
+            if (slot >= right.length) {
+                System.arraycopy(left, slot, combined, slot, SLOTS_PER_COLUMN);
+            } else if (slot >= left.length) {
+                System.arraycopy(right, slot, combined, slot, SLOTS_PER_COLUMN);
+            } else {
+                combined[slot + SUM] = left[slot + SUM] + right[slot + SUM];
+                combined[slot + VALUES] = left[slot + VALUES] + right[slot + VALUES];
+                combined[slot + MIN] = Math.min(left[slot + MIN], right[slot + MIN]);
+                combined[slot + MAX] = Math.max(left[slot + MAX], right[slot + MAX]);
+            }
+        }
+        return combined;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AggregationResult other
+                && rowCount == other.rowCount
+                && sumValue.equals(other.sumValue)
+                && Arrays.equals(accumulators, other.accumulators);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rowCount + sumValue.hashCode()) + Arrays.hashCode(accumulators);
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationResult[rowCount=" + rowCount + ", sumValue=" + sumValue
+                + (accumulators.length == 0 ? "" : ", accumulators=" + Arrays.toString(accumulators)) + "]";
     }
 }
@@ -11,20 +11,38 @@ public record HeaderDefinition(String name,
                                List<List<String>> headerAliases,
                                HeaderPosition headerPosition,
                                String sumColumn,
-                               String sumPattern) {
+                               String sumPattern,
+                               List<RowFilter> rowFilters,
+                               List<String> keyColumns,
+                               List<AggregateSpec> aggregates) {
     @JsonCreator
     public HeaderDefinition(@JsonProperty("name") String name,
                             @JsonProperty("headers") List<String> headers,
                             @JsonProperty("headerAliases") List<List<String>> headerAliases,
                             @JsonProperty("headerPosition") HeaderPosition headerPosition,
                             @JsonProperty("sumColumn") String sumColumn,
-                            @JsonProperty("sumPattern") String sumPattern) {
+                            @JsonProperty("sumPattern") String sumPattern,
+                            @JsonProperty("rowFilters") List<RowFilter> rowFilters,
+                            @JsonProperty("keyColumns") List<String> keyColumns,
+                            @JsonProperty("aggregates") List<AggregateSpec> aggregates) {
         this.name = name;
         this.headers = headers;
         this.headerAliases = headerAliases;
         this.headerPosition = headerPosition == null ? HeaderPosition.FIRST : headerPosition;
         this.sumColumn = sumColumn;
         this.sumPattern = sumPattern;
+        this.rowFilters = rowFilters == null ? List.of() : List.copyOf(rowFilters);
+        this.keyColumns = keyColumns == null ? List.of() : List.copyOf(keyColumns);
+        this.aggregates = aggregates == null ? List.of() : List.copyOf(aggregates);
+    }
+
+    public HeaderDefinition(String name,
+                            List<String> headers,
+                            List<List<String>> headerAliases,
+                            HeaderPosition headerPosition,
+                            String sumColumn,
+                            String sumPattern) {
+        this(name, headers, headerAliases, headerPosition, sumColumn, sumPattern, null, null, null);
     }
 
     public HeaderDefinition(String name, List<String> headers) {
@@ -0,0 +1,53 @@
+package github.tilcob.app.listmerging.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Locale;
+
+/**
+ * Condition on one named column that a row must meet to be merged. {@code value} is used by
+ * {@link Type#EQUALS}, {@link Type#PREFIX} and {@link Type#REGEX}; {@code min} and {@code max} bound
+ * {@link Type#RANGE} inclusively and may be left out.
+ */
+public record RowFilter(String column, Type type, String value, Double min, Double max) {
+    @JsonCreator
+    public RowFilter(@JsonProperty("column") String column,
+                     @JsonProperty("type") Type type,
+                     @JsonProperty("value") String value,
+                     @JsonProperty("min") Double min,
+                     @JsonProperty("max") Double max) {
+        this.column = column;
+        this.type = type == null ? Type.EQUALS : type;
+        this.value = value;
+        this.min = min;
+        this.max = max;
+    }
+
+    public enum Type {
+        /**
+         * Trimmed cell equals {@code value}, ignoring case.
+         */
+        EQUALS,
+        /**
+         * Trimmed cell starts with {@code value}, ignoring case.
+         */
+        PREFIX,
+        /**
+         * {@code value} is found in the cell.
+         */
+        REGEX,
+        /**
+         * The first number in the cell lies between {@code min} and {@code max}.
+         */
+        RANGE;
+
+        @JsonCreator
+        public static Type fromJson(String value) {
+            if (value == null || value.isBlank()) {
+                return EQUALS;
+            }
+            return Type.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
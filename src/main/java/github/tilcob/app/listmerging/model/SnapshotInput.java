@@ -0,0 +1,21 @@
+package github.tilcob.app.listmerging.model;
+
+import java.io.File;
+
+/**
+ * An input file of a result snapshot, identified by its absolute path, size and modification time.
+ */
+public record SnapshotInput(String path, long size, long lastModified) {
+    public static SnapshotInput of(File file) {
+        File absolute = file.getAbsoluteFile();
+        return new SnapshotInput(absolute.getPath(), absolute.length(), absolute.lastModified());
+    }
+
+    /**
+     * Whether {@code file} still has the size and modification time it had when the snapshot was written.
+     */
+    public boolean matches(File file) {
+        File absolute = file.getAbsoluteFile();
+        return size == absolute.length() && lastModified == absolute.lastModified();
+    }
+}
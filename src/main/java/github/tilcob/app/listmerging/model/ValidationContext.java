@@ -16,12 +16,18 @@ import java.util.Optional;
  *  <li>{@code false}: missing expectations are treated as errors and added as {@link ValidationIssue}
  *  entries to the report.</li>
  * </ul>
+ * <p>
+ * {@code referenceMode} selects how reference aggregation results are compared. {@link ReferenceMode#FINGERPRINT}
+ * compares order-independent per-header fingerprints and only falls back to the detailed key-by-key diff
+ * when they disagree.
+ * </p>
  */
 public record ValidationContext(Map<String, ExpectedMetrics> expectedMetricsByHeader,
                                 BigDecimal sumTolerance,
                                 int sumScale,
                                 boolean treatMissingExpectationsAsWarning,
-                                boolean enableReferenceAggregation) {
+                                boolean enableReferenceAggregation,
+                                ReferenceMode referenceMode) {
 
     public ValidationContext {
         expectedMetricsByHeader = expectedMetricsByHeader == null ? Map.of() : Map.copyOf(expectedMetricsByHeader);
@@ -29,6 +35,22 @@ public record ValidationContext(Map<String, ExpectedMetrics> expectedMetricsByHe
         if (sumScale < 0) {
             sumScale = 2;
         }
+        if (referenceMode == null) {
+            referenceMode = ReferenceMode.DETAILED;
+        }
+    }
+
+    public ValidationContext(Map<String, ExpectedMetrics> expectedMetricsByHeader,
+                             BigDecimal sumTolerance,
+                             int sumScale,
+                             boolean treatMissingExpectationsAsWarning,
+                             boolean enableReferenceAggregation) {
+        this(expectedMetricsByHeader,
+                sumTolerance,
+                sumScale,
+                treatMissingExpectationsAsWarning,
+                enableReferenceAggregation,
+                ReferenceMode.DETAILED);
     }
 
     public static ValidationContext defaults() {
@@ -59,4 +81,15 @@ public record ValidationContext(Map<String, ExpectedMetrics> expectedMetricsByHe
             }
         }
     }
+
+    public enum ReferenceMode {
+        /**
+         * Builds both aggregations as maps and compares them key by key.
+         */
+        DETAILED,
+        /**
+         * Compares per-header fingerprints first and diffs key by key only on a mismatch.
+         */
+        FINGERPRINT
+    }
 }
@@ -1,14 +1,31 @@
 package github.tilcob.app.listmerging.model;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Result of a validation run including potential issues.
+ * <p>
+ * {@code issues} may be capped per issue code. {@code issueCounts} always holds the number of issues that
+ * were found for each code, so {@link #truncated()} tells whether the list is complete.
+ * </p>
  */
-public record ValidationReport(boolean valid, List<ValidationIssue> issues) {
+public record ValidationReport(boolean valid, List<ValidationIssue> issues, Map<String, Long> issueCounts) {
 
     public ValidationReport {
         issues = issues == null ? List.of() : List.copyOf(issues);
+        if (issueCounts == null) {
+            Map<String, Long> counted = new LinkedHashMap<>();
+            issues.forEach(issue -> counted.merge(issue.code(), 1L, Long::sum));
+            issueCounts = counted;
+        }
+        issueCounts = Collections.unmodifiableMap(new LinkedHashMap<>(issueCounts));
+    }
+
+    public ValidationReport(boolean valid, List<ValidationIssue> issues) {
+        this(valid, issues, null);
     }
 
     public static ValidationReport success() {
@@ -22,4 +39,12 @@ public record ValidationReport(boolean valid, List<ValidationIssue> issues) {
     public boolean hasErrors() {
         return !valid || !issues.isEmpty();
     }
+
+    public long totalIssueCount() {
+        return issueCounts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public boolean truncated() {
+        return totalIssueCount() > issues.size();
+    }
 }
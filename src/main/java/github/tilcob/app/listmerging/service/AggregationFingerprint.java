@@ -0,0 +1,133 @@
+package github.tilcob.app.listmerging.service;
+
+import java.math.BigDecimal;
+
+/**
+ * Order-independent 128-bit fingerprint of the aggregation of one header group.
+ * <p>
+ * Every (canonical key, count, sum) contribution adds {@code h1(key) * count + h2(key) * sumUnits} to the
+ * first lane and the same with two further key hashes to the second lane, modulo 2<sup>64</sup>. The
+ * fingerprint is linear in count and sum. Adding single rows therefore produces the same value as adding
+ * the already aggregated keys, and the reference path does not have to group its rows.
+ * </p>
+ * <p>
+ * Sums are converted to units of 10<sup>-scale</sup>, where the scale is the largest number of decimals seen so
+ * far. When a value with more decimals arrives, the sum part of the lanes is multiplied by the matching power of
+ * ten, which linearity allows, and two fingerprints are compared at the larger of their scales. Each multiplication
+ * by ten drops one bit of the lanes, so scales above {@value #MAX_SUM_SCALE} mark the fingerprint as inexact, and
+ * inexact fingerprints never match.
+ * </p>
+ */
+final class AggregationFingerprint {
+    static final int MAX_SUM_SCALE = 18;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final long SEED_A = 0x243F6A8885A308D3L;
+    private static final long SEED_B = 0x13198A2E03707344L;
+
+    private long countLane0;
+    private long countLane1;
+    private long sumLane0;
+    private long sumLane1;
+    private int scale;
+    private long rowCount;
+    private boolean exact = true;
+
+    void add(String canonicalKey, long count, BigDecimal sum) {
+        long a = hash(canonicalKey, SEED_A);
+        long b = hash(canonicalKey, SEED_B);
+        long units = toUnits(sum);
+
+        countLane0 += mix(a) * count;
+        countLane1 += mix(b) * count;
+        sumLane0 += mix(a + GOLDEN_GAMMA) * units;
+        sumLane1 += mix(b + GOLDEN_GAMMA) * units;
+        rowCount += count;
+    }
+
+    void add(AggregationFingerprint other) {
+        rescale(other.scale);
+        long factor = powerOfTen(scale - other.scale);
+        countLane0 += other.countLane0;
+        countLane1 += other.countLane1;
+        sumLane0 += other.sumLane0 * factor;
+        sumLane1 += other.sumLane1 * factor;
+        rowCount += other.rowCount;
+        exact &= other.exact;
+    }
+
+    long rowCount() {
+        return rowCount;
+    }
+
+    boolean matches(AggregationFingerprint other) {
+        if (other == null || !exact || !other.exact) {
+            return false;
+        }
+        int common = Math.max(scale, other.scale);
+        long factor = powerOfTen(common - scale);
+        long otherFactor = powerOfTen(common - other.scale);
+        return countLane0 == other.countLane0
+                && countLane1 == other.countLane1
+                && sumLane0 * factor == other.sumLane0 * otherFactor
+                && sumLane1 * factor == other.sumLane1 * otherFactor
+                && rowCount == other.rowCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x/scale=%d/rows=%d%s", countLane0 + sumLane0, countLane1 + sumLane1, scale,
+                rowCount, exact ? "" : "/inexact");
+    }
+
+    private long toUnits(BigDecimal sum) {
+        if (sum == null || sum.signum() == 0) {
+            return 0;
+        }
+        int decimals = Math.max(0, sum.scale() > scale ? sum.stripTrailingZeros().scale() : sum.scale());
+        if (decimals > MAX_SUM_SCALE) {
+            exact = false;
+            return 0;
+        }
+        rescale(decimals);
+        // Only the low 64 bits are needed: addition modulo 2^64 keeps the fingerprint linear.
+        return sum.setScale(scale).unscaledValue().longValue();
+    }
+
+    /**
+     * Raises the scale of the sum lanes to {@code newScale} if it is larger than the current one.
+     */
+    private void rescale(int newScale) {
+        if (newScale <= scale) {
+            return;
+        }
+        long factor = powerOfTen(newScale - scale);
+        sumLane0 *= factor;
+        sumLane1 *= factor;
+        scale = newScale;
+    }
+
+    /**
+     * 10<sup>exponent</sup> modulo 2<sup>64</sup>.
+     */
+    private static long powerOfTen(int exponent) {
+        long power = 1;
+        for (int i = 0; i < exponent; i++) {
+            power *= 10;
+        }
+        return power;
+    }
+
+    private static long hash(String value, long seed) {
+        long h = seed;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h ^ value.length());
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
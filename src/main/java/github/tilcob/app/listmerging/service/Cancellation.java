@@ -0,0 +1,22 @@
+package github.tilcob.app.listmerging.service;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation for long-running loops. Cancelling a JavaFX task interrupts its thread, and the
+ * worker pools of the services are shut down with {@code shutdownNow()}, which interrupts their threads too.
+ */
+final class Cancellation {
+
+    private Cancellation() {
+    }
+
+    /**
+     * Throws a {@link CancellationException} when the current thread has been interrupted.
+     */
+    static void checkpoint() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Operation was cancelled.");
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package github.tilcob.app.listmerging.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads files written by {@link ExportService#exportColumnar(Map, String)} back into the merge result structure.
+ * <p>
+ * The file is memory-mapped and decoded column by column. Dictionary values are shared between all rows
+ * that reference them. Sums are restored with the common scale of their group, so they are numerically
+ * equal to the exported values but may carry additional trailing zeros.
+ * </p>
+ */
+public class ColumnarResultReader {
+    private final ObjectMapper mapper;
+
+    public ColumnarResultReader() {
+        this(new ObjectMapper());
+    }
+
+    public ColumnarResultReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Columnar file is too large to be mapped: " + file.getName());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return read(buffer, file.getName());
+        }
+    }
+
+    Map<HeaderDefinition, Map<List<String>, AggregationResult>> read(ByteBuffer buffer, String source)
+            throws IOException {
+        try {
+            if (buffer.getInt() != ColumnarResultWriter.MAGIC) {
+                throw new IOException("Not a columnar merge result: " + source);
+            }
+            short version = buffer.getShort();
+            if (version != ColumnarResultWriter.VERSION && version != ColumnarResultWriter.VERSION_WITHOUT_ACCUMULATORS) {
+                throw new IOException("Unsupported columnar format version " + version + " in " + source);
+            }
+
+            int groupCount = buffer.getInt();
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> result = new LinkedHashMap<>();
+            for (int g = 0; g < groupCount; g++) {
+                HeaderDefinition header = readHeader(buffer);
+                result.put(header, readRows(buffer, version != ColumnarResultWriter.VERSION_WITHOUT_ACCUMULATORS));
+            }
+            return result;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated columnar merge result: " + source, e);
+        }
+    }
+
+    private HeaderDefinition readHeader(ByteBuffer buffer) throws IOException {
+        byte[] metadata = new byte[buffer.getInt()];
+        buffer.get(metadata);
+        return mapper.readValue(metadata, HeaderDefinition.class);
+    }
+
+    private Map<List<String>, AggregationResult> readRows(ByteBuffer buffer, boolean withAccumulators) {
+        int rowCount = buffer.getInt();
+        int keyWidth = buffer.getInt();
+        int[] keyLengths = readPackedInts(buffer, rowCount);
+
+        String[][] cells = new String[rowCount][];
+        for (int r = 0; r < rowCount; r++) {
+            cells[r] = new String[keyLengths[r]];
+        }
+
+        for (int c = 0; c < keyWidth; c++) {
+            String[] dictionary = new String[buffer.getInt()];
+            for (int d = 0; d < dictionary.length; d++) {
+                dictionary[d] = readString(buffer);
+            }
+            int[] codes = readPackedInts(buffer, rowCount);
+            for (int r = 0; r < rowCount; r++) {
+                if (c < cells[r].length) {
+                    cells[r][c] = dictionary[codes[r]];
+                }
+            }
+        }
+
+        int[] counts = readPackedInts(buffer, rowCount);
+        BigDecimal[] sums = readSums(buffer, rowCount);
+        double[][] accumulators = withAccumulators ? readAccumulators(buffer, rowCount) : new double[rowCount][];
+
+        Map<List<String>, AggregationResult> rows = new HashMap<>(Math.max(16, (int) (rowCount / 0.75f) + 1));
+        for (int r = 0; r < rowCount; r++) {
+            rows.put(List.of(cells[r]), new AggregationResult(counts[r], sums[r], accumulators[r]));
+        }
+        return rows;
+    }
+
+    private BigDecimal[] readSums(ByteBuffer buffer, int rowCount) {
+        BigDecimal[] sums = new BigDecimal[rowCount];
+        byte encoding = buffer.get();
+        if (encoding == ColumnarResultWriter.SUMS_PACKED_LONG) {
+            int scale = buffer.getInt();
+            for (int r = 0; r < rowCount; r++) {
+                sums[r] = BigDecimal.valueOf(buffer.getLong(), scale);
+            }
+            return sums;
+        }
+
+        for (int r = 0; r < rowCount; r++) {
+            int scale = buffer.getInt();
+            byte[] unscaled = new byte[buffer.getInt()];
+            buffer.get(unscaled);
+            sums[r] = new BigDecimal(new BigInteger(unscaled), scale);
+        }
+        return sums;
+    }
+
+    private double[][] readAccumulators(ByteBuffer buffer, int rowCount) {
+        int slots = buffer.getInt();
+        double[][] accumulators = new double[rowCount][];
+        if (slots == 0) {
+            return accumulators;
+        }
+        for (int r = 0; r < rowCount; r++) {
+            accumulators[r] = new double[slots];
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            for (int r = 0; r < rowCount; r++) {
+                accumulators[r][slot] = buffer.getDouble();
+            }
+        }
+        return accumulators;
+    }
+
+    private static int[] readPackedInts(ByteBuffer buffer, int count) {
+        int width = buffer.get();
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = switch (width) {
+                case 1 -> Byte.toUnsignedInt(buffer.get());
+                case 2 -> Short.toUnsignedInt(buffer.getShort());
+                default -> buffer.getInt();
+            };
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
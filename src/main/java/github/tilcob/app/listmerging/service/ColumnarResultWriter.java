@@ -0,0 +1,181 @@
+package github.tilcob.app.listmerging.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes merge results in the compact binary columnar format read by {@link ColumnarResultReader}.
+ * <p>
+ * Layout (big endian): magic, version and group count, followed by one block per header group with
+ * the {@link HeaderDefinition} as JSON, the row count, the key width, a packed key-length column,
+ * one dictionary-encoded column per key position, a packed count column, the sum column and, since version 2,
+ * the aggregate accumulators as one {@code double} column per slot.
+ * Sums are stored as unscaled {@code long} values with one common scale when possible and fall back
+ * to per-row unscaled bytes otherwise.
+ * </p>
+ */
+class ColumnarResultWriter {
+    static final int MAGIC = 0x4C4D4352;
+    static final short VERSION = 2;
+    static final short VERSION_WITHOUT_ACCUMULATORS = 1;
+    static final byte SUMS_PACKED_LONG = 0;
+    static final byte SUMS_UNSCALED_BYTES = 1;
+
+    private final ObjectMapper mapper;
+
+    ColumnarResultWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    void write(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged, OutputStream target) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(merged.size());
+
+        for (var group : merged.entrySet()) {
+            writeGroup(out, group.getKey(), group.getValue());
+        }
+        out.flush();
+    }
+
+    private void writeGroup(DataOutputStream out,
+                            HeaderDefinition header,
+                            Map<List<String>, AggregationResult> rows) throws IOException {
+        byte[] metadata = mapper.writeValueAsBytes(header);
+        out.writeInt(metadata.length);
+        out.write(metadata);
+
+        int rowCount = rows.size();
+        List<List<String>> keys = new ArrayList<>(rowCount);
+        List<AggregationResult> aggregations = new ArrayList<>(rowCount);
+        int keyWidth = 0;
+        for (var row : rows.entrySet()) {
+            keys.add(row.getKey());
+            aggregations.add(row.getValue());
+            keyWidth = Math.max(keyWidth, row.getKey().size());
+        }
+
+        out.writeInt(rowCount);
+        out.writeInt(keyWidth);
+
+        int[] keyLengths = new int[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            keyLengths[r] = keys.get(r).size();
+        }
+        writePackedInts(out, keyLengths);
+
+        for (int c = 0; c < keyWidth; c++) {
+            writeKeyColumn(out, keys, c);
+        }
+
+        int[] counts = new int[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            counts[r] = aggregations.get(r).rowCount();
+        }
+        writePackedInts(out, counts);
+        writeSums(out, aggregations);
+        writeAccumulators(out, aggregations);
+    }
+
+    private void writeKeyColumn(DataOutputStream out, List<List<String>> keys, int column) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] codes = new int[keys.size()];
+        for (int r = 0; r < keys.size(); r++) {
+            List<String> key = keys.get(r);
+            if (column >= key.size()) {
+                continue;
+            }
+            String value = Objects.requireNonNullElse(key.get(column), "");
+            codes[r] = dictionary.computeIfAbsent(value, ignored -> dictionary.size());
+        }
+
+        out.writeInt(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        writePackedInts(out, codes);
+    }
+
+    private void writeSums(DataOutputStream out, List<AggregationResult> aggregations) throws IOException {
+        int scale = 0;
+        for (AggregationResult aggregation : aggregations) {
+            scale = Math.max(scale, aggregation.sumValue().scale());
+        }
+
+        long[] unscaled = new long[aggregations.size()];
+        boolean fitsLong = true;
+        for (int r = 0; r < aggregations.size() && fitsLong; r++) {
+            BigDecimal value = aggregations.get(r).sumValue().setScale(scale);
+            if (value.unscaledValue().bitLength() >= Long.SIZE) {
+                fitsLong = false;
+            } else {
+                unscaled[r] = value.unscaledValue().longValue();
+            }
+        }
+
+        if (fitsLong) {
+            out.writeByte(SUMS_PACKED_LONG);
+            out.writeInt(scale);
+            for (long value : unscaled) {
+                out.writeLong(value);
+            }
+            return;
+        }
+
+        out.writeByte(SUMS_UNSCALED_BYTES);
+        for (AggregationResult aggregation : aggregations) {
+            BigDecimal value = aggregation.sumValue();
+            byte[] bytes = value.unscaledValue().toByteArray();
+            out.writeInt(value.scale());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private void writeAccumulators(DataOutputStream out, List<AggregationResult> aggregations) throws IOException {
+        int slots = 0;
+        for (AggregationResult aggregation : aggregations) {
+            slots = Math.max(slots, aggregation.accumulatorCount());
+        }
+        out.writeInt(slots);
+        if (slots == 0) {
+            return;
+        }
+        double[] empty = AggregationResult.emptyAccumulators(slots / AggregationResult.SLOTS_PER_COLUMN);
+        for (int slot = 0; slot < slots; slot++) {
+            for (AggregationResult aggregation : aggregations) {
+                out.writeDouble(slot < aggregation.accumulatorCount() ? aggregation.accumulator(slot) : empty[slot]);
+            }
+        }
+    }
+
+    private static void writePackedInts(DataOutputStream out, int[] values) throws IOException {
+        int max = 0;
+        int min = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+            min = Math.min(min, value);
+        }
+        int width = min < 0 ? 4 : max <= 0xFF ? 1 : max <= 0xFFFF ? 2 : 4;
+        out.writeByte(width);
+        for (int value : values) {
+            switch (width) {
+                case 1 -> out.writeByte(value);
+                case 2 -> out.writeShort(value);
+                default -> out.writeInt(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregateSpec;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Per-row settings of one header definition, resolved once: the sum column, the row filters, the key columns and
+ * the columns of the {@link HeaderDefinition#aggregates()}.
+ * <p>
+ * Without {@link HeaderDefinition#keyColumns()} the grouping key is every column except the sum column. With key
+ * columns the key holds only those columns, in the configured order, and the readers only need to decode the key,
+ * sum and filter columns ({@link #projects()}, {@link #needs(int)}).
+ * </p>
+ */
+final class CompiledHeader {
+    private final MergeService.SumConfig sumConfig;
+    private final CompiledRowFilters filters;
+    private final int[] keyColumns;
+    private final int[] aggregateColumns;
+    private final boolean[] needed;
+
+    private CompiledHeader(MergeService.SumConfig sumConfig,
+                           CompiledRowFilters filters,
+                           int[] keyColumns,
+                           int[] aggregateColumns,
+                           boolean[] needed) {
+        this.sumConfig = sumConfig;
+        this.filters = filters;
+        this.keyColumns = keyColumns;
+        this.aggregateColumns = aggregateColumns;
+        this.needed = needed;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a key column or row filter does not fit the header
+     */
+    static CompiledHeader compile(HeaderDefinition header, MergeService.SumConfig sumConfig) {
+        CompiledRowFilters filters = CompiledRowFilters.compile(header);
+        int[] aggregateColumns = aggregateColumns(header);
+        if (header.keyColumns().isEmpty()) {
+            return new CompiledHeader(sumConfig, filters, null, aggregateColumns, null);
+        }
+
+        int[] keyColumns = new int[header.keyColumns().size()];
+        boolean[] needed = new boolean[header.headers().size()];
+        for (int i = 0; i < keyColumns.length; i++) {
+            String column = header.keyColumns().get(i);
+            keyColumns[i] = columnIndex(header, column);
+            if (keyColumns[i] < 0) {
+                throw new IllegalArgumentException("Key column '" + column + "' is not part of header '"
+                        + header.name() + "'.");
+            }
+            needed[keyColumns[i]] = true;
+        }
+        if (sumConfig.columnIndex() >= 0) {
+            needed[sumConfig.columnIndex()] = true;
+        }
+        for (int column : filters.columns()) {
+            needed[column] = true;
+        }
+        for (int column : aggregateColumns) {
+            needed[column] = true;
+        }
+        return new CompiledHeader(sumConfig, filters, keyColumns, aggregateColumns, needed);
+    }
+
+    /**
+     * Row indexes of {@link AggregateSpec#columns(List)}.
+     */
+    private static int[] aggregateColumns(HeaderDefinition header) {
+        for (AggregateSpec spec : header.aggregates()) {
+            if (columnIndex(header, spec.column()) < 0) {
+                throw new IllegalArgumentException("Aggregate column '" + spec.column() + "' is not part of header '"
+                        + header.name() + "'.");
+            }
+        }
+        return AggregateSpec.columns(header.aggregates()).stream()
+                .mapToInt(column -> columnIndex(header, column))
+                .toArray();
+    }
+
+    /**
+     * Checks that the key columns and row filters of {@code header} fit its columns.
+     *
+     * @throws IllegalArgumentException if they do not
+     */
+    static void validate(HeaderDefinition header) {
+        compile(header, new MergeService.SumConfig(columnIndex(header, header.sumColumn()), null));
+    }
+
+    MergeService.SumConfig sumConfig() {
+        return sumConfig;
+    }
+
+    boolean accepts(List<String> row) {
+        return filters.accepts(row);
+    }
+
+    /**
+     * Whether only some columns make up the key, so the other cells need not be decoded.
+     */
+    boolean projects() {
+        return keyColumns != null;
+    }
+
+    /**
+     * Whether the cell at {@code column} is read by the key, the sum or a filter.
+     */
+    boolean needs(int column) {
+        return needed == null || column < needed.length && needed[column];
+    }
+
+    /**
+     * An empty aggregate for one key of this header.
+     */
+    KeyAggregate newAggregate() {
+        return new KeyAggregate(aggregateColumns.length);
+    }
+
+    /**
+     * Adds the aggregated columns of {@code times} rows equal to {@code row} to {@code accumulators} in place.
+     */
+    void accumulate(List<String> row, int times, double[] accumulators) {
+        for (int i = 0; i < aggregateColumns.length; i++) {
+            int column = aggregateColumns[i];
+            double value = column < row.size() ? CompiledRowFilters.firstNumber(row.get(column)) : Double.NaN;
+            if (Double.isNaN(value)) continue;
+            int slot = i * AggregationResult.SLOTS_PER_COLUMN;
+            accumulators[slot + AggregationResult.SUM] += value * times;
+            accumulators[slot + AggregationResult.VALUES] += times;
+            accumulators[slot + AggregationResult.MIN] = Math.min(accumulators[slot + AggregationResult.MIN], value);
+            accumulators[slot + AggregationResult.MAX] = Math.max(accumulators[slot + AggregationResult.MAX], value);
+        }
+    }
+
+    List<String> key(List<String> row) {
+        if (keyColumns == null) {
+            return buildKeyWithoutSum(row, sumConfig.columnIndex());
+        }
+        String[] key = new String[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            int column = keyColumns[i];
+            String cell = column < row.size() ? row.get(column) : null;
+            key[i] = cell == null ? "" : cell;
+        }
+        return List.of(key);
+    }
+
+    /**
+     * Splits a CSV line without quotes and escapes at {@code ;}, copying only the cells this header needs. The
+     * other cells are empty.
+     */
+    List<String> splitLine(String line) {
+        return splitLine(line, this::needs);
+    }
+
+    /**
+     * Splits a CSV line without quotes and escapes at {@code ;}, copying only the cells {@code needs} accepts. The
+     * other cells are empty.
+     */
+    static List<String> splitLine(String line, IntPredicate needs) {
+        int fields = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ';') fields++;
+        }
+        String[] cells = new String[fields];
+        int start = 0;
+        int column = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i == line.length() || line.charAt(i) == ';') {
+                cells[column] = needs.test(column) ? line.substring(start, i) : "";
+                column++;
+                start = i + 1;
+            }
+        }
+        return Arrays.asList(cells);
+    }
+
+    static List<String> buildKeyWithoutSum(List<String> row, int sumColumnIndex) {
+        if (sumColumnIndex < 0 || sumColumnIndex >= row.size()) {
+            return List.copyOf(row);
+        }
+
+        List<String> key = new ArrayList<>(row.size() - 1);
+        for (int i = 0; i < row.size(); i++) {
+            if (i != sumColumnIndex) {
+                key.add(row.get(i));
+            }
+        }
+        return List.copyOf(key);
+    }
+
+    static int columnIndex(HeaderDefinition header, String column) {
+        if (column == null || header.headers() == null) {
+            return -1;
+        }
+        for (int i = 0; i < header.headers().size(); i++) {
+            String cell = header.headers().get(i);
+            if (cell != null && cell.trim().equalsIgnoreCase(column.trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,152 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.model.RowFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link HeaderDefinition#rowFilters()} of one header definition, with column names resolved to indexes and
+ * patterns compiled. A row is accepted if it meets every filter. Filters only read the cells of the row, so
+ * rejected rows are dropped before a grouping key or a sum value is built for them.
+ */
+final class CompiledRowFilters {
+    static final CompiledRowFilters NONE = new CompiledRowFilters(List.of());
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("(-?\\d+(?:[.,]\\d+)?)");
+
+    private final Condition[] conditions;
+
+    private CompiledRowFilters(List<Condition> conditions) {
+        this.conditions = conditions.toArray(Condition[]::new);
+    }
+
+    /**
+     * Compiles the filters of {@code header}.
+     *
+     * @throws IllegalArgumentException if a filter names a column that is not part of the header, misses its
+     *                                  value or bounds, or has an invalid pattern
+     */
+    static CompiledRowFilters compile(HeaderDefinition header) {
+        if (header.rowFilters().isEmpty()) {
+            return NONE;
+        }
+        List<Condition> conditions = new ArrayList<>();
+        for (RowFilter filter : header.rowFilters()) {
+            int column = CompiledHeader.columnIndex(header, filter.column());
+            if (column < 0) {
+                throw new IllegalArgumentException("Row filter column '" + filter.column()
+                        + "' is not part of header '" + header.name() + "'.");
+            }
+            if (filter.type() == RowFilter.Type.RANGE) {
+                if (filter.min() == null && filter.max() == null) {
+                    throw new IllegalArgumentException("Range filter on '" + filter.column() + "' needs min or max.");
+                }
+            } else if (filter.value() == null) {
+                throw new IllegalArgumentException("Row filter on '" + filter.column() + "' needs a value.");
+            }
+            conditions.add(switch (filter.type()) {
+                case EQUALS -> new Equals(column, filter.value().trim());
+                case PREFIX -> new Prefix(column, filter.value().trim());
+                case REGEX -> new Regex(column, Pattern.compile(filter.value()));
+                case RANGE -> new Range(column,
+                        filter.min() == null ? Double.NEGATIVE_INFINITY : filter.min(),
+                        filter.max() == null ? Double.POSITIVE_INFINITY : filter.max());
+            });
+        }
+        return new CompiledRowFilters(conditions);
+    }
+
+    boolean accepts(List<String> row) {
+        for (Condition condition : conditions) {
+            int column = condition.column();
+            String cell = column < row.size() ? row.get(column) : null;
+            if (!condition.test(cell == null ? "" : cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indexes of the columns the filters read.
+     */
+    int[] columns() {
+        int[] columns = new int[conditions.length];
+        for (int i = 0; i < conditions.length; i++) {
+            columns[i] = conditions[i].column();
+        }
+        return columns;
+    }
+
+    /**
+     * The first number in {@code cell}, with a comma or a point as decimal separator, or {@code NaN} if there is
+     * none.
+     */
+    static double firstNumber(String cell) {
+        if (cell == null || cell.isEmpty()) {
+            return Double.NaN;
+        }
+        Matcher matcher = NUMBER_PATTERN.matcher(cell);
+        if (!matcher.find()) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(matcher.group(1).replace(',', '.'));
+    }
+
+    private interface Condition {
+        int column();
+
+        boolean test(String cell);
+    }
+
+    private record Equals(int column, String value) implements Condition {
+        @Override
+        public boolean test(String cell) {
+            int start = firstNonBlank(cell);
+            int end = lastNonBlank(cell);
+            return Math.max(0, end - start) == value.length()
+                    && cell.regionMatches(true, start, value, 0, value.length());
+        }
+    }
+
+    private record Prefix(int column, String value) implements Condition {
+        @Override
+        public boolean test(String cell) {
+            return cell.regionMatches(true, firstNonBlank(cell), value, 0, value.length());
+        }
+    }
+
+    private record Regex(int column, Pattern pattern) implements Condition {
+        @Override
+        public boolean test(String cell) {
+            return pattern.matcher(cell).find();
+        }
+    }
+
+    private record Range(int column, double min, double max) implements Condition {
+        @Override
+        public boolean test(String cell) {
+            double number = firstNumber(cell);
+            return number >= min && number <= max;
+        }
+    }
+
+    private static int firstNonBlank(String cell) {
+        int start = 0;
+        while (start < cell.length() && Character.isWhitespace(cell.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int lastNonBlank(String cell) {
+        int end = cell.length();
+        while (end > 0 && Character.isWhitespace(cell.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
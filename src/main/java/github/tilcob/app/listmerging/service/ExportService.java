@@ -1,86 +1,202 @@
 package github.tilcob.app.listmerging.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregateSpec;
 import github.tilcob.app.listmerging.model.AggregationResult;
 import github.tilcob.app.listmerging.model.HeaderDefinition;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
 
 public class ExportService {
     private static final Logger log = LoggerFactory.getLogger(ExportService.class);
+    public static final String EXPORT_FILE_NAME = "merged.xlsx";
+    public static final String COLUMNAR_FILE_NAME = "merged.lmc";
+    /**
+     * Maximum number of rows of an {@code .xlsx} sheet including the header row.
+     */
+    public static final int MAX_SHEET_ROWS = 1_048_576;
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int maxRowsPerSheet;
+
+    public ExportService() {
+        this(MAX_SHEET_ROWS);
+    }
+
+    ExportService(int maxRowsPerSheet) {
+        if (maxRowsPerSheet < 2) {
+            throw new IllegalArgumentException("maxRowsPerSheet must be >= 2");
+        }
+        this.maxRowsPerSheet = maxRowsPerSheet;
+    }
+
+    /**
+     * Writes all header groups to {@code merged.xlsx}.
+     * <p>
+     * Groups that do not fit into one sheet are split over numbered sheets, each repeating the header row.
+     * Sorting and sheet layout of the groups are prepared concurrently while the workbook is streamed
+     * sequentially, because POI workbooks must not be modified from several threads.
+     * </p>
+     */
     public File export(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
                        String outputPath) throws IOException {
+        return export(merged, new File(outputPath, EXPORT_FILE_NAME));
+    }
 
-        File exportFile = new File(outputPath, "merged.xlsx");
-
-        try (Workbook workbook = new XSSFWorkbook();
-             OutputStream out = new FileOutputStream(exportFile)) {
+    /**
+     * Writes all header groups to {@code exportFile}, e.g. a temporary file that replaces {@code merged.xlsx}
+     * later.
+     */
+    public File export(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                       File exportFile) throws IOException {
+        var groups = merged.entrySet().stream()
+                .sorted(Comparator.comparing(e -> e.getKey().name(), String.CASE_INSENSITIVE_ORDER))
+                .toList();
 
-            var groups = merged.entrySet().stream()
-                    .sorted(Comparator.comparing(e -> e.getKey().name(), String.CASE_INSENSITIVE_ORDER))
+        ExecutorService executor = createExecutor(groups.size());
+        try (WorkbookExport workbookExport = openWorkbook(exportFile)) {
+            List<CompletableFuture<PreparedGroup>> prepared = groups.stream()
+                    .map(group -> CompletableFuture.supplyAsync(
+                            () -> prepareGroup(group.getKey(), group.getValue()), executor))
                     .toList();
 
-            for (var group : groups) {
-                HeaderDefinition headerDef = group.getKey();
-                Map<List<String>, AggregationResult> rows = group.getValue();
-
-                String sheetName = safeSheetName(headerDef.name());
-                Sheet sheet = workbook.createSheet(sheetName);
-                int sumColumnIndex = findSumColumnIndex(headerDef);
-
-                int r = 0;
-                if (headerDef.headers() != null && !headerDef.headers().isEmpty()) {
-                    Row headerRow = sheet.createRow(r++);
-                    int c = 0;
-                    for (int i = 0; i < headerDef.headers().size(); i++) {
-                        if (i == sumColumnIndex) {
-                            continue;
-                        }
-                        String h = headerDef.headers().get(i);
-                        headerRow.createCell(c++).setCellValue(h == null ? "" : h);
-                    }
-                    headerRow.createCell(c++).setCellValue("Count");
-                    if (sumColumnIndex >= 0) {
-                        headerRow.createCell(c).setCellValue(headerDef.sumColumn());
-                    }
+            for (CompletableFuture<PreparedGroup> future : prepared) {
+                workbookExport.addPrepared(join(future));
+            }
+            return workbookExport.finish();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Opens an incremental workbook export for callers that receive header groups one by one.
+     * The sheets are ordered by header name when {@link WorkbookExport#finish()} writes the file.
+     */
+    public WorkbookExport openWorkbook(File exportFile) {
+        return new WorkbookExport(exportFile);
+    }
+
+    /**
+     * Writes the merge result in the binary columnar format next to {@code merged.xlsx}.
+     * Use {@link ColumnarResultReader} to load it again.
+     */
+    public File exportColumnar(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                               String outputPath) throws IOException {
+        File exportFile = new File(outputPath, COLUMNAR_FILE_NAME);
+        try (OutputStream out = new FileOutputStream(exportFile)) {
+            new ColumnarResultWriter(objectMapper).write(merged, out);
+        }
+        log.info("Columnar export written to {}", exportFile.getAbsolutePath());
+        return exportFile;
+    }
+
+    private PreparedGroup prepareGroup(HeaderDefinition headerDef, Map<List<String>, AggregationResult> rows) {
+        int sumColumnIndex = findSumColumnIndex(headerDef);
+
+        List<String> headerCells = null;
+        if (!headerDef.keyColumns().isEmpty()) {
+            headerCells = new ArrayList<>(headerDef.keyColumns());
+            headerCells.add("Count");
+            if (sumColumnIndex >= 0) {
+                headerCells.add(headerDef.sumColumn());
+            }
+        } else if (headerDef.headers() != null && !headerDef.headers().isEmpty()) {
+            headerCells = new ArrayList<>();
+            for (int i = 0; i < headerDef.headers().size(); i++) {
+                if (i == sumColumnIndex) {
+                    continue;
                 }
+                String h = headerDef.headers().get(i);
+                headerCells.add(h == null ? "" : h);
+            }
+            headerCells.add("Count");
+            if (sumColumnIndex >= 0) {
+                headerCells.add(headerDef.sumColumn());
+            }
+        }
+        if (headerCells != null) {
+            for (AggregateSpec spec : headerDef.aggregates()) {
+                headerCells.add(spec.exportLabel());
+            }
+        }
 
-                var sortedRows = rows.entrySet().stream()
-                        .sorted((a, b) -> b.getValue().sumValue().compareTo(a.getValue().sumValue()))
-                        .toList();
+        var sortedRows = rows.entrySet().stream()
+                .sorted((a, b) -> b.getValue().sumValue().compareTo(a.getValue().sumValue()))
+                .toList();
 
-                for (var rowEntry : sortedRows) {
-                    List<String> values = rowEntry.getKey();
-                    AggregationResult aggregation = rowEntry.getValue();
+        int rowsPerSheet = headerCells == null ? maxRowsPerSheet : maxRowsPerSheet - 1;
+        int sheetCount = Math.max(1, (sortedRows.size() + rowsPerSheet - 1) / rowsPerSheet);
+        List<String> aggregateColumns = AggregateSpec.columns(headerDef.aggregates());
+        int[] aggregateSlots = headerDef.aggregates().stream().mapToInt(spec -> spec.columnSlot(aggregateColumns)).toArray();
+        return new PreparedGroup(headerDef, headerCells, sumColumnIndex >= 0, aggregateSlots, sortedRows, rowsPerSheet,
+                sheetCount);
+    }
 
-                    Row row = sheet.createRow(r++);
-                    int c = 0;
-                    for (String v : values) {
-                        row.createCell(c++).setCellValue(v == null ? "" : v);
-                    }
-                    row.createCell(c++).setCellValue(aggregation.rowCount());
-                    if (sumColumnIndex >= 0) {
-                        row.createCell(c).setCellValue(aggregation.sumValue().doubleValue());
-                    }
+    private List<String> writeGroup(SXSSFWorkbook workbook, PreparedGroup group, Set<String> usedSheetNames) {
+        if (group.sheetCount() > 1) {
+            log.info("Header group '{}' has {} rows and is split over {} sheets.",
+                    group.header().name(), group.rows().size(), group.sheetCount());
+        }
+
+        List<String> sheetNames = new ArrayList<>(group.sheetCount());
+        for (int part = 0; part < group.sheetCount(); part++) {
+            String sheetName = uniqueSheetName(group.header().name(), part, group.sheetCount(), usedSheetNames);
+            sheetNames.add(sheetName);
+            Sheet sheet = workbook.createSheet(sheetName);
+
+            int r = 0;
+            if (group.headerCells() != null) {
+                Row headerRow = sheet.createRow(r++);
+                int c = 0;
+                for (String h : group.headerCells()) {
+                    headerRow.createCell(c++).setCellValue(h);
                 }
             }
 
-            workbook.write(out);
+            int from = part * group.rowsPerSheet();
+            int to = Math.min(group.rows().size(), from + group.rowsPerSheet());
+            for (var rowEntry : group.rows().subList(from, to)) {
+                Cancellation.checkpoint();
+                List<String> values = rowEntry.getKey();
+                AggregationResult aggregation = rowEntry.getValue();
+
+                Row row = sheet.createRow(r++);
+                int c = 0;
+                for (String v : values) {
+                    row.createCell(c++).setCellValue(v == null ? "" : v);
+                }
+                row.createCell(c++).setCellValue(aggregation.rowCount());
+                if (group.hasSumColumn()) {
+                    row.createCell(c++).setCellValue(aggregation.sumValue().doubleValue());
+                }
+                for (int a = 0; a < group.aggregateSlots().length; a++, c++) {
+                    double value = aggregation.aggregate(group.aggregateSlots()[a],
+                            group.header().aggregates().get(a).function());
+                    if (!Double.isNaN(value)) {
+                        row.createCell(c).setCellValue(value);
+                    }
+                }
+            }
         }
-        return exportFile;
+        return sheetNames;
     }
 
     private int findSumColumnIndex(HeaderDefinition headerDefinition) {
@@ -95,11 +211,111 @@ public class ExportService {
                 .orElse(-1);
     }
 
+    private static ExecutorService createExecutor(int groupCount) {
+        int threads = Math.max(1, Math.min(groupCount, Runtime.getRuntime().availableProcessors()));
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "export-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static PreparedGroup join(CompletableFuture<PreparedGroup> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Export was cancelled.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Preparing export sheet failed.", e.getCause());
+        }
+    }
+
+    private static String uniqueSheetName(String name, int part, int partCount, Set<String> usedSheetNames) {
+        String base = safeSheetName(name);
+        String suffix = partCount > 1 ? " (" + (part + 1) + ")" : "";
+        String candidate = truncate(base, suffix);
+
+        int duplicate = 2;
+        while (!usedSheetNames.add(candidate.toLowerCase(Locale.ROOT))) {
+            candidate = truncate(base, suffix + " " + duplicate++);
+        }
+        return candidate;
+    }
+
+    private static String truncate(String base, String suffix) {
+        int maxBaseLength = MAX_SHEET_NAME_LENGTH - suffix.length();
+        return (base.length() > maxBaseLength ? base.substring(0, maxBaseLength) : base) + suffix;
+    }
+
     private static String safeSheetName(String name) {
         String cleaned = (name == null ? "" : name).trim();
         cleaned = cleaned.replaceAll("[:\\\\/?*\\[\\]]", "_");
         if (cleaned.isBlank()) cleaned = "Sheet";
-        if (cleaned.length() > 31) cleaned = cleaned.substring(0, 31);
+        if (cleaned.length() > MAX_SHEET_NAME_LENGTH) cleaned = cleaned.substring(0, MAX_SHEET_NAME_LENGTH);
         return cleaned;
     }
+
+    /**
+     * Workbook that is filled group by group and written once on {@link #finish()}.
+     * Instances are not thread-safe and must be used from a single thread.
+     */
+    public final class WorkbookExport implements Closeable {
+        private final File exportFile;
+        private final SXSSFWorkbook workbook;
+        private final Set<String> usedSheetNames = new HashSet<>();
+        private final List<WrittenGroup> writtenGroups = new ArrayList<>();
+
+        private WorkbookExport(File exportFile) {
+            this.exportFile = exportFile;
+            this.workbook = new SXSSFWorkbook(SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+            this.workbook.setCompressTempFiles(true);
+        }
+
+        public void addGroup(HeaderDefinition header, Map<List<String>, AggregationResult> rows) {
+            addPrepared(prepareGroup(header, rows));
+        }
+
+        private void addPrepared(PreparedGroup group) {
+            List<String> sheetNames = writeGroup(workbook, group, usedSheetNames);
+            writtenGroups.add(new WrittenGroup(group.header().name(), sheetNames));
+        }
+
+        public File finish() throws IOException {
+            List<String> orderedSheets = writtenGroups.stream()
+                    .sorted(Comparator.comparing(WrittenGroup::headerName,
+                            Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)))
+                    .flatMap(group -> group.sheetNames().stream())
+                    .toList();
+            for (int i = 0; i < orderedSheets.size(); i++) {
+                workbook.setSheetOrder(orderedSheets.get(i), i);
+            }
+
+            try (OutputStream out = new FileOutputStream(exportFile)) {
+                workbook.write(out);
+            }
+            return exportFile;
+        }
+
+        @Override
+        public void close() throws IOException {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private record WrittenGroup(String headerName, List<String> sheetNames) {
+    }
+
+    private record PreparedGroup(HeaderDefinition header,
+                                 List<String> headerCells,
+                                 boolean hasSumColumn,
+                                 int[] aggregateSlots,
+                                 List<Map.Entry<List<String>, AggregationResult>> rows,
+                                 int rowsPerSheet,
+                                 int sheetCount) {
+    }
 }
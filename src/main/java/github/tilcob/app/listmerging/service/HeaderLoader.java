@@ -6,34 +6,197 @@ import github.tilcob.app.listmerging.model.HeaderDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
-public class HeaderLoader {
+/**
+ * Registry of the bundled header definitions and the overrides from an external folder.
+ * <p>
+ * Every version of the definitions is published as an immutable {@link Snapshot}. Readers never block: a job calls
+ * {@link #getHeaders()} once and keeps that list, even if the definitions change while it runs. After
+ * {@link #watch()} the external folder is watched on a daemon thread; changes are reloaded and validated in the
+ * background and published as a new snapshot, so the next job uses them. A change that fails to load or validate
+ * is logged and the previous snapshot stays in place. Reloads run one at a time, so snapshots are published in the
+ * order the files were read.
+ * </p>
+ */
+public class HeaderLoader implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(HeaderLoader.class);
     private static final String BUNDLED_HEADERS_ROOT = "headers";
+    static final Duration RELOAD_DEBOUNCE = Duration.ofMillis(200);
 
     private final ObjectMapper mapper = new ObjectMapper();
-    private final List<HeaderDefinition> headers = new ArrayList<>();
+    private final Path externalFolder;
+    private final List<HeaderDefinition> bundledHeaders = new ArrayList<>();
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final Object reloadLock = new Object();
+    private WatchService watchService;
 
     public HeaderLoader() {
         this(Path.of("headers"));
     }
 
     public HeaderLoader(Path externalFolder) {
+        this.externalFolder = externalFolder;
         try {
             loadBundledHeaders();
-            loadExternalHeaders(externalFolder);
+            snapshot.set(new Snapshot(1, buildHeaders(), Instant.now()));
         } catch (IOException e) {
             log.error("Error loading headers", e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Header definitions of the current snapshot. The list is immutable and does not change on reloads.
+     */
+    public List<HeaderDefinition> getHeaders() {
+        return snapshot.get().headers();
+    }
+
+    public Path externalFolder() {
+        return externalFolder;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Called with every newly published snapshot, on the thread that reloaded it.
+     */
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reloads the external definitions and publishes them if they are valid and differ from the current ones.
+     * Reloads are serialized, so a slow read of older files is never published after a newer one.
+     *
+     * @return whether a new snapshot was published
+     */
+    public boolean reload() {
+        synchronized (reloadLock) {
+            List<HeaderDefinition> headers;
+            try {
+                headers = buildHeaders();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring invalid header definitions in {}: {}", externalFolder, e.getMessage());
+                return false;
+            }
+
+            Snapshot previous = snapshot.get();
+            if (previous.headers().equals(headers)) {
+                return false;
+            }
+            Snapshot next = new Snapshot(previous.version() + 1, headers, Instant.now());
+            snapshot.set(next);
+
+            log.info("Loaded header definitions version {} ({} definitions)", next.version(), headers.size());
+            for (Consumer<Snapshot> listener : listeners) {
+                listener.accept(next);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Starts watching the external folder and reloads the definitions after every burst of changes. Until the
+     * folder exists, its nearest existing parent directory is watched instead, so a folder created later is picked
+     * up as well. Does nothing if the loader has no external folder or is already watching.
+     */
+    public synchronized void watch() throws IOException {
+        if (watchService != null || externalFolder == null) {
+            return;
+        }
+        WatchService service = externalFolder.getFileSystem().newWatchService();
+        WatchKey key;
+        try {
+            key = register(service);
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+        watchService = service;
+
+        Thread thread = new Thread(() -> watchLoop(service, key), "header-watch");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for header definition changes", externalFolder);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    private void watchLoop(WatchService service, WatchKey watched) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                do {
+                    key.pollEvents();
+                    key.reset();
+                } while ((key = service.poll(RELOAD_DEBOUNCE.toMillis(), TimeUnit.MILLISECONDS)) != null);
+                try {
+                    if (!watched.isValid() || !watched.watchable().equals(watchedDirectory())) {
+                        // The folder was created or deleted: move the watch to it or to its nearest existing parent.
+                        watched.cancel();
+                        watched = register(service);
+                    }
+                } catch (IOException e) {
+                    log.warn("Cannot watch {} anymore: {}", externalFolder, e.getMessage());
+                }
+                reload();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", externalFolder);
+        }
+    }
+
+    private WatchKey register(WatchService service) throws IOException {
+        return watchedDirectory().register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * The external folder, or its nearest existing parent directory if the folder does not exist.
+     */
+    private Path watchedDirectory() throws IOException {
+        Path directory = externalFolder.toAbsolutePath();
+        while (!Files.isDirectory(directory)) {
+            directory = directory.getParent();
+            if (directory == null) {
+                throw new NoSuchFileException(externalFolder.toString());
+            }
+        }
+        return directory;
+    }
+
+    private List<HeaderDefinition> buildHeaders() throws IOException {
+        List<HeaderDefinition> headers = new ArrayList<>(bundledHeaders);
+        loadExternalHeaders(externalFolder, headers);
+        return List.copyOf(headers);
+    }
+
     private void loadBundledHeaders() throws IOException {
         String indexResource = BUNDLED_HEADERS_ROOT + "/index.json";
         InputStream indexStream = openBundledResource(indexResource);
@@ -55,7 +218,7 @@ public class HeaderLoader {
                     continue;
                 }
                 HeaderDefinition definition = mapper.readValue(stream, HeaderDefinition.class);
-                headers.add(validate(definition, resourcePath));
+                bundledHeaders.add(validate(definition, resourcePath));
             }
         }
     }
@@ -77,7 +240,7 @@ public class HeaderLoader {
         return HeaderLoader.class.getModule().getResourceAsStream(normalizedPath);
     }
 
-    private void loadExternalHeaders(Path folder) throws IOException {
+    private void loadExternalHeaders(Path folder, List<HeaderDefinition> headers) throws IOException {
         if (folder == null || !Files.isDirectory(folder)) {
             log.info("No external headers directory found at {} (optional)", folder);
             return;
@@ -125,16 +288,30 @@ public class HeaderLoader {
                     .toList();
         }
 
-        return new HeaderDefinition(
+        HeaderDefinition validated = new HeaderDefinition(
                 definition.name(),
                 List.copyOf(definition.headers()),
                 aliases,
                 definition.headerPosition(),
                 definition.sumColumn(),
-                definition.sumPattern());
+                definition.sumPattern(),
+                definition.rowFilters(),
+                definition.keyColumns(),
+                definition.aggregates());
+        try {
+            CompiledHeader.validate(validated);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage() + " (" + source + ")", e);
+        }
+        return validated;
     }
 
-    public List<HeaderDefinition> getHeaders() {
-        return Collections.unmodifiableList(headers);
+    /**
+     * One published version of the header definitions.
+     */
+    public record Snapshot(long version, List<HeaderDefinition> headers, Instant loadedAt) {
+        public Snapshot {
+            headers = List.copyOf(headers);
+        }
     }
 }
@@ -0,0 +1,144 @@
+package github.tilcob.app.listmerging.service;
+
+import com.opencsv.exceptions.CsvException;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Merge result that is kept up to date file by file.
+ * <p>
+ * The aggregation of every input file is cached together with its size and modification time. {@link #update}
+ * only reads files that are new or changed and rebuilds only the header groups that contain a new, changed or
+ * removed file; the other groups are reused unchanged. Changing the header definitions invalidates the cache.
+ * Instances are not thread-safe.
+ * </p>
+ */
+public class IncrementalMergeCache {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalMergeCache.class);
+
+    private final MergeService mergeService;
+    private final Map<File, CachedFile> files = new HashMap<>();
+    private final Map<HeaderDefinition, Map<List<String>, AggregationResult>> groups = new HashMap<>();
+    private List<HeaderDefinition> headers = List.of();
+
+    public IncrementalMergeCache(MergeService mergeService) {
+        this.mergeService = mergeService;
+    }
+
+    /**
+     * Brings the cache in line with {@code inputFiles}. Files that cannot be read, e.g. because they are
+     * still being written, are left out and retried on the next update.
+     *
+     * @return the files that were read and the header groups that were rebuilt or removed
+     */
+    public Update update(Collection<File> inputFiles, List<HeaderDefinition> headers) {
+        if (!this.headers.equals(headers)) {
+            files.clear();
+            groups.clear();
+            this.headers = List.copyOf(headers);
+        }
+
+        Set<File> current = new HashSet<>();
+        for (File file : inputFiles) {
+            current.add(file.getAbsoluteFile());
+        }
+
+        Set<HeaderDefinition> dirty = new HashSet<>();
+        List<File> readFiles = new ArrayList<>();
+        List<File> failedFiles = new ArrayList<>();
+        Iterator<Map.Entry<File, CachedFile>> cached = files.entrySet().iterator();
+        while (cached.hasNext()) {
+            Map.Entry<File, CachedFile> entry = cached.next();
+            if (!current.contains(entry.getKey())) {
+                dirty.add(entry.getValue().result().header());
+                cached.remove();
+            }
+        }
+
+        for (File file : current.stream().sorted().toList()) {
+            Cancellation.checkpoint();
+            CachedFile previous = files.get(file);
+            long length = file.length();
+            long lastModified = file.lastModified();
+            if (previous != null && previous.length() == length && previous.lastModified() == lastModified) {
+                continue;
+            }
+            if (previous != null) {
+                dirty.add(previous.result().header());
+                files.remove(file);
+            }
+            try {
+                MergeService.FileReadResult result = mergeService.aggregateFile(file, this.headers);
+                files.put(file, new CachedFile(length, lastModified, result));
+                dirty.add(result.header());
+                readFiles.add(file);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (IOException | CsvException | RuntimeException e) {
+                log.warn("Could not read {}, retrying on the next update: {}", file, e.getMessage());
+                failedFiles.add(file);
+            }
+        }
+
+        for (HeaderDefinition header : dirty) {
+            rebuildGroup(header);
+        }
+        return new Update(readFiles, failedFiles, dirty);
+    }
+
+    /**
+     * Current merge result with the same structure as {@link MergeService#merge(List, List)}.
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> result() {
+        return Collections.unmodifiableMap(groups);
+    }
+
+    /**
+     * Number of files whose aggregation is cached.
+     */
+    public int fileCount() {
+        return files.size();
+    }
+
+    private void rebuildGroup(HeaderDefinition header) {
+        List<MergeService.FileReadResult> members = files.entrySet().stream()
+                .filter(entry -> entry.getValue().result().header().equals(header))
+                .sorted(Map.Entry.comparingByKey())
+                .map(entry -> entry.getValue().result())
+                .toList();
+        if (members.isEmpty()) {
+            groups.remove(header);
+            return;
+        }
+        Map<List<String>, AggregationResult> bucket = new HashMap<>();
+        for (MergeService.FileReadResult member : members) {
+            member.counts().forEach((row, aggregation) -> bucket.merge(row, aggregation, AggregationResult::add));
+        }
+        groups.put(header, bucket);
+    }
+
+    /**
+     * Outcome of one {@link #update} call.
+     */
+    public record Update(List<File> readFiles, List<File> failedFiles, Set<HeaderDefinition> changedGroups) {
+        public Update {
+            readFiles = List.copyOf(readFiles);
+            failedFiles = List.copyOf(failedFiles);
+            changedGroups = Set.copyOf(changedGroups);
+        }
+
+        public boolean changed() {
+            return !changedGroups.isEmpty();
+        }
+    }
+
+    private record CachedFile(long length, long lastModified, MergeService.FileReadResult result) {
+    }
+}
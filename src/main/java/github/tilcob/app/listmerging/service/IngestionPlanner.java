@@ -0,0 +1,361 @@
+package github.tilcob.app.listmerging.service;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.ICSVParser;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Preflight of a merge: samples the size, the first lines and the last lines of every input file and picks the
+ * ingestion engine per file before any file is parsed.
+ * <p>
+ * The number of rows is estimated from the average line length of the head sample. The number of distinct
+ * grouping keys is extrapolated from the keys seen in the sample and how many of them occurred only once, and is
+ * used to pre-size the aggregation tables. The header of a CSV file is detected from its first and last sampled
+ * lines; it is deferred to the parse for Excel files and for CSV files with quotes near the start or the end.
+ * </p>
+ * <p>
+ * The thresholds are read from {@code listmerging.ingestion.*} system properties, see
+ * {@link Thresholds#fromSystemProperties()}.
+ * </p>
+ */
+public class IngestionPlanner {
+    private static final long MB = 1024L * 1024L;
+    private static final int HEAD_SAMPLE_BYTES = (int) MB;
+    private static final int TAIL_SAMPLE_BYTES = 64 * 1024;
+    private static final long EXCEL_BYTES_PER_ROW_ESTIMATE = 40;
+    private static final long MAX_PRESIZED_KEYS = 1L << 20;
+
+    private final MergeService mergeService;
+    private final Thresholds thresholds;
+
+    public IngestionPlanner(MergeService mergeService) {
+        this(mergeService, Thresholds.fromSystemProperties());
+    }
+
+    public IngestionPlanner(MergeService mergeService, Thresholds thresholds) {
+        this.mergeService = mergeService;
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * Plans the ingestion of {@code files}. {@code rowListenerAttached} must be {@code true} if the merge passes
+     * the rows to a {@link MergeService.RowListener}, which needs the rows in file order after the header is known.
+     */
+    public Plan plan(List<File> files, List<HeaderDefinition> headers, boolean rowListenerAttached)
+            throws IOException {
+        List<FilePlan> plans = new ArrayList<>(files.size());
+        for (File file : files) {
+            Cancellation.checkpoint();
+            plans.add(planFile(file, headers, rowListenerAttached));
+        }
+        return new Plan(plans);
+    }
+
+    private FilePlan planFile(File file, List<HeaderDefinition> headers, boolean rowListenerAttached)
+            throws IOException {
+        long bytes = file.length();
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (bytes == 0) {
+            return new FilePlan(file, Engine.IN_MEMORY, 0, 0, 0, MergeService.EMPTY_HEADER, false, 1, "empty file");
+        }
+        if (name.endsWith(".xls")) {
+            long rows = bytes / EXCEL_BYTES_PER_ROW_ESTIMATE;
+            return new FilePlan(file, Engine.IN_MEMORY, bytes, rows, 0, null, false, 1,
+                    "binary Excel files are read as a workbook");
+        }
+        if (name.endsWith(".xlsx")) {
+            long rows = bytes / EXCEL_BYTES_PER_ROW_ESTIMATE;
+            return choose(file, bytes, rows, 0, null, false, false, rowListenerAttached,
+                    thresholds.excelStreamingBytes());
+        }
+        if (!name.endsWith(".csv")) {
+            throw new IllegalArgumentException("Unsupported file type: " + name);
+        }
+
+        CsvSample sample = sampleCsv(file, bytes, headers);
+        HeaderDefinition header = sample.header();
+        boolean undetectable = header != null && header != MergeService.EMPTY_HEADER && !headers.contains(header);
+        return choose(file, bytes, sample.estimatedRows(), sample.estimatedKeys(), header, undetectable,
+                sample.quoted(), rowListenerAttached, thresholds.streamingBytes());
+    }
+
+    private FilePlan choose(File file,
+                            long bytes,
+                            long rows,
+                            long keys,
+                            HeaderDefinition header,
+                            boolean undetectable,
+                            boolean quoted,
+                            boolean rowListenerAttached,
+                            long streamingBytes) {
+        boolean csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+        int chunks = (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / thresholds.chunkBytes()));
+        int parallelism = Math.min(thresholds.processors(), chunks);
+        boolean canRunParallel = csv && !quoted && !rowListenerAttached && parallelism > 1;
+
+        Engine engine;
+        String reason;
+        Engine forced = thresholds.forcedEngine();
+        if (forced != null) {
+            engine = forced;
+            reason = "forced by listmerging.ingestion.engine";
+            if (engine == Engine.PARALLEL && !canRunParallel) {
+                engine = Engine.STREAMING;
+                reason += ", parallel not possible";
+            }
+            if (engine == Engine.STREAMING && rowListenerAttached) {
+                engine = Engine.SPILL_TO_DISK;
+                reason += ", rows are needed in file order";
+            }
+        } else if (bytes < streamingBytes) {
+            engine = Engine.IN_MEMORY;
+            reason = "below the streaming threshold of " + formatBytes(streamingBytes);
+        } else if (rowListenerAttached) {
+            engine = Engine.SPILL_TO_DISK;
+            reason = "above " + formatBytes(streamingBytes) + " and rows are needed in file order";
+        } else if (canRunParallel && bytes >= thresholds.parallelBytes()) {
+            engine = Engine.PARALLEL;
+            reason = "above the parallel threshold of " + formatBytes(thresholds.parallelBytes());
+        } else {
+            engine = Engine.STREAMING;
+            reason = "above the streaming threshold of " + formatBytes(streamingBytes)
+                    + (quoted ? ", quoted cells" : "");
+        }
+        return new FilePlan(file, engine, bytes, rows, keys, header, undetectable,
+                engine == Engine.PARALLEL ? parallelism : 1, reason);
+    }
+
+    /**
+     * Reads up to {@link #HEAD_SAMPLE_BYTES} from the start and {@link #TAIL_SAMPLE_BYTES} from the end of the file.
+     * Only complete lines are used.
+     */
+    private CsvSample sampleCsv(File file, long bytes, List<HeaderDefinition> headers) throws IOException {
+        byte[] head;
+        byte[] tail;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            head = new byte[(int) Math.min(bytes, HEAD_SAMPLE_BYTES)];
+            in.readFully(head);
+            if (bytes <= HEAD_SAMPLE_BYTES) {
+                tail = head;
+            } else {
+                tail = new byte[TAIL_SAMPLE_BYTES];
+                in.seek(bytes - TAIL_SAMPLE_BYTES);
+                in.readFully(tail);
+            }
+        }
+        boolean complete = bytes <= HEAD_SAMPLE_BYTES;
+        List<String> headLines = lines(head, false, !complete);
+        List<String> tailLines = complete ? headLines : lines(tail, true, false);
+        if (headLines.isEmpty()) {
+            // A single line longer than the sample: nothing to estimate from.
+            return new CsvSample(null, true, bytes / HEAD_SAMPLE_BYTES + 1, 0);
+        }
+
+        ICSVParser parser = new CSVParserBuilder().withSeparator(';').build();
+        boolean quoted = headLines.stream().anyMatch(line -> line.indexOf('"') >= 0)
+                || tailLines.stream().anyMatch(line -> line.indexOf('"') >= 0);
+
+        HeaderDefinition header = null;
+        List<String> lastRow = null;
+        for (int i = tailLines.size() - 1; i >= 0 && lastRow == null; i--) {
+            List<String> row = mergeService.toRow(parser.parseLine(tailLines.get(i)));
+            if (!mergeService.isBlankRow(row)) {
+                lastRow = row;
+            }
+        }
+        List<String> firstRow = mergeService.toRow(parser.parseLine(headLines.get(0)));
+        if (lastRow == null && complete) {
+            header = MergeService.EMPTY_HEADER;
+        } else if (lastRow != null && !quoted) {
+            header = mergeService.chooseHeader(firstRow, lastRow, headers);
+        }
+
+        // Keys are counted on the sampled rows; without a header the whole row is the key.
+        CompiledHeader compiled = header == null ? null : mergeService.compile(header);
+        Map<List<String>, Integer> keys = new HashMap<>();
+        long sampledBytes = 0;
+        for (int i = 0; i < headLines.size(); i++) {
+            String line = headLines.get(i);
+            sampledBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (i == 0 && header != null && header.headerPosition() == HeaderDefinition.HeaderPosition.FIRST) {
+                continue;
+            }
+            List<String> row = mergeService.toRow(parser.parseLine(line));
+            if (mergeService.isBlankRow(row) || compiled != null && !compiled.accepts(row)) continue;
+            List<String> key = compiled == null ? row : compiled.key(row);
+            keys.merge(key, 1, Integer::sum);
+        }
+
+        long sampledRows = headLines.size();
+        long estimatedRows = complete ? sampledRows : Math.max(sampledRows, bytes * sampledRows / sampledBytes);
+        long distinct = keys.size();
+        long singletons = keys.values().stream().filter(count -> count == 1).count();
+        long estimatedKeys = complete || sampledRows == 0
+                ? distinct
+                : distinct + singletons * (estimatedRows - sampledRows) / sampledRows;
+        return new CsvSample(header, quoted, estimatedRows, Math.min(estimatedKeys, estimatedRows));
+    }
+
+    /**
+     * Splits a sample into lines, dropping the first line of a tail sample and the last line of a truncated
+     * head sample because they may be incomplete.
+     */
+    private static List<String> lines(byte[] sample, boolean dropFirst, boolean dropLast) {
+        String text = new String(sample, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>(text.lines().toList());
+        if (dropFirst && !lines.isEmpty()) {
+            lines.remove(0);
+        }
+        if (dropLast && !lines.isEmpty() && sample[sample.length - 1] != '\n') {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    private static String formatBytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (double) MB);
+    }
+
+    /**
+     * Ingestion engine of one file.
+     */
+    public enum Engine {
+        /**
+         * Reads all rows (CSV) or the whole workbook (Excel) before aggregating.
+         */
+        IN_MEMORY,
+        /**
+         * Aggregates rows while reading; CSV files with OpenCSV, {@code .xlsx} files with the SAX event API.
+         */
+        STREAMING,
+        /**
+         * Splits a CSV file without quotes into line-aligned byte ranges that are aggregated concurrently.
+         */
+        PARALLEL,
+        /**
+         * Streams the rows into a temporary file and replays them in file order once the header is known, for
+         * large files whose rows are also passed to a {@link MergeService.RowListener}.
+         */
+        SPILL_TO_DISK;
+
+        public static Engine fromProperty(String value) {
+            if (value == null || value.isBlank() || value.trim().equalsIgnoreCase("auto")) {
+                return null;
+            }
+            return Engine.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    /**
+     * Decision thresholds of the planner. {@code forcedEngine} is {@code null} unless one engine is enforced.
+     */
+    public record Thresholds(long streamingBytes,
+                             long excelStreamingBytes,
+                             long parallelBytes,
+                             long chunkBytes,
+                             int processors,
+                             Engine forcedEngine) {
+        public Thresholds {
+            chunkBytes = Math.max(1, chunkBytes);
+            processors = Math.max(1, processors);
+        }
+
+        /**
+         * Creates thresholds from {@code listmerging.ingestion.streaming-mb} (default: 64),
+         * {@code listmerging.ingestion.excel-streaming-mb} (default: 16), {@code listmerging.ingestion.parallel-mb}
+         * (default: 256), {@code listmerging.ingestion.chunk-mb} (default: 64) and
+         * {@code listmerging.ingestion.engine} ({@code auto} or an {@link Engine} name).
+         */
+        public static Thresholds fromSystemProperties() {
+            return new Thresholds(
+                    Long.getLong("listmerging.ingestion.streaming-mb", 64) * MB,
+                    Long.getLong("listmerging.ingestion.excel-streaming-mb", 16) * MB,
+                    Long.getLong("listmerging.ingestion.parallel-mb", 256) * MB,
+                    Long.getLong("listmerging.ingestion.chunk-mb", 64) * MB,
+                    Runtime.getRuntime().availableProcessors(),
+                    Engine.fromProperty(System.getProperty("listmerging.ingestion.engine")));
+        }
+    }
+
+    /**
+     * Ingestion plan of all input files of a merge.
+     */
+    public static final class Plan {
+        /**
+         * Reads every file in memory, as merges without a preflight do.
+         */
+        public static final Plan NONE = new Plan(List.of());
+
+        private final List<FilePlan> files;
+        private final Map<File, FilePlan> byFile;
+
+        public Plan(List<FilePlan> files) {
+            this.files = List.copyOf(files);
+            this.byFile = new HashMap<>((int) (this.files.size() / 0.75f) + 1);
+            this.files.forEach(plan -> byFile.putIfAbsent(plan.file(), plan));
+        }
+
+        public List<FilePlan> files() {
+            return files;
+        }
+
+        public FilePlan forFile(File file) {
+            FilePlan plan = byFile.get(file);
+            return plan == null ? FilePlan.inMemory(file) : plan;
+        }
+
+        /**
+         * Files whose sampled header rows match no header definition.
+         */
+        public List<FilePlan> undetectable() {
+            return files.stream().filter(FilePlan::undetectable).toList();
+        }
+    }
+
+    /**
+     * Plan of one file. {@code header} is the header detected from the samples, or {@code null} if it is only
+     * known after the parse. {@code estimatedKeys} is {@code 0} when no estimate is available.
+     */
+    public record FilePlan(File file,
+                           Engine engine,
+                           long bytes,
+                           long estimatedRows,
+                           long estimatedKeys,
+                           HeaderDefinition header,
+                           boolean undetectable,
+                           int parallelism,
+                           String reason) {
+
+        static FilePlan inMemory(File file) {
+            return new FilePlan(file, Engine.IN_MEMORY, file.length(), 0, 0, null, false, 1, "no preflight");
+        }
+
+        /**
+         * Capacity to pre-size the aggregation table of this file with.
+         */
+        public int expectedKeys() {
+            return (int) Math.min(estimatedKeys, MAX_PRESIZED_KEYS);
+        }
+
+        public String describe() {
+            return String.format(Locale.ROOT, "%s: %s%s (%s, ~%,d rows, ~%,d keys, header %s) - %s",
+                    file.getName(),
+                    engine,
+                    parallelism > 1 ? " x" + parallelism : "",
+                    formatBytes(bytes),
+                    estimatedRows,
+                    estimatedKeys,
+                    header == null ? "detected while parsing" : header.name(),
+                    reason);
+        }
+    }
+
+    private record CsvSample(HeaderDefinition header, boolean quoted, long estimatedRows, long estimatedKeys) {
+    }
+}
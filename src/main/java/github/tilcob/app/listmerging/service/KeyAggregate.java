@@ -0,0 +1,118 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Count, sum and aggregate accumulators of one grouping key while its rows are still being read.
+ * <p>
+ * Rows and partial results are added in place, so a key costs one accumulator array however many rows it has.
+ * The immutable {@link AggregationResult} is only built by {@link #toResult()} once the key is complete.
+ * </p>
+ */
+final class KeyAggregate {
+    private static final double[] NO_ACCUMULATORS = new double[0];
+
+    private int rowCount;
+    private BigDecimal sumValue = BigDecimal.ZERO;
+    private double[] accumulators;
+
+    KeyAggregate(int aggregateColumns) {
+        accumulators = aggregateColumns == 0 ? NO_ACCUMULATORS : AggregationResult.emptyAccumulators(aggregateColumns);
+    }
+
+    /**
+     * A mutable copy of {@code result}.
+     */
+    static KeyAggregate of(AggregationResult result) {
+        KeyAggregate aggregate = new KeyAggregate(0);
+        aggregate.add(result);
+        return aggregate;
+    }
+
+    /**
+     * Adds {@code times} rows with the given sum; the accumulators are updated by the caller.
+     */
+    void addRows(int times, BigDecimal sum) {
+        rowCount += times;
+        if (sum.signum() != 0) {
+            sumValue = sumValue.add(times == 1 ? sum : sum.multiply(BigDecimal.valueOf(times)));
+        }
+    }
+
+    double[] accumulators() {
+        return accumulators;
+    }
+
+    void add(AggregationResult result) {
+        rowCount += result.rowCount();
+        sumValue = sumValue.add(result.sumValue());
+        int slots = result.accumulatorCount();
+        if (slots == 0) return;
+        grow(slots);
+        for (int slot = 0; slot < slots; slot += AggregationResult.SLOTS_PER_COLUMN) {
+            combine(slot, result.accumulator(slot + AggregationResult.SUM),
+                    result.accumulator(slot + AggregationResult.VALUES),
+                    result.accumulator(slot + AggregationResult.MIN),
+                    result.accumulator(slot + AggregationResult.MAX));
+        }
+    }
+
+    void add(KeyAggregate other) {
+        rowCount += other.rowCount;
+        sumValue = sumValue.add(other.sumValue);
+        double[] slots = other.accumulators;
+        if (slots.length == 0) return;
+        grow(slots.length);
+        for (int slot = 0; slot < slots.length; slot += AggregationResult.SLOTS_PER_COLUMN) {
+            combine(slot, slots[slot + AggregationResult.SUM], slots[slot + AggregationResult.VALUES],
+                    slots[slot + AggregationResult.MIN], slots[slot + AggregationResult.MAX]);
+        }
+    }
+
+    AggregationResult toResult() {
+        return new AggregationResult(rowCount, sumValue, accumulators);
+    }
+
+    /**
+     * Adds the results of one file or partial to the aggregates of their keys.
+     */
+    static void addAll(Map<List<String>, KeyAggregate> aggregates, Map<List<String>, AggregationResult> results) {
+        results.forEach((key, result) -> {
+            KeyAggregate aggregate = aggregates.get(key);
+            if (aggregate == null) {
+                aggregates.put(key, of(result));
+            } else {
+                aggregate.add(result);
+            }
+        });
+    }
+
+    /**
+     * The immutable results of completed {@code aggregates}.
+     */
+    static Map<List<String>, AggregationResult> results(Map<List<String>, KeyAggregate> aggregates) {
+        Map<List<String>, AggregationResult> results = new HashMap<>((int) (aggregates.size() / 0.75f) + 1);
+        aggregates.forEach((key, aggregate) -> results.put(key, aggregate.toResult()));
+        return results;
+    }
+
+    private void grow(int slots) {
+        if (accumulators.length < slots) {
+            double[] grown = AggregationResult.emptyAccumulators(slots / AggregationResult.SLOTS_PER_COLUMN);
+            System.arraycopy(accumulators, 0, grown, 0, accumulators.length);
+            accumulators = grown;
+        }
+    }
+
+    private void combine(int slot, double sum, double values, double min, double max) {
+        accumulators[slot + AggregationResult.SUM] += sum;
+        accumulators[slot + AggregationResult.VALUES] += values;
+        accumulators[slot + AggregationResult.MIN] = Math.min(accumulators[slot + AggregationResult.MIN], min);
+        accumulators[slot + AggregationResult.MAX] = Math.max(accumulators[slot + AggregationResult.MAX], max);
+    }
+}
@@ -3,19 +3,27 @@ package github.tilcob.app.listmerging.service;
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReaderBuilder;
+import com.opencsv.ICSVParser;
 import com.opencsv.exceptions.CsvException;
+import github.tilcob.app.listmerging.metrics.MergeMetrics;
 import github.tilcob.app.listmerging.model.AggregationResult;
 import github.tilcob.app.listmerging.model.HeaderDefinition;
 import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -23,35 +31,351 @@ import java.util.stream.IntStream;
 public class MergeService {
     private static final Logger log = LoggerFactory.getLogger(MergeService.class);
     private static final Pattern DEFAULT_SUM_PATTERN = Pattern.compile("(\\d+[.,]?\\d*)");
+    static final HeaderDefinition EMPTY_HEADER = new HeaderDefinition("Empty", List.of());
+    private static final int PROGRESS_INTERVAL_ROWS = 4096;
+    /**
+     * Upper bound for workbooks that a pipelined merge loads into memory at the same time, from
+     * {@code listmerging.pipeline.workbook-parsers} (default: 2).
+     */
+    private static final int WORKBOOK_PARSERS =
+            Math.max(1, Integer.getInteger("listmerging.pipeline.workbook-parsers", 2));
+
+    private final StreamingIngestion streaming = new StreamingIngestion(this);
+    private final Map<HeaderDefinition, CompiledHeader> compiledHeaders = new ConcurrentHashMap<>();
 
     public Map<HeaderDefinition, Map<List<String>, AggregationResult>> merge(List<File> files, List<HeaderDefinition> headers)
             throws IOException, CsvException {
+        return merge(files, headers, RowListener.NONE);
+    }
+
+    /**
+     * Merges the files and additionally passes every non-blank row, including header rows, to {@code rowListener}.
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> merge(List<File> files,
+                                                                            List<HeaderDefinition> headers,
+                                                                            RowListener rowListener)
+            throws IOException, CsvException {
+        return merge(files, headers, rowListener, ProgressListener.NONE);
+    }
+
+    /**
+     * Merges the files and reports the rows and bytes read per file to {@code progressListener}.
+     * <p>
+     * The read loops stop with a {@link CancellationException} once the calling thread is interrupted,
+     * e.g. by cancelling the surrounding task.
+     * </p>
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> merge(List<File> files,
+                                                                            List<HeaderDefinition> headers,
+                                                                            RowListener rowListener,
+                                                                            ProgressListener progressListener)
+            throws IOException, CsvException {
+        return merge(files, headers, rowListener, progressListener, IngestionPlanner.Plan.NONE);
+    }
+
+    /**
+     * Merges the files with the engines chosen by {@code plan}, see {@link IngestionPlanner}.
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> merge(List<File> files,
+                                                                            List<HeaderDefinition> headers,
+                                                                            RowListener rowListener,
+                                                                            ProgressListener progressListener,
+                                                                            IngestionPlanner.Plan plan)
+            throws IOException, CsvException {
+        Map<HeaderDefinition, Map<List<String>, KeyAggregate>> groups = new LinkedHashMap<>();
+
+        for (File file : files) {
+            Cancellation.checkpoint();
+            addToResult(groups, aggregateFile(file, headers, rowListener, progressListener, plan.forFile(file)));
+        }
         Map<HeaderDefinition, Map<List<String>, AggregationResult>> result = new LinkedHashMap<>();
+        groups.forEach((header, rows) -> result.put(header, KeyAggregate.results(rows)));
+        return result;
+    }
+
+    /**
+     * Merges the files like {@link #merge(List, List)} but hands every header group to {@code listener}
+     * as soon as all of its input files have been aggregated.
+     * <p>
+     * The header of each CSV file is sniffed up front from its raw lines. Files whose header cannot be
+     * sniffed without a full parse (Excel files and CSV files with quoted cells) are parsed first, and no
+     * group is released while one of them is still pending. Files are parsed on {@code parserThreads}
+     * workers and folded into the result on the calling thread, which also invokes the listener.
+     * Workbooks that are read in memory are parsed on at most {@code listmerging.pipeline.workbook-parsers} of
+     * them, because each one holds the whole sheet; larger workbooks are streamed if the plan says so.
+     * Released groups are never modified again.
+     * </p>
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> mergePipelined(List<File> files,
+                                                                                      List<HeaderDefinition> headers,
+                                                                                      int parserThreads,
+                                                                                      RowListener rowListener,
+                                                                                      GroupListener listener)
+            throws IOException, CsvException, InterruptedException {
+        return mergePipelined(files, headers, parserThreads, rowListener, ProgressListener.NONE, listener);
+    }
+
+    /**
+     * Merges like {@link #mergePipelined(List, List, int, RowListener, GroupListener)} and reports the rows and
+     * bytes read per file to {@code progressListener}, which is called from the parser threads.
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> mergePipelined(List<File> files,
+                                                                                      List<HeaderDefinition> headers,
+                                                                                      int parserThreads,
+                                                                                      RowListener rowListener,
+                                                                                      ProgressListener progressListener,
+                                                                                      GroupListener listener)
+            throws IOException, CsvException, InterruptedException {
+        return mergePipelined(files, headers, parserThreads, rowListener, progressListener, listener,
+                IngestionPlanner.Plan.NONE);
+    }
 
+    /**
+     * Merges like {@link #mergePipelined(List, List, int, RowListener, ProgressListener, GroupListener)} with the
+     * engines chosen by {@code plan}. Headers detected by the plan are used instead of sniffing the files again.
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> mergePipelined(List<File> files,
+                                                                                      List<HeaderDefinition> headers,
+                                                                                      int parserThreads,
+                                                                                      RowListener rowListener,
+                                                                                      ProgressListener progressListener,
+                                                                                      GroupListener listener,
+                                                                                      IngestionPlanner.Plan plan)
+            throws IOException, CsvException, InterruptedException {
+        Map<File, HeaderDefinition> sniffed = new HashMap<>();
+        Map<HeaderDefinition, Integer> pendingFiles = new LinkedHashMap<>();
+        List<File> unknown = new ArrayList<>();
         for (File file : files) {
-            FileType fileType = detect(file);
-            FileReadResult fileResult = switch (fileType) {
-                case EXCEL -> readExcel(file, headers);
-                case CSV -> readCsv(file, headers);
-            };
-            Map<List<String>, AggregationResult> bucket =
-                    result.computeIfAbsent(fileResult.header(), k -> new HashMap<>());
+            HeaderDefinition planned = plan.forFile(file).header();
+            Optional<HeaderDefinition> header = planned != null ? Optional.of(planned) : sniffHeader(file, headers);
+            if (header.isPresent()) {
+                sniffed.put(file, header.get());
+                pendingFiles.merge(header.get(), 1, Integer::sum);
+            } else {
+                unknown.add(file);
+            }
+        }
 
-            fileResult.counts().forEach((row, aggregation) ->
-                    bucket.merge(row, aggregation, AggregationResult::add));
+        Map<HeaderDefinition, Integer> groupOrder = new HashMap<>();
+        pendingFiles.keySet().forEach(header -> groupOrder.put(header, groupOrder.size()));
+        List<File> ordered = new ArrayList<>(unknown);
+        files.stream()
+                .filter(sniffed::containsKey)
+                .sorted(Comparator.comparingInt(file -> groupOrder.get(sniffed.get(file))))
+                .forEach(ordered::add);
+        log.info("Pipelined merge of {} files: {} with sniffed headers, {} without.",
+                files.size(), sniffed.size(), unknown.size());
+
+        Map<HeaderDefinition, Map<List<String>, KeyAggregate>> groups = new LinkedHashMap<>();
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> released = new HashMap<>();
+        int unknownPending = unknown.size();
+
+        ExecutorService parsers = parserPool(Math.max(1, parserThreads));
+        ExecutorService workbookParsers = parserPool(Math.max(1, Math.min(parserThreads, WORKBOOK_PARSERS)));
+        try {
+            BlockingQueue<Future<FileReadResult>> parsed = new LinkedBlockingQueue<>();
+            CompletionService<FileReadResult> completion = new ExecutorCompletionService<>(parsers, parsed);
+            CompletionService<FileReadResult> workbookCompletion =
+                    new ExecutorCompletionService<>(workbookParsers, parsed);
+            for (File file : ordered) {
+                IngestionPlanner.FilePlan filePlan = plan.forFile(file);
+                boolean workbook = filePlan.engine() == IngestionPlanner.Engine.IN_MEMORY
+                        && detect(file) == FileType.EXCEL;
+                (workbook ? workbookCompletion : completion).submit(() ->
+                        aggregateFile(file, headers, rowListener, progressListener, filePlan));
+            }
+
+            for (int done = 0; done < ordered.size(); done++) {
+                FileReadResult fileResult = takeResult(completion);
+                addToResult(groups, fileResult);
+
+                File file = fileResult.file();
+                if (sniffed.containsKey(file)) {
+                    pendingFiles.merge(sniffed.get(file), -1, Integer::sum);
+                } else {
+                    unknownPending--;
+                }
+
+                if (unknownPending == 0) {
+                    for (var group : groups.entrySet()) {
+                        HeaderDefinition header = group.getKey();
+                        if (pendingFiles.getOrDefault(header, 0) <= 0 && !released.containsKey(header)) {
+                            release(header, group.getValue(), released, listener);
+                        }
+                    }
+                }
+            }
+        } finally {
+            parsers.shutdownNow();
+            workbookParsers.shutdownNow();
         }
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> result = new LinkedHashMap<>();
+        for (var group : groups.entrySet()) {
+            Map<List<String>, AggregationResult> rows = released.get(group.getKey());
+            if (rows == null) {
+                rows = release(group.getKey(), group.getValue(), released, listener);
+            }
+            result.put(group.getKey(), rows);
+        }
+        return result;
+    }
+
+    private static ExecutorService parserPool(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "merge-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Builds the immutable result of a completed group and hands it to {@code listener}.
+     */
+    private static Map<List<String>, AggregationResult> release(
+            HeaderDefinition header,
+            Map<List<String>, KeyAggregate> aggregates,
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> released,
+            GroupListener listener) throws InterruptedException {
+        Map<List<String>, AggregationResult> rows = KeyAggregate.results(aggregates);
+        released.put(header, rows);
+        listener.groupCompleted(header, rows);
+        return rows;
+    }
+
+    /**
+     * Reads and aggregates a single input file.
+     */
+    public FileReadResult aggregateFile(File file, List<HeaderDefinition> headers) throws IOException, CsvException {
+        return aggregateFile(file, headers, RowListener.NONE);
+    }
+
+    public FileReadResult aggregateFile(File file, List<HeaderDefinition> headers, RowListener rowListener)
+            throws IOException, CsvException {
+        return aggregateFile(file, headers, rowListener, ProgressListener.NONE);
+    }
+
+    public FileReadResult aggregateFile(File file,
+                                        List<HeaderDefinition> headers,
+                                        RowListener rowListener,
+                                        ProgressListener progressListener)
+            throws IOException, CsvException {
+        return aggregateFile(file, headers, rowListener, progressListener, IngestionPlanner.FilePlan.inMemory(file));
+    }
+
+    /**
+     * Reads and aggregates a single input file with the engine of {@code filePlan}.
+     */
+    public FileReadResult aggregateFile(File file,
+                                        List<HeaderDefinition> headers,
+                                        RowListener rowListener,
+                                        ProgressListener progressListener,
+                                        IngestionPlanner.FilePlan filePlan)
+            throws IOException, CsvException {
+        MergeMetrics.FileProbe probe = MergeMetrics.beginFile(file);
+        long[] totals = new long[2];
+        ProgressListener counting = (progressFile, rowsRead, bytesRead) -> {
+            totals[0] = rowsRead;
+            totals[1] = bytesRead;
+            progressListener.fileProgress(progressFile, rowsRead, bytesRead);
+        };
+        int expectedKeys = filePlan.expectedKeys();
+        FileReadResult result = switch (filePlan.engine()) {
+            case STREAMING -> streaming.stream(file, headers, filePlan.header(), expectedKeys, counting);
+            case PARALLEL -> streaming.parallel(file, headers, filePlan.header(), filePlan.parallelism(),
+                    expectedKeys, counting);
+            case SPILL_TO_DISK -> streaming.spill(file, headers, expectedKeys, rowListener, counting);
+            case IN_MEMORY -> switch (detect(file)) {
+                case EXCEL -> readExcel(file, headers, rowListener, counting, expectedKeys);
+                case CSV -> readCsv(file, headers, rowListener, counting, expectedKeys);
+            };
+        };
+        progressListener.fileCompleted(probe.end(
+                result.header() == null ? null : result.header().name(),
+                totals[0],
+                totals[1],
+                result.counts().size()));
         return result;
     }
 
-    private FileReadResult readExcel(File file, List<HeaderDefinition> headers) throws IOException {
+    /**
+     * Determines the header definition of a CSV file from its raw first and last non-blank lines without
+     * parsing the rows in between. Returns an empty result when this is not possible without a full parse,
+     * which is the case for Excel files and for CSV files that contain quotes.
+     */
+    public Optional<HeaderDefinition> sniffHeader(File file, List<HeaderDefinition> headers) throws IOException {
+        if (detect(file) != FileType.CSV) {
+            return Optional.empty();
+        }
+
+        String firstLine = null;
+        String lastNonBlankLine = null;
+        ICSVParser parser = new CSVParserBuilder().withSeparator(';').build();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.indexOf('"') >= 0) {
+                    return Optional.empty();
+                }
+                if (firstLine == null) {
+                    firstLine = line;
+                }
+                if (!isBlankRow(Arrays.asList(parser.parseLine(line)))) {
+                    lastNonBlankLine = line;
+                }
+            }
+        }
+
+        if (firstLine == null || lastNonBlankLine == null) {
+            return Optional.of(EMPTY_HEADER);
+        }
+        List<String> firstRow = toRow(parser.parseLine(firstLine));
+        List<String> lastRow = toRow(parser.parseLine(lastNonBlankLine));
+        return Optional.of(chooseHeader(firstRow, lastRow, headers));
+    }
+
+    private void addToResult(Map<HeaderDefinition, Map<List<String>, KeyAggregate>> groups,
+                             FileReadResult fileResult) {
+        KeyAggregate.addAll(groups.computeIfAbsent(fileResult.header(), k -> new HashMap<>()), fileResult.counts());
+    }
+
+    private FileReadResult takeResult(CompletionService<FileReadResult> completion)
+            throws IOException, CsvException, InterruptedException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) throw ioException;
+            if (cause instanceof CsvException csvException) throw csvException;
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new IOException("Reading input file failed.", cause);
+        }
+    }
+
+    /**
+     * Formats Excel cells for every reader: formula cells show their cached result, as the SAX reader of the
+     * streaming engine sees them, instead of the formula text.
+     */
+    static DataFormatter cellFormatter() {
+        DataFormatter formatter = new DataFormatter();
+        formatter.setUseCachedValuesForFormulaCells(true);
+        return formatter;
+    }
+
+    private FileReadResult readExcel(File file,
+                                     List<HeaderDefinition> headers,
+                                     RowListener rowListener,
+                                     ProgressListener progressListener,
+                                     int expectedKeys)
+            throws IOException {
         try (Workbook workbook = WorkbookFactory.create(file)) {
             Sheet sheet = workbook.getSheetAt(0);
-            DataFormatter fmt = new DataFormatter();
+            DataFormatter fmt = cellFormatter();
 
             int firstRowIndex = 0;
             int lastRowIndex = findLastNonBlankExcelRow(sheet, fmt);
             if (lastRowIndex < 0) {
-                return new FileReadResult(new HeaderDefinition("Empty", List.of()), Map.of());
+                return new FileReadResult(file, EMPTY_HEADER, Map.of());
             }
 
             List<String> firstRow = Optional.ofNullable(sheet.getRow(firstRowIndex))
@@ -66,44 +390,150 @@ public class MergeService {
                     ? lastRowIndex
                     : firstRowIndex;
 
-            SumConfig sumConfig = buildSumConfig(chosen);
-            Map<List<String>, AggregationResult> counts = new HashMap<>();
+            CompiledHeader compiled = compile(chosen);
+            RowListener.FileRows teedRows = rowListener.beginFile(file, firstRow, lastRow, lastRowIndex);
+            Map<List<String>, KeyAggregate> counts = StreamingIngestion.presized(expectedKeys);
+            long fileBytes = file.length();
+            boolean projected = compiled.projects();
+            IntPredicate needs = column -> compiled.needs(column) || teedRows.needs(column);
             for (int r = firstRowIndex; r <= lastRowIndex; r++) {
-                if (r == headerIndex) continue;
+                Cancellation.checkpoint();
+                if (r % PROGRESS_INTERVAL_ROWS == 0) {
+                    // The workbook is already loaded, so bytes are estimated from the row position.
+                    progressListener.fileProgress(file, r, fileBytes * r / (lastRowIndex + 1));
+                }
+                if (r == headerIndex && rowListener == RowListener.NONE) continue;
                 Row row = sheet.getRow(r);
                 if (row == null) continue;
 
-                List<String> cells = toStringRow(row, fmt);
-                if (isBlankRow(cells)) continue;
+                List<String> cells = projected ? toProjectedRow(row, fmt, needs) : toStringRow(row, fmt);
+                if (isBlankRow(cells) && (!projected || isBlankRow(toStringRow(row, fmt)))) continue;
+                teedRows.row(r, cells);
+                if (r == headerIndex || !compiled.accepts(cells)) continue;
 
-                List<String> key = buildGroupingKey(cells, sumConfig.columnIndex());
-                BigDecimal sumValue = parseSumValue(cells, sumConfig);
-                counts.merge(key, new AggregationResult(1, sumValue), AggregationResult::add);
+                aggregateRow(counts, compiled.key(cells), cells, compiled, 1);
             }
+            teedRows.complete();
+            progressListener.fileProgress(file, lastRowIndex + 1, fileBytes);
 
-            return new FileReadResult(chosen, counts);
+            return new FileReadResult(file, chosen, KeyAggregate.results(counts));
         } catch (InvalidFormatException e) {
             throw new IOException("Invalid Excel format: " + file.getName(), e);
         }
     }
 
-    private FileReadResult readCsv(File file, List<HeaderDefinition> headers) throws CsvException, IOException {
+    /**
+     * Reads a CSV file into memory as lines. Once the header is known, lines without quotes and escapes are split by
+     * {@link CompiledHeader#splitLine}, copying only the cells the header and {@code rowListener} need. A file with
+     * quotes is read by {@link #readQuotedCsv} instead, because quoted cells may span lines.
+     */
+    private FileReadResult readCsv(File file,
+                                   List<HeaderDefinition> headers,
+                                   RowListener rowListener,
+                                   ProgressListener progressListener,
+                                   int expectedKeys)
+            throws CsvException, IOException {
+        CountingInputStream in = new CountingInputStream(Files.newInputStream(file.toPath()));
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                Cancellation.checkpoint();
+                if (line.indexOf('"') >= 0) {
+                    lines = null;
+                    break;
+                }
+                lines.add(line);
+                if (lines.size() % PROGRESS_INTERVAL_ROWS == 0) {
+                    progressListener.fileProgress(file, lines.size(), in.count());
+                }
+            }
+        }
+        if (lines == null) {
+            return readQuotedCsv(file, headers, rowListener, progressListener, expectedKeys);
+        }
+        progressListener.fileProgress(file, lines.size(), in.count());
+
+        ICSVParser parser = new CSVParserBuilder().withSeparator(';').build();
+        int lastRowIndex = lines.size() - 1;
+        while (lastRowIndex >= 0 && isBlankCsvLine(lines.get(lastRowIndex), parser)) {
+            lastRowIndex--;
+        }
+        if (lastRowIndex < 0) {
+            return new FileReadResult(file, EMPTY_HEADER, Map.of());
+        }
+
+        int firstRowIndex = 0;
+        List<String> firstRow = toRow(parser.parseLine(lines.get(firstRowIndex)));
+        List<String> lastRow = toRow(parser.parseLine(lines.get(lastRowIndex)));
+        HeaderDefinition chosen = chooseHeader(firstRow, lastRow, headers);
+        int headerIndex = chosen.headerPosition() == HeaderDefinition.HeaderPosition.LAST
+                ? lastRowIndex
+                : firstRowIndex;
+
+        CompiledHeader compiled = compile(chosen);
+        RowListener.FileRows teedRows = rowListener.beginFile(file, firstRow, lastRow, lastRowIndex);
+        IntPredicate needs = column -> compiled.needs(column) || teedRows.needs(column);
+        Map<List<String>, KeyAggregate> counts = StreamingIngestion.presized(expectedKeys);
+        for (int i = firstRowIndex; i <= lastRowIndex; i++) {
+            Cancellation.checkpoint();
+            String line = lines.get(i);
+            List<String> row;
+            if (line.indexOf('\\') >= 0) {
+                row = toRow(parser.parseLine(line));
+                if (isBlankRow(row)) continue;
+            } else {
+                if (StreamingIngestion.isBlankLine(line)) continue;
+                row = CompiledHeader.splitLine(line, needs);
+            }
+            teedRows.row(i, row);
+            if (i == headerIndex || !compiled.accepts(row)) continue;
+
+            aggregateRow(counts, compiled.key(row), row, compiled, 1);
+        }
+        teedRows.complete();
+
+        return new FileReadResult(file, chosen, KeyAggregate.results(counts));
+    }
+
+    private boolean isBlankCsvLine(String line, ICSVParser parser) throws IOException {
+        return line.indexOf('\\') >= 0
+                ? isBlankRow(toRow(parser.parseLine(line)))
+                : StreamingIngestion.isBlankLine(line);
+    }
+
+    /**
+     * Reads a CSV file with quoted cells: every record is parsed by OpenCSV, which joins quoted cells that span
+     * lines.
+     */
+    private FileReadResult readQuotedCsv(File file,
+                                         List<HeaderDefinition> headers,
+                                         RowListener rowListener,
+                                         ProgressListener progressListener,
+                                         int expectedKeys)
+            throws CsvException, IOException {
+        CountingInputStream in = new CountingInputStream(Files.newInputStream(file.toPath()));
         try (var reader = new CSVReaderBuilder(
-                Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))
                 .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
                 .build()
         ) {
-            List<List<String>> rows = reader.readAll().stream()
-                    .map(arr -> Arrays.stream(arr).map(s -> s == null ? "" : s).toList())
-                    .toList();
+            List<List<String>> rows = new ArrayList<>();
+            for (String[] cells = reader.readNext(); cells != null; cells = reader.readNext()) {
+                Cancellation.checkpoint();
+                rows.add(toRow(cells));
+                if (rows.size() % PROGRESS_INTERVAL_ROWS == 0) {
+                    progressListener.fileProgress(file, rows.size(), in.count());
+                }
+            }
+            progressListener.fileProgress(file, rows.size(), in.count());
             if (rows.isEmpty()) {
-                return new FileReadResult(new HeaderDefinition("Empty", List.of()), Map.of());
+                return new FileReadResult(file, EMPTY_HEADER, Map.of());
             }
 
             int firstRowIndex = 0;
             int lastRowIndex = findLastNonBlankCsvRow(rows);
             if (lastRowIndex < 0) {
-                return new FileReadResult(new HeaderDefinition("Empty", List.of()), Map.of());
+                return new FileReadResult(file, EMPTY_HEADER, Map.of());
             }
 
             List<String> firstRow = rows.get(firstRowIndex);
@@ -113,24 +543,25 @@ public class MergeService {
                     ? lastRowIndex
                     : firstRowIndex;
 
-            SumConfig sumConfig = buildSumConfig(chosen);
-            Map<List<String>, AggregationResult> counts = new HashMap<>();
+            CompiledHeader compiled = compile(chosen);
+            RowListener.FileRows teedRows = rowListener.beginFile(file, firstRow, lastRow, lastRowIndex);
+            Map<List<String>, KeyAggregate> counts = StreamingIngestion.presized(expectedKeys);
             for (int i = firstRowIndex; i <= lastRowIndex; i++) {
-                if (i == headerIndex) continue;
-
+                Cancellation.checkpoint();
                 List<String> row = rows.get(i);
                 if (isBlankRow(row)) continue;
+                teedRows.row(i, row);
+                if (i == headerIndex || !compiled.accepts(row)) continue;
 
-                List<String> key = buildGroupingKey(row, sumConfig.columnIndex());
-                BigDecimal sumValue = parseSumValue(row, sumConfig);
-                counts.merge(key, new AggregationResult(1, sumValue), AggregationResult::add);
+                aggregateRow(counts, compiled.key(row), row, compiled, 1);
             }
+            teedRows.complete();
 
-            return new FileReadResult(chosen, counts);
+            return new FileReadResult(file, chosen, KeyAggregate.results(counts));
         }
     }
 
-    private SumConfig buildSumConfig(HeaderDefinition header) {
+    SumConfig buildSumConfig(HeaderDefinition header) {
         String sumColumn = header.sumColumn();
         if (sumColumn == null || sumColumn.isBlank() || header.headers() == null || header.headers().isEmpty()) {
             return new SumConfig(-1, DEFAULT_SUM_PATTERN);
@@ -154,21 +585,36 @@ public class MergeService {
         return new SumConfig(columnIndex, pattern);
     }
 
-    private List<String> buildGroupingKey(List<String> row, int sumColumnIndex) {
-        if (sumColumnIndex < 0 || sumColumnIndex >= row.size()) {
-            return List.copyOf(row);
-        }
+    /**
+     * Returns the sum column, row filters and key columns of {@code header}; they are resolved once per header
+     * definition.
+     */
+    CompiledHeader compile(HeaderDefinition header) {
+        return compiledHeaders.computeIfAbsent(header, h -> CompiledHeader.compile(h, buildSumConfig(h)));
+    }
 
-        List<String> key = new ArrayList<>(row.size() - 1);
-        for (int i = 0; i < row.size(); i++) {
-            if (i != sumColumnIndex) {
-                key.add(row.get(i));
-            }
+    /**
+     * Adds {@code times} rows equal to the accepted {@code row} to the aggregate of {@code key}, in place.
+     */
+    void aggregateRow(Map<List<String>, KeyAggregate> counts,
+                      List<String> key,
+                      List<String> row,
+                      CompiledHeader compiled,
+                      int times) {
+        KeyAggregate aggregate = counts.get(key);
+        if (aggregate == null) {
+            aggregate = compiled.newAggregate();
+            counts.put(key, aggregate);
         }
-        return List.copyOf(key);
+        aggregate.addRows(times, parseSumValue(row, compiled.sumConfig()));
+        compiled.accumulate(row, times, aggregate.accumulators());
+    }
+
+    List<String> buildGroupingKey(List<String> row, int sumColumnIndex) {
+        return CompiledHeader.buildKeyWithoutSum(row, sumColumnIndex);
     }
 
-    private BigDecimal parseSumValue(List<String> row, SumConfig sumConfig) {
+    BigDecimal parseSumValue(List<String> row, SumConfig sumConfig) {
         int idx = sumConfig.columnIndex();
         if (idx < 0 || idx >= row.size()) {
             return BigDecimal.ZERO;
@@ -211,7 +657,11 @@ public class MergeService {
         return normalized.subList(0, end);
     }
 
-    private boolean isBlankRow(List<String> row) {
+    List<String> toRow(String[] cells) {
+        return Arrays.stream(cells).map(s -> s == null ? "" : s).toList();
+    }
+
+    boolean isBlankRow(List<String> row) {
         return row == null || row.stream().allMatch(s -> s == null || s.isBlank());
     }
 
@@ -228,6 +678,22 @@ public class MergeService {
                 .toList();
     }
 
+    /**
+     * Like {@link #toStringRow} but formats only the cells {@code needs} accepts; the others are empty.
+     */
+    private List<String> toProjectedRow(Row row, DataFormatter fmt, IntPredicate needs) {
+        short first = row.getFirstCellNum();
+        short last = row.getLastCellNum();
+        if (first < 0 || last <= first) return List.of();
+
+        String[] cells = new String[last - first];
+        for (int i = 0; i < cells.length; i++) {
+            Cell c = needs.test(i) ? row.getCell(first + i, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL) : null;
+            cells[i] = c == null ? "" : fmt.formatCellValue(c);
+        }
+        return Arrays.asList(cells);
+    }
+
     private int findLastNonBlankExcelRow(Sheet sheet, DataFormatter fmt) {
         for (int i = sheet.getLastRowNum(); i >= 0; i--) {
             Row row = sheet.getRow(i);
@@ -247,7 +713,7 @@ public class MergeService {
         return -1;
     }
 
-    private HeaderDefinition chooseHeader(List<String> firstRow, List<String> lastRow, List<HeaderDefinition> headers) {
+    HeaderDefinition chooseHeader(List<String> firstRow, List<String> lastRow, List<HeaderDefinition> headers) {
         List<String> normalizedFirst = normalizeRow(firstRow);
         List<String> normalizedLast = normalizeRow(lastRow);
 
@@ -293,9 +759,117 @@ public class MergeService {
         EXCEL, CSV
     }
 
-    private record FileReadResult(HeaderDefinition header, Map<List<String>, AggregationResult> counts) {
+    /**
+     * Aggregated rows of a single input file together with the header definition it was matched to.
+     */
+    public record FileReadResult(File file, HeaderDefinition header, Map<List<String>, AggregationResult> counts) {
+    }
+
+    /**
+     * Receives the raw rows of every parsed input file, for example to build a second, independent aggregation.
+     * {@link #beginFile} may be called concurrently for different files; the returned {@link FileRows} are used
+     * by a single thread.
+     */
+    public interface RowListener {
+        RowListener NONE = (file, firstRow, lastRow, lastRowIndex) -> FileRows.NONE;
+
+        /**
+         * Called once per non-empty file with its first row and its last non-blank row.
+         */
+        FileRows beginFile(File file, List<String> firstRow, List<String> lastRow, int lastRowIndex);
+
+        interface FileRows {
+            FileRows NONE = new FileRows() {
+                @Override
+                public boolean needs(int column) {
+                    return false;
+                }
+
+                @Override
+                public void row(int rowIndex, List<String> cells) {
+                }
+
+                @Override
+                public void complete() {
+                }
+            };
+
+            /**
+             * Whether {@link #row} reads the cell at {@code column}. Readers that decode only some cells still
+             * decode these; the other cells of a row may be empty.
+             */
+            default boolean needs(int column) {
+                return true;
+            }
+
+            /**
+             * Called for every non-blank row in file order, including header rows.
+             */
+            void row(int rowIndex, List<String> cells);
+
+            void complete();
+        }
+    }
+
+    /**
+     * Receives the read progress of input files. It may be called concurrently for different files and is
+     * called at least once when a file has been read completely.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        ProgressListener NONE = (file, rowsRead, bytesRead) -> {
+        };
+
+        void fileProgress(File file, long rowsRead, long bytesRead);
+
+        /**
+         * Called once per file after it has been aggregated, on the thread that parsed it.
+         */
+        default void fileCompleted(MergeMetrics.FileMetrics metrics) {
+        }
+    }
+
+    /**
+     * Receives header groups from {@link #mergePipelined(List, List, int, RowListener, GroupListener)} once they are complete.
+     */
+    @FunctionalInterface
+    public interface GroupListener {
+        void groupCompleted(HeaderDefinition header, Map<List<String>, AggregationResult> rows) throws InterruptedException;
+    }
+
+    record SumConfig(int columnIndex, Pattern pattern) {
     }
 
-    private record SumConfig(int columnIndex, Pattern pattern) {
+    static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long count() {
+            return count;
+        }
     }
 }
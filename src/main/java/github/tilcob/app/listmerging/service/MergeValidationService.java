@@ -3,6 +3,7 @@ package github.tilcob.app.listmerging.service;
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.exceptions.CsvException;
+import github.tilcob.app.listmerging.metrics.MergeMetrics;
 import github.tilcob.app.listmerging.model.*;
 import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
@@ -15,14 +16,33 @@ import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
 import java.util.stream.IntStream;
 
+/**
+ * Validates merge results against expected metrics and, if enabled, against an independent reference
+ * aggregation of the input files.
+ * <p>
+ * The reference path reads input files and compares header groups on a pool of {@code parallelism} worker
+ * threads. Issues are collected per header group and returned sorted by header name and key, so the report
+ * does not depend on thread scheduling.
+ * </p>
+ */
 public class MergeValidationService {
     private static final Logger log = LoggerFactory.getLogger(MergeValidationService.class);
-    private static final Pattern DEFAULT_SUM_PATTERN = Pattern.compile("(\\d+[\\.,]?\\d*)");
-    private static final String KEY_SEPARATOR = "\u001F";
+
+    private final int parallelism;
+
+    public MergeValidationService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    MergeValidationService(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+        this.parallelism = parallelism;
+    }
 
     public ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
                                      ValidationContext context) {
@@ -33,18 +53,118 @@ public class MergeValidationService {
                                      ValidationContext context,
                                      List<File> files,
                                      List<HeaderDefinition> headers) {
+        return validate(merged, context, fileReference(files, headers), new ValidationIssueCollector(), MergeMetrics.NONE);
+    }
+
+    /**
+     * Validates against a reference aggregation that was collected while {@link MergeService} parsed the
+     * input files, so the files do not have to be read a second time.
+     */
+    public ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                     ValidationContext context,
+                                     ReferenceAggregator reference) {
+        return validate(merged, context, reference, List.of(), List.of());
+    }
+
+    /**
+     * Validates against a reference aggregation collected during the merge pass. If {@code reference} only
+     * kept fingerprints and they disagree, the detailed diff re-reads {@code files}.
+     */
+    public ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                     ValidationContext context,
+                                     ReferenceAggregator reference,
+                                     List<File> files,
+                                     List<HeaderDefinition> headers) {
+        return validate(merged, context, reference, files, headers, new ValidationIssueCollector());
+    }
+
+    /**
+     * Validates like {@link #validate(Map, ValidationContext, ReferenceAggregator, List, List)} and passes every
+     * issue to {@code issues}, which bounds the issues kept in the returned report and may stream them to a file.
+     * {@code reference} may be {@code null}; the files are read again in that case.
+     */
+    public ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                     ValidationContext context,
+                                     ReferenceAggregator reference,
+                                     List<File> files,
+                                     List<HeaderDefinition> headers,
+                                     ValidationIssueCollector issues) {
+        return validate(merged, context, reference, files, headers, issues, MergeMetrics.NONE);
+    }
+
+    /**
+     * Validates like {@link #validate(Map, ValidationContext, ReferenceAggregator, List, List, ValidationIssueCollector)}
+     * and records the group checks and the reference comparison as stages {@code validation.groups} and
+     * {@code validation.reference} in {@code metrics}.
+     */
+    public ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                     ValidationContext context,
+                                     ReferenceAggregator reference,
+                                     List<File> files,
+                                     List<HeaderDefinition> headers,
+                                     ValidationIssueCollector issues,
+                                     MergeMetrics metrics) {
+        if (reference == null) {
+            return validate(merged, context, fileReference(files, headers), issues, metrics);
+        }
+        return validate(merged, context, new ReferenceSource() {
+            @Override
+            public Map<String, AggregationFingerprint> fingerprints(ExecutorService executor) {
+                return reference.fingerprints();
+            }
+
+            @Override
+            public Map<String, Map<String, AggregationResult>> detailed(ExecutorService executor)
+                    throws IOException, CsvException {
+                if (reference.retainsRows()) {
+                    return reference.result();
+                }
+                if (files == null || files.isEmpty() || headers == null || headers.isEmpty()) {
+                    return null;
+                }
+                return buildReferenceAggregation(files, headers, executor);
+            }
+        }, issues, metrics);
+    }
+
+    private ReferenceSource fileReference(List<File> files, List<HeaderDefinition> headers) {
+        return new ReferenceSource() {
+            @Override
+            public Map<String, AggregationFingerprint> fingerprints(ExecutorService executor)
+                    throws IOException, CsvException {
+                if (!hasInputs(files, headers)) {
+                    return null;
+                }
+                ReferenceAggregator aggregator = new ReferenceAggregator(headers, ValidationContext.ReferenceMode.FINGERPRINT);
+                feedReference(files, aggregator, executor);
+                return aggregator.fingerprints();
+            }
+
+            @Override
+            public Map<String, Map<String, AggregationResult>> detailed(ExecutorService executor)
+                    throws IOException, CsvException {
+                return hasInputs(files, headers) ? buildReferenceAggregation(files, headers, executor) : null;
+            }
+        };
+    }
+
+    private ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                      ValidationContext context,
+                                      ReferenceSource referenceSource,
+                                      ValidationIssueCollector issues,
+                                      MergeMetrics metrics) {
         ValidationContext effectiveContext = context == null
                 ? ValidationContext.defaults()
                 : context;
-        List<ValidationIssue> issues = new ArrayList<>();
-
         if (merged == null || merged.isEmpty()) {
             log.warn("Merge validation called with empty merged result.");
             issues.add(new ValidationIssue("EMPTY_MERGED_DATA", "No aggregated data available for validation."));
-            return ValidationReport.failure(issues);
+            return issues.toReport();
         }
 
         log.info("Start merge validation for {} header groups.", merged.size());
+        MergeMetrics.Stage groupStage = metrics.startStage("validation.groups");
+        long checkedKeys = 0;
 
         for (Map.Entry<HeaderDefinition, Map<List<String>, AggregationResult>> entry : merged.entrySet()) {
             HeaderDefinition header = entry.getKey();
@@ -75,8 +195,10 @@ public class MergeValidationService {
 
             int actualRowCount = 0;
             BigDecimal actualSum = BigDecimal.ZERO;
+            checkedKeys += groupedRows.size();
 
             for (Map.Entry<List<String>, AggregationResult> groupedEntry : groupedRows.entrySet()) {
+                Cancellation.checkpoint();
                 List<String> key = groupedEntry.getKey();
                 AggregationResult aggregation = groupedEntry.getValue();
 
@@ -121,20 +243,24 @@ public class MergeValidationService {
             validateSum(header, headerName, actualSum, effectiveContext, issues);
         }
 
+        groupStage.end(checkedKeys, 0);
+
         if (effectiveContext.enableReferenceAggregation()) {
-            compareWithReferencePath(merged, files, headers, effectiveContext, issues);
+            MergeMetrics.Stage referenceStage = metrics.startStage("validation.reference");
+            compareWithReferencePath(merged, referenceSource, effectiveContext, issues);
+            referenceStage.end(checkedKeys, 0);
         }
 
-        boolean valid = issues.isEmpty();
-        log.info("Merge validation finished. valid={}, issues={}", valid, issues.size());
-        return valid ? ValidationReport.success() : ValidationReport.failure(issues);
+        ValidationReport report = issues.toReport();
+        log.info("Merge validation finished. valid={}, issues={}", report.valid(), report.totalIssueCount());
+        return report;
     }
 
     private void validateRowCount(HeaderDefinition header,
                                   String headerName,
                                   int actualRowCount,
                                   ValidationContext context,
-                                  List<ValidationIssue> issues) {
+                                  ValidationIssueCollector issues) {
         String metricsHeaderName = resolveHeaderName(header, headerName);
         Integer expectedRowCount = context.expectedRowsFor(metricsHeaderName).orElse(null);
         if (expectedRowCount == null) {
@@ -169,7 +295,7 @@ public class MergeValidationService {
                              String headerName,
                              BigDecimal actualSum,
                              ValidationContext context,
-                             List<ValidationIssue> issues) {
+                             ValidationIssueCollector issues) {
         String metricsHeaderName = resolveHeaderName(header, headerName);
         if (header.sumColumn() == null || header.sumColumn().isBlank()) {
             log.debug("Header '{}' has no sumColumn configured. Skipping sum check.", headerName);
@@ -219,19 +345,23 @@ public class MergeValidationService {
     }
 
     private void compareWithReferencePath(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
-                                          List<File> files,
-                                          List<HeaderDefinition> headers,
+                                          ReferenceSource referenceSource,
                                           ValidationContext context,
-                                          List<ValidationIssue> issues) {
-        if (files == null || files.isEmpty() || headers == null || headers.isEmpty()) {
-            log.warn("Reference aggregation enabled but files/headers are missing. Skipping reference validation.");
-            return;
-        }
-
+                                          ValidationIssueCollector issues) {
+        ExecutorService executor = createExecutor();
         try {
-            Map<String, Map<String, AggregationResult>> referenceByHeader = buildReferenceAggregation(files, headers);
-            Map<String, Map<String, AggregationResult>> mergedByHeader = buildMergedAggregationView(merged);
-            compareAggregations(mergedByHeader, referenceByHeader, context, issues);
+            if (context.referenceMode() == ValidationContext.ReferenceMode.FINGERPRINT) {
+                compareFingerprints(merged, referenceSource, context, issues, executor);
+                return;
+            }
+
+            Map<String, Map<String, AggregationResult>> referenceByHeader = referenceSource.detailed(executor);
+            if (referenceByHeader == null) {
+                return;
+            }
+            Map<String, Map<String, AggregationResult>> mergedByHeader =
+                    buildMergedAggregationView(merged, null, executor);
+            compareAggregations(mergedByHeader, referenceByHeader, context, issues, executor);
         } catch (IOException | CsvException e) {
             issues.add(new ValidationIssue(
                     "REFERENCE_PATH_ERROR",
@@ -239,122 +369,322 @@ public class MergeValidationService {
                     null,
                     e.getMessage()
             ));
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private Map<String, Map<String, AggregationResult>> buildMergedAggregationView(
-            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged) {
-        Map<String, Map<String, AggregationResult>> result = new LinkedHashMap<>();
+    private void compareFingerprints(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                     ReferenceSource referenceSource,
+                                     ValidationContext context,
+                                     ValidationIssueCollector issues,
+                                     ExecutorService executor) throws IOException, CsvException {
+        Map<String, AggregationFingerprint> referenceFingerprints = referenceSource.fingerprints(executor);
+        if (referenceFingerprints == null) {
+            return;
+        }
+        Map<String, AggregationFingerprint> mergedFingerprints = buildMergedFingerprints(merged, executor);
 
-        for (Map.Entry<HeaderDefinition, Map<List<String>, AggregationResult>> entry : merged.entrySet()) {
-            String headerName = resolveHeaderName(entry.getKey(), null);
-            if (headerName == null || headerName.isBlank()) {
-                continue;
+        Set<String> mismatched = new TreeSet<>();
+        referenceFingerprints.forEach((headerName, fingerprint) -> {
+            if (!fingerprint.matches(mergedFingerprints.get(headerName))) {
+                mismatched.add(headerName);
             }
+        });
+        if (mismatched.isEmpty()) {
+            log.info("Reference fingerprints match for {} header groups.", referenceFingerprints.size());
+            return;
+        }
 
-            Map<String, AggregationResult> targetBucket = result.computeIfAbsent(headerName, ignored -> new HashMap<>());
-            for (Map.Entry<List<String>, AggregationResult> bucketEntry : entry.getValue().entrySet()) {
-                String key = canonicalKeyFromMerged(bucketEntry.getKey());
-                targetBucket.merge(key, bucketEntry.getValue(), AggregationResult::add);
+        log.warn("Reference fingerprints differ for headers {}. Falling back to detailed comparison.", mismatched);
+        Map<String, Map<String, AggregationResult>> referenceByHeader = referenceSource.detailed(executor);
+        if (referenceByHeader == null) {
+            for (String headerName : mismatched) {
+                issues.add(new ValidationIssue(
+                        "REFERENCE_FINGERPRINT_MISMATCH",
+                        "Reference fingerprint differs and no detailed reference is available.",
+                        headerName,
+                        "reference=" + referenceFingerprints.get(headerName)
+                                + ", merged=" + mergedFingerprints.get(headerName)
+                ));
             }
+            return;
         }
 
-        return result;
+        Map<String, Map<String, AggregationResult>> mismatchedReference = new LinkedHashMap<>(referenceByHeader);
+        mismatchedReference.keySet().retainAll(mismatched);
+        compareAggregations(buildMergedAggregationView(merged, mismatched, executor),
+                mismatchedReference, context, issues, executor);
     }
 
-    private Map<String, Map<String, AggregationResult>> buildReferenceAggregation(List<File> files,
-                                                                                   List<HeaderDefinition> headers)
-            throws IOException, CsvException {
-        Map<String, Map<String, AggregationResult>> result = new LinkedHashMap<>();
+    private Map<String, AggregationFingerprint> buildMergedFingerprints(
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+            ExecutorService executor) throws IOException, CsvException {
+        List<Map.Entry<HeaderDefinition, Map<List<String>, AggregationResult>>> groups =
+                mergedGroups(merged, null);
+        List<AggregationFingerprint> groupFingerprints = runAll(executor, groups.stream()
+                .<Callable<AggregationFingerprint>>map(group -> () -> fingerprintGroup(group.getValue()))
+                .toList());
 
-        for (File file : files) {
-            FileRows fileRows = readRows(file);
-            if (fileRows.rows().isEmpty()) {
+        Map<String, AggregationFingerprint> result = new LinkedHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            result.computeIfAbsent(resolveHeaderName(groups.get(i).getKey(), null), ignored -> new AggregationFingerprint())
+                    .add(groupFingerprints.get(i));
+        }
+        return result;
+    }
+
+    private AggregationFingerprint fingerprintGroup(Map<List<String>, AggregationResult> rows) {
+        AggregationFingerprint fingerprint = new AggregationFingerprint();
+        for (Map.Entry<List<String>, AggregationResult> bucketEntry : rows.entrySet()) {
+            Cancellation.checkpoint();
+            AggregationResult aggregation = bucketEntry.getValue();
+            if (aggregation == null) {
                 continue;
             }
+            fingerprint.add(
+                    ReferenceAggregator.canonicalKeyFromMerged(bucketEntry.getKey()),
+                    aggregation.rowCount(),
+                    aggregation.sumValue());
+        }
+        return fingerprint;
+    }
 
-            HeaderDefinition header = chooseHeader(fileRows.rows(), headers);
-            int headerIndex = resolveHeaderIndex(fileRows.rows(), header);
-            int sumColumnIndex = resolveSumColumnIndex(header);
-            Pattern sumPattern = resolveSumPattern(header);
-            String headerName = resolveHeaderName(header, "Unknown");
-            Map<String, AggregationResult> bucket = result.computeIfAbsent(headerName, ignored -> new HashMap<>());
+    private Map<String, Map<String, AggregationResult>> buildMergedAggregationView(
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+            Set<String> onlyHeaders,
+            ExecutorService executor) throws IOException, CsvException {
+        List<Map.Entry<HeaderDefinition, Map<List<String>, AggregationResult>>> groups =
+                mergedGroups(merged, onlyHeaders);
+        List<Map<String, AggregationResult>> groupViews = runAll(executor, groups.stream()
+                .<Callable<Map<String, AggregationResult>>>map(group -> () -> canonicalView(group.getValue()))
+                .toList());
 
-            for (int i = 0; i < fileRows.rows().size(); i++) {
-                if (i == headerIndex) {
-                    continue;
-                }
+        Map<String, Map<String, AggregationResult>> result = new LinkedHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            String headerName = resolveHeaderName(groups.get(i).getKey(), null);
+            Map<String, AggregationResult> groupView = groupViews.get(i);
+            Map<String, AggregationResult> targetBucket = result.putIfAbsent(headerName, groupView);
+            if (targetBucket != null) {
+                groupView.forEach((key, aggregation) -> targetBucket.merge(key, aggregation, AggregationResult::add));
+            }
+        }
+        return result;
+    }
 
-                List<String> row = fileRows.rows().get(i);
-                if (isBlankRow(row)) {
-                    continue;
-                }
+    private Map<String, AggregationResult> canonicalView(Map<List<String>, AggregationResult> rows) {
+        Map<String, AggregationResult> view = new HashMap<>();
+        for (Map.Entry<List<String>, AggregationResult> bucketEntry : rows.entrySet()) {
+            Cancellation.checkpoint();
+            String key = ReferenceAggregator.canonicalKeyFromMerged(bucketEntry.getKey());
+            view.merge(key, bucketEntry.getValue(), AggregationResult::add);
+        }
+        return view;
+    }
+
+    private List<Map.Entry<HeaderDefinition, Map<List<String>, AggregationResult>>> mergedGroups(
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+            Set<String> onlyHeaders) {
+        return merged.entrySet().stream()
+                .filter(entry -> entry.getValue() != null)
+                .filter(entry -> {
+                    String headerName = resolveHeaderName(entry.getKey(), null);
+                    return headerName != null && !headerName.isBlank()
+                            && (onlyHeaders == null || onlyHeaders.contains(headerName));
+                })
+                .toList();
+    }
+
+    private Map<String, Map<String, AggregationResult>> buildReferenceAggregation(List<File> files,
+                                                                                   List<HeaderDefinition> headers,
+                                                                                   ExecutorService executor)
+            throws IOException, CsvException {
+        ReferenceAggregator aggregator = new ReferenceAggregator(headers);
+        feedReference(files, aggregator, executor);
+        return aggregator.result();
+    }
+
+    /**
+     * Reads the files concurrently. {@link ReferenceAggregator} folds each file into its result once the file
+     * is complete, and its sums and fingerprints do not depend on the order in which files finish.
+     */
+    private void feedReference(List<File> files, ReferenceAggregator aggregator, ExecutorService executor)
+            throws IOException, CsvException {
+        runAll(executor, files.stream()
+                .<Callable<Void>>map(file -> () -> {
+                    feedReferenceFile(file, aggregator);
+                    return null;
+                })
+                .toList());
+    }
+
+    private void feedReferenceFile(File file, ReferenceAggregator aggregator) throws IOException, CsvException {
+        FileRows fileRows = readRows(file);
+        List<List<String>> rows = fileRows.rows();
+        int lastNonBlankIndex = rows.size() - 1;
+        while (lastNonBlankIndex >= 0 && ReferenceAggregator.isBlankRow(rows.get(lastNonBlankIndex))) {
+            lastNonBlankIndex--;
+        }
+        if (lastNonBlankIndex < 0) {
+            return;
+        }
 
-                String key = canonicalKeyFromRawRow(row, sumColumnIndex);
-                BigDecimal sumValue = parseSum(row, sumColumnIndex, sumPattern);
-                bucket.merge(key, new AggregationResult(1, sumValue), AggregationResult::add);
+        MergeService.RowListener.FileRows referenceRows =
+                aggregator.beginFile(file, rows.get(0), rows.get(lastNonBlankIndex), lastNonBlankIndex);
+        for (int i = 0; i < rows.size(); i++) {
+            Cancellation.checkpoint();
+            if (!ReferenceAggregator.isBlankRow(rows.get(i))) {
+                referenceRows.row(i, rows.get(i));
             }
         }
+        referenceRows.complete();
+    }
 
-        return result;
+    private boolean hasInputs(List<File> files, List<HeaderDefinition> headers) {
+        if (files == null || files.isEmpty() || headers == null || headers.isEmpty()) {
+            log.warn("Reference aggregation enabled but files/headers are missing. Skipping reference validation.");
+            return false;
+        }
+        return true;
     }
 
+    /**
+     * Compares header groups in parallel. The tasks only collect the differing keys, sorted; the issues are
+     * created and passed on afterwards on the calling thread in header order, so they can be streamed without
+     * holding a second copy of every difference.
+     */
     private void compareAggregations(Map<String, Map<String, AggregationResult>> mergedByHeader,
                                      Map<String, Map<String, AggregationResult>> referenceByHeader,
                                      ValidationContext context,
-                                     List<ValidationIssue> issues) {
-        for (Map.Entry<String, Map<String, AggregationResult>> headerEntry : referenceByHeader.entrySet()) {
-            String headerName = headerEntry.getKey();
-            Map<String, AggregationResult> referenceBucket = headerEntry.getValue();
+                                     ValidationIssueCollector issues,
+                                     ExecutorService executor) throws IOException, CsvException {
+        List<String> headerNames = referenceByHeader.keySet().stream().sorted().toList();
+        List<List<String>> differingKeys = runAll(executor, headerNames.stream()
+                .<Callable<List<String>>>map(headerName -> () -> findDifferingKeys(
+                        mergedByHeader.getOrDefault(headerName, Map.of()),
+                        referenceByHeader.get(headerName),
+                        context))
+                .toList());
+
+        for (int i = 0; i < headerNames.size(); i++) {
+            String headerName = headerNames.get(i);
             Map<String, AggregationResult> mergedBucket = mergedByHeader.getOrDefault(headerName, Map.of());
+            Map<String, AggregationResult> referenceBucket = referenceByHeader.get(headerName);
+            for (String key : differingKeys.get(i)) {
+                Cancellation.checkpoint();
+                reportDifference(headerName, key, referenceBucket.get(key), mergedBucket.get(key), context, issues);
+            }
+        }
+    }
 
-            for (Map.Entry<String, AggregationResult> referenceEntry : referenceBucket.entrySet()) {
-                String key = referenceEntry.getKey();
-                AggregationResult referenceValue = referenceEntry.getValue();
-                AggregationResult mergedValue = mergedBucket.get(key);
+    private List<String> findDifferingKeys(Map<String, AggregationResult> mergedBucket,
+                                           Map<String, AggregationResult> referenceBucket,
+                                           ValidationContext context) {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, AggregationResult> referenceEntry : referenceBucket.entrySet()) {
+            Cancellation.checkpoint();
+            AggregationResult mergedValue = mergedBucket.get(referenceEntry.getKey());
+            if (mergedValue == null
+                    || referenceEntry.getValue().rowCount() != mergedValue.rowCount()
+                    || sumDelta(referenceEntry.getValue(), mergedValue, context).compareTo(context.sumTolerance()) > 0) {
+                keys.add(referenceEntry.getKey());
+            }
+        }
+        keys.sort(null);
+        return keys;
+    }
 
-                if (mergedValue == null) {
-                    issues.add(new ValidationIssue(
-                            "REFERENCE_MISSING_KEY",
-                            "Key is missing in merge result.",
-                            headerName,
-                            "missingKey=" + key
-                    ));
-                    continue;
-                }
+    private void reportDifference(String headerName,
+                                  String key,
+                                  AggregationResult referenceValue,
+                                  AggregationResult mergedValue,
+                                  ValidationContext context,
+                                  ValidationIssueCollector issues) {
+        if (mergedValue == null) {
+            issues.add(new ValidationIssue(
+                    "REFERENCE_MISSING_KEY",
+                    "Key is missing in merge result.",
+                    headerName,
+                    "missingKey=" + key
+            ));
+            return;
+        }
 
-                if (referenceValue.rowCount() != mergedValue.rowCount()) {
-                    issues.add(new ValidationIssue(
-                            "REFERENCE_COUNT_MISMATCH",
-                            "Different count for the same key.",
-                            headerName,
-                            "key=" + key
-                                    + ", referenceCount=" + referenceValue.rowCount()
-                                    + ", mergedCount=" + mergedValue.rowCount()
-                    ));
-                }
+        if (referenceValue.rowCount() != mergedValue.rowCount()) {
+            issues.add(new ValidationIssue(
+                    "REFERENCE_COUNT_MISMATCH",
+                    "Different count for the same key.",
+                    headerName,
+                    "key=" + key
+                            + ", referenceCount=" + referenceValue.rowCount()
+                            + ", mergedCount=" + mergedValue.rowCount()
+            ));
+        }
 
-                BigDecimal referenceSum = Objects.requireNonNullElse(referenceValue.sumValue(), BigDecimal.ZERO)
-                        .setScale(context.sumScale(), RoundingMode.HALF_UP);
-                BigDecimal mergedSum = Objects.requireNonNullElse(mergedValue.sumValue(), BigDecimal.ZERO)
-                        .setScale(context.sumScale(), RoundingMode.HALF_UP);
-                BigDecimal delta = referenceSum.subtract(mergedSum).abs();
+        BigDecimal delta = sumDelta(referenceValue, mergedValue, context);
+        if (delta.compareTo(context.sumTolerance()) > 0) {
+            issues.add(new ValidationIssue(
+                    "REFERENCE_SUM_MISMATCH",
+                    "Different sum for the same key.",
+                    headerName,
+                    "key=" + key
+                            + ", referenceSum=" + scaledSum(referenceValue, context)
+                            + ", mergedSum=" + scaledSum(mergedValue, context)
+                            + ", delta=" + delta
+            ));
+        }
+    }
 
-                if (delta.compareTo(context.sumTolerance()) > 0) {
-                    issues.add(new ValidationIssue(
-                            "REFERENCE_SUM_MISMATCH",
-                            "Different sum for the same key.",
-                            headerName,
-                            "key=" + key
-                                    + ", referenceSum=" + referenceSum
-                                    + ", mergedSum=" + mergedSum
-                                    + ", delta=" + delta
-                    ));
-                }
+    private BigDecimal sumDelta(AggregationResult referenceValue, AggregationResult mergedValue, ValidationContext context) {
+        return scaledSum(referenceValue, context).subtract(scaledSum(mergedValue, context)).abs();
+    }
+
+    private BigDecimal scaledSum(AggregationResult aggregation, ValidationContext context) {
+        return Objects.requireNonNullElse(aggregation.sumValue(), BigDecimal.ZERO)
+                .setScale(context.sumScale(), RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Runs the tasks on the executor and returns their results in task order. The first failure cancels the
+     * remaining tasks.
+     */
+    private static <T> List<T> runAll(ExecutorService executor, List<Callable<T>> tasks)
+            throws IOException, CsvException {
+        List<Future<T>> futures = tasks.stream().map(executor::submit).toList();
+        try {
+            List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
             }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Reference validation was cancelled.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof CsvException csvException) {
+                throw csvException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Reference validation failed.", cause);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
         }
     }
 
+    private ExecutorService createExecutor() {
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "validation-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     private FileRows readRows(File file) throws IOException, CsvException {
         String name = file.getName().toLowerCase(Locale.ROOT);
         if (name.endsWith(".csv")) {
@@ -362,19 +692,22 @@ public class MergeValidationService {
                     Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
                     .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
                     .build()) {
-                List<List<String>> rows = reader.readAll().stream()
-                        .map(cells -> Arrays.stream(cells).map(value -> value == null ? "" : value).toList())
-                        .toList();
+                List<List<String>> rows = new ArrayList<>();
+                for (String[] cells = reader.readNext(); cells != null; cells = reader.readNext()) {
+                    Cancellation.checkpoint();
+                    rows.add(Arrays.stream(cells).map(value -> value == null ? "" : value).toList());
+                }
                 return new FileRows(rows);
             }
         }
 
         if (name.endsWith(".xlsx") || name.endsWith(".xls")) {
             try (Workbook workbook = WorkbookFactory.create(file)) {
-                DataFormatter formatter = new DataFormatter();
+                DataFormatter formatter = MergeService.cellFormatter();
                 Sheet sheet = workbook.getSheetAt(0);
                 List<List<String>> rows = new ArrayList<>();
                 for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+                    Cancellation.checkpoint();
                     Row row = sheet.getRow(i);
                     if (row == null) {
                         rows.add(List.of());
@@ -389,150 +722,6 @@ public class MergeValidationService {
         throw new IOException("Unsupported file type for validation: " + file.getName());
     }
 
-    private HeaderDefinition chooseHeader(List<List<String>> rows, List<HeaderDefinition> headers) {
-        if (rows.isEmpty()) {
-            return new HeaderDefinition("Empty", List.of());
-        }
-
-        int lastNonBlankIndex = -1;
-        for (int i = rows.size() - 1; i >= 0; i--) {
-            if (!isBlankRow(rows.get(i))) {
-                lastNonBlankIndex = i;
-                break;
-            }
-        }
-
-        if (lastNonBlankIndex < 0) {
-            return new HeaderDefinition("Empty", List.of());
-        }
-
-        List<String> first = normalizeRow(rows.get(0));
-        List<String> last = normalizeRow(rows.get(lastNonBlankIndex));
-
-        for (HeaderDefinition def : headers) {
-            List<String> normalizedHeader = normalizeRow(def.headers());
-            if (def.headerPosition() == HeaderDefinition.HeaderPosition.LAST) {
-                if (normalizedHeader.equals(last)) {
-                    return def;
-                }
-            } else if (normalizedHeader.equals(first)) {
-                return def;
-            }
-        }
-
-        for (HeaderDefinition def : headers) {
-            List<List<String>> aliases = def.headerAliases() == null ? List.of() : def.headerAliases();
-            List<List<String>> normalizedAliases = aliases.stream().map(this::normalizeRow).toList();
-            if (def.headerPosition() == HeaderDefinition.HeaderPosition.LAST) {
-                if (normalizedAliases.contains(last)) {
-                    return def;
-                }
-            } else if (normalizedAliases.contains(first)) {
-                return def;
-            }
-        }
-
-        return new HeaderDefinition("Unknown_" + first.size(), List.of());
-    }
-
-    private int resolveHeaderIndex(List<List<String>> rows, HeaderDefinition header) {
-        if (rows.isEmpty()) {
-            return -1;
-        }
-        if (header.headerPosition() == HeaderDefinition.HeaderPosition.LAST) {
-            for (int i = rows.size() - 1; i >= 0; i--) {
-                if (!isBlankRow(rows.get(i))) {
-                    return i;
-                }
-            }
-            return -1;
-        }
-        return 0;
-    }
-
-    private int resolveSumColumnIndex(HeaderDefinition header) {
-        if (header.sumColumn() == null || header.sumColumn().isBlank() || header.headers() == null) {
-            return -1;
-        }
-        for (int i = 0; i < header.headers().size(); i++) {
-            String cell = header.headers().get(i);
-            if (cell != null && cell.equalsIgnoreCase(header.sumColumn())) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private Pattern resolveSumPattern(HeaderDefinition header) {
-        if (header.sumPattern() == null || header.sumPattern().isBlank()) {
-            return DEFAULT_SUM_PATTERN;
-        }
-        return Pattern.compile(header.sumPattern());
-    }
-
-    private BigDecimal parseSum(List<String> row, int sumIndex, Pattern pattern) {
-        if (sumIndex < 0 || sumIndex >= row.size()) {
-            return BigDecimal.ZERO;
-        }
-        String value = row.get(sumIndex);
-        if (value == null || value.isBlank()) {
-            return BigDecimal.ZERO;
-        }
-        Matcher matcher = pattern.matcher(value);
-        if (!matcher.find()) {
-            return BigDecimal.ZERO;
-        }
-        String normalized = matcher.group(1).replace(',', '.');
-        try {
-            return new BigDecimal(normalized);
-        } catch (NumberFormatException e) {
-            return BigDecimal.ZERO;
-        }
-    }
-
-    private String canonicalKeyFromRawRow(List<String> row, int sumColumnIndex) {
-        List<String> normalized = normalizeRow(row);
-        StringBuilder keyBuilder = new StringBuilder();
-        for (int i = 0; i < normalized.size(); i++) {
-            if (i == sumColumnIndex) {
-                continue;
-            }
-            if (!keyBuilder.isEmpty()) {
-                keyBuilder.append(KEY_SEPARATOR);
-            }
-            keyBuilder.append(normalizeCell(normalized.get(i)));
-        }
-        return keyBuilder.toString();
-    }
-
-    private String canonicalKeyFromMerged(List<String> keyParts) {
-        return keyParts == null
-                ? ""
-                : keyParts.stream().map(this::normalizeCell).reduce((left, right) -> left + KEY_SEPARATOR + right).orElse("");
-    }
-
-    private String normalizeCell(String value) {
-        if (value == null) {
-            return "";
-        }
-        return value.trim().toLowerCase(Locale.ROOT);
-    }
-
-    private List<String> normalizeRow(List<String> row) {
-        List<String> normalized = row == null
-                ? List.of()
-                : row.stream().map(this::normalizeCell).toList();
-        int end = normalized.size();
-        while (end > 0 && normalized.get(end - 1).isBlank()) {
-            end--;
-        }
-        return normalized.subList(0, end);
-    }
-
-    private boolean isBlankRow(List<String> row) {
-        return row == null || row.stream().allMatch(value -> value == null || value.isBlank());
-    }
-
     private List<String> toStringRow(Row row, DataFormatter formatter) {
         short firstCellIndex = row.getFirstCellNum();
         short lastCellIndex = row.getLastCellNum();
@@ -549,7 +738,7 @@ public class MergeValidationService {
     }
 
     private void handleMissingExpectation(ValidationContext context,
-                                          List<ValidationIssue> issues,
+                                          ValidationIssueCollector issues,
                                           String code,
                                           String message,
                                           String headerName) {
@@ -573,4 +762,14 @@ public class MergeValidationService {
 
     private record FileRows(List<List<String>> rows) {
     }
+
+    /**
+     * Provides the reference side of the comparison. Both methods return {@code null} when no reference
+     * is available.
+     */
+    private interface ReferenceSource {
+        Map<String, AggregationFingerprint> fingerprints(ExecutorService executor) throws IOException, CsvException;
+
+        Map<String, Map<String, AggregationResult>> detailed(ExecutorService executor) throws IOException, CsvException;
+    }
 }
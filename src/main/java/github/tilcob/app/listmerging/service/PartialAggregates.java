@@ -0,0 +1,458 @@
+package github.tilcob.app.listmerging.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Partial merge results that can be produced for any subset of the input files, by separate processes or hosts,
+ * and reduced into the result of merging all files.
+ * <p>
+ * A partial file holds every header group split into {@code partitions} runs by the hash of the grouping key.
+ * Each run is sorted by key. {@link #reduce(List)} reduces the partitions in parallel. A partition task merges the
+ * sorted runs of its partition from all partials key by key and adds each completed key to the result, so it holds
+ * one entry per open run instead of a table of all keys. A task opens at most {@code maxOpenRuns} runs at a time;
+ * with more partials, batches of runs are first merged into sorted temporary runs.
+ * </p>
+ * <p>
+ * Layout (big endian): magic, version and partition count, the runs, then an index with every
+ * {@link HeaderDefinition} as JSON and the offset and entry count of its runs, and finally the offset of the
+ * index. An entry is the key cells, the row count, the sum as scale and unscaled bytes, and the aggregate
+ * accumulators. Files are written to a temporary file first and then moved into place, so a reducer on a shared
+ * filesystem never sees a partial file that is still being written.
+ * </p>
+ */
+public class PartialAggregates {
+    private static final Logger log = LoggerFactory.getLogger(PartialAggregates.class);
+    public static final String FILE_SUFFIX = ".lmp";
+    public static final int DEFAULT_PARTITIONS = 16;
+    static final int MAGIC = 0x4C4D5041;
+    static final short VERSION = 1;
+    static final int DEFAULT_MAX_OPEN_RUNS = Integer.getInteger("listmerging.reduce.max-open-runs", 64);
+
+    /**
+     * Order of the keys within a run: cell by cell, then shorter keys first.
+     */
+    static final Comparator<List<String>> KEY_ORDER = (left, right) -> {
+        int common = Math.min(left.size(), right.size());
+        for (int i = 0; i < common; i++) {
+            int cmp = left.get(i).compareTo(right.get(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(left.size(), right.size());
+    };
+
+    private final ObjectMapper mapper;
+    private final int maxOpenRuns;
+
+    public PartialAggregates() {
+        this(new ObjectMapper());
+    }
+
+    public PartialAggregates(ObjectMapper mapper) {
+        this(mapper, DEFAULT_MAX_OPEN_RUNS);
+    }
+
+    PartialAggregates(ObjectMapper mapper, int maxOpenRuns) {
+        if (maxOpenRuns < 2) {
+            throw new IllegalArgumentException("At least two runs must be open to merge them: " + maxOpenRuns);
+        }
+        this.mapper = mapper;
+        this.maxOpenRuns = maxOpenRuns;
+    }
+
+    /**
+     * Writes {@code merged} as a partial file with {@code partitions} hash partitions per header group.
+     */
+    public File write(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                      int partitions,
+                      File target) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partition count must be positive: " + partitions);
+        }
+        File directory = target.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+        File temp = File.createTempFile(target.getName(), ".tmp", directory);
+        try {
+            try (CountingOutputStream counting = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+                 DataOutputStream out = new DataOutputStream(counting)) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeInt(partitions);
+
+                List<GroupIndex> index = new ArrayList<>(merged.size());
+                for (var group : merged.entrySet()) {
+                    index.add(writeGroup(out, counting, group.getKey(), group.getValue(), partitions));
+                }
+
+                long indexOffset = counting.count;
+                out.writeInt(index.size());
+                for (GroupIndex group : index) {
+                    byte[] metadata = mapper.writeValueAsBytes(group.header());
+                    out.writeInt(metadata.length);
+                    out.write(metadata);
+                    for (int p = 0; p < partitions; p++) {
+                        out.writeLong(group.offsets()[p]);
+                        out.writeInt(group.entries()[p]);
+                    }
+                }
+                out.writeLong(indexOffset);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        log.info("Partial aggregate with {} groups written to {}", merged.size(), target.getAbsolutePath());
+        return target;
+    }
+
+    /**
+     * Merges the partial files into the result of merging all files they were produced from.
+     *
+     * @throws IOException if a file is not a partial file, has an unsupported version or a different partition
+     *                     count than the others
+     */
+    public Map<HeaderDefinition, Map<List<String>, AggregationResult>> reduce(List<File> partials) throws IOException {
+        List<PartialFile> files = new ArrayList<>(partials.size());
+        for (File partial : partials) {
+            files.add(readIndex(partial));
+        }
+        if (files.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        int partitions = files.get(0).partitions();
+        for (PartialFile file : files) {
+            if (file.partitions() != partitions) {
+                throw new IOException("Partial " + file.file().getName() + " has " + file.partitions()
+                        + " partitions, expected " + partitions + ".");
+            }
+        }
+
+        Set<HeaderDefinition> headers = new LinkedHashSet<>();
+        files.forEach(file -> headers.addAll(file.groups().keySet()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(partitions, Runtime.getRuntime().availableProcessors())), runnable -> {
+                    Thread thread = new Thread(runnable, "partial-reduce");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> result = new LinkedHashMap<>();
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (HeaderDefinition header : headers) {
+                Map<List<String>, AggregationResult> rows = new ConcurrentHashMap<>();
+                result.put(header, rows);
+                for (int p = 0; p < partitions; p++) {
+                    int partition = p;
+                    tasks.add(executor.submit(() -> {
+                        reducePartition(files, header, partition, rows::put);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+            return result;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new IOException("Reducing partial aggregates failed.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Operation was cancelled.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private GroupIndex writeGroup(DataOutputStream out,
+                                  CountingOutputStream counting,
+                                  HeaderDefinition header,
+                                  Map<List<String>, AggregationResult> rows,
+                                  int partitions) throws IOException {
+        List<List<Map.Entry<List<String>, AggregationResult>>> runs = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            runs.add(new ArrayList<>());
+        }
+        for (var row : rows.entrySet()) {
+            runs.get(partition(row.getKey(), partitions)).add(row);
+        }
+
+        long[] offsets = new long[partitions];
+        int[] entries = new int[partitions];
+        for (int p = 0; p < partitions; p++) {
+            List<Map.Entry<List<String>, AggregationResult>> run = runs.get(p);
+            run.sort(Map.Entry.comparingByKey(KEY_ORDER));
+            offsets[p] = counting.count;
+            entries[p] = run.size();
+            for (var entry : run) {
+                Cancellation.checkpoint();
+                writeEntry(out, entry.getKey(), entry.getValue());
+            }
+        }
+        return new GroupIndex(header, offsets, entries);
+    }
+
+    /**
+     * Merges the runs of one partition from all partials and passes every key to {@code sink} once, in key order.
+     */
+    private void reducePartition(List<PartialFile> files,
+                                 HeaderDefinition header,
+                                 int partition,
+                                 EntrySink sink) throws IOException {
+        List<Run> runs = new ArrayList<>();
+        for (PartialFile file : files) {
+            GroupIndex group = file.groups().get(header);
+            int entries = group == null ? 0 : group.entries()[partition];
+            if (entries > 0) {
+                runs.add(new Run(file.file(), group.offsets()[partition], entries));
+            }
+        }
+        List<File> temporaryRuns = new ArrayList<>();
+        try {
+            while (runs.size() > maxOpenRuns) {
+                List<Run> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += maxOpenRuns) {
+                    List<Run> batch = runs.subList(i, Math.min(runs.size(), i + maxOpenRuns));
+                    merged.add(batch.size() == 1 ? batch.get(0) : mergeToTemporaryRun(batch, temporaryRuns));
+                }
+                runs = merged;
+            }
+            mergeRuns(runs, sink);
+        } finally {
+            for (File temporaryRun : temporaryRuns) {
+                Files.deleteIfExists(temporaryRun.toPath());
+            }
+        }
+    }
+
+    private static Run mergeToTemporaryRun(List<Run> runs, List<File> temporaryRuns) throws IOException {
+        File file = File.createTempFile("listmerging-", ".run");
+        temporaryRuns.add(file);
+        int[] entries = new int[1];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            mergeRuns(runs, (key, aggregation) -> {
+                writeEntry(out, key, aggregation);
+                entries[0]++;
+            });
+        }
+        return new Run(file, 0, entries[0]);
+    }
+
+    /**
+     * Merges sorted runs and passes every key with the sum of its entries to {@code sink}, in key order.
+     */
+    private static void mergeRuns(List<Run> runs, EntrySink sink) throws IOException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                (left, right) -> KEY_ORDER.compare(left.key, right.key));
+        List<RunCursor> cursors = new ArrayList<>(runs.size());
+        try {
+            for (Run run : runs) {
+                RunCursor cursor = new RunCursor(run.file(), run.offset(), run.entries());
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Cancellation.checkpoint();
+                RunCursor head = queue.poll();
+                List<String> key = head.key;
+                KeyAggregate aggregate = KeyAggregate.of(head.aggregation);
+                if (head.advance()) {
+                    queue.add(head);
+                }
+                while (!queue.isEmpty() && KEY_ORDER.compare(queue.peek().key, key) == 0) {
+                    RunCursor next = queue.poll();
+                    aggregate.add(next.aggregation);
+                    if (next.advance()) {
+                        queue.add(next);
+                    }
+                }
+                sink.accept(key, aggregate.toResult());
+            }
+        } finally {
+            for (RunCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private PartialFile readIndex(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer head = read(channel, 0, Integer.BYTES + Short.BYTES + Integer.BYTES, file);
+            if (head.getInt() != MAGIC) {
+                throw new IOException("Not a partial aggregate: " + file.getName());
+            }
+            short version = head.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported partial aggregate version " + version + " in " + file.getName());
+            }
+            int partitions = head.getInt();
+            long indexOffset = read(channel, size - Long.BYTES, Long.BYTES, file).getLong();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(indexOffset))));
+            Map<HeaderDefinition, GroupIndex> groups = new LinkedHashMap<>();
+            int groupCount = in.readInt();
+            for (int g = 0; g < groupCount; g++) {
+                byte[] metadata = new byte[in.readInt()];
+                in.readFully(metadata);
+                HeaderDefinition header = mapper.readValue(metadata, HeaderDefinition.class);
+                long[] offsets = new long[partitions];
+                int[] entries = new int[partitions];
+                for (int p = 0; p < partitions; p++) {
+                    offsets[p] = in.readLong();
+                    entries[p] = in.readInt();
+                }
+                groups.put(header, new GroupIndex(header, offsets, entries));
+            }
+            return new PartialFile(file, partitions, groups);
+        } catch (EOFException e) {
+            throw new IOException("Truncated partial aggregate: " + file.getName(), e);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, File file) throws IOException {
+        if (position < 0 || position + length > channel.size()) {
+            throw new IOException("Truncated partial aggregate: " + file.getName());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated partial aggregate: " + file.getName());
+            }
+        }
+        return buffer.flip();
+    }
+
+    static int partition(List<String> key, int partitions) {
+        return Math.floorMod(key.hashCode(), partitions);
+    }
+
+    private static void writeEntry(DataOutputStream out, List<String> key, AggregationResult aggregation)
+            throws IOException {
+        out.writeInt(key.size());
+        for (String cell : key) {
+            byte[] bytes = Objects.requireNonNullElse(cell, "").getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(aggregation.rowCount());
+        BigDecimal sum = aggregation.sumValue();
+        byte[] unscaled = sum.unscaledValue().toByteArray();
+        out.writeInt(sum.scale());
+        out.writeInt(unscaled.length);
+        out.write(unscaled);
+        int slots = aggregation.accumulatorCount();
+        out.writeInt(slots);
+        for (int slot = 0; slot < slots; slot++) {
+            out.writeDouble(aggregation.accumulator(slot));
+        }
+    }
+
+    private record PartialFile(File file, int partitions, Map<HeaderDefinition, GroupIndex> groups) {
+    }
+
+    private record GroupIndex(HeaderDefinition header, long[] offsets, int[] entries) {
+    }
+
+    /**
+     * {@code entries} sorted entries starting at {@code offset} of {@code file}.
+     */
+    private record Run(File file, long offset, int entries) {
+    }
+
+    @FunctionalInterface
+    private interface EntrySink {
+        void accept(List<String> key, AggregationResult aggregation) throws IOException;
+    }
+
+    /**
+     * Reads the entries of one run in key order.
+     */
+    private static final class RunCursor implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        private List<String> key;
+        private AggregationResult aggregation;
+
+        private RunCursor(File file, long offset, int entries) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ).position(offset);
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            this.remaining = entries;
+        }
+
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            String[] cells = new String[in.readInt()];
+            for (int i = 0; i < cells.length; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                cells[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int rowCount = in.readInt();
+            int scale = in.readInt();
+            byte[] unscaled = new byte[in.readInt()];
+            in.readFully(unscaled);
+            double[] accumulators = new double[in.readInt()];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = in.readDouble();
+            }
+            key = List.of(cells);
+            aggregation = new AggregationResult(rowCount, new BigDecimal(new BigInteger(unscaled), scale), accumulators);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
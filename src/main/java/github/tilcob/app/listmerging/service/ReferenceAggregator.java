@@ -0,0 +1,315 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.model.ValidationContext;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Independent aggregation path used by reference validation.
+ * <p>
+ * Rows are keyed by a canonical string (trimmed, lower-cased cells joined with {@link #KEY_SEPARATOR}) and
+ * the header is detected without the length fallback of {@link MergeService}, so differences between both
+ * paths show up as validation issues. The aggregator can be fed by {@link MergeService} while it parses the
+ * input files or by {@link MergeValidationService} reading the files again. Files may be fed concurrently;
+ * each file is aggregated locally and folded into the shared result when it completes.
+ * </p>
+ * <p>
+ * In {@link ValidationContext.ReferenceMode#FINGERPRINT} mode only one {@link AggregationFingerprint} per
+ * header is kept instead of the aggregated rows, so memory stays constant.
+ * </p>
+ */
+public class ReferenceAggregator implements MergeService.RowListener {
+    static final String KEY_SEPARATOR = "\u001F";
+    private static final Pattern DEFAULT_SUM_PATTERN = Pattern.compile("(\\d+[\\.,]?\\d*)");
+
+    private final List<HeaderDefinition> headers;
+    private final ValidationContext.ReferenceMode mode;
+    private final Map<String, Map<String, AggregationResult>> result = new LinkedHashMap<>();
+    private final Map<String, AggregationFingerprint> fingerprints = new LinkedHashMap<>();
+
+    public ReferenceAggregator(List<HeaderDefinition> headers) {
+        this(headers, ValidationContext.ReferenceMode.DETAILED);
+    }
+
+    public ReferenceAggregator(List<HeaderDefinition> headers, ValidationContext.ReferenceMode mode) {
+        this.headers = headers == null ? List.of() : List.copyOf(headers);
+        this.mode = mode == null ? ValidationContext.ReferenceMode.DETAILED : mode;
+    }
+
+    @Override
+    public FileRows beginFile(File file, List<String> firstRow, List<String> lastRow, int lastRowIndex) {
+        HeaderDefinition header = chooseHeader(firstRow, lastRow);
+        int headerIndex = header.headerPosition() == HeaderDefinition.HeaderPosition.LAST ? lastRowIndex : 0;
+        return new ReferenceFileRows(
+                resolveHeaderName(header),
+                mode == ValidationContext.ReferenceMode.FINGERPRINT,
+                headerIndex,
+                resolveSumColumnIndex(header),
+                resolveSumPattern(header),
+                resolveKeyColumns(header),
+                CompiledRowFilters.compile(header));
+    }
+
+    /**
+     * Aggregated reference values by header name and canonical key. Empty in fingerprint mode.
+     */
+    public synchronized Map<String, Map<String, AggregationResult>> result() {
+        return result;
+    }
+
+    /**
+     * Whether {@link #result()} holds the aggregated rows.
+     */
+    public boolean retainsRows() {
+        return mode == ValidationContext.ReferenceMode.DETAILED;
+    }
+
+    /**
+     * Reference fingerprints by header name, computed from {@link #result()} in detailed mode.
+     */
+    synchronized Map<String, AggregationFingerprint> fingerprints() {
+        if (!retainsRows()) {
+            return fingerprints;
+        }
+        Map<String, AggregationFingerprint> computed = new LinkedHashMap<>();
+        result.forEach((headerName, bucket) -> {
+            AggregationFingerprint fingerprint = computed.computeIfAbsent(headerName, ignored -> new AggregationFingerprint());
+            bucket.forEach((key, aggregation) -> fingerprint.add(key, aggregation.rowCount(), aggregation.sumValue()));
+        });
+        return computed;
+    }
+
+    /**
+     * Canonical key of a key that was produced by {@link MergeService}.
+     */
+    static String canonicalKeyFromMerged(List<String> keyParts) {
+        return keyParts == null
+                ? ""
+                : keyParts.stream().map(ReferenceAggregator::normalizeCell).reduce((left, right) -> left + KEY_SEPARATOR + right).orElse("");
+    }
+
+    static String normalizeCell(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isBlankRow(List<String> row) {
+        return row == null || row.stream().allMatch(value -> value == null || value.isBlank());
+    }
+
+    private synchronized void fold(String headerName, Map<String, AggregationResult> fileBucket) {
+        Map<String, AggregationResult> bucket = result.computeIfAbsent(headerName, ignored -> new HashMap<>());
+        fileBucket.forEach((key, aggregation) -> bucket.merge(key, aggregation, AggregationResult::add));
+    }
+
+    private synchronized void fold(String headerName, AggregationFingerprint fileFingerprint) {
+        fingerprints.computeIfAbsent(headerName, ignored -> new AggregationFingerprint()).add(fileFingerprint);
+    }
+
+    private HeaderDefinition chooseHeader(List<String> firstRow, List<String> lastRow) {
+        List<String> first = normalizeRow(firstRow);
+        List<String> last = normalizeRow(lastRow);
+
+        for (HeaderDefinition def : headers) {
+            List<String> normalizedHeader = normalizeRow(def.headers());
+            if (def.headerPosition() == HeaderDefinition.HeaderPosition.LAST) {
+                if (normalizedHeader.equals(last)) {
+                    return def;
+                }
+            } else if (normalizedHeader.equals(first)) {
+                return def;
+            }
+        }
+
+        for (HeaderDefinition def : headers) {
+            List<List<String>> aliases = def.headerAliases() == null ? List.of() : def.headerAliases();
+            List<List<String>> normalizedAliases = aliases.stream().map(ReferenceAggregator::normalizeRow).toList();
+            if (def.headerPosition() == HeaderDefinition.HeaderPosition.LAST) {
+                if (normalizedAliases.contains(last)) {
+                    return def;
+                }
+            } else if (normalizedAliases.contains(first)) {
+                return def;
+            }
+        }
+
+        return new HeaderDefinition("Unknown_" + first.size(), List.of());
+    }
+
+    private int resolveSumColumnIndex(HeaderDefinition header) {
+        if (header.sumColumn() == null || header.sumColumn().isBlank() || header.headers() == null) {
+            return -1;
+        }
+        for (int i = 0; i < header.headers().size(); i++) {
+            String cell = header.headers().get(i);
+            if (cell != null && cell.equalsIgnoreCase(header.sumColumn())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indexes of the {@link HeaderDefinition#keyColumns()}, or {@code null} if the key is every column but the sum.
+     */
+    private int[] resolveKeyColumns(HeaderDefinition header) {
+        if (header.keyColumns().isEmpty()) {
+            return null;
+        }
+        return header.keyColumns().stream()
+                .mapToInt(column -> CompiledHeader.columnIndex(header, column))
+                .toArray();
+    }
+
+    private Pattern resolveSumPattern(HeaderDefinition header) {
+        if (header.sumPattern() == null || header.sumPattern().isBlank()) {
+            return DEFAULT_SUM_PATTERN;
+        }
+        return Pattern.compile(header.sumPattern());
+    }
+
+    private static BigDecimal parseSum(List<String> row, int sumIndex, Pattern pattern) {
+        if (sumIndex < 0 || sumIndex >= row.size()) {
+            return BigDecimal.ZERO;
+        }
+        String value = row.get(sumIndex);
+        if (value == null || value.isBlank()) {
+            return BigDecimal.ZERO;
+        }
+        Matcher matcher = pattern.matcher(value);
+        if (!matcher.find()) {
+            return BigDecimal.ZERO;
+        }
+        String normalized = matcher.group(1).replace(',', '.');
+        try {
+            return new BigDecimal(normalized);
+        } catch (NumberFormatException e) {
+            return BigDecimal.ZERO;
+        }
+    }
+
+    private static String canonicalKeyFromRawRow(List<String> row, int sumColumnIndex) {
+        List<String> normalized = normalizeRow(row);
+        StringBuilder keyBuilder = new StringBuilder();
+        for (int i = 0; i < normalized.size(); i++) {
+            if (i == sumColumnIndex) {
+                continue;
+            }
+            if (!keyBuilder.isEmpty()) {
+                keyBuilder.append(KEY_SEPARATOR);
+            }
+            keyBuilder.append(normalizeCell(normalized.get(i)));
+        }
+        return keyBuilder.toString();
+    }
+
+    private static String canonicalKeyFromColumns(List<String> row, int[] keyColumns) {
+        StringBuilder keyBuilder = new StringBuilder();
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (i > 0) {
+                keyBuilder.append(KEY_SEPARATOR);
+            }
+            int column = keyColumns[i];
+            keyBuilder.append(column >= 0 && column < row.size() ? normalizeCell(row.get(column)) : "");
+        }
+        return keyBuilder.toString();
+    }
+
+    private static List<String> normalizeRow(List<String> row) {
+        List<String> normalized = row == null
+                ? List.of()
+                : row.stream().map(ReferenceAggregator::normalizeCell).toList();
+        int end = normalized.size();
+        while (end > 0 && normalized.get(end - 1).isBlank()) {
+            end--;
+        }
+        return normalized.subList(0, end);
+    }
+
+    private static String resolveHeaderName(HeaderDefinition header) {
+        if (header != null && header.name() != null && !header.name().isBlank()) {
+            return header.name();
+        }
+        return "Unknown";
+    }
+
+    private final class ReferenceFileRows implements FileRows {
+        private final String headerName;
+        private final boolean fingerprintOnly;
+        private final int headerIndex;
+        private final int sumColumnIndex;
+        private final Pattern sumPattern;
+        private final int[] keyColumns;
+        private final CompiledRowFilters filters;
+        private final int[] filterColumns;
+        private final Map<String, AggregationResult> bucket = new HashMap<>();
+        private final AggregationFingerprint fingerprint = new AggregationFingerprint();
+
+        private ReferenceFileRows(String headerName,
+                                  boolean fingerprintOnly,
+                                  int headerIndex,
+                                  int sumColumnIndex,
+                                  Pattern sumPattern,
+                                  int[] keyColumns,
+                                  CompiledRowFilters filters) {
+            this.headerName = headerName;
+            this.fingerprintOnly = fingerprintOnly;
+            this.headerIndex = headerIndex;
+            this.sumColumnIndex = sumColumnIndex;
+            this.sumPattern = sumPattern;
+            this.keyColumns = keyColumns;
+            this.filters = filters;
+            this.filterColumns = filters.columns();
+        }
+
+        /**
+         * Without key columns every cell is part of the key; otherwise only the key, sum and filter columns are read.
+         */
+        @Override
+        public boolean needs(int column) {
+            if (keyColumns == null || column == sumColumnIndex) {
+                return true;
+            }
+            for (int keyColumn : keyColumns) {
+                if (keyColumn == column) return true;
+            }
+            for (int filterColumn : filterColumns) {
+                if (filterColumn == column) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void row(int rowIndex, List<String> cells) {
+            if (rowIndex == headerIndex || !filters.accepts(cells)) {
+                return;
+            }
+            String key = keyColumns == null
+                    ? canonicalKeyFromRawRow(cells, sumColumnIndex)
+                    : canonicalKeyFromColumns(cells, keyColumns);
+            BigDecimal sumValue = parseSum(cells, sumColumnIndex, sumPattern);
+            if (fingerprintOnly) {
+                fingerprint.add(key, 1, sumValue);
+                return;
+            }
+            bucket.merge(key, new AggregationResult(1, sumValue), AggregationResult::add);
+        }
+
+        @Override
+        public void complete() {
+            if (fingerprintOnly) {
+                fold(headerName, fingerprint);
+            } else {
+                fold(headerName, bucket);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package github.tilcob.app.listmerging.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.model.SnapshotInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Final merge result saved next to {@code merged.xlsx}, together with the input files it was merged from, so a
+ * later job can fold in only new files instead of merging the whole history again.
+ * <p>
+ * Layout (big endian): magic, version, the input files as JSON and the result in the format of
+ * {@link ColumnarResultWriter}. Like the columnar export, sums are restored with the common scale of their group.
+ * The snapshot is written to a temporary file and then moved into place.
+ * </p>
+ */
+public class ResultSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(ResultSnapshot.class);
+    public static final String FILE_NAME = "merged.lms";
+    static final int MAGIC = 0x4C4D5353;
+    static final short VERSION = 1;
+
+    private final ObjectMapper mapper;
+
+    public ResultSnapshot() {
+        this(new ObjectMapper());
+    }
+
+    public ResultSnapshot(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public File write(File outputDir,
+                      List<SnapshotInput> inputs,
+                      Map<HeaderDefinition, Map<List<String>, AggregationResult>> result) throws IOException {
+        File target = new File(outputDir, FILE_NAME);
+        File temp = new File(outputDir, FILE_NAME + ".part");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                byte[] manifest = mapper.writeValueAsBytes(inputs);
+                out.writeInt(manifest.length);
+                out.write(manifest);
+                new ColumnarResultWriter(mapper).write(result, out);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        log.info("Result snapshot of {} input files written to {}", inputs.size(), target.getAbsolutePath());
+        return target;
+    }
+
+    /**
+     * Reads the snapshot in {@code outputDir}, or returns {@code null} if there is none.
+     */
+    public Snapshot read(File outputDir) throws IOException {
+        File file = new File(outputDir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to be mapped: " + file.getName());
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a result snapshot: " + file.getName());
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file.getName());
+            }
+            byte[] manifest = new byte[buffer.getInt()];
+            buffer.get(manifest);
+            List<SnapshotInput> inputs = mapper.readValue(manifest, new TypeReference<List<SnapshotInput>>() {
+            });
+            return new Snapshot(inputs, new ColumnarResultReader(mapper).read(buffer, file.getName()));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated result snapshot: " + file.getName(), e);
+        }
+    }
+
+    public record Snapshot(List<SnapshotInput> inputs, Map<HeaderDefinition, Map<List<String>, AggregationResult>> result) {
+
+        /**
+         * A snapshot without inputs, for the first job that writes one.
+         */
+        public static Snapshot empty() {
+            return new Snapshot(List.of(), new LinkedHashMap<>());
+        }
+
+        /**
+         * The files that are not part of the snapshot yet.
+         *
+         * @throws IllegalStateException if a file of the snapshot changed since, because its old rows cannot be
+         *                               taken out of the result again
+         */
+        public List<File> newFiles(List<File> files) {
+            Map<String, SnapshotInput> known = new HashMap<>();
+            inputs.forEach(input -> known.put(input.path(), input));
+            List<File> newFiles = new ArrayList<>();
+            for (File file : files) {
+                SnapshotInput input = known.get(file.getAbsoluteFile().getPath());
+                if (input == null) {
+                    newFiles.add(file);
+                } else if (!input.matches(file)) {
+                    throw new IllegalStateException(file.getName()
+                            + " changed since the snapshot was written; run a full merge instead of appending.");
+                }
+            }
+            return newFiles;
+        }
+
+        /**
+         * Folds {@code merged} into the snapshot result and returns it.
+         */
+        public Map<HeaderDefinition, Map<List<String>, AggregationResult>> fold(
+                Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged) {
+            merged.forEach((header, rows) -> {
+                Map<List<String>, AggregationResult> bucket = result.computeIfAbsent(header, ignored -> new HashMap<>());
+                rows.forEach((key, aggregation) -> bucket.merge(key, aggregation, AggregationResult::add));
+            });
+            return result;
+        }
+
+        /**
+         * The snapshot inputs followed by {@code files}.
+         */
+        public List<SnapshotInput> withInputs(List<File> files) {
+            List<SnapshotInput> all = new ArrayList<>(inputs);
+            files.forEach(file -> all.add(SnapshotInput.of(file)));
+            return all;
+        }
+    }
+}
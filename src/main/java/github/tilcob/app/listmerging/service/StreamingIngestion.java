@@ -0,0 +1,681 @@
+package github.tilcob.app.listmerging.service;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.ICSVParser;
+import com.opencsv.exceptions.CsvException;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Ingestion engines of {@link MergeService} that do not keep all rows of a file in memory.
+ * <p>
+ * The streaming and parallel engines count identical rows while reading, because the header, and with it the
+ * sum column, is only known once the last non-blank row has been read. The counted rows are turned into
+ * grouping keys afterwards; one occurrence of the header row is dropped. The spill engine writes the rows to a
+ * temporary file instead and replays them in file order, which a {@link MergeService.RowListener} requires.
+ * All engines produce the same result as the in-memory engine.
+ * </p>
+ */
+final class StreamingIngestion {
+    private static final Logger log = LoggerFactory.getLogger(StreamingIngestion.class);
+    private static final int PROGRESS_INTERVAL_ROWS = 4096;
+
+    private final MergeService mergeService;
+
+    StreamingIngestion(MergeService mergeService) {
+        this.mergeService = mergeService;
+    }
+
+    /**
+     * Aggregates the file while reading it. A CSV file whose header is already known from the preflight is split
+     * into lines directly, decoding only the cells the header needs; other files are counted by whole rows.
+     */
+    MergeService.FileReadResult stream(File file,
+                                       List<HeaderDefinition> headers,
+                                       HeaderDefinition plannedHeader,
+                                       int expectedKeys,
+                                       MergeService.ProgressListener progressListener)
+            throws IOException, CsvException {
+        if (isKnown(plannedHeader, headers) && isCsv(file)) {
+            try {
+                KeyedChunk chunk = readKeyedChunk(file, 0, file.length(), plannedHeader, expectedKeys, progressListener);
+                return resolveKeyed(file, plannedHeader, List.of(chunk), expectedKeys);
+            } catch (QuotedChunkException e) {
+                log.info("{} contains quoted cells, reading it with the CSV parser.", file.getName());
+            }
+        }
+        RowTally tally = new RowTally(expectedKeys);
+        readRows(file, tally, progressListener);
+        return tally.resolve(file, headers, expectedKeys);
+    }
+
+    /**
+     * Aggregates line-aligned byte ranges of a CSV file on {@code parallelism} threads. Falls back to
+     * {@link #stream} if a range contains a quote, because quoted cells may span lines.
+     */
+    MergeService.FileReadResult parallel(File file,
+                                         List<HeaderDefinition> headers,
+                                         HeaderDefinition plannedHeader,
+                                         int parallelism,
+                                         int expectedKeys,
+                                         MergeService.ProgressListener progressListener)
+            throws IOException, CsvException {
+        long[] starts = chunkStarts(file, parallelism);
+        int chunkKeys = expectedKeys / starts.length;
+        try {
+            if (isKnown(plannedHeader, headers)) {
+                List<KeyedChunk> chunks = readChunks(file, starts, progressListener, (start, end) ->
+                        readKeyedChunk(file, start, end, plannedHeader, chunkKeys, MergeService.ProgressListener.NONE));
+                return resolveKeyed(file, plannedHeader, chunks, expectedKeys);
+            }
+            List<RowTally> chunks = readChunks(file, starts, progressListener, (start, end) ->
+                    readTallyChunk(file, start, end, chunkKeys));
+            RowTally tally = new RowTally(expectedKeys);
+            chunks.forEach(tally::append);
+            return tally.resolve(file, headers, expectedKeys);
+        } catch (QuotedChunkException e) {
+            log.info("{} contains quoted cells, reading it sequentially.", file.getName());
+            return stream(file, headers, null, expectedKeys, progressListener);
+        }
+    }
+
+    /**
+     * Reads the byte ranges starting at {@code starts} concurrently and returns their results in file order.
+     */
+    private <T extends Chunk> List<T> readChunks(File file,
+                                                 long[] starts,
+                                                 MergeService.ProgressListener progressListener,
+                                                 ChunkReader<T> chunkReader) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(starts.length, runnable -> {
+            Thread thread = new Thread(runnable, "merge-chunk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletionService<T> completion = new ExecutorCompletionService<>(workers);
+            List<Future<T>> chunks = new ArrayList<>(starts.length);
+            long length = file.length();
+            for (int i = 0; i < starts.length; i++) {
+                long start = starts[i];
+                long end = i + 1 < starts.length ? starts[i + 1] : length;
+                chunks.add(completion.submit(() -> chunkReader.read(start, end)));
+            }
+
+            long rows = 0;
+            long bytes = 0;
+            for (int done = 0; done < chunks.size(); done++) {
+                T chunk = completion.take().get();
+                rows += chunk.rowsRead();
+                bytes += chunk.bytesRead();
+                progressListener.fileProgress(file, rows, bytes);
+            }
+            List<T> results = new ArrayList<>(chunks.size());
+            for (Future<T> chunk : chunks) {
+                results.add(chunk.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QuotedChunkException quoted) throw quoted;
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new IOException("Reading " + file.getName() + " failed.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Operation was cancelled.");
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the rows to a temporary file, then passes them to {@code rowListener} in file order and aggregates
+     * them once the header is known.
+     */
+    MergeService.FileReadResult spill(File file,
+                                      List<HeaderDefinition> headers,
+                                      int expectedKeys,
+                                      MergeService.RowListener rowListener,
+                                      MergeService.ProgressListener progressListener)
+            throws IOException, CsvException {
+        File spillFile = File.createTempFile("listmerging-", ".rows");
+        try {
+            SpillWriter writer = new SpillWriter(spillFile);
+            try (writer) {
+                readRows(file, writer, progressListener);
+            }
+            if (writer.lastRow == null) {
+                return new MergeService.FileReadResult(file, MergeService.EMPTY_HEADER, Map.of());
+            }
+
+            List<String> firstRow = writer.firstRow == null ? List.of() : writer.firstRow;
+            HeaderDefinition chosen = mergeService.chooseHeader(firstRow, writer.lastRow, headers);
+            int headerIndex = chosen.headerPosition() == HeaderDefinition.HeaderPosition.LAST
+                    ? writer.lastRowIndex
+                    : 0;
+            CompiledHeader compiled = mergeService.compile(chosen);
+            MergeService.RowListener.FileRows teedRows =
+                    rowListener.beginFile(file, firstRow, writer.lastRow, writer.lastRowIndex);
+            Map<List<String>, KeyAggregate> counts = presized(expectedKeys);
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(spillFile.toPath())))) {
+                for (long i = 0; i < writer.rows; i++) {
+                    Cancellation.checkpoint();
+                    int rowIndex = in.readInt();
+                    List<String> row = readRow(in);
+                    teedRows.row(rowIndex, row);
+                    if (rowIndex == headerIndex || !compiled.accepts(row)) continue;
+
+                    mergeService.aggregateRow(counts, compiled.key(row), row, compiled, 1);
+                }
+            }
+            teedRows.complete();
+            return new MergeService.FileReadResult(file, chosen, KeyAggregate.results(counts));
+        } finally {
+            Files.deleteIfExists(spillFile.toPath());
+        }
+    }
+
+    private void readRows(File file, RowSink sink, MergeService.ProgressListener progressListener)
+            throws IOException, CsvException {
+        if (file.getName().toLowerCase(Locale.ROOT).endsWith(".xlsx")) {
+            readXlsxRows(file, sink, progressListener);
+        } else {
+            readCsvRows(file, sink, progressListener);
+        }
+    }
+
+    private void readCsvRows(File file, RowSink sink, MergeService.ProgressListener progressListener)
+            throws IOException, CsvException {
+        MergeService.CountingInputStream in = new MergeService.CountingInputStream(Files.newInputStream(file.toPath()));
+        try (var reader = new CSVReaderBuilder(
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))
+                .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
+                .build()
+        ) {
+            int rowIndex = 0;
+            for (String[] cells = reader.readNext(); cells != null; cells = reader.readNext(), rowIndex++) {
+                Cancellation.checkpoint();
+                sink.row(rowIndex, mergeService.toRow(cells));
+                if (rowIndex % PROGRESS_INTERVAL_ROWS == 0) {
+                    progressListener.fileProgress(file, rowIndex, in.count());
+                }
+            }
+            progressListener.fileProgress(file, rowIndex, in.count());
+        }
+    }
+
+    /**
+     * Reads the first sheet with the SAX event API, so only the shared strings table is kept in memory.
+     * Like the in-memory engine, a row starts at its first cell and missing cells are empty.
+     */
+    private void readXlsxRows(File file, RowSink sink, MergeService.ProgressListener progressListener)
+            throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Invalid Excel format: " + file.getName(), e);
+        }
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            SheetRows rows = new SheetRows(file, sink, progressListener);
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(),
+                        new ReadOnlySharedStringsTable(pkg), rows, MergeService.cellFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+            progressListener.fileProgress(file, rows.rowsRead, file.length());
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Invalid Excel format: " + file.getName(), e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private RowTally readTallyChunk(File file, long start, long end, int expectedKeys) throws IOException {
+        ICSVParser parser = new CSVParserBuilder().withSeparator(';').build();
+        RowTally tally = new RowTally(expectedKeys);
+        try (BufferedReader reader = openRange(file, start, end)) {
+            int rowIndex = start == 0 ? 0 : 1;
+            for (String line = reader.readLine(); line != null; line = reader.readLine(), rowIndex++) {
+                Cancellation.checkpoint();
+                if (line.indexOf('"') >= 0) {
+                    throw new QuotedChunkException();
+                }
+                tally.row(rowIndex, mergeService.toRow(parser.parseLine(line)));
+            }
+        }
+        tally.bytesRead = end - start;
+        return tally;
+    }
+
+    /**
+     * Aggregates a byte range of a CSV file whose header is known. Lines without escapes are split by
+     * {@link CompiledHeader#splitLine}, so cells outside the key, sum and filter columns are never copied.
+     */
+    private KeyedChunk readKeyedChunk(File file,
+                                      long start,
+                                      long end,
+                                      HeaderDefinition header,
+                                      int expectedKeys,
+                                      MergeService.ProgressListener progressListener) throws IOException {
+        CompiledHeader compiled = mergeService.compile(header);
+        ICSVParser parser = new CSVParserBuilder().withSeparator(';').build();
+        boolean skipFirstRow = start == 0 && header.headerPosition() == HeaderDefinition.HeaderPosition.FIRST;
+        KeyedChunk chunk = new KeyedChunk(compiled, expectedKeys, end - start);
+        MergeService.CountingInputStream in = new MergeService.CountingInputStream(
+                Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ).position(start)));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new BoundedInputStream(in, end - start), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                Cancellation.checkpoint();
+                if (line.indexOf('"') >= 0) {
+                    throw new QuotedChunkException();
+                }
+                if (chunk.rowsRead++ % PROGRESS_INTERVAL_ROWS == 0) {
+                    progressListener.fileProgress(file, chunk.rowsRead, in.count());
+                }
+                if (isBlankLine(line)) continue;
+                chunk.nonBlank = true;
+                chunk.commitPending();
+                if (skipFirstRow && chunk.rowsRead == 1) continue;
+
+                List<String> row = compiled.projects() && line.indexOf('\\') < 0
+                        ? compiled.splitLine(line)
+                        : mergeService.toRow(parser.parseLine(line));
+                if (!compiled.accepts(row)) continue;
+
+                chunk.pendingKey = compiled.key(row);
+                chunk.pendingRow = row;
+            }
+        }
+        progressListener.fileProgress(file, chunk.rowsRead, end - start);
+        return chunk;
+    }
+
+    /**
+     * Folds the chunks of a file with a known header. A header in the last row was read like a data row by the
+     * chunk that read it and is still pending there, so it is dropped instead of being aggregated.
+     */
+    private MergeService.FileReadResult resolveKeyed(File file,
+                                                     HeaderDefinition header,
+                                                     List<KeyedChunk> chunks,
+                                                     int expectedKeys) {
+        KeyedChunk last = null;
+        for (KeyedChunk chunk : chunks) {
+            if (chunk.nonBlank) {
+                last = chunk;
+            }
+        }
+        if (last == null) {
+            return new MergeService.FileReadResult(file, MergeService.EMPTY_HEADER, Map.of());
+        }
+        for (KeyedChunk chunk : chunks) {
+            if (chunk != last || header.headerPosition() != HeaderDefinition.HeaderPosition.LAST) {
+                chunk.commitPending();
+            }
+        }
+        if (chunks.size() == 1) {
+            return new MergeService.FileReadResult(file, header, KeyAggregate.results(chunks.get(0).counts));
+        }
+        Map<List<String>, KeyAggregate> counts = presized(expectedKeys);
+        for (KeyedChunk chunk : chunks) {
+            chunk.counts.forEach((key, aggregate) -> {
+                KeyAggregate existing = counts.putIfAbsent(key, aggregate);
+                if (existing != null) {
+                    existing.add(aggregate);
+                }
+            });
+        }
+        return new MergeService.FileReadResult(file, header, KeyAggregate.results(counts));
+    }
+
+    private static BufferedReader openRange(File file, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ).position(start);
+        InputStream in = new BoundedInputStream(Channels.newInputStream(channel), end - start);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    static boolean isBlankLine(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c != ';' && !Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKnown(HeaderDefinition plannedHeader, List<HeaderDefinition> headers) {
+        return plannedHeader != null && headers.contains(plannedHeader);
+    }
+
+    private static boolean isCsv(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    /**
+     * Returns the start offsets of up to {@code parallelism} ranges; every range but the first starts after a
+     * line feed.
+     */
+    private static long[] chunkStarts(File file, int parallelism) throws IOException {
+        long length = file.length();
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (int i = 1; i < parallelism; i++) {
+                long position = Math.max(length * i / parallelism, starts.get(starts.size() - 1) + 1);
+                if (position >= length) break;
+                in.seek(position - 1);
+                int b;
+                while ((b = in.read()) >= 0 && b != '\n') {
+                    position++;
+                }
+                if (b < 0 || in.getFilePointer() >= length) break;
+                starts.add(in.getFilePointer());
+            }
+        }
+        return starts.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    static <K, V> Map<K, V> presized(int expectedKeys) {
+        return expectedKeys <= 0 ? new HashMap<>() : new HashMap<>((int) (expectedKeys / 0.75f) + 1);
+    }
+
+    private static void writeRow(DataOutputStream out, List<String> row) throws IOException {
+        out.writeInt(row.size());
+        for (String cell : row) {
+            byte[] bytes = cell.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static List<String> readRow(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> row = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            row.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return List.copyOf(row);
+    }
+
+    /**
+     * Result of reading one byte range.
+     */
+    private interface Chunk {
+        long rowsRead();
+
+        long bytesRead();
+    }
+
+    @FunctionalInterface
+    private interface ChunkReader<T extends Chunk> {
+        T read(long start, long end) throws IOException;
+    }
+
+    /**
+     * Aggregation of a byte range with a known header. The last non-blank line is held back, because it is the
+     * header if the header is in the last row.
+     */
+    private final class KeyedChunk implements Chunk {
+        private final CompiledHeader compiled;
+        private final Map<List<String>, KeyAggregate> counts;
+        private final long bytesRead;
+        private long rowsRead;
+        private boolean nonBlank;
+        private List<String> pendingKey;
+        private List<String> pendingRow;
+
+        private KeyedChunk(CompiledHeader compiled, int expectedKeys, long bytesRead) {
+            this.compiled = compiled;
+            this.counts = presized(expectedKeys);
+            this.bytesRead = bytesRead;
+        }
+
+        private void commitPending() {
+            if (pendingRow != null) {
+                mergeService.aggregateRow(counts, pendingKey, pendingRow, compiled, 1);
+                pendingKey = null;
+                pendingRow = null;
+            }
+        }
+
+        @Override
+        public long rowsRead() {
+            return rowsRead;
+        }
+
+        @Override
+        public long bytesRead() {
+            return bytesRead;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowSink {
+        void row(int rowIndex, List<String> cells) throws IOException;
+    }
+
+    /**
+     * Counts identical non-blank rows and remembers the first row and the last non-blank row.
+     */
+    private final class RowTally implements RowSink, Chunk {
+        private final Map<List<String>, int[]> rows;
+        private List<String> firstRow;
+        private List<String> lastRow;
+        private long rowsRead;
+        private long bytesRead;
+
+        private RowTally(int expectedKeys) {
+            rows = presized(expectedKeys);
+        }
+
+        @Override
+        public long rowsRead() {
+            return rowsRead;
+        }
+
+        @Override
+        public long bytesRead() {
+            return bytesRead;
+        }
+
+        @Override
+        public void row(int rowIndex, List<String> cells) {
+            rowsRead++;
+            if (rowIndex == 0) {
+                firstRow = cells;
+            }
+            if (mergeService.isBlankRow(cells)) return;
+            lastRow = cells;
+            rows.computeIfAbsent(cells, k -> new int[1])[0]++;
+        }
+
+        /**
+         * Appends the rows of the following byte range.
+         */
+        private void append(RowTally next) {
+            rowsRead += next.rowsRead;
+            if (firstRow == null) {
+                firstRow = next.firstRow;
+            }
+            if (next.lastRow != null) {
+                lastRow = next.lastRow;
+            }
+            next.rows.forEach((row, count) -> rows.computeIfAbsent(row, k -> new int[1])[0] += count[0]);
+        }
+
+        private MergeService.FileReadResult resolve(File file, List<HeaderDefinition> headers, int expectedKeys) {
+            if (lastRow == null) {
+                return new MergeService.FileReadResult(file, MergeService.EMPTY_HEADER, Map.of());
+            }
+            List<String> first = firstRow == null ? List.of() : firstRow;
+            HeaderDefinition chosen = mergeService.chooseHeader(first, lastRow, headers);
+            List<String> headerRow = chosen.headerPosition() == HeaderDefinition.HeaderPosition.LAST ? lastRow : first;
+            int[] headerCount = rows.get(headerRow);
+            if (headerCount != null && --headerCount[0] == 0) {
+                rows.remove(headerRow);
+            }
+
+            CompiledHeader compiled = mergeService.compile(chosen);
+            Map<List<String>, KeyAggregate> counts = presized(expectedKeys);
+            rows.forEach((row, count) -> {
+                if (!compiled.accepts(row)) return;
+                mergeService.aggregateRow(counts, compiled.key(row), row, compiled, count[0]);
+            });
+            return new MergeService.FileReadResult(file, chosen, KeyAggregate.results(counts));
+        }
+    }
+
+    /**
+     * Writes non-blank rows with their index to a temporary file.
+     */
+    private final class SpillWriter implements RowSink, Closeable {
+        private final DataOutputStream out;
+        private List<String> firstRow;
+        private List<String> lastRow;
+        private int lastRowIndex = -1;
+        private long rows;
+
+        private SpillWriter(File spillFile) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile.toPath())));
+        }
+
+        @Override
+        public void row(int rowIndex, List<String> cells) throws IOException {
+            if (rowIndex == 0) {
+                firstRow = cells;
+            }
+            if (mergeService.isBlankRow(cells)) return;
+            lastRow = cells;
+            lastRowIndex = rowIndex;
+            out.writeInt(rowIndex);
+            writeRow(out, cells);
+            rows++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Collects the cells of the sheet rows reported by the SAX handler.
+     */
+    private static final class SheetRows implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final File file;
+        private final RowSink sink;
+        private final MergeService.ProgressListener progressListener;
+        private final TreeMap<Integer, String> cells = new TreeMap<>();
+        private int nextColumn;
+        private long rowsRead;
+
+        private SheetRows(File file, RowSink sink, MergeService.ProgressListener progressListener) {
+            this.file = file;
+            this.sink = sink;
+            this.progressListener = progressListener;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            Cancellation.checkpoint();
+            cells.clear();
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            List<String> row = new ArrayList<>();
+            if (!cells.isEmpty()) {
+                for (int column = cells.firstKey(); column <= cells.lastKey(); column++) {
+                    row.add(cells.getOrDefault(column, ""));
+                }
+            }
+            try {
+                sink.row(rowNum, List.copyOf(row));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (++rowsRead % PROGRESS_INTERVAL_ROWS == 0) {
+                // The sheet is read from a compressed stream, so only rows are reported until the end.
+                progressListener.fileProgress(file, rowsRead, 0);
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference == null ? nextColumn : new CellReference(cellReference).getCol();
+            cells.put(column, formattedValue == null ? "" : formattedValue);
+            nextColumn = column + 1;
+        }
+    }
+
+    /**
+     * Thrown by a chunk reader that found a quote, which may start a cell spanning several lines.
+     */
+    private static final class QuotedChunkException extends RuntimeException {
+        private QuotedChunkException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+    }
+}
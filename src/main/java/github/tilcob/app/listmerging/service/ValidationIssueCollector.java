@@ -0,0 +1,60 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.ValidationIssue;
+import github.tilcob.app.listmerging.model.ValidationReport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe sink for validation issues.
+ * <p>
+ * Every issue is counted and forwarded to the optional {@link ValidationReportWriter}, but only the first
+ * {@code limitPerCode} issues of each code are kept for the in-memory {@link ValidationReport}. Memory for
+ * validation failures therefore stays bounded no matter how many keys differ.
+ * </p>
+ */
+public final class ValidationIssueCollector {
+    public static final int DEFAULT_LIMIT_PER_CODE = 100;
+
+    private final int limitPerCode;
+    private final ValidationReportWriter writer;
+    private final List<ValidationIssue> retained = new ArrayList<>();
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+
+    public ValidationIssueCollector() {
+        this(DEFAULT_LIMIT_PER_CODE, null);
+    }
+
+    public ValidationIssueCollector(int limitPerCode, ValidationReportWriter writer) {
+        if (limitPerCode < 0) {
+            throw new IllegalArgumentException("limitPerCode must be >= 0");
+        }
+        this.limitPerCode = limitPerCode;
+        this.writer = writer;
+    }
+
+    public synchronized void add(ValidationIssue issue) {
+        long count = counts.merge(issue.code(), 1L, Long::sum);
+        if (count <= limitPerCode) {
+            retained.add(issue);
+        }
+        if (writer != null) {
+            writer.write(issue);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    public synchronized long size() {
+        return counts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public synchronized ValidationReport toReport() {
+        return new ValidationReport(counts.isEmpty(), retained, counts);
+    }
+}
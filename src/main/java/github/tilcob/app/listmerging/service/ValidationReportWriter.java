@@ -0,0 +1,142 @@
+package github.tilcob.app.listmerging.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.ValidationIssue;
+import github.tilcob.app.listmerging.model.ValidationReport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams validation issues to a report file while validation is running.
+ * <p>
+ * {@link Format#JSON} writes one object whose {@code issues} array is followed by {@code valid},
+ * {@code issueCounts} and {@code totalIssues}. {@link Format#NDJSON} writes one issue per line and a final
+ * summary line with the same fields. Job metrics passed to {@link #finish(ValidationReport, Map)} are added
+ * to the summary as {@code metrics}. A write failure does not interrupt validation; it is thrown by
+ * {@link #finish(ValidationReport)}.
+ * </p>
+ */
+public final class ValidationReportWriter implements Closeable {
+    private final ObjectMapper objectMapper;
+    private final Format format;
+    private final JsonGenerator generator;
+    private IOException failure;
+    private boolean finished;
+
+    public ValidationReportWriter(ObjectMapper objectMapper, OutputStream out, Format format) throws IOException {
+        this.objectMapper = objectMapper;
+        this.format = format == null ? Format.JSON : format;
+        this.generator = objectMapper.getFactory().createGenerator(out);
+        if (this.format == Format.NDJSON) {
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+        } else {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("issues");
+        }
+    }
+
+    /**
+     * Opens a writer for {@code merged.validation.json} or {@code merged.validation.ndjson} in {@code targetDir}.
+     */
+    public static ValidationReportWriter open(ObjectMapper objectMapper, File targetDir, Format format)
+            throws IOException {
+        Format effectiveFormat = format == null ? Format.JSON : format;
+        File reportFile = new File(targetDir, effectiveFormat.fileName());
+        OutputStream out = new FileOutputStream(reportFile);
+        try {
+            return new ValidationReportWriter(objectMapper, out, effectiveFormat);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    synchronized void write(ValidationIssue issue) {
+        if (failure != null || finished) {
+            return;
+        }
+        try {
+            objectMapper.writeValue(generator, issue);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes the summary of {@code report} and flushes the file.
+     */
+    public synchronized void finish(ValidationReport report) throws IOException {
+        finish(report, null);
+    }
+
+    /**
+     * Writes the summary of {@code report} together with {@code metrics}, if present, and flushes the file.
+     */
+    public synchronized void finish(ValidationReport report, Map<String, Object> metrics) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        finished = true;
+        if (format == Format.JSON) {
+            generator.writeEndArray();
+            writeSummaryFields(report, metrics);
+            generator.writeEndObject();
+        } else {
+            generator.writeStartObject();
+            writeSummaryFields(report, metrics);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        generator.close();
+    }
+
+    private void writeSummaryFields(ValidationReport report, Map<String, Object> metrics) throws IOException {
+        generator.writeBooleanField("valid", report.valid());
+        generator.writeObjectFieldStart("issueCounts");
+        for (var entry : report.issueCounts().entrySet()) {
+            generator.writeNumberField(entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeNumberField("totalIssues", report.totalIssueCount());
+        if (metrics != null) {
+            generator.writeFieldName("metrics");
+            objectMapper.writeValue(generator, metrics);
+        }
+    }
+
+    public enum Format {
+        JSON("merged.validation.json"),
+        NDJSON("merged.validation.ndjson");
+
+        private final String fileName;
+
+        Format(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String fileName() {
+            return fileName;
+        }
+
+        public static Format fromProperty(String value) {
+            if (value == null || value.isBlank()) {
+                return JSON;
+            }
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package github.tilcob.app.listmerging.tasks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.metrics.MergeMetrics;
+import github.tilcob.app.listmerging.model.*;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.IngestionPlanner;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.service.MergeValidationService;
+import github.tilcob.app.listmerging.service.ReferenceAggregator;
+import github.tilcob.app.listmerging.service.ResultSnapshot;
+import github.tilcob.app.listmerging.service.ValidationIssueCollector;
+import github.tilcob.app.listmerging.service.ValidationReportWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Merges, validates and exports one set of input files.
+ * <p>
+ * The job does not depend on JavaFX. {@link MergeExportTask} runs it for the UI and
+ * {@link github.tilcob.app.listmerging.cli.BatchCli} runs it headless. Progress, messages and cancellation
+ * are exchanged through a {@link Listener}. The duration of every stage is returned in the {@link Result}.
+ * </p>
+ * <p>
+ * With {@link MergeJobOptions.SnapshotMode#APPEND} only the files missing from the {@link ResultSnapshot} of the
+ * output directory are merged and validated; their result is folded into the snapshot before the export.
+ * </p>
+ */
+public class MergeJob {
+    private static final Logger log = LoggerFactory.getLogger(MergeJob.class);
+    private static final int VALIDATION_MESSAGE_LIMIT = 3;
+    private static final int PIPELINE_QUEUE_CAPACITY = 4;
+    private static final long PIPELINE_POLL_MILLIS = 100;
+    private static final long EXPORTER_STOP_SECONDS = 5;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final PipelineGroup END_OF_GROUPS = new PipelineGroup(null, null);
+
+    private final List<File> files;
+    private final File outputDir;
+    private final HeaderLoader headerLoader;
+    private final MergeService mergeService;
+    private final ExportService exportService;
+    private final MergeValidationService mergeValidationService;
+    private final MergeJobOptions options;
+    private final ObjectMapper objectMapper;
+
+    public MergeJob(List<File> files,
+                    File outputDir,
+                    HeaderLoader headerLoader,
+                    MergeService mergeService,
+                    ExportService exportService,
+                    MergeValidationService mergeValidationService,
+                    MergeJobOptions options,
+                    ObjectMapper objectMapper) {
+        this.files = List.copyOf(files);
+        this.outputDir = outputDir;
+        this.headerLoader = headerLoader;
+        this.mergeService = mergeService;
+        this.exportService = exportService;
+        this.mergeValidationService = mergeValidationService;
+        this.options = options == null ? MergeJobOptions.defaults() : options;
+        this.objectMapper = objectMapper;
+    }
+
+    public Result run(Listener listener) throws Exception {
+        Run run = new Run(listener == null ? Listener.NONE : listener);
+
+        run.progress(0);
+        run.message("Loading headers...");
+        MergeMetrics.Stage stage = run.metrics.startStage("headers");
+        List<HeaderDefinition> headers = headerLoader.getHeaders();
+        run.stageDone(stage.end(headers.size(), 0));
+        ResultSnapshot.Snapshot snapshot = loadSnapshot(run, headers);
+        List<File> inputs = snapshot.newFiles(files);
+        ReferenceAggregator reference = createReferenceAggregator(headers);
+        IngestionPlanner.Plan plan = preflight(run, inputs, headers, reference != null);
+
+        MergeJobOptions.ExecutionMode mode = options.executionMode();
+        if (!options.exportFormat().writesWorkbook() && mode != MergeJobOptions.ExecutionMode.STAGED) {
+            log.info("Execution mode {} only applies to the workbook export; running staged.", mode);
+            mode = MergeJobOptions.ExecutionMode.STAGED;
+        }
+        if (options.snapshotMode().writesSnapshot() && mode != MergeJobOptions.ExecutionMode.STAGED) {
+            log.info("Execution mode {} does not keep the final result for the snapshot; running staged.", mode);
+            mode = MergeJobOptions.ExecutionMode.STAGED;
+        }
+        if (mode == MergeJobOptions.ExecutionMode.PIPELINED) {
+            return run.finish(runPipelined(run, headers, reference, plan));
+        }
+
+        run.progress(1);
+        run.message("Merging files...");
+        stage = run.metrics.startStage("merge");
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = mergeService.merge(
+                inputs,
+                headers,
+                reference == null ? MergeService.RowListener.NONE : reference,
+                new MergeProgress(run, inputs, "Merging files..."),
+                plan);
+        run.recordDistinctKeys(merged);
+        run.stageDone(stage.end(run.metrics.fileRows(), run.metrics.fileBytes()));
+        run.checkCancelled();
+
+        if (mode == MergeJobOptions.ExecutionMode.SPECULATIVE) {
+            return run.finish(exportSpeculatively(run, merged, headers, reference));
+        }
+
+        run.progress(2);
+        if (inputs.isEmpty() && !snapshot.inputs().isEmpty()) {
+            log.info("All input files are part of the result snapshot; nothing new to validate.");
+            run.validationReport = new ValidationIssueCollector().toReport();
+            run.validationSummary = "Validation: no new files.";
+        } else {
+            run.message("Validating merge result...");
+            stage = run.metrics.startStage("validation");
+            validateAndReport(run, merged, inputs, headers, reference);
+            run.stageDone(stage.end(run.distinctKeys, 0));
+        }
+        run.checkCancelled();
+
+        if (!snapshot.inputs().isEmpty()) {
+            merged = snapshot.fold(merged);
+            run.recordDistinctKeys(merged);
+        }
+
+        run.progress(3);
+        run.message("Exporting...");
+        stage = run.metrics.startStage("export");
+        File outFile = null;
+        if (options.exportFormat().writesWorkbook()) {
+            outFile = exportService.export(merged, outputDir.getPath());
+        }
+        if (options.exportFormat().writesColumnar()) {
+            File columnarFile = exportService.exportColumnar(merged, outputDir.getPath());
+            outFile = outFile == null ? columnarFile : outFile;
+        }
+        run.stageDone(stage.end(run.distinctKeys, outFile == null ? 0 : outFile.length()));
+
+        if (options.snapshotMode().writesSnapshot()) {
+            stage = run.metrics.startStage("snapshot");
+            File snapshotFile = new ResultSnapshot(objectMapper).write(outputDir, snapshot.withInputs(inputs), merged);
+            run.stageDone(stage.end(run.distinctKeys, snapshotFile.length()));
+        }
+        return run.finish(outFile);
+    }
+
+    /**
+     * Loads the snapshot of the output directory in append mode. Without one, or in the other modes, an empty
+     * snapshot is returned and all files are merged.
+     */
+    private ResultSnapshot.Snapshot loadSnapshot(Run run, List<HeaderDefinition> headers) throws IOException {
+        if (options.snapshotMode() != MergeJobOptions.SnapshotMode.APPEND) {
+            return ResultSnapshot.Snapshot.empty();
+        }
+        run.message("Loading result snapshot...");
+        MergeMetrics.Stage stage = run.metrics.startStage("snapshotLoad");
+        ResultSnapshot.Snapshot snapshot = new ResultSnapshot(objectMapper).read(outputDir);
+        if (snapshot == null) {
+            log.info("No result snapshot in {}; merging all files.", outputDir.getAbsolutePath());
+            snapshot = ResultSnapshot.Snapshot.empty();
+        }
+        snapshot.result().keySet().stream()
+                .filter(header -> !headers.contains(header) && !header.name().startsWith("Unknown_"))
+                .forEach(header -> log.warn("Header definition {} changed since the snapshot was written; "
+                        + "its old rows are exported as a separate group.", header.name()));
+        run.stageDone(stage.end(snapshot.inputs().size(), 0));
+        return snapshot;
+    }
+
+    /**
+     * Samples every input file, picks its ingestion engine and logs the plan. Files whose header rows match no
+     * header definition are merged into an {@code Unknown_} group; with
+     * {@link MergeJobOptions#requireKnownHeaders()} they abort the job before any file is parsed, unless
+     * warning mode is enabled.
+     */
+    private IngestionPlanner.Plan preflight(Run run,
+                                            List<File> inputs,
+                                            List<HeaderDefinition> headers,
+                                            boolean rowListenerAttached) throws IOException {
+        run.message("Planning ingestion...");
+        MergeMetrics.Stage stage = run.metrics.startStage("preflight");
+        IngestionPlanner.Plan plan = new IngestionPlanner(mergeService).plan(inputs, headers, rowListenerAttached);
+        plan.files().forEach(filePlan -> log.info("Ingestion plan: {}", filePlan.describe()));
+        run.stageDone(stage.end(plan.files().size(), 0));
+
+        List<IngestionPlanner.FilePlan> undetectable = plan.undetectable();
+        if (!undetectable.isEmpty()) {
+            String summary = "No header definition matches " + undetectable.stream()
+                    .map(filePlan -> filePlan.file().getName())
+                    .collect(Collectors.joining(", ")) + ".";
+            if (options.requireKnownHeaders() && !options.continueOnValidationErrors()) {
+                throw new IllegalStateException(summary + " Merge aborted before parsing.");
+            }
+            log.warn("{} The files are merged into Unknown groups.", summary);
+        }
+        return plan;
+    }
+
+    /**
+     * Merges and exports at the same time. Completed header groups are passed through a bounded queue to an
+     * exporter thread that writes them into a temporary workbook. The workbook replaces {@code merged.xlsx}
+     * only after validation passed (or warning mode is enabled); otherwise it is discarded.
+     */
+    private File runPipelined(Run run,
+                              List<HeaderDefinition> headers,
+                              ReferenceAggregator reference,
+                              IngestionPlanner.Plan plan) throws Exception {
+        run.progress(1);
+        run.message("Merging and exporting files...");
+
+        File target = new File(outputDir, ExportService.EXPORT_FILE_NAME);
+        File partial = new File(outputDir, ExportService.EXPORT_FILE_NAME + ".part");
+        BlockingQueue<PipelineGroup> queue = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+
+        ExecutorService exporter = createExporter();
+        Future<File> exportResult = exporter.submit(() -> {
+            try (ExportService.WorkbookExport workbook = exportService.openWorkbook(partial)) {
+                for (PipelineGroup group = queue.take(); group != END_OF_GROUPS; group = queue.take()) {
+                    workbook.addGroup(group.header(), group.rows());
+                }
+                return workbook.finish();
+            }
+        });
+
+        boolean committed = false;
+        Throwable failure = null;
+        try {
+            MergeMetrics.Stage stage = run.metrics.startStage("mergeAndExport");
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = mergeService.mergePipelined(
+                    files,
+                    headers,
+                    Runtime.getRuntime().availableProcessors(),
+                    reference == null ? MergeService.RowListener.NONE : reference,
+                    new MergeProgress(run, files, "Merging and exporting files..."),
+                    (header, rows) -> handOver(queue, new PipelineGroup(header, rows), exportResult),
+                    plan);
+            handOver(queue, END_OF_GROUPS, exportResult);
+            run.recordDistinctKeys(merged);
+            stage.addAllocatedBytes(run.metrics.fileAllocatedBytes());
+            run.stageDone(stage.end(run.metrics.fileRows(), run.metrics.fileBytes()));
+            run.checkCancelled();
+
+            run.progress(2);
+            run.message("Validating merge result...");
+            stage = run.metrics.startStage("validation");
+            validateAndReport(run, merged, files, headers, reference);
+            run.stageDone(stage.end(run.distinctKeys, 0));
+
+            run.progress(3);
+            run.message("Exporting...");
+            stage = run.metrics.startStage("export");
+            awaitExport(exportResult);
+            commitExport(partial, target);
+            committed = true;
+            if (options.exportFormat().writesColumnar()) {
+                exportService.exportColumnar(merged, outputDir.getPath());
+            }
+            run.stageDone(stage.end(run.distinctKeys, target.length()));
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseExporter(exporter, exportResult, partial, committed, failure);
+        }
+        return target;
+    }
+
+    /**
+     * Exports the merge result into a temporary workbook while it is validated. The workbook replaces
+     * {@code merged.xlsx} only after validation passed (or warning mode is enabled); otherwise it is discarded.
+     */
+    private File exportSpeculatively(Run run,
+                                     Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                     List<HeaderDefinition> headers,
+                                     ReferenceAggregator reference) throws Exception {
+        run.progress(2);
+        run.message("Validating and exporting merge result...");
+
+        File target = new File(outputDir, ExportService.EXPORT_FILE_NAME);
+        File partial = new File(outputDir, ExportService.EXPORT_FILE_NAME + ".part");
+
+        ExecutorService exporter = createExporter();
+        Future<File> exportResult = exporter.submit(() -> exportService.export(merged, partial));
+
+        boolean committed = false;
+        Throwable failure = null;
+        try {
+            MergeMetrics.Stage stage = run.metrics.startStage("validation");
+            validateAndReport(run, merged, files, headers, reference);
+            run.stageDone(stage.end(run.distinctKeys, 0));
+            run.checkCancelled();
+
+            run.progress(3);
+            run.message("Exporting...");
+            stage = run.metrics.startStage("exportWait");
+            awaitExport(exportResult);
+            commitExport(partial, target);
+            committed = true;
+            if (options.exportFormat().writesColumnar()) {
+                exportService.exportColumnar(merged, outputDir.getPath());
+            }
+            run.stageDone(stage.end(run.distinctKeys, target.length()));
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            releaseExporter(exporter, exportResult, partial, committed, failure);
+        }
+        return target;
+    }
+
+    /**
+     * Validates {@code merged}, the result of {@code inputs}. A fingerprint mismatch re-reads only these files.
+     */
+    private void validateAndReport(Run run,
+                                   Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                   List<File> inputs,
+                                   List<HeaderDefinition> headers,
+                                   ReferenceAggregator reference) throws IOException {
+        ValidationReport validationReport;
+        if (options.writeValidationReportFile()) {
+            ValidationReportWriter.Format format = options.validationReportFormat();
+            File reportFile = new File(outputDir, format.fileName());
+            boolean written = false;
+            try (ValidationReportWriter reportWriter = ValidationReportWriter.open(objectMapper, outputDir, format)) {
+                validationReport = runValidation(run, merged, inputs, headers, reference,
+                        new ValidationIssueCollector(ValidationIssueCollector.DEFAULT_LIMIT_PER_CODE, reportWriter));
+                reportWriter.finish(validationReport, run.metrics.summary());
+                written = true;
+            } finally {
+                if (!written) {
+                    Files.deleteIfExists(reportFile.toPath());
+                }
+            }
+            run.validationReportFile = reportFile;
+            log.info("Validation report written to {}", reportFile.getAbsolutePath());
+        } else {
+            validationReport = runValidation(run, merged, inputs, headers, reference, new ValidationIssueCollector());
+        }
+        run.validationReport = validationReport;
+        run.validationSummary = toStatusSummary(validationReport);
+
+        if (!validationReport.valid()) {
+            if (options.continueOnValidationErrors()) {
+                run.message(run.validationSummary + " – continuing in warning mode.");
+            } else {
+                throw new IllegalStateException(run.validationSummary + " Export aborted.");
+            }
+        }
+    }
+
+    private void handOver(BlockingQueue<PipelineGroup> queue, PipelineGroup group, Future<File> exportResult)
+            throws InterruptedException {
+        while (!queue.offer(group, PIPELINE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (exportResult.isDone()) {
+                awaitExport(exportResult);
+                throw new IllegalStateException("Exporter stopped before all header groups were written.");
+            }
+        }
+    }
+
+    private File awaitExport(Future<File> exportResult) throws InterruptedException {
+        try {
+            return exportResult.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Export failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private ExecutorService createExporter() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "merge-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the exporter. Unless the export was committed, the export is cancelled and its thread joined before
+     * the partial workbook is deleted, so nothing writes to it anymore. An interrupt received while waiting is
+     * restored afterwards, and a failed delete is added to {@code failure} instead of replacing it.
+     */
+    private void releaseExporter(ExecutorService exporter,
+                                 Future<File> exportResult,
+                                 File partial,
+                                 boolean committed,
+                                 Throwable failure) throws IOException {
+        if (committed) {
+            exporter.shutdown();
+            return;
+        }
+        exportResult.cancel(true);
+        exporter.shutdownNow();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (exporter.awaitTermination(EXPORTER_STOP_SECONDS, TimeUnit.SECONDS)) break;
+                    log.warn("Waiting for the exporter to stop before deleting {}", partial.getName());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            Files.deleteIfExists(partial.toPath());
+        } catch (IOException e) {
+            if (failure == null) throw e;
+            failure.addSuppressed(e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void commitExport(File partial, File target) throws IOException {
+        try {
+            Files.move(partial.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns an aggregator that collects the reference aggregation during the merge pass, or {@code null}
+     * when reference validation is disabled.
+     */
+    private ReferenceAggregator createReferenceAggregator(List<HeaderDefinition> headers) {
+        ValidationContext validationContext = options.validationContext();
+        if (!validationContext.enableReferenceAggregation()) {
+            return null;
+        }
+        return new ReferenceAggregator(headers, validationContext.referenceMode());
+    }
+
+    private ValidationReport runValidation(Run run,
+                                           Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                           List<File> inputs,
+                                           List<HeaderDefinition> headers,
+                                           ReferenceAggregator reference,
+                                           ValidationIssueCollector issues) {
+        try {
+            ValidationReport report = mergeValidationService.validate(
+                    merged, options.validationContext(), reference, inputs, headers, issues, run.metrics);
+            log.info("Merge validation completed: valid={}, issues={}", report.valid(), report.totalIssueCount());
+            return report;
+        } catch (CancellationException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            throw new IllegalStateException("Validation failed. Export is aborted for safety reasons.", ex);
+        }
+    }
+
+    private String toStatusSummary(ValidationReport report) {
+        if (report == null) {
+            return "Validation: no result available.";
+        }
+        if (report.valid()) {
+            return "Validation: OK (0 issues).";
+        }
+
+        String topIssues = report.issues().stream()
+                .limit(VALIDATION_MESSAGE_LIMIT)
+                .map(this::toReadableIssue)
+                .collect(Collectors.joining(" | "));
+        String suffix = report.totalIssueCount() > VALIDATION_MESSAGE_LIMIT ? " | …" : "";
+        return "Validation: ERROR (" + report.totalIssueCount() + " issues). " + topIssues + suffix;
+    }
+
+    private String toReadableIssue(ValidationIssue issue) {
+        String header = issue.headerName() == null || issue.headerName().isBlank()
+                ? ""
+                : " [" + issue.headerName() + "]";
+        return issue.code() + header + ": " + issue.message();
+    }
+
+    /**
+     * Receives progress and status messages of a running job. Progress is reported on a scale from 0 to
+     * {@link #MAX_PROGRESS}. Callbacks may come from worker threads but never concurrently.
+     */
+    public interface Listener {
+        double MAX_PROGRESS = 4;
+        Listener NONE = new Listener() {
+        };
+
+        default void progress(double workDone) {
+        }
+
+        default void message(String message) {
+        }
+
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Outcome of a job. {@code exportFile} is {@code merged.xlsx}, or {@code merged.lmc} for columnar-only
+     * exports. {@code stageMillis} holds the wall-clock duration of each stage in execution order; {@code metrics}
+     * adds rows, bytes, throughput and allocation estimates per stage and per input file.
+     */
+    public record Result(File exportFile,
+                         ValidationReport validationReport,
+                         File validationReportFile,
+                         String validationSummary,
+                         Map<String, Long> stageMillis,
+                         long totalMillis,
+                         MergeMetrics metrics) {
+    }
+
+    /**
+     * State of a single {@link #run(Listener)} call.
+     */
+    private static final class Run {
+        private final Listener listener;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+        private final MergeMetrics metrics = new MergeMetrics();
+        private long distinctKeys;
+        private ValidationReport validationReport;
+        private File validationReportFile;
+        private String validationSummary = "";
+
+        private Run(Listener listener) {
+            this.listener = listener;
+        }
+
+        private synchronized void progress(double workDone) {
+            listener.progress(workDone);
+        }
+
+        private synchronized void message(String message) {
+            listener.message(message);
+        }
+
+        private void checkCancelled() {
+            if (listener.isCancelled()) {
+                throw new CancellationException("Merge was cancelled.");
+            }
+        }
+
+        private void stageDone(MergeMetrics.StageMetrics stage) {
+            stageMillis.put(stage.name(), stage.millis());
+        }
+
+        private void recordDistinctKeys(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged) {
+            distinctKeys = 0;
+            merged.forEach((header, rows) -> {
+                metrics.distinctKeys(header.name(), rows.size());
+                distinctKeys += rows.size();
+            });
+        }
+
+        private Result finish(File exportFile) {
+            progress(Listener.MAX_PROGRESS);
+            message("Done: " + exportFile.getName() + " | " + validationSummary);
+            return new Result(
+                    exportFile,
+                    validationReport,
+                    validationReportFile,
+                    validationSummary,
+                    Collections.unmodifiableMap(stageMillis),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                    metrics);
+        }
+    }
+
+    /**
+     * Publishes the merge progress in rows and bytes. Parser threads report per file; progress and message
+     * are passed on at most every {@link #PROGRESS_INTERVAL_NANOS} so UI threads are not flooded.
+     */
+    private final class MergeProgress implements MergeService.ProgressListener {
+        private final Run run;
+        private final String stageMessage;
+        private final long totalBytes;
+        private final Map<File, Long> rowsByFile = new ConcurrentHashMap<>();
+        private final Map<File, Long> bytesByFile = new ConcurrentHashMap<>();
+        private final AtomicLong lastPublished = new AtomicLong(System.nanoTime());
+
+        private MergeProgress(Run run, List<File> inputs, String stageMessage) {
+            this.run = run;
+            this.totalBytes = inputs.stream().mapToLong(File::length).sum();
+            this.stageMessage = stageMessage;
+        }
+
+        @Override
+        public void fileProgress(File file, long rowsRead, long bytesRead) {
+            rowsByFile.put(file, rowsRead);
+            bytesByFile.put(file, bytesRead);
+
+            long now = System.nanoTime();
+            long last = lastPublished.get();
+            if (now - last < PROGRESS_INTERVAL_NANOS || !lastPublished.compareAndSet(last, now)) {
+                return;
+            }
+
+            long rows = rowsByFile.values().stream().mapToLong(Long::longValue).sum();
+            long bytes = bytesByFile.values().stream().mapToLong(Long::longValue).sum();
+            double fraction = totalBytes <= 0 ? 0 : Math.min(1.0, (double) bytes / totalBytes);
+            run.progress(1 + fraction);
+            run.message(String.format(Locale.ROOT, "%s %,d rows, %s of %s",
+                    stageMessage, rows, formatBytes(bytes), formatBytes(totalBytes)));
+        }
+
+        private String formatBytes(long bytes) {
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+
+        @Override
+        public void fileCompleted(MergeMetrics.FileMetrics metrics) {
+            run.metrics.fileCompleted(metrics);
+        }
+    }
+
+    private record PipelineGroup(HeaderDefinition header, Map<List<String>, AggregationResult> rows) {
+    }
+}
@@ -0,0 +1,145 @@
+package github.tilcob.app.listmerging.tasks;
+
+import github.tilcob.app.listmerging.model.ValidationContext;
+import github.tilcob.app.listmerging.service.ValidationReportWriter;
+
+import java.util.Locale;
+
+/**
+ * Options of a {@link MergeJob}, shared by the JavaFX task and the headless batch mode.
+ * <p>
+ * {@code continueOnValidationErrors} exports even if validation failed. Without a validation report file
+ * the issues are only kept in memory and summarized. {@code snapshotMode} controls the result snapshot next to
+ * {@code merged.xlsx}. {@code requireKnownHeaders} aborts the job before any file is parsed if the header rows of
+ * a file match no header definition, unless {@code continueOnValidationErrors} is set.
+ * </p>
+ */
+public record MergeJobOptions(ValidationContext validationContext,
+                              boolean continueOnValidationErrors,
+                              boolean writeValidationReportFile,
+                              ValidationReportWriter.Format validationReportFormat,
+                              ExportFormat exportFormat,
+                              ExecutionMode executionMode,
+                              SnapshotMode snapshotMode,
+                              boolean requireKnownHeaders) {
+
+    public MergeJobOptions {
+        if (validationContext == null) {
+            validationContext = ValidationContext.defaults();
+        }
+        if (validationReportFormat == null) {
+            validationReportFormat = ValidationReportWriter.Format.JSON;
+        }
+        if (exportFormat == null) {
+            exportFormat = ExportFormat.XLSX;
+        }
+        if (executionMode == null) {
+            executionMode = ExecutionMode.STAGED;
+        }
+        if (snapshotMode == null) {
+            snapshotMode = SnapshotMode.OFF;
+        }
+    }
+
+    public MergeJobOptions(ValidationContext validationContext,
+                           boolean continueOnValidationErrors,
+                           boolean writeValidationReportFile,
+                           ValidationReportWriter.Format validationReportFormat,
+                           ExportFormat exportFormat,
+                           ExecutionMode executionMode) {
+        this(validationContext, continueOnValidationErrors, writeValidationReportFile, validationReportFormat,
+                exportFormat, executionMode, null, false);
+    }
+
+    public static MergeJobOptions defaults() {
+        return new MergeJobOptions(ValidationContext.defaults(), false, false, null, null, null);
+    }
+
+    /**
+     * Files written by the export stage.
+     */
+    public enum ExportFormat {
+        /**
+         * {@code merged.xlsx} only.
+         */
+        XLSX,
+        /**
+         * {@code merged.lmc} only.
+         */
+        COLUMNAR,
+        /**
+         * {@code merged.xlsx} and {@code merged.lmc}.
+         */
+        BOTH;
+
+        public boolean writesWorkbook() {
+            return this != COLUMNAR;
+        }
+
+        public boolean writesColumnar() {
+            return this != XLSX;
+        }
+
+        public static ExportFormat fromProperty(String value) {
+            if (value == null || value.isBlank()) {
+                return XLSX;
+            }
+            return ExportFormat.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Controls how merging, validation and export are scheduled.
+     */
+    public enum ExecutionMode {
+        /**
+         * Merge all files, then validate, then export.
+         */
+        STAGED,
+        /**
+         * Export completed header groups while the remaining files are still being merged.
+         */
+        PIPELINED,
+        /**
+         * Merge all files, then validate and export at the same time into a temporary file.
+         */
+        SPECULATIVE;
+
+        public static ExecutionMode fromProperty(String value) {
+            if (value == null || value.isBlank()) {
+                return STAGED;
+            }
+            return ExecutionMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Whether the final merge result is saved as {@code merged.lms} and reused by the next job.
+     */
+    public enum SnapshotMode {
+        /**
+         * No snapshot is read or written.
+         */
+        OFF,
+        /**
+         * Merge all files and save the result as snapshot.
+         */
+        WRITE,
+        /**
+         * Load the snapshot of the output directory, merge only the files it does not contain yet, fold them in
+         * and save the result as new snapshot.
+         */
+        APPEND;
+
+        public boolean writesSnapshot() {
+            return this != OFF;
+        }
+
+        public static SnapshotMode fromProperty(String value) {
+            if (value == null || value.isBlank()) {
+                return OFF;
+            }
+            return SnapshotMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package github.tilcob.app.listmerging.tasks;
+
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs merge jobs within a heap budget.
+ * <p>
+ * Every job is submitted with an estimate of the memory it needs (see {@link #estimateBytes(List, List)}).
+ * A job is started when its estimate fits into the budget next to the running jobs and fewer than
+ * {@code maxConcurrent} jobs run; otherwise it waits in a queue ordered by {@link Priority} and submission order.
+ * Only the head of the queue is admitted, so large jobs are not overtaken indefinitely by small ones. A job whose
+ * estimate exceeds the whole budget runs once no other job is running.
+ * </p>
+ * <p>
+ * Listeners receive a {@link QueueState} after every change. They are called on the thread that caused the change
+ * and must hand the state over to their own thread, e.g. with {@code Platform.runLater}.
+ * </p>
+ */
+public class MergeJobScheduler {
+    private static final Logger log = LoggerFactory.getLogger(MergeJobScheduler.class);
+    private static final long MB = 1024L * 1024L;
+    private static final long JOB_OVERHEAD_BYTES = 64 * MB;
+    private static final long GROUP_OVERHEAD_BYTES = MB / 4;
+    private static final double DEFAULT_BUDGET_SHARE = 0.6;
+
+    private final long budgetBytes;
+    private final int maxConcurrent;
+    private final ExecutorService executor;
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(
+            Comparator.comparing((Ticket ticket) -> ticket.priority).thenComparingLong(ticket -> ticket.sequence));
+    private final List<Consumer<QueueState>> listeners = new CopyOnWriteArrayList<>();
+    private long reservedBytes;
+    private int running;
+    private long sequence;
+
+    public MergeJobScheduler(long budgetBytes, int maxConcurrent) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Heap budget must be positive.");
+        }
+        this.budgetBytes = budgetBytes;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "merge-job-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a scheduler from {@code listmerging.scheduler.heap-budget-mb} (default: 60% of the maximum heap)
+     * and {@code listmerging.scheduler.max-concurrent} (default: 2).
+     */
+    public static MergeJobScheduler fromSystemProperties() {
+        long defaultBudget = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_BUDGET_SHARE);
+        String budgetMb = System.getProperty("listmerging.scheduler.heap-budget-mb");
+        long budget = budgetMb == null || budgetMb.isBlank() ? defaultBudget : Long.parseLong(budgetMb.trim()) * MB;
+        int maxConcurrent = Integer.getInteger("listmerging.scheduler.max-concurrent", 2);
+        return new MergeJobScheduler(budget, maxConcurrent);
+    }
+
+    /**
+     * Rough upper bound of the heap a merge of {@code files} needs. Parsed CSV cells take about four times their
+     * size on disk; Excel files are compressed and are loaded as a whole, so they take considerably more. Every
+     * header definition adds the overhead of one result group and sheet, and every job the overhead of the
+     * streaming workbook.
+     */
+    public static long estimateBytes(List<File> files, List<HeaderDefinition> headers) {
+        long estimate = JOB_OVERHEAD_BYTES;
+        for (File file : files) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            long factor = name.endsWith(".xlsx") ? 12 : name.endsWith(".xls") ? 6 : 4;
+            estimate += file.length() * factor;
+        }
+        return estimate + (long) (headers == null ? 0 : headers.size()) * GROUP_OVERHEAD_BYTES;
+    }
+
+    /**
+     * Queues {@code job} and starts it as soon as the budget allows.
+     */
+    public Ticket submit(String name, long estimatedBytes, Priority priority, Runnable job) {
+        Ticket ticket;
+        synchronized (this) {
+            ticket = new Ticket(name, Math.max(0, estimatedBytes), priority == null ? Priority.NORMAL : priority,
+                    sequence++, job);
+            queue.add(ticket);
+        }
+        log.info("Queued merge job '{}' with an estimate of {} MB", name, ticket.estimatedBytes / MB);
+        dispatch();
+        return ticket;
+    }
+
+    public synchronized QueueState state() {
+        List<String> queued = queue.stream()
+                .sorted(queue.comparator())
+                .map(ticket -> ticket.name)
+                .toList();
+        return new QueueState(running, queued, reservedBytes, budgetBytes);
+    }
+
+    public void addListener(Consumer<QueueState> listener) {
+        listeners.add(listener);
+        listener.accept(state());
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            queue.clear();
+        }
+        executor.shutdownNow();
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            while (!queue.isEmpty()) {
+                Ticket head = queue.peek();
+                long reservation = Math.min(head.estimatedBytes, budgetBytes);
+                if (running > 0 && (running >= maxConcurrent || reservedBytes + reservation > budgetBytes)) {
+                    break;
+                }
+                queue.poll();
+                head.reservation = reservation;
+                head.started = true;
+                running++;
+                reservedBytes += reservation;
+                log.debug("Starting merge job '{}', {} of {} MB reserved", head.name,
+                        reservedBytes / MB, budgetBytes / MB);
+                executor.execute(() -> run(head));
+            }
+        }
+        notifyListeners();
+    }
+
+    private void run(Ticket ticket) {
+        try {
+            ticket.job.run();
+        } catch (RuntimeException | Error e) {
+            log.error("Merge job '{}' failed", ticket.name, e);
+        } finally {
+            synchronized (this) {
+                running--;
+                reservedBytes -= ticket.reservation;
+            }
+            dispatch();
+        }
+    }
+
+    private void notifyListeners() {
+        QueueState state = state();
+        for (Consumer<QueueState> listener : listeners) {
+            listener.accept(state);
+        }
+    }
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    /**
+     * Snapshot of the scheduler. {@code queued} lists the waiting jobs in the order they will be started.
+     */
+    public record QueueState(int running, List<String> queued, long reservedBytes, long budgetBytes) {
+        public QueueState {
+            queued = List.copyOf(queued);
+        }
+    }
+
+    /**
+     * Handle of a submitted job.
+     */
+    public final class Ticket {
+        private final String name;
+        private final long estimatedBytes;
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable job;
+        private long reservation;
+        private boolean started;
+
+        private Ticket(String name, long estimatedBytes, Priority priority, long sequence, Runnable job) {
+            this.name = name;
+            this.estimatedBytes = estimatedBytes;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.job = job;
+        }
+
+        public long estimatedBytes() {
+            return estimatedBytes;
+        }
+
+        /**
+         * Removes the job from the queue if it has not been started yet.
+         */
+        public boolean cancel() {
+            boolean removed;
+            synchronized (MergeJobScheduler.this) {
+                removed = !started && queue.remove(this);
+            }
+            if (removed) {
+                dispatch();
+            }
+            return removed;
+        }
+    }
+}
@@ -6,9 +6,13 @@ module github.tilcob.app.listmerging {
     requires com.dlsc.formsfx;
     requires com.fasterxml.jackson.databind;
     requires org.apache.poi.ooxml;
+    requires java.xml;
     requires com.opencsv;
     requires org.slf4j;
     requires commons.math3;
+    requires jdk.httpserver;
+    requires jdk.jfr;
+    requires jdk.management;
 
     opens github.tilcob.app.listmerging.model to com.fasterxml.jackson.databind;
     opens github.tilcob.app.listmerging to javafx.fxml;
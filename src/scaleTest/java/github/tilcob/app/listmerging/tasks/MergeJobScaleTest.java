@@ -0,0 +1,203 @@
+package github.tilcob.app.listmerging.tasks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.cli.CorpusGenerator;
+import github.tilcob.app.listmerging.model.ValidationContext;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.service.MergeValidationService;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * End-to-end merge, validation and export of a large generated corpus under the heap of the {@code scaleTest}
+ * task.
+ * <p>
+ * The corpus is generated once per spec into {@code listmerging.scale.dir} and reused by later runs. Each scenario
+ * is measured with JMX (peak heap of all heap pools, collection time of all collectors) and a Flight Recorder
+ * recording (GC pauses, heap after GC, merge stages). One JSON line per scenario is appended to
+ * {@code results.ndjson} before the ceilings are asserted, so failing runs are tracked as well.
+ * </p>
+ * <p>
+ * All sizes and ceilings can be overridden with {@code listmerging.scale.*} system properties, which the Gradle
+ * task forwards from {@code -P} project properties.
+ * </p>
+ */
+@Tag("scale")
+class MergeJobScaleTest {
+    private static final long MB = 1024L * 1024L;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static Path scaleDir;
+    private static Path corpusDir;
+
+    @BeforeAll
+    static void generateCorpus() throws IOException {
+        scaleDir = Path.of(System.getProperty("listmerging.scale.dir", "build/scale"));
+        CorpusGenerator.Spec spec = new CorpusGenerator.Spec(
+                Long.getLong("listmerging.scale.seed", 42),
+                Integer.getInteger("listmerging.scale.files", 32),
+                Integer.getInteger("listmerging.scale.rows", 2_500_000),
+                Integer.getInteger("listmerging.scale.cardinality", 200_000),
+                doubleProperty("listmerging.scale.zipf", 1.1),
+                List.of(CorpusGenerator.FileFormat.CSV),
+                null,
+                CorpusGenerator.DecimalStyle.MIXED,
+                0.2,
+                0,
+                3);
+        corpusDir = scaleDir.resolve(String.format(Locale.ROOT, "corpus-%d-%dx%d-%d-%s", spec.seed(), spec.files(),
+                spec.rowsPerFile(), spec.cardinality(), spec.zipfExponent()));
+        if (!Files.exists(corpusDir.resolve(CorpusGenerator.MANIFEST_FILE_NAME))) {
+            new CorpusGenerator(spec).generate(corpusDir);
+        }
+    }
+
+    @Test
+    void stagedMergeStaysWithinCeilings() throws Exception {
+        runScenario(MergeJobOptions.ExecutionMode.STAGED);
+    }
+
+    @Test
+    void pipelinedMergeStaysWithinCeilings() throws Exception {
+        runScenario(MergeJobOptions.ExecutionMode.PIPELINED);
+    }
+
+    private void runScenario(MergeJobOptions.ExecutionMode mode) throws Exception {
+        List<File> inputs;
+        try (Stream<Path> files = Files.list(corpusDir)) {
+            inputs = files.filter(path -> path.toString().endsWith(".csv")).sorted().map(Path::toFile).toList();
+        }
+        String scenario = mode.name().toLowerCase(Locale.ROOT);
+        Path outputDir = Files.createDirectories(scaleDir.resolve("output-" + scenario));
+        Path reportDir = Files.createDirectories(scaleDir.resolve("reports"));
+        Path jfrFile = reportDir.resolve(scenario + ".jfr");
+
+        MergeJobOptions.ExportFormat format =
+                MergeJobOptions.ExportFormat.fromProperty(System.getProperty("listmerging.scale.format"));
+        MergeJob job = new MergeJob(inputs, outputDir.toFile(), new HeaderLoader(scaleDir.resolve("headers")),
+                new MergeService(), new ExportService(), new MergeValidationService(),
+                new MergeJobOptions(ValidationContext.defaults(), true, false, null, format, mode),
+                OBJECT_MAPPER);
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long gcMillisBefore = gcMillis();
+
+        MergeJob.Result result;
+        long start = System.nanoTime();
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.GarbageCollection");
+            recording.enable("jdk.GCHeapSummary");
+            recording.enable("github.tilcob.listmerging.Stage");
+            recording.setToDisk(true);
+            recording.start();
+            result = job.run(MergeJob.Listener.NONE);
+            recording.stop();
+            recording.dump(jfrFile);
+        }
+        long wallMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+        long peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        long gcMillis = gcMillis() - gcMillisBefore;
+        long rows = result.metrics().fileRows();
+        long rowsPerSecond = rows * 1000 / wallMillis;
+        JfrSummary jfr = JfrSummary.read(jfrFile);
+
+        long minRowsPerSecond = Long.getLong("listmerging.scale.min-rows-per-second", 100_000);
+        long maxHeapBytes = Long.getLong("listmerging.scale.max-heap-mb", 1_800) * MB;
+        double maxGcShare = doubleProperty("listmerging.scale.max-gc-share", 0.3);
+        double gcShare = (double) gcMillis / wallMillis;
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("timestamp", Instant.now().toString());
+        line.put("version", System.getProperty("listmerging.version", "unknown"));
+        line.put("scenario", scenario);
+        line.put("corpus", corpusDir.getFileName().toString());
+        line.put("format", format.name());
+        line.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        line.put("files", inputs.size());
+        line.put("rows", rows);
+        line.put("bytes", result.metrics().fileBytes());
+        line.put("totalMillis", wallMillis);
+        line.put("rowsPerSecond", rowsPerSecond);
+        line.put("peakHeapBytes", peakHeapBytes);
+        line.put("gcMillis", gcMillis);
+        line.put("jfrGcPauseMillis", jfr.gcPauseMillis());
+        line.put("jfrLongestGcPauseMillis", jfr.longestGcPauseMillis());
+        line.put("jfrMaxHeapUsedBytes", jfr.maxHeapUsedBytes());
+        line.put("stageMillis", result.stageMillis());
+        line.put("passed", rowsPerSecond >= minRowsPerSecond && peakHeapBytes <= maxHeapBytes
+                && gcShare <= maxGcShare);
+        Files.writeString(reportDir.resolve("results.ndjson"),
+                OBJECT_MAPPER.writeValueAsString(line) + System.lineSeparator(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        assertTrue(rows > 0, "no rows were merged");
+        assertTrue(rowsPerSecond >= minRowsPerSecond,
+                scenario + ": " + rowsPerSecond + " rows/s is below " + minRowsPerSecond);
+        assertTrue(peakHeapBytes <= maxHeapBytes,
+                scenario + ": peak heap " + peakHeapBytes / MB + " MB exceeds " + maxHeapBytes / MB + " MB");
+        assertTrue(gcShare <= maxGcShare,
+                scenario + ": GC took " + gcMillis + " ms of " + wallMillis + " ms");
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .filter(millis -> millis > 0)
+                .sum();
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * GC figures of a Flight Recorder recording.
+     */
+    private record JfrSummary(long gcPauseMillis, long longestGcPauseMillis, long maxHeapUsedBytes) {
+        static JfrSummary read(Path file) throws IOException {
+            long pauses = 0;
+            long longest = 0;
+            long heapUsed = 0;
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                switch (event.getEventType().getName()) {
+                    case "jdk.GarbageCollection" -> {
+                        pauses += event.getDuration("sumOfPauses").toMillis();
+                        longest = Math.max(longest, event.getDuration("longestPause").toMillis());
+                    }
+                    case "jdk.GCHeapSummary" -> heapUsed = Math.max(heapUsed, event.getLong("heapUsed"));
+                    default -> {
+                    }
+                }
+            }
+            return new JfrSummary(pauses, longest, heapUsed);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package github.tilcob.app.listmerging.cli;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.service.ColumnarResultReader;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.ResultSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchCliTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldExpandGlobsRelativeToTheirBaseDirectory() throws Exception {
+        Path nested = Files.createDirectories(tempDir.resolve("in").resolve("b"));
+        Files.writeString(tempDir.resolve("in").resolve("a.csv"), "x");
+        Files.writeString(nested.resolve("c.csv"), "x");
+        Files.writeString(nested.resolve("d.txt"), "x");
+
+        String base = tempDir.resolve("in").toString().replace('\\', '/');
+        List<File> files = BatchCli.expandInputs(List.of(base + "/**.csv"));
+
+        assertEquals(List.of(
+                tempDir.resolve("in").resolve("a.csv").toFile(),
+                nested.resolve("c.csv").toFile()), files);
+    }
+
+    @Test
+    void shouldMergeInputAndPrintTimingLine() throws Exception {
+        Path csv = Files.writeString(tempDir.resolve("input.csv"), "Name;Amount\nAlice;10\nBob;5\n");
+        Path output = tempDir.resolve("out");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int exitCode = new BatchCli(new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true))
+                .run(new String[]{"--headers", tempDir.resolve("headers").toString(), "--output", output.toString(),
+                        "--format", "columnar", "--report", "none", csv.toString()});
+
+        String line = out.toString(StandardCharsets.UTF_8).trim();
+        assertEquals(BatchCli.EXIT_OK, exitCode, err.toString());
+        assertTrue(line.startsWith("{\"job\":1,\"inputs\":1,\"status\":\"ok\""), line);
+        assertTrue(line.contains("\"totalMillis\""), line);
+    }
+
+    @Test
+    void shouldAbortJobsWithUnknownHeadersOnlyWhenRequested() throws Exception {
+        Path csv = Files.writeString(tempDir.resolve("input.csv"), "Name;Amount\nAlice;10\n");
+        Path output = tempDir.resolve("out");
+
+        assertEquals(BatchCli.EXIT_OK, runJob(output, "off", csv));
+        assertEquals(BatchCli.EXIT_JOB_FAILED,
+                runJob(output, "off", List.of("--report", "none", "--require-known-headers"), csv));
+    }
+
+    @Test
+    void shouldAppendOnlyNewFilesToTheSnapshot() throws Exception {
+        Path first = Files.writeString(tempDir.resolve("a.csv"), "Name;Amount\nAlice;10\nBob;5\n");
+        Path second = Files.writeString(tempDir.resolve("b.csv"), "Name;Amount\nAlice;10\n");
+        Path output = tempDir.resolve("out");
+
+        assertEquals(BatchCli.EXIT_OK, runJob(output, "write", first));
+        assertTrue(Files.isRegularFile(output.resolve(ResultSnapshot.FILE_NAME)));
+        assertEquals(BatchCli.EXIT_OK, runJob(output, "append", first, second));
+
+        int rows = new ColumnarResultReader().read(output.resolve(ExportService.COLUMNAR_FILE_NAME).toFile())
+                .values().stream()
+                .flatMap(group -> group.values().stream())
+                .mapToInt(AggregationResult::rowCount)
+                .sum();
+        assertEquals(3, rows);
+        assertEquals(2, new ResultSnapshot().read(output.toFile()).inputs().size());
+
+        Files.writeString(first, "Name;Amount\nAlice;11\n");
+        assertEquals(BatchCli.EXIT_JOB_FAILED, runJob(output, "append", first, second));
+    }
+
+    @Test
+    void shouldValidateOnlyTheAppendedFilesAgainstTheReference() throws Exception {
+        Path headers = Files.createDirectories(tempDir.resolve("headers"));
+        Files.writeString(headers.resolve("parts.json"),
+                "{\"name\": \"Parts\", \"headers\": [\"Part\", \"Qty\"], \"sumColumn\": \"Qty\"}");
+        // More than 18 decimals make the fingerprint fall back to the detailed comparison of the input files.
+        Path first = Files.writeString(tempDir.resolve("a.csv"), "Part;Qty\nP1;0.0000000000000000001\nP2;2\n");
+        Path second = Files.writeString(tempDir.resolve("b.csv"), "Part;Qty\nP1;0.0000000000000000002\n");
+        Path output = tempDir.resolve("out");
+
+        assertEquals(BatchCli.EXIT_OK, runJob(output, "write", List.of("--reference", "fingerprint"), first));
+        assertEquals(BatchCli.EXIT_OK, runJob(output, "append", List.of("--reference", "fingerprint"), first, second));
+        assertEquals(BatchCli.EXIT_OK, runJob(output, "append", List.of("--reference", "detailed"), first, second));
+    }
+
+    @Test
+    void shouldDeleteThePartialWorkbookWhenASpeculativeJobFails() throws Exception {
+        Path csv = Files.writeString(tempDir.resolve("input.csv"), "Name;Amount\nAlice;10\n");
+        Path output = tempDir.resolve("out");
+        // A non-empty directory in place of the workbook makes the commit of the partial workbook fail.
+        Path blocked = Files.createDirectories(output.resolve(ExportService.EXPORT_FILE_NAME));
+        Files.writeString(blocked.resolve("keep.txt"), "");
+
+        assertEquals(BatchCli.EXIT_JOB_FAILED,
+                runJob(output, "off", List.of("--report", "none", "--format", "xlsx", "--mode", "speculative"), csv));
+        assertFalse(Files.exists(output.resolve(ExportService.EXPORT_FILE_NAME + ".part")));
+    }
+
+    private int runJob(Path output, String snapshot, Path... inputs) {
+        return runJob(output, snapshot, List.of("--report", "none"), inputs);
+    }
+
+    private int runJob(Path output, String snapshot, List<String> options, Path... inputs) {
+        List<String> args = new ArrayList<>(List.of("--headers", tempDir.resolve("headers").toString(),
+                "--output", output.toString(), "--format", "columnar", "--snapshot", snapshot));
+        args.addAll(options);
+        for (Path input : inputs) {
+            args.add(input.toString());
+        }
+        return new BatchCli(new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream()))
+                .run(args.toArray(String[]::new));
+    }
+
+    @Test
+    void shouldRejectUnknownOptions() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int exitCode = new BatchCli(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err, true))
+                .run(new String[]{"--unknown", "input.csv"});
+
+        assertEquals(BatchCli.EXIT_USAGE, exitCode);
+        assertTrue(err.toString().contains("--unknown"));
+    }
+}
@@ -0,0 +1,66 @@
+package github.tilcob.app.listmerging.cli;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.MergeService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CorpusGeneratorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final CorpusGenerator.Spec spec = new CorpusGenerator.Spec(7, 6, 500, 50, 1.2,
+            List.of(CorpusGenerator.FileFormat.CSV), null, CorpusGenerator.DecimalStyle.MIXED, 0.5, 0.2, 3);
+
+    @Test
+    void shouldProduceIdenticalFilesForTheSameSeed() throws Exception {
+        CorpusGenerator.Manifest first = new CorpusGenerator(spec).generate(tempDir.resolve("a"));
+        CorpusGenerator.Manifest second = new CorpusGenerator(spec).generate(tempDir.resolve("b"));
+
+        assertEquals(first.files(), second.files());
+        for (CorpusGenerator.GeneratedFile file : first.files()) {
+            assertArrayEquals(Files.readAllBytes(tempDir.resolve("a").resolve(file.name())),
+                    Files.readAllBytes(tempDir.resolve("b").resolve(file.name())));
+        }
+        assertArrayEquals(Files.readAllBytes(tempDir.resolve("a").resolve(CorpusGenerator.MANIFEST_FILE_NAME)),
+                Files.readAllBytes(tempDir.resolve("b").resolve(CorpusGenerator.MANIFEST_FILE_NAME)));
+    }
+
+    @Test
+    void shouldMergeToTheTotalsOfTheManifest() throws Exception {
+        CorpusGenerator.Manifest manifest = new CorpusGenerator(spec).generate(tempDir);
+        List<File> inputs;
+        try (Stream<Path> files = Files.list(tempDir)) {
+            inputs = files.filter(path -> path.toString().endsWith(".csv")).sorted().map(Path::toFile).toList();
+        }
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> result =
+                new MergeService().merge(inputs, new HeaderLoader(tempDir.resolve("no-external-headers")).getHeaders());
+
+        manifest.expectedSums().forEach((name, sum) -> {
+            Map<List<String>, AggregationResult> group = result.entrySet().stream()
+                    .filter(entry -> entry.getKey().name().equals(name))
+                    .map(Map.Entry::getValue)
+                    .findFirst()
+                    .orElseThrow();
+            assertEquals(0, sum.compareTo(group.values().stream()
+                    .map(AggregationResult::sumValue)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add)), name);
+            assertEquals((long) manifest.expectedRows().get(name),
+                    group.values().stream().mapToLong(AggregationResult::rowCount).sum(), name);
+        });
+    }
+}
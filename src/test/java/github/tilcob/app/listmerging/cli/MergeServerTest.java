@@ -0,0 +1,129 @@
+package github.tilcob.app.listmerging.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeServerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void shouldRunUploadedJobAndServeResult() throws Exception {
+        try (MergeServer server = new MergeServer(new InetSocketAddress("127.0.0.1", 0),
+                tempDir.resolve("work"), tempDir.resolve("headers").toString(), 2, 4, 8)) {
+            server.start();
+            String base = "http://127.0.0.1:" + server.port();
+
+            JsonNode upload = request("POST", base + "/uploads?name=input.csv", "Name;Amount\nAlice;10\nBob;5\n", 201);
+            String path = upload.get("path").asText();
+            String job = mapper.writeValueAsString(Map.of(
+                    "input", List.of(path), "format", "columnar", "report", "none"));
+            String id = request("POST", base + "/jobs", job, 202).get("id").asText();
+
+            JsonNode status = request("GET", base + "/jobs/" + id, null, 200);
+            for (int i = 0; i < 200 && !status.get("state").asText().matches("succeeded|failed|cancelled"); i++) {
+                Thread.sleep(25);
+                status = request("GET", base + "/jobs/" + id, null, 200);
+            }
+
+            assertEquals("succeeded", status.get("state").asText(), status.toString());
+            HttpURLConnection result = (HttpURLConnection) new URL(base + "/jobs/" + id + "/result").openConnection();
+            assertEquals(200, result.getResponseCode());
+            try (InputStream in = result.getInputStream()) {
+                assertTrue(in.readAllBytes().length > 0);
+            }
+            JsonNode metrics = request("GET", base + "/metrics", null, 200);
+            assertEquals(1, metrics.get("succeeded").asInt());
+            request("GET", base + "/jobs/unknown", null, 404);
+        }
+    }
+
+    @Test
+    void shouldRejectJobsWithoutInputs() throws Exception {
+        try (MergeServer server = new MergeServer(new InetSocketAddress("127.0.0.1", 0),
+                tempDir.resolve("work"), "headers", 1, 1, 1)) {
+            server.start();
+
+            JsonNode error = request("POST", "http://127.0.0.1:" + server.port() + "/jobs", "{}", 400);
+
+            assertTrue(error.get("error").asText().contains("No input"));
+        }
+    }
+
+    @Test
+    void shouldRejectOversizedUploadsAndDeleteUnusedOnes() throws Exception {
+        Path work = tempDir.resolve("work");
+        try (MergeServer server = new MergeServer(new InetSocketAddress("127.0.0.1", 0),
+                work, "headers", 1, 1, 1, 32, 0)) {
+            server.start();
+            String base = "http://127.0.0.1:" + server.port();
+
+            request("POST", base + "/uploads?name=large.csv", "Name;Amount\n" + "Alice;10\n".repeat(8), 413);
+            Path first = Path.of(request("POST", base + "/uploads?name=a.csv", "Name;Amount\nAlice;10\n", 201)
+                    .get("path").asText());
+            Path second = Path.of(request("POST", base + "/uploads?name=b.csv", "Name;Amount\nBob;5\n", 201)
+                    .get("path").asText());
+
+            assertFalse(Files.exists(first.getParent()));
+            assertTrue(Files.exists(second));
+            try (Stream<Path> uploads = Files.list(work.resolve("uploads"))) {
+                assertEquals(1, uploads.count());
+            }
+        }
+    }
+
+    @Test
+    void shouldOnlyAcceptHeaderDirectoriesBelowTheConfiguredOne() throws Exception {
+        Path headers = Files.createDirectories(tempDir.resolve("headers").resolve("team"));
+        Path input = Files.writeString(tempDir.resolve("input.csv"), "Name;Amount\nAlice;10\n");
+        try (MergeServer server = new MergeServer(new InetSocketAddress("127.0.0.1", 0),
+                tempDir.resolve("work"), headers.getParent().toString(), 1, 4, 8)) {
+            server.start();
+            String base = "http://127.0.0.1:" + server.port();
+
+            for (String outside : List.of("..", tempDir.toString(), "team/../../work")) {
+                String job = mapper.writeValueAsString(Map.of("input", List.of(input.toString()), "headers", outside));
+                JsonNode error = request("POST", base + "/jobs", job, 400);
+                assertTrue(error.get("error").asText().contains("Header directory"), error.toString());
+            }
+            String job = mapper.writeValueAsString(Map.of(
+                    "input", List.of(input.toString()), "headers", "team", "format", "columnar", "report", "none"));
+            request("POST", base + "/jobs", job, 202);
+        }
+    }
+
+    private JsonNode request(String method, String url, String body, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(expectedStatus, connection.getResponseCode());
+        try (InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return mapper.readTree(in);
+        }
+    }
+}
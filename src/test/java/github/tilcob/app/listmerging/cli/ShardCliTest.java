@@ -0,0 +1,63 @@
+package github.tilcob.app.listmerging.cli;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.service.ColumnarResultReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardCliTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldWritePartialsPerShardAndReduceThem() throws Exception {
+        Path first = Files.writeString(tempDir.resolve("a.csv"), "Name;Amount\nAlice;10\nBob;5\n");
+        Path second = Files.writeString(tempDir.resolve("b.csv"), "Name;Amount\nAlice;10\n");
+        Path shared = tempDir.resolve("shared");
+        Path output = tempDir.resolve("out");
+        String headers = tempDir.resolve("headers").toString();
+
+        assertEquals(BatchCli.EXIT_OK, run("partial", "--headers", headers, "--partitions", "3",
+                "--output", shared.resolve("1.lmp").toString(), first.toString()));
+        assertEquals(BatchCli.EXIT_OK, run("partial", "--headers", headers, "--partitions", "3",
+                "--output", shared.resolve("2.lmp").toString(), second.toString()));
+        assertEquals(BatchCli.EXIT_OK, run("reduce", "--format", "columnar", "--output", output.toString(),
+                shared.toString().replace('\\', '/') + "/*.lmp"));
+
+        var merged = new ColumnarResultReader().read(output.resolve("merged.lmc").toFile());
+        int rows = merged.values().stream().mapToInt(group -> group.values().stream()
+                .mapToInt(AggregationResult::rowCount).sum()).sum();
+        assertEquals(3, rows);
+        assertEquals(2, merged.values().stream().mapToInt(Map::size).sum());
+    }
+
+    @Test
+    void shouldRejectUnknownCommand() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int exitCode = new ShardCli(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err, true))
+                .run(new String[]{"map", "input.csv"});
+
+        assertEquals(BatchCli.EXIT_USAGE, exitCode);
+        assertTrue(err.toString().contains("map"));
+    }
+
+    private int run(String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode = new ShardCli(new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true))
+                .run(args);
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("\"command\""), err.toString());
+        return exitCode;
+    }
+}
@@ -0,0 +1,83 @@
+package github.tilcob.app.listmerging.cli;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.tasks.MergeJobOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchDaemonTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldRetryAFailedExportOnTheNextRefresh() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("input"));
+        Files.writeString(input.resolve("a.csv"), "Name;Amount\nAlice;10\n");
+        Path output = tempDir.resolve("out");
+        // A non-empty directory in place of the columnar file makes the export fail.
+        Path blocked = Files.createDirectories(output.resolve(ExportService.COLUMNAR_FILE_NAME));
+        Files.writeString(blocked.resolve("keep.txt"), "");
+
+        try (WatchDaemon daemon = new WatchDaemon(List.of(input), output.toFile(),
+                new HeaderLoader(tempDir.resolve("headers")), new MergeService(), new ExportService(),
+                MergeJobOptions.ExportFormat.COLUMNAR, Duration.ofMillis(10),
+                new PrintStream(new ByteArrayOutputStream()))) {
+            assertThrows(IOException.class, daemon::refresh);
+
+            Files.delete(blocked.resolve("keep.txt"));
+            Files.delete(blocked);
+            assertFalse(daemon.refresh().changed());
+            assertTrue(Files.isRegularFile(output.resolve(ExportService.COLUMNAR_FILE_NAME)));
+        }
+    }
+
+    @Test
+    void shouldKeepWatchingAfterANonIoFailure() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("input"));
+        Files.writeString(input.resolve("a.csv"), "Name;Amount\nAlice;10\n");
+        Path output = tempDir.resolve("out");
+        AtomicBoolean fail = new AtomicBoolean(true);
+        ExportService exportService = new ExportService() {
+            @Override
+            public File exportColumnar(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                       String outputPath) throws IOException {
+                if (fail.getAndSet(false)) {
+                    throw new IllegalStateException("broken export");
+                }
+                return super.exportColumnar(merged, outputPath);
+            }
+        };
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+
+        try (WatchDaemon daemon = new WatchDaemon(List.of(input), output.toFile(),
+                new HeaderLoader(tempDir.resolve("headers")), new MergeService(), exportService,
+                MergeJobOptions.ExportFormat.COLUMNAR, Duration.ofMillis(10), new PrintStream(lines, true))) {
+            Files.createDirectories(output);
+            daemon.refreshOrReport();
+            assertTrue(lines.toString().contains("\"status\":\"failed\""));
+            assertTrue(lines.toString().contains("broken export"));
+            assertFalse(Files.exists(output.resolve(ExportService.COLUMNAR_FILE_NAME)));
+
+            daemon.refreshOrReport();
+            assertTrue(Files.isRegularFile(output.resolve(ExportService.COLUMNAR_FILE_NAME)));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package github.tilcob.app.listmerging.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AggregationFingerprintTest {
+
+    @Test
+    void shouldMatchRowsAndAggregatesWithGrowingScale() {
+        AggregationFingerprint rows = new AggregationFingerprint();
+        rows.add("alice", 1, new BigDecimal("0.5"));
+        rows.add("bob", 1, new BigDecimal("5"));
+        rows.add("alice", 1, new BigDecimal("0.0000000000025"));
+        AggregationFingerprint lateRows = new AggregationFingerprint();
+        lateRows.add("bob", 1, new BigDecimal("0.000000000000000001"));
+        rows.add(lateRows);
+
+        AggregationFingerprint aggregated = new AggregationFingerprint();
+        aggregated.add("bob", 2, new BigDecimal("5.000000000000000001"));
+        aggregated.add("alice", 2, new BigDecimal("0.5000000000025"));
+
+        assertTrue(rows.matches(aggregated));
+        assertTrue(aggregated.matches(rows));
+    }
+
+    @Test
+    void shouldDetectSumsThatDifferOnlyInTheLastDecimal() {
+        AggregationFingerprint left = new AggregationFingerprint();
+        left.add("alice", 1, new BigDecimal("1.000000000001"));
+        AggregationFingerprint right = new AggregationFingerprint();
+        right.add("alice", 1, new BigDecimal("1.000000000002"));
+
+        assertFalse(left.matches(right));
+    }
+
+    @Test
+    void shouldNeverMatchSumsBeyondTheMaximumScale() {
+        AggregationFingerprint left = new AggregationFingerprint();
+        left.add("alice", 1, new BigDecimal("0.0000000000000000001"));
+        AggregationFingerprint right = new AggregationFingerprint();
+        right.add("alice", 1, new BigDecimal("0.0000000000000000001"));
+
+        assertFalse(left.matches(right));
+    }
+}
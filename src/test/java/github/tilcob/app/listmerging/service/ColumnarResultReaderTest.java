@@ -0,0 +1,101 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarResultReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ExportService exportService = new ExportService();
+    private final ColumnarResultReader reader = new ColumnarResultReader();
+
+    @Test
+    void shouldRoundTripKeysCountsSumsAndHeaderMetadata() throws IOException {
+        HeaderDefinition piping = new HeaderDefinition(
+                "Piping",
+                List.of("Name", "Material", "Amount"),
+                List.of(List.of("Naming", "Material", "Amount")),
+                HeaderDefinition.HeaderPosition.LAST,
+                "Amount",
+                "(\\d+[\\.,]?\\d*)"
+        );
+        HeaderDefinition unknown = new HeaderDefinition("Unknown_2", List.of());
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = new LinkedHashMap<>();
+        merged.put(piping, Map.of(
+                List.of("Pipe", "Steel"), new AggregationResult(3, new BigDecimal("12.5")),
+                List.of("Pipe", "Copper"), new AggregationResult(1, new BigDecimal("4")),
+                List.of("Flange", "Steel"), new AggregationResult(300, new BigDecimal("-1.25"))
+        ));
+        merged.put(unknown, Map.of(
+                List.of("a", "", "ä"), new AggregationResult(1, BigDecimal.ZERO),
+                List.of("b"), new AggregationResult(2, BigDecimal.ZERO)
+        ));
+
+        File file = exportService.exportColumnar(merged, tempDir.toString());
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> loaded = reader.read(file);
+
+        assertEquals(List.copyOf(merged.keySet()), List.copyOf(loaded.keySet()));
+        for (var group : merged.entrySet()) {
+            Map<List<String>, AggregationResult> loadedRows = loaded.get(group.getKey());
+            assertEquals(group.getValue().keySet(), loadedRows.keySet());
+            group.getValue().forEach((key, expected) -> {
+                AggregationResult actual = loadedRows.get(key);
+                assertEquals(expected.rowCount(), actual.rowCount());
+                assertEquals(0, expected.sumValue().compareTo(actual.sumValue()), "sum for " + key);
+            });
+        }
+    }
+
+    @Test
+    void shouldKeepSumsThatDoNotFitIntoLong() throws IOException {
+        HeaderDefinition header = new HeaderDefinition("Main", List.of("Name", "Amount"));
+        BigDecimal huge = new BigDecimal("123456789012345678901234567890.123");
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = new LinkedHashMap<>();
+        merged.put(header, Map.of(List.of("Alice"), new AggregationResult(1, huge)));
+
+        File file = exportService.exportColumnar(merged, tempDir.toString());
+
+        assertEquals(huge, reader.read(file).get(header).get(List.of("Alice")).sumValue());
+    }
+
+    @Test
+    void shouldRoundTripAggregateAccumulators() throws IOException {
+        HeaderDefinition header = new HeaderDefinition("Main", List.of("Name", "Amount"));
+        double[] accumulators = AggregationResult.emptyAccumulators(2);
+        accumulators[AggregationResult.SUM] = 21;
+        accumulators[AggregationResult.VALUES] = 2;
+        accumulators[AggregationResult.MIN] = 9;
+        accumulators[AggregationResult.MAX] = 12;
+        AggregationResult aggregation = new AggregationResult(2, BigDecimal.ONE, accumulators);
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = new LinkedHashMap<>();
+        merged.put(header, Map.of(List.of("Alice"), aggregation));
+
+        File file = exportService.exportColumnar(merged, tempDir.toString());
+
+        assertEquals(aggregation, reader.read(file).get(header).get(List.of("Alice")));
+    }
+
+    @Test
+    void shouldRejectFilesWithoutColumnarMagic() throws IOException {
+        Path file = tempDir.resolve("merged.lmc");
+        Files.writeString(file, "not a merge result");
+
+        assertThrows(IOException.class, () -> reader.read(file.toFile()));
+    }
+}
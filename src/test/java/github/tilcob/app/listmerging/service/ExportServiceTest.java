@@ -0,0 +1,76 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExportServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldSplitOversizedGroupsAndRepeatHeaderRow() throws IOException {
+        HeaderDefinition header = new HeaderDefinition(
+                "Main",
+                List.of("Name", "Amount"),
+                null,
+                HeaderDefinition.HeaderPosition.FIRST,
+                "Amount",
+                null
+        );
+        Map<List<String>, AggregationResult> rows = new HashMap<>();
+        for (int i = 1; i <= 5; i++) {
+            rows.put(List.of("Item " + i), new AggregationResult(1, BigDecimal.valueOf(i)));
+        }
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = new LinkedHashMap<>();
+        merged.put(header, rows);
+
+        File file = new ExportService(3).export(merged, tempDir.toString());
+
+        try (Workbook workbook = WorkbookFactory.create(file)) {
+            assertEquals(3, workbook.getNumberOfSheets());
+            int dataRows = 0;
+            for (int s = 0; s < workbook.getNumberOfSheets(); s++) {
+                Sheet sheet = workbook.getSheetAt(s);
+                assertEquals("Main (" + (s + 1) + ")", sheet.getSheetName());
+                assertEquals("Name", sheet.getRow(0).getCell(0).getStringCellValue());
+                dataRows += sheet.getLastRowNum();
+            }
+            assertEquals(5, dataRows);
+            assertEquals("Item 5", workbook.getSheetAt(0).getRow(1).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    void shouldKeepSingleSheetNameForGroupsThatFit() throws IOException {
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = new LinkedHashMap<>();
+        merged.put(new HeaderDefinition("Main", List.of("Name")),
+                Map.of(List.of("Alice"), new AggregationResult(1, BigDecimal.ZERO)));
+        merged.put(new HeaderDefinition("MAIN", List.of("Name")),
+                Map.of(List.of("Bob"), new AggregationResult(1, BigDecimal.ZERO)));
+
+        File file = new ExportService().export(merged, tempDir.toString());
+
+        try (Workbook workbook = WorkbookFactory.create(file)) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            assertEquals("Main", workbook.getSheetAt(0).getSheetName());
+            assertEquals("MAIN 2", workbook.getSheetAt(1).getSheetName());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeaderLoaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldPublishNewSnapshotAndKeepOldListUnchanged() throws Exception {
+        Files.writeString(tempDir.resolve("parts.json"), "{\"name\": \"Parts\", \"headers\": [\"Part\", \"Qty\"]}");
+        HeaderLoader loader = new HeaderLoader(tempDir);
+        HeaderLoader.Snapshot first = loader.snapshot();
+        List<HeaderDefinition> headers = loader.getHeaders();
+
+        Files.writeString(tempDir.resolve("parts.json"), "{\"name\": \"Parts\", \"headers\": [\"Part\", \"Count\"]}");
+        assertTrue(loader.reload());
+
+        assertEquals(first.version() + 1, loader.snapshot().version());
+        assertEquals(List.of("Part", "Qty"), find(headers, "Parts").headers());
+        assertEquals(List.of("Part", "Count"), find(loader.getHeaders(), "Parts").headers());
+        assertFalse(loader.reload());
+    }
+
+    @Test
+    void shouldKeepSnapshotWhenChangedDefinitionIsInvalid() throws Exception {
+        Files.writeString(tempDir.resolve("parts.json"), "{\"name\": \"Parts\", \"headers\": [\"Part\", \"Qty\"]}");
+        HeaderLoader loader = new HeaderLoader(tempDir);
+        HeaderLoader.Snapshot snapshot = loader.snapshot();
+
+        Files.writeString(tempDir.resolve("parts.json"), "{\"name\": \"Parts\", \"headers\": []}");
+        assertFalse(loader.reload());
+        Files.writeString(tempDir.resolve("broken.json"), "{\"name\": ");
+        assertFalse(loader.reload());
+
+        assertSame(snapshot, loader.snapshot());
+    }
+
+    @Test
+    void shouldReloadWhenWatchedFolderChanges() throws Exception {
+        HeaderLoader loader = new HeaderLoader(tempDir);
+        try (loader) {
+            loader.watch();
+            Files.writeString(tempDir.resolve("parts.json"), "{\"name\": \"Parts\", \"headers\": [\"Part\", \"Qty\"]}");
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (loader.getHeaders().stream().noneMatch(header -> header.name().equals("Parts"))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(List.of("Part", "Qty"), find(loader.getHeaders(), "Parts").headers());
+        }
+    }
+
+    @Test
+    void shouldWatchAFolderThatIsCreatedLater() throws Exception {
+        Path folder = tempDir.resolve("headers");
+        HeaderLoader loader = new HeaderLoader(folder);
+        try (loader) {
+            loader.watch();
+            Files.createDirectories(folder);
+            Thread.sleep(HeaderLoader.RELOAD_DEBOUNCE.toMillis() * 2);
+            Files.writeString(folder.resolve("parts.json"), "{\"name\": \"Parts\", \"headers\": [\"Part\", \"Qty\"]}");
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (loader.getHeaders().stream().noneMatch(header -> header.name().equals("Parts"))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(List.of("Part", "Qty"), find(loader.getHeaders(), "Parts").headers());
+        }
+    }
+
+    private static HeaderDefinition find(List<HeaderDefinition> headers, String name) {
+        return headers.stream().filter(header -> header.name().equals(name)).findFirst().orElseThrow();
+    }
+}
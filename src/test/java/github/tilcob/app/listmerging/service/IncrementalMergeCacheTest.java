@@ -0,0 +1,71 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalMergeCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final HeaderDefinition parts = new HeaderDefinition(
+            "Parts", List.of("Part", "Qty"), null, HeaderDefinition.HeaderPosition.FIRST, "Qty", null);
+    private final HeaderDefinition people = new HeaderDefinition(
+            "People", List.of("Name", "Amount"), null, HeaderDefinition.HeaderPosition.FIRST, "Amount", null);
+
+    @Test
+    void shouldRebuildOnlyGroupsWithChangedFiles() throws Exception {
+        File first = write("parts-1.csv", "Part;Qty\nBolt;2\n");
+        File second = write("parts-2.csv", "Part;Qty\nBolt;3\n");
+        File names = write("people.csv", "Name;Amount\nAlice;10\n");
+        IncrementalMergeCache cache = new IncrementalMergeCache(new MergeService());
+
+        IncrementalMergeCache.Update initial = cache.update(List.of(first, second, names), List.of(parts, people));
+        assertEquals(3, initial.readFiles().size());
+        assertEquals(new AggregationResult(2, new BigDecimal("5")), cache.result().get(parts).get(List.of("Bolt")));
+
+        write("parts-2.csv", "Part;Qty\nBolt;3\nNut;7\n");
+        assertTrue(second.setLastModified(second.lastModified() + 2000));
+        IncrementalMergeCache.Update update = cache.update(List.of(first, second, names), List.of(parts, people));
+
+        assertEquals(List.of(second.getAbsoluteFile()), update.readFiles());
+        assertEquals(Set.of(parts), update.changedGroups());
+        assertEquals(new AggregationResult(1, new BigDecimal("7")), cache.result().get(parts).get(List.of("Nut")));
+        assertEquals(new AggregationResult(1, new BigDecimal("10")), cache.result().get(people).get(List.of("Alice")));
+    }
+
+    @Test
+    void shouldDropGroupWhenItsLastFileIsRemoved() throws Exception {
+        File first = write("parts.csv", "Part;Qty\nBolt;2\n");
+        File names = write("people.csv", "Name;Amount\nAlice;10\n");
+        IncrementalMergeCache cache = new IncrementalMergeCache(new MergeService());
+        cache.update(List.of(first, names), List.of(parts, people));
+
+        IncrementalMergeCache.Update update = cache.update(List.of(first), List.of(parts, people));
+
+        assertTrue(update.readFiles().isEmpty());
+        assertEquals(Set.of(people), update.changedGroups());
+        assertEquals(Set.of(parts), cache.result().keySet());
+        assertEquals(1, cache.fileCount());
+        assertFalse(cache.update(List.of(first), List.of(parts, people)).changed());
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+}
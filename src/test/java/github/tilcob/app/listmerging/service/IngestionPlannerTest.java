@@ -0,0 +1,215 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.model.AggregateSpec;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionPlannerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MergeService service = new MergeService();
+
+    @Test
+    void shouldProduceSameResultWithEveryEngine() throws Exception {
+        File first = createCsv("first.csv", "Name;Amount\nAlice;10\n\nBob;5,5\nAlice;1\nAlice;10\n;\nCarol;7\n");
+        File last = createCsv("last.csv", "x;1\ny;2\nx;1\n\nItem;Qty\n\n");
+        List<File> files = List.of(first, last);
+        List<HeaderDefinition> headers = List.of(header(), trailerHeader());
+        List<String> expectedRows = new ArrayList<>();
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> expected =
+                service.merge(files, headers, recordingListener(expectedRows));
+
+        for (IngestionPlanner.Engine engine : IngestionPlanner.Engine.values()) {
+            IngestionPlanner.Plan plan = planner(engine).plan(files, headers, engine == IngestionPlanner.Engine.SPILL_TO_DISK);
+            assertEquals(engine, plan.forFile(first).engine());
+            List<String> rows = new ArrayList<>();
+            MergeService.RowListener rowListener = engine == IngestionPlanner.Engine.SPILL_TO_DISK
+                    ? recordingListener(rows)
+                    : MergeService.RowListener.NONE;
+
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                    service.merge(files, headers, rowListener, MergeService.ProgressListener.NONE, plan);
+
+            assertEquals(expected, merged, engine.name());
+            if (engine == IngestionPlanner.Engine.SPILL_TO_DISK) {
+                assertEquals(expectedRows, rows);
+            }
+        }
+    }
+
+    @Test
+    void shouldReadCachedFormulaResultsWithEveryExcelEngine() throws Exception {
+        File workbookFile = tempDir.resolve("formulas.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Parts");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Amount");
+            Row formula = sheet.createRow(1);
+            formula.createCell(0).setCellValue("Alice");
+            formula.createCell(1).setCellFormula("2*5");
+            Row value = sheet.createRow(2);
+            value.createCell(0).setCellValue("Bob");
+            value.createCell(1).setCellValue(3);
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            try (OutputStream out = new FileOutputStream(workbookFile)) {
+                workbook.write(out);
+            }
+        }
+        List<File> files = List.of(workbookFile);
+        List<HeaderDefinition> headers = List.of(header());
+
+        for (IngestionPlanner.Engine engine : List.of(IngestionPlanner.Engine.IN_MEMORY, IngestionPlanner.Engine.STREAMING)) {
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = service.merge(files, headers,
+                    MergeService.RowListener.NONE, MergeService.ProgressListener.NONE,
+                    planner(engine).plan(files, headers, false));
+
+            assertEquals(new AggregationResult(1, new BigDecimal("10")), merged.get(header()).get(List.of("Alice")),
+                    engine.name());
+        }
+    }
+
+    @Test
+    void shouldGroupByKeyColumnsWithEveryEngine() throws Exception {
+        File first = createCsv("wide.csv", "Name;Note;Material;Amount\nPipe;a;S235;10\n\nPipe;b;S235;2\nFlange;c;S235;1\n");
+        File last = createCsv("wide-last.csv", "Pipe;d;S355;4\nPipe;e;S235;3\nName;Note;Material;Amount\n");
+        HeaderDefinition projected = new HeaderDefinition("Wide", List.of("Name", "Note", "Material", "Amount"), null,
+                HeaderDefinition.HeaderPosition.FIRST, "Amount", null, null, List.of("Material", "name"), null);
+        HeaderDefinition projectedLast = new HeaderDefinition("WideLast", projected.headers(), null,
+                HeaderDefinition.HeaderPosition.LAST, "Amount", null, null, List.of("Material", "name"), null);
+        List<File> files = List.of(first, last);
+        List<HeaderDefinition> headers = List.of(projected, projectedLast);
+
+        for (IngestionPlanner.Engine engine : IngestionPlanner.Engine.values()) {
+            boolean tees = engine == IngestionPlanner.Engine.IN_MEMORY || engine == IngestionPlanner.Engine.SPILL_TO_DISK;
+            ReferenceAggregator reference = new ReferenceAggregator(headers);
+            IngestionPlanner.Plan plan = planner(engine).plan(files, headers, tees);
+            Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = service.merge(files, headers,
+                    tees ? reference : MergeService.RowListener.NONE, MergeService.ProgressListener.NONE, plan);
+
+            assertEquals(Map.of(
+                    List.of("S235", "Pipe"), new AggregationResult(2, new BigDecimal("12")),
+                    List.of("S235", "Flange"), new AggregationResult(1, new BigDecimal("1"))), merged.get(projected),
+                    engine.name());
+            assertEquals(Map.of(
+                    List.of("S355", "Pipe"), new AggregationResult(1, new BigDecimal("4")),
+                    List.of("S235", "Pipe"), new AggregationResult(1, new BigDecimal("3"))), merged.get(projectedLast),
+                    engine.name());
+            if (tees) {
+                assertEquals(2, reference.result().get("Wide").size());
+                assertEquals(2, reference.result().get("WideLast").size());
+            }
+        }
+    }
+
+    @Test
+    void shouldComputeAggregatesInOnePassWithEveryEngine() throws Exception {
+        File file = createCsv("montage.csv",
+                "Bolt;2;10,5\nBolt;1;9\nNut;4;n/a\nBolt;3;12\nPOS-NR.;Anzahl;Gewicht [g]\n");
+        HeaderDefinition montage = new HeaderDefinition("Montage", List.of("POS-NR.", "Anzahl", "Gewicht [g]"), null,
+                HeaderDefinition.HeaderPosition.LAST, "Anzahl", null, null, List.of("POS-NR."), List.of(
+                new AggregateSpec("Gewicht [g]", AggregateSpec.Function.SUM),
+                new AggregateSpec("gewicht [g]", AggregateSpec.Function.MIN),
+                new AggregateSpec("Gewicht [g]", AggregateSpec.Function.MAX, "Heaviest"),
+                new AggregateSpec("Gewicht [g]", AggregateSpec.Function.AVG)));
+
+        for (IngestionPlanner.Engine engine : IngestionPlanner.Engine.values()) {
+            IngestionPlanner.Plan plan = planner(engine).plan(List.of(file), List.of(montage), false);
+            Map<List<String>, AggregationResult> rows = service.merge(List.of(file), List.of(montage),
+                    MergeService.RowListener.NONE, MergeService.ProgressListener.NONE, plan).get(montage);
+
+            AggregationResult bolts = rows.get(List.of("Bolt"));
+            assertNotNull(bolts);
+            assertEquals(3, bolts.rowCount());
+            assertEquals(0, new BigDecimal("6").compareTo(bolts.sumValue()));
+            assertEquals(31.5, bolts.aggregate(0, AggregateSpec.Function.SUM), 1e-9);
+            assertEquals(9, bolts.aggregate(0, AggregateSpec.Function.MIN), 1e-9);
+            assertEquals(12, bolts.aggregate(0, AggregateSpec.Function.MAX), 1e-9);
+            assertEquals(10.5, bolts.aggregate(0, AggregateSpec.Function.AVG), 1e-9);
+            assertTrue(Double.isNaN(rows.get(List.of("Nut")).aggregate(0, AggregateSpec.Function.MAX)));
+        }
+    }
+
+    @Test
+    void shouldReportFilesWithoutMatchingHeaderBeforeParsing() throws Exception {
+        File known = createCsv("known.csv", "Name;Amount\nAlice;10\n");
+        File unknown = createCsv("unknown.csv", "Foo;Bar;Baz\n1;2;3\n");
+
+        IngestionPlanner.Plan plan = new IngestionPlanner(service)
+                .plan(List.of(known, unknown), List.of(header()), false);
+
+        assertEquals("Main", plan.forFile(known).header().name());
+        assertEquals(List.of(unknown), plan.undetectable().stream().map(IngestionPlanner.FilePlan::file).toList());
+    }
+
+    @Test
+    void shouldChooseEngineBySizeAndRowListener() throws Exception {
+        File csv = createCsv("data.csv", "Name;Amount\nAlice;10\nBob;5\nAlice;1\n".repeat(8));
+        IngestionPlanner.Thresholds small = new IngestionPlanner.Thresholds(1024, 1024, 4096, 16, 4, null);
+        IngestionPlanner.Thresholds large = new IngestionPlanner.Thresholds(64, 64, 128, 16, 4, null);
+
+        assertEquals(IngestionPlanner.Engine.IN_MEMORY,
+                new IngestionPlanner(service, small).plan(List.of(csv), List.of(header()), false).forFile(csv).engine());
+        IngestionPlanner.FilePlan parallel =
+                new IngestionPlanner(service, large).plan(List.of(csv), List.of(header()), false).forFile(csv);
+        assertEquals(IngestionPlanner.Engine.PARALLEL, parallel.engine());
+        assertEquals(4, parallel.parallelism());
+        assertEquals(3, parallel.estimatedKeys());
+        assertEquals(IngestionPlanner.Engine.SPILL_TO_DISK,
+                new IngestionPlanner(service, large).plan(List.of(csv), List.of(header()), true).forFile(csv).engine());
+    }
+
+    private IngestionPlanner planner(IngestionPlanner.Engine engine) {
+        return new IngestionPlanner(service, new IngestionPlanner.Thresholds(0, 0, 0, 16, 4, engine));
+    }
+
+    private MergeService.RowListener recordingListener(List<String> rows) {
+        return (file, firstRow, lastRow, lastRowIndex) -> new MergeService.RowListener.FileRows() {
+            @Override
+            public void row(int rowIndex, List<String> cells) {
+                rows.add(file.getName() + ":" + rowIndex + ":" + cells);
+            }
+
+            @Override
+            public void complete() {
+                rows.add(file.getName() + ":complete");
+            }
+        };
+    }
+
+    private HeaderDefinition header() {
+        return new HeaderDefinition("Main", List.of("Name", "Amount"), null,
+                HeaderDefinition.HeaderPosition.FIRST, "Amount", null);
+    }
+
+    private HeaderDefinition trailerHeader() {
+        return new HeaderDefinition("Trailer", List.of("Item", "Qty"), null,
+                HeaderDefinition.HeaderPosition.LAST, "Qty", null);
+    }
+
+    private File createCsv(String name, String content) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+}
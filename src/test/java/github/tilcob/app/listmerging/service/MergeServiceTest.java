@@ -0,0 +1,195 @@
+package github.tilcob.app.listmerging.service;
+
+import github.tilcob.app.listmerging.metrics.MergeMetrics;
+import github.tilcob.app.listmerging.model.AggregateSpec;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.model.RowFilter;
+import github.tilcob.app.listmerging.model.ValidationContext;
+import github.tilcob.app.listmerging.service.MergeService.RowListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MergeService service = new MergeService();
+
+    @Test
+    void shouldReportRowsAndBytesWhenFileIsRead() throws Exception {
+        File csv = createCsv("Name;Amount\nAlice;10\nBob;5\n");
+        List<long[]> progress = new ArrayList<>();
+
+        service.merge(List.of(csv), List.of(header()), MergeService.RowListener.NONE,
+                (file, rowsRead, bytesRead) -> progress.add(new long[]{rowsRead, bytesRead}));
+
+        long[] last = progress.get(progress.size() - 1);
+        assertEquals(3, last[0]);
+        assertEquals(csv.length(), last[1]);
+    }
+
+    @Test
+    void shouldReportFileMetricsWhenFileIsAggregated() throws Exception {
+        File csv = createCsv("Name;Amount\nAlice;10\nBob;5\nAlice;1\n");
+        List<MergeMetrics.FileMetrics> completed = new ArrayList<>();
+
+        service.merge(List.of(csv), List.of(header()), MergeService.RowListener.NONE, new MergeService.ProgressListener() {
+            @Override
+            public void fileProgress(File file, long rowsRead, long bytesRead) {
+            }
+
+            @Override
+            public void fileCompleted(MergeMetrics.FileMetrics metrics) {
+                completed.add(metrics);
+            }
+        });
+
+        assertEquals(1, completed.size());
+        MergeMetrics.FileMetrics metrics = completed.get(0);
+        assertEquals("Main", metrics.header());
+        assertEquals(4, metrics.rows());
+        assertEquals(csv.length(), metrics.bytes());
+        assertEquals(2, metrics.distinctKeys());
+    }
+
+    @Test
+    void shouldStopMergingWhenThreadIsInterrupted() throws IOException {
+        File csv = createCsv("Name;Amount\nAlice;10\n");
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> service.merge(List.of(csv), List.of(header())));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void shouldMergeOnlyRowsAcceptedByRowFilters() throws Exception {
+        File csv = createCsv("Name;Material;Amount\nPipe;S235;10\nPipe;s235JR;2\nPipe;S355;4\n"
+                + "Flange;S235;1\nPipe;P265;7\n");
+        HeaderDefinition filtered = new HeaderDefinition("Main", List.of("Name", "Material", "Amount"), null,
+                HeaderDefinition.HeaderPosition.FIRST, "Amount", null, List.of(
+                new RowFilter("material", RowFilter.Type.PREFIX, "S2", null, null),
+                new RowFilter("Amount", RowFilter.Type.RANGE, null, 2.0, null)), null, null);
+        ReferenceAggregator reference = new ReferenceAggregator(List.of(filtered));
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                service.merge(List.of(csv), List.of(filtered), reference);
+
+        assertEquals(Map.of(
+                List.of("Pipe", "S235"), new AggregationResult(1, new BigDecimal("10")),
+                List.of("Pipe", "s235JR"), new AggregationResult(1, new BigDecimal("2"))), merged.get(filtered));
+        assertEquals(2, reference.result().get("Main").size());
+    }
+
+    @Test
+    void shouldMergePipelinedLikeStaged() throws Exception {
+        HeaderDefinition other = new HeaderDefinition("Other", List.of("Item", "Qty"), null,
+                HeaderDefinition.HeaderPosition.LAST, "Qty", null);
+        List<HeaderDefinition> headers = List.of(header(), other);
+        List<File> files = List.of(
+                createCsv("a.csv", "Name;Amount\nAlice;10\nBob;5\n"),
+                createCsv("b.csv", "Bolt;3\nNut;4\nBolt;1\nItem;Qty\n"),
+                createCsv("c.csv", "Name;Amount\nCarol;\"7\"\n"),
+                createCsv("d.csv", "Nut;6\nItem;Qty\n"),
+                createCsv("e.csv", "Name;Amount\nBob;1\nAlice;2\n"));
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> released = new LinkedHashMap<>();
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> staged = service.merge(files, headers);
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> pipelined = service.mergePipelined(
+                files, headers, 3, MergeService.RowListener.NONE,
+                (header, rows) -> assertNull(released.put(header, rows)));
+
+        assertEquals(staged, pipelined);
+        assertEquals(staged, released);
+        assertEquals(new AggregationResult(2, new BigDecimal("12")), pipelined.get(header()).get(List.of("Alice")));
+        assertEquals(new AggregationResult(2, new BigDecimal("10")), pipelined.get(other).get(List.of("Nut")));
+    }
+
+    @Test
+    void shouldDecodeOnlyNeededCsvCellsAndKeepTheReferenceInAgreement() throws Exception {
+        HeaderDefinition parts = new HeaderDefinition("Parts", List.of("Part", "Note", "Qty"), null,
+                HeaderDefinition.HeaderPosition.FIRST, "Qty", null, null, List.of("Part"), null);
+        File file = createCsv("parts.csv", "Part;Note;Qty\nBolt;first;3\nNut;;1\n;only a note;\nBolt;second;2\n");
+        List<List<String>> seen = new ArrayList<>();
+        RowListener recorder = (f, firstRow, lastRow, lastRowIndex) -> new RowListener.FileRows() {
+            @Override
+            public boolean needs(int column) {
+                return false;
+            }
+
+            @Override
+            public void row(int rowIndex, List<String> cells) {
+                seen.add(cells);
+            }
+
+            @Override
+            public void complete() {
+            }
+        };
+
+        Map<List<String>, AggregationResult> rows = service.merge(List.of(file), List.of(parts), recorder)
+                .get(parts);
+        ReferenceAggregator reference = new ReferenceAggregator(List.of(parts));
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                service.merge(List.of(file), List.of(parts), reference);
+
+        assertEquals(new AggregationResult(2, new BigDecimal("5")), rows.get(List.of("Bolt")));
+        assertEquals(new AggregationResult(1, BigDecimal.ZERO), rows.get(List.of("")));
+        assertEquals(List.of("Bolt", "", "3"), seen.get(1));
+        assertTrue(new MergeValidationService().validate(merged, ValidationContext.defaults(), reference).valid());
+    }
+
+    @Test
+    void shouldKeepAggregationResultsUnchangedWhenTheirAccumulatorsAreModified() {
+        double[] slots = AggregationResult.emptyAccumulators(1);
+        slots[AggregationResult.SUM] = 5;
+        slots[AggregationResult.VALUES] = 1;
+        AggregationResult left = new AggregationResult(1, BigDecimal.ONE, slots);
+        AggregationResult sum = left.add(new AggregationResult(1, BigDecimal.ONE));
+
+        slots[AggregationResult.SUM] = 100;
+        left.accumulators()[AggregationResult.SUM] = 100;
+        sum.accumulators()[AggregationResult.SUM] = 100;
+
+        assertEquals(5.0, left.accumulator(AggregationResult.SUM));
+        assertEquals(5.0, sum.aggregate(0, AggregateSpec.Function.SUM));
+    }
+
+    private HeaderDefinition header() {
+        return new HeaderDefinition(
+                "Main",
+                List.of("Name", "Amount"),
+                null,
+                HeaderDefinition.HeaderPosition.FIRST,
+                "Amount",
+                null
+        );
+    }
+
+    private File createCsv(String content) throws IOException {
+        return createCsv("sample.csv", content);
+    }
+
+    private File createCsv(String name, String content) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+}
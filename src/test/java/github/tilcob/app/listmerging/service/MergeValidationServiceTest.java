@@ -1,19 +1,23 @@
 package github.tilcob.app.listmerging.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opencsv.exceptions.CsvException;
 import github.tilcob.app.listmerging.model.*;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -170,6 +174,117 @@ class MergeValidationServiceTest {
         assertTrue(report.issues().stream().map(ValidationIssue::details).anyMatch(details -> details != null && details.contains("key=")));
     }
 
+    @Test
+    void shouldValidateAgainstReferenceCollectedDuringMerge() throws IOException, CsvException {
+        File csv = createCsv("Name;Amount\nAlice;10\nBob;5\n\nalice ;2,5\n");
+        HeaderDefinition header = new HeaderDefinition(
+                "Main",
+                List.of("Name", "Amount"),
+                null,
+                HeaderDefinition.HeaderPosition.FIRST,
+                "Amount",
+                "(\\d+[\\.,]?\\d*)"
+        );
+        ReferenceAggregator reference = new ReferenceAggregator(List.of(header));
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                new MergeService().merge(List.of(csv), List.of(header), reference);
+
+        ValidationContext context = new ValidationContext(Map.of(), new BigDecimal("0.01"), 2, true, true);
+        ValidationReport report = service.validate(merged, context, reference);
+
+        assertTrue(report.valid());
+        assertTrue(reference.result().get("Main").containsKey("alice"));
+    }
+
+    @Test
+    void shouldAcceptMatchingFingerprintsCollectedDuringMerge() throws IOException, CsvException {
+        File csv = createCsv("Name;Amount\nAlice;10\nBob;5\n\nalice ;2,5\n");
+        HeaderDefinition header = header("Main", "Amount");
+        ReferenceAggregator reference = new ReferenceAggregator(List.of(header), ValidationContext.ReferenceMode.FINGERPRINT);
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                new MergeService().merge(List.of(csv), List.of(header), reference);
+
+        ValidationReport report = service.validate(merged, fingerprintContext(), reference, List.of(csv), List.of(header));
+
+        assertTrue(report.valid());
+        assertTrue(reference.result().isEmpty());
+    }
+
+    @Test
+    void shouldFallBackToDetailedDiffWhenFingerprintsDiffer() throws IOException, CsvException {
+        File csv = createCsv("Name;Amount\nAlice;10\nBob;5\n");
+        HeaderDefinition header = header("Main", "Amount");
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = mergedData(
+                header,
+                Map.of(List.of("Alice"), new AggregationResult(1, new BigDecimal("10")))
+        );
+
+        ValidationReport report = service.validate(merged, fingerprintContext(), List.of(csv), List.of(header));
+
+        assertFalse(report.valid());
+        assertTrue(report.issues().stream().map(ValidationIssue::code).anyMatch("REFERENCE_MISSING_KEY"::equals));
+    }
+
+    @Test
+    void shouldReportReferenceIssuesInDeterministicOrderWhenRunInParallel() throws IOException, CsvException {
+        HeaderDefinition main = header("Main", "Amount");
+        HeaderDefinition other = new HeaderDefinition(
+                "Other",
+                List.of("Item", "Amount"),
+                null,
+                HeaderDefinition.HeaderPosition.FIRST,
+                "Amount",
+                "(\\d+[\\.,]?\\d*)"
+        );
+        List<File> files = List.of(
+                createCsv("Name;Amount\nCarol;1\nAlice;10\n", "a.csv"),
+                createCsv("Item;Amount\nBolt;3\nNut;2\n", "b.csv"),
+                createCsv("Name;Amount\nBob;5\n", "c.csv")
+        );
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = new HashMap<>();
+        merged.put(main, Map.of(List.of("Alice"), new AggregationResult(1, new BigDecimal("10"))));
+        merged.put(other, Map.of());
+        ValidationContext context = new ValidationContext(Map.of(), new BigDecimal("0.01"), 2, true, true);
+
+        ValidationReport report = new MergeValidationService(4).validate(merged, context, files, List.of(main, other));
+
+        assertEquals(
+                List.of("missingKey=bob", "missingKey=carol", "missingKey=bolt", "missingKey=nut"),
+                report.issues().stream().map(ValidationIssue::details).toList());
+    }
+
+    @Test
+    void shouldCapIssuesPerCodeAndStreamAllOfThem() throws IOException, CsvException {
+        File csv = createCsv("Name;Amount\nAlice;10\nBob;5\nCarol;1\n");
+        HeaderDefinition header = header("Main", "Amount");
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged = mergedData(
+                header,
+                Map.of(List.of("Alice"), new AggregationResult(1, new BigDecimal("10")))
+        );
+        ValidationContext context = new ValidationContext(Map.of(), new BigDecimal("0.01"), 2, true, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ValidationReport report;
+        try (ValidationReportWriter writer =
+                     new ValidationReportWriter(new ObjectMapper(), out, ValidationReportWriter.Format.NDJSON)) {
+            report = service.validate(merged, context, null, List.of(csv), List.of(header),
+                    new ValidationIssueCollector(1, writer));
+            writer.finish(report);
+        }
+
+        assertFalse(report.valid());
+        assertEquals(1, report.issues().size());
+        assertEquals(Long.valueOf(2), report.issueCounts().get("REFERENCE_MISSING_KEY"));
+        assertTrue(report.truncated());
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1).contains("missingKey=carol"));
+        assertTrue(lines.get(2).contains("\"totalIssues\":2"));
+    }
+
     private Map<HeaderDefinition, Map<List<String>, AggregationResult>> mergedData(
             HeaderDefinition header,
             Map<List<String>, AggregationResult> values
@@ -198,6 +313,11 @@ class MergeValidationServiceTest {
         );
     }
 
+    private ValidationContext fingerprintContext() {
+        return new ValidationContext(Map.of(), new BigDecimal("0.01"), 2, true, true,
+                ValidationContext.ReferenceMode.FINGERPRINT);
+    }
+
     private File createCsv(String content) throws IOException {
         return createCsv(content, "sample.csv");
     }
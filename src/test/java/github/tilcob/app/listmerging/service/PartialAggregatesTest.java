@@ -0,0 +1,84 @@
+package github.tilcob.app.listmerging.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.model.AggregateSpec;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartialAggregatesTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MergeService service = new MergeService();
+    private final PartialAggregates partials = new PartialAggregates();
+
+    @Test
+    void shouldReducePartialsToTheResultOfOneMerge() throws Exception {
+        HeaderDefinition header = new HeaderDefinition("Main", List.of("Name", "Weight", "Amount"), null,
+                HeaderDefinition.HeaderPosition.FIRST, "Amount", null, null, List.of("Name"),
+                List.of(new AggregateSpec("Weight", AggregateSpec.Function.MAX)));
+        File a = createCsv("a.csv", "Name;Weight;Amount\nAlice;3;10\nBob;1;5,5\nAlice;4;1\n");
+        File b = createCsv("b.csv", "Name;Weight;Amount\nAlice;9;2\nCarol;2;7\n");
+        File c = createCsv("c.csv", "Foo;Bar\n1;2\n");
+        List<HeaderDefinition> headers = List.of(header);
+
+        File first = partials.write(service.merge(List.of(a), headers), 4, tempDir.resolve("1.lmp").toFile());
+        File second = partials.write(service.merge(List.of(b, c), headers), 4, tempDir.resolve("2.lmp").toFile());
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> reduced = partials.reduce(List.of(first, second));
+
+        assertEquals(service.merge(List.of(a, b, c), headers), reduced);
+        assertEquals(9, reduced.get(header).get(List.of("Alice")).aggregate(0, AggregateSpec.Function.MAX), 1e-9);
+    }
+
+    @Test
+    void shouldMergeMoreRunsThanCanBeOpenAtOnce() throws Exception {
+        HeaderDefinition header = new HeaderDefinition("Main", List.of("Name", "Amount"), null,
+                HeaderDefinition.HeaderPosition.FIRST, "Amount", null, null, List.of("Name"), null);
+        List<HeaderDefinition> headers = List.of(header);
+        PartialAggregates bounded = new PartialAggregates(new ObjectMapper(), 2);
+        List<File> inputs = new ArrayList<>();
+        List<File> written = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            File input = createCsv(i + ".csv", "Name;Amount\nAlice;" + i + "\nBob;1\nName" + i + ";2\n");
+            inputs.add(input);
+            written.add(bounded.write(service.merge(List.of(input), headers), 2,
+                    tempDir.resolve(i + ".lmp").toFile()));
+        }
+
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> reduced = bounded.reduce(written);
+
+        assertEquals(service.merge(inputs, headers), reduced);
+        assertEquals(5, reduced.get(header).get(List.of("Bob")).rowCount());
+    }
+
+    @Test
+    void shouldRejectPartialsWithDifferentPartitionCounts() throws Exception {
+        HeaderDefinition header = new HeaderDefinition("Main", List.of("Name", "Amount"));
+        Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged =
+                Map.of(header, Map.of(List.of("Alice", "1"), new AggregationResult(1, null)));
+        File first = partials.write(merged, 2, tempDir.resolve("1.lmp").toFile());
+        File second = partials.write(merged, 3, tempDir.resolve("2.lmp").toFile());
+
+        assertThrows(IOException.class, () -> partials.reduce(List.of(first, second)));
+        assertThrows(IOException.class, () -> partials.reduce(List.of(createCsv("x.lmp", "not a partial"))));
+    }
+
+    private File createCsv(String name, String content) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+}
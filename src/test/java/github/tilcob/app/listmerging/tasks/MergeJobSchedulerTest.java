@@ -0,0 +1,66 @@
+package github.tilcob.app.listmerging.tasks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeJobSchedulerTest {
+
+    @Test
+    void shouldAdmitJobsWithinBudgetByPriority() throws Exception {
+        MergeJobScheduler scheduler = new MergeJobScheduler(100, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch smallStarted = new CountDownLatch(1);
+        CountDownLatch largeStarted = new CountDownLatch(1);
+        try {
+            scheduler.submit("first", 60, MergeJobScheduler.Priority.NORMAL, () -> await(release));
+            scheduler.submit("large", 60, MergeJobScheduler.Priority.NORMAL, largeStarted::countDown);
+            scheduler.submit("small", 30, MergeJobScheduler.Priority.HIGH, smallStarted::countDown);
+
+            assertTrue(smallStarted.await(5, TimeUnit.SECONDS));
+            assertFalse(largeStarted.await(100, TimeUnit.MILLISECONDS));
+            assertEquals(List.of("large"), scheduler.state().queued());
+
+            release.countDown();
+            assertTrue(largeStarted.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void shouldRunOversizedJobAloneAndDropCancelledTickets() throws Exception {
+        MergeJobScheduler scheduler = new MergeJobScheduler(100, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch oversizedStarted = new CountDownLatch(1);
+        try {
+            scheduler.submit("oversized", 500, MergeJobScheduler.Priority.NORMAL, () -> {
+                oversizedStarted.countDown();
+                await(release);
+            });
+            MergeJobScheduler.Ticket waiting = scheduler.submit("waiting", 10, MergeJobScheduler.Priority.NORMAL, () -> {
+            });
+
+            assertTrue(oversizedStarted.await(5, TimeUnit.SECONDS));
+            assertEquals(100, scheduler.state().reservedBytes());
+            assertTrue(waiting.cancel());
+            assertTrue(scheduler.state().queued().isEmpty());
+        } finally {
+            release.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
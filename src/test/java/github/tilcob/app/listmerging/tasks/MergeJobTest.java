@@ -0,0 +1,97 @@
+package github.tilcob.app.listmerging.tasks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import github.tilcob.app.listmerging.metrics.MergeMetrics;
+import github.tilcob.app.listmerging.model.AggregationResult;
+import github.tilcob.app.listmerging.model.HeaderDefinition;
+import github.tilcob.app.listmerging.model.ValidationContext;
+import github.tilcob.app.listmerging.model.ValidationIssue;
+import github.tilcob.app.listmerging.model.ValidationReport;
+import github.tilcob.app.listmerging.service.ExportService;
+import github.tilcob.app.listmerging.service.HeaderLoader;
+import github.tilcob.app.listmerging.service.MergeService;
+import github.tilcob.app.listmerging.service.MergeValidationService;
+import github.tilcob.app.listmerging.service.ReferenceAggregator;
+import github.tilcob.app.listmerging.service.ValidationIssueCollector;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeJobTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldCommitThePipelinedWorkbookWhenValidationPasses() throws Exception {
+        Path output = Files.createDirectories(tempDir.resolve("out"));
+
+        MergeJob.Result result = job(output, MergeJobOptions.ExecutionMode.PIPELINED, new MergeValidationService())
+                .run(MergeJob.Listener.NONE);
+
+        assertTrue(result.validationReport().valid());
+        assertEquals(output.resolve(ExportService.EXPORT_FILE_NAME).toFile(), result.exportFile());
+        assertTrue(Files.isRegularFile(output.resolve(ExportService.EXPORT_FILE_NAME)));
+        assertFalse(Files.exists(output.resolve(ExportService.EXPORT_FILE_NAME + ".part")));
+    }
+
+    @Test
+    void shouldDiscardThePipelinedWorkbookWhenValidationFails() throws Exception {
+        Path output = Files.createDirectories(tempDir.resolve("out"));
+        Path previous = Files.writeString(output.resolve(ExportService.EXPORT_FILE_NAME), "previous export");
+
+        MergeJob job = job(output, MergeJobOptions.ExecutionMode.PIPELINED, failingValidation());
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> job.run(MergeJob.Listener.NONE));
+        assertTrue(e.getMessage().contains("Export aborted"), e.getMessage());
+        assertEquals("previous export", Files.readString(previous));
+        assertFalse(Files.exists(output.resolve(ExportService.EXPORT_FILE_NAME + ".part")));
+    }
+
+    @Test
+    void shouldCommitTheSpeculativeWorkbookAndRemoveThePartialFile() throws Exception {
+        Path output = Files.createDirectories(tempDir.resolve("out"));
+        Files.writeString(output.resolve(ExportService.EXPORT_FILE_NAME), "previous export");
+
+        MergeJob.Result result = job(output, MergeJobOptions.ExecutionMode.SPECULATIVE, new MergeValidationService())
+                .run(MergeJob.Listener.NONE);
+
+        assertTrue(result.validationReport().valid());
+        assertEquals(output.resolve(ExportService.EXPORT_FILE_NAME).toFile(), result.exportFile());
+        assertNotEquals("previous export", Files.readString(output.resolve(ExportService.EXPORT_FILE_NAME)));
+        assertFalse(Files.exists(output.resolve(ExportService.EXPORT_FILE_NAME + ".part")));
+    }
+
+    private MergeJob job(Path output, MergeJobOptions.ExecutionMode mode, MergeValidationService validation)
+            throws Exception {
+        File input = Files.writeString(tempDir.resolve("input.csv"), "Name;Amount\nAlice;10\nBob;5\nAlice;2\n")
+                .toFile();
+        MergeJobOptions options = new MergeJobOptions(ValidationContext.defaults(), false, false, null,
+                MergeJobOptions.ExportFormat.XLSX, mode);
+        return new MergeJob(List.of(input), output.toFile(), new HeaderLoader(tempDir.resolve("headers")),
+                new MergeService(), new ExportService(), validation, options, new ObjectMapper());
+    }
+
+    private static MergeValidationService failingValidation() {
+        return new MergeValidationService() {
+            @Override
+            public ValidationReport validate(Map<HeaderDefinition, Map<List<String>, AggregationResult>> merged,
+                                             ValidationContext context,
+                                             ReferenceAggregator reference,
+                                             List<File> files,
+                                             List<HeaderDefinition> headers,
+                                             ValidationIssueCollector issues,
+                                             MergeMetrics metrics) {
+                return ValidationReport.failure(List.of(
+                        new ValidationIssue(ValidationIssue.COUNT_MISMATCH, "Row count differs.")));
+            }
+        };
+    }
+}